@@ -0,0 +1,57 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmark suite with the GC profiler attached, which
+ * reports the allocation rate and normalized bytes per operation next to
+ * every score.
+ *
+ * JMH is not shipped with JEPOS. Compile the {@code bench} sources with
+ * {@code jmh-core} and {@code jmh-generator-annprocess} (1.37 or later) on
+ * the classpath, so that the annotation processor generates the benchmark
+ * harness, then run:
+ * <pre>
+ * java -cp JEPOS.jar:bench:JCANOpen.jar:jmh-core.jar:... ch.dermitza.epos2.bench.Benchmarks
+ * </pre>
+ * Any standard JMH command line options may be appended, e.g. a regular
+ * expression selecting the benchmarks to run, {@code -f 1} or
+ * {@code -prof stack}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options opt = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.sim.SimulatedEPOS2;
+import ch.dermitza.epos2.sim.VirtualCanBus;
+import ch.dermitza.epos2.sim.VirtualCanPort;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time {@link EPOS2#enableController()} takes to bring a simulated drive
+ * from switch on disabled, or from a fault, to switched on. The bus runs
+ * at 1 Mbit/s with the given latency.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BringUpBenchmark {
+
+    @Param({"0", "200"})
+    public int latencyMicros;
+    @Param({"false", "true"})
+    public boolean fromFault;
+    @Param({"false", "true"})
+    public boolean processData;
+    private VirtualCanBus bus;
+    private SimulatedEPOS2 node;
+    private EPOS2Transceiver trans;
+    private EPOS2 epos;
+
+    @Setup
+    public void setup() {
+        bus = new VirtualCanBus(VirtualCanBus.DEFAULT_BITRATE);
+        bus.setLatency(latencyMicros * 1000L);
+        node = bus.addNode((short) 1);
+        VirtualCanPort port = bus.openPort();
+        trans = new EPOS2Transceiver();
+        trans.setReader(port);
+        trans.setWriter(port);
+        bus.start();
+        epos = new EPOS2((short) 1, true);
+        epos.setTranceiver(trans);
+        if (processData && !epos.enableProcessData(EPOS2.PDO_TRANSMISSION_ASYNC, 0, 10000000L)) {
+            throw new IllegalStateException("Could not configure process data");
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        epos.disableVoltage();
+        if (fromFault) {
+            node.injectFault(SimulatedEPOS2.ERROR_GENERIC);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        trans.shutdown();
+        bus.stop();
+    }
+
+    @Benchmark
+    public boolean enableController() {
+        return epos.enableController();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated per EPOS2 call, with and without frame reuse.
+ * The drive is replaced by an in-place loopback that answers every SDO
+ * request immediately, so the figures only reflect the JEPOS command path.
+ *
+ * Run with the JCANOpen jar on the classpath:
+ * <pre>
+ * java -cp JEPOS.jar:bench:JCANOpen.jar ch.dermitza.epos2.bench.FrameAllocationBenchmark
+ * </pre>
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class FrameAllocationBenchmark {
+
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        for (boolean reuse : new boolean[]{false, true}) {
+            EPOS2 epos = new EPOS2((short) 1, reuse);
+            epos.setTranceiver(new LoopbackTransceiver());
+            for (int i = 0; i < WARMUP; i++) {
+                cycle(epos, i);
+            }
+            long before = mx.getThreadAllocatedBytes(tid);
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                cycle(epos, i);
+            }
+            long elapsed = System.nanoTime() - start;
+            long bytes = mx.getThreadAllocatedBytes(tid) - before;
+            System.out.printf("reuseFrames=%-5b %8.2f B/call %8.1f ns/call%n",
+                    reuse, bytes / (ITERATIONS * 4.0), elapsed / (ITERATIONS * 4.0));
+        }
+    }
+
+    private static void cycle(EPOS2 epos, int i) {
+        epos.readPositionActual();
+        epos.readVelocityActual();
+        epos.setTargetVelocity(i);
+        epos.readStatusWord();
+    }
+}
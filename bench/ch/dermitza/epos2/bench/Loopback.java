@@ -0,0 +1,77 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import ch.dermitza.jcanopen.canopen.SDOIF;
+
+/**
+ * CAN reader and writer standing in for a drive that answers every SDO
+ * request immediately. Each request is answered in place: the response is written into the
+ * transceiver's reusable message without allocating once its data array
+ * has been sized.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+class Loopback implements CanReaderIF, CanWriterIF {
+
+    private final byte[] rsp = new byte[8];
+    private int rspID;
+    private boolean pending;
+
+    @Override
+    public boolean writeMessage(CanMessage msg, int timeout) {
+        return writeMessageImmediate(msg);
+    }
+
+    @Override
+    public boolean writeMessageImmediate(CanMessage msg) {
+        byte[] req = msg.getData();
+        boolean write = (req[0] & 0xE0) == 0x20;
+        rspID = msg.getID() - SDOIF.SDO_RX + SDOIF.SDO_TX;
+        rsp[0] = (byte) (write ? SDOIF.SDO_RESPONSE_WRITE_OK : SDOIF.SDO_RESPONSE_READ_OK | 0x03);
+        rsp[1] = req[1];
+        rsp[2] = req[2];
+        rsp[3] = req[3];
+        rsp[4] = write ? 0 : req[1];
+        rsp[5] = write ? 0 : req[2];
+        rsp[6] = 0;
+        rsp[7] = 0;
+        pending = true;
+        return true;
+    }
+
+    @Override
+    public boolean readMessage(CanMessage msg) {
+        if (!pending) {
+            return false;
+        }
+        if (msg.getLength() != rsp.length) {
+            msg.setData(rsp);
+        } else {
+            System.arraycopy(rsp, 0, msg.getData(), 0, rsp.length);
+        }
+        msg.setID(rspID);
+        pending = false;
+        return true;
+    }
+}
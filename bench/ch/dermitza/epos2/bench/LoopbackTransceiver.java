@@ -0,0 +1,50 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import ch.dermitza.jcanopen.canopen.async.AbstractSDOTransceiver;
+import ch.dermitza.jcanopen.canopen.io.PDOReceiverExample;
+
+/**
+ * Transceiver wired to a {@link Loopback}, so that every SDO request is
+ * answered without a bus.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+class LoopbackTransceiver extends AbstractSDOTransceiver<PDOReceiverExample> {
+
+    LoopbackTransceiver() {
+        Loopback lb = new Loopback();
+        setReader(lb);
+        setWriter(lb);
+    }
+
+    @Override
+    public final void setReader(CanReaderIF reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public final void setWriter(CanWriterIF writer) {
+        this.writer = writer;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.EPOS2Async;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.sim.VirtualCanBus;
+import ch.dermitza.epos2.sim.VirtualCanPort;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reads per second across 1, 4 and 16 simulated nodes on a 1 Mbit/s bus.
+ * Each invocation reads the actual position of every node, either one
+ * node after the other through the blocking API or pipelined through
+ * {@link EPOS2Async}. The {@code reads} counter reports the rate of
+ * individual SDO reads.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MultiNodeThroughputBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int nodes;
+    @Param({"200"})
+    public int latencyMicros;
+    private VirtualCanBus bus;
+    private EPOS2Transceiver trans;
+    private EPOS2[] drives;
+    private EPOS2Async[] async;
+    private CompletableFuture<Integer>[] pending;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long reads;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            reads = 0;
+        }
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        bus = new VirtualCanBus(VirtualCanBus.DEFAULT_BITRATE);
+        bus.setLatency(latencyMicros * 1000L);
+        VirtualCanPort port = bus.openPort();
+        trans = new EPOS2Transceiver();
+        trans.setReader(port);
+        trans.setWriter(port);
+        drives = new EPOS2[nodes];
+        async = new EPOS2Async[nodes];
+        pending = new CompletableFuture[nodes];
+        for (int i = 0; i < nodes; i++) {
+            bus.addNode((short) (i + 1));
+            drives[i] = new EPOS2((short) (i + 1), true);
+            drives[i].setTranceiver(trans);
+            async[i] = new EPOS2Async(drives[i]);
+        }
+        bus.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        trans.shutdown();
+        bus.stop();
+    }
+
+    @Benchmark
+    public int blocking(Counters c) {
+        int sum = 0;
+        for (int i = 0; i < nodes; i++) {
+            sum += drives[i].readPositionActual();
+        }
+        c.reads += nodes;
+        return sum;
+    }
+
+    @Benchmark
+    public int[] pipelined(Counters c) {
+        for (int i = 0; i < nodes; i++) {
+            pending[i] = async[i].readPositionActual();
+        }
+        int[] values = EPOS2Async.collect(pending).join();
+        c.reads += nodes;
+        return values;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.sim.SimulatedEPOS2;
+import ch.dermitza.epos2.sim.VirtualCanBus;
+import ch.dermitza.epos2.sim.VirtualCanPort;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Full {@code transmitSDO} round trip of a read and a write.
+ *
+ * With {@code loopback} the request is answered in place on the calling
+ * thread, so the figure is the pure JEPOS and JCANOpen command path. With
+ * {@code simulated} the request travels over a {@link VirtualCanBus} with
+ * zero bitrate cost, latency and response delay to a {@link SimulatedEPOS2}
+ * and back through an {@link EPOS2Transceiver}, which adds the thread
+ * handoffs of the receive path.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+
+    @Param({"loopback", "simulated"})
+    public String transport;
+    @Param({"false", "true"})
+    public boolean reuseFrames;
+    private EPOS2 epos;
+    private VirtualCanBus bus;
+    private EPOS2Transceiver trans;
+    private int value;
+
+    @Setup
+    public void setup() {
+        epos = new EPOS2((short) 1, reuseFrames);
+        if ("loopback".equals(transport)) {
+            epos.setTranceiver(new LoopbackTransceiver());
+            return;
+        }
+        bus = new VirtualCanBus(0);
+        bus.addNode((short) 1).setResponseDelay(0);
+        VirtualCanPort port = bus.openPort();
+        trans = new EPOS2Transceiver();
+        trans.setReader(port);
+        trans.setWriter(port);
+        bus.start();
+        epos.setTranceiver(trans);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (bus != null) {
+            trans.shutdown();
+            bus.stop();
+        }
+    }
+
+    @Benchmark
+    public int read() {
+        return epos.readPositionActual();
+    }
+
+    @Benchmark
+    public int write() {
+        return epos.setTargetVelocity(value++ & 0xFF);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.PreparedSDOFrame;
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of building and encoding the SDO request of each EPOS2 accessor,
+ * once with a new {@link SDOFrame} per call as the plain command path does
+ * and once with a reused {@link PreparedSDOFrame}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SDOFrameBenchmark {
+
+    @Param({"readStatusWord", "readPositionActual", "readVelocityActual", "readVelocityActualAvg",
+        "readCurrentActual", "writeControlword", "setOperationMode", "setTargetVelocity",
+        "setTargetProfilePosition", "setProfileVelocity", "setProfileAcceleration"})
+    public String accessor;
+    private short index;
+    private boolean write;
+    private int size;
+    private int value;
+    private PreparedSDOFrame prepared;
+
+    @Setup
+    public void setup() {
+        if ("readStatusWord".equals(accessor)) {
+            index = EPOS2.OBJ_STATUSWORD;
+        } else if ("readPositionActual".equals(accessor)) {
+            index = EPOS2.OBJ_POSITION_ACTUAL_VALUE;
+        } else if ("readVelocityActual".equals(accessor)) {
+            index = EPOS2.OBJ_VELOCITY_ACTUAL_VALUE;
+        } else if ("readVelocityActualAvg".equals(accessor)) {
+            index = EPOS2.OBJ_VELOCITY_ACTUAL_AVG_VALUE;
+        } else if ("readCurrentActual".equals(accessor)) {
+            index = EPOS2.OBJ_CURRENT_ACTUAL_VALUE;
+        } else if ("writeControlword".equals(accessor)) {
+            index = EPOS2.OBJ_CONTROLWORD;
+            write = true;
+            size = 2;
+        } else if ("setOperationMode".equals(accessor)) {
+            index = EPOS2.OBJ_OPERATION_MODES;
+            write = true;
+            size = 1;
+        } else if ("setTargetVelocity".equals(accessor)) {
+            index = EPOS2.OBJ_VELOCITY_MODE_SETTING_VALUE;
+            write = true;
+            size = 4;
+        } else if ("setTargetProfilePosition".equals(accessor)) {
+            index = EPOS2.OBJ_TARGET_PROFILE_POSITION;
+            write = true;
+            size = 4;
+        } else if ("setProfileVelocity".equals(accessor)) {
+            index = EPOS2.OBJ_PROFILE_VELOCITY;
+            write = true;
+            size = 4;
+        } else if ("setProfileAcceleration".equals(accessor)) {
+            index = EPOS2.OBJ_PROFILE_ACCELERATION;
+            write = true;
+            size = 4;
+        } else {
+            throw new IllegalArgumentException(accessor);
+        }
+        prepared = new PreparedSDOFrame((short) 1, write, index, (byte) 0x00);
+    }
+
+    @Benchmark
+    public CanMessage newFrame() {
+        value++;
+        SDOFrame f;
+        if (!write) {
+            f = new SDOFrame((short) 1, false, index, (byte) 0x00);
+        } else if (size == 1) {
+            f = new SDOFrame((short) 1, true, index, (byte) 0x00, (byte) value);
+        } else if (size == 2) {
+            f = new SDOFrame((short) 1, true, index, (byte) 0x00, (short) value);
+        } else {
+            f = new SDOFrame((short) 1, true, index, (byte) 0x00, value);
+        }
+        return f.getCANMessage();
+    }
+
+    @Benchmark
+    public CanMessage preparedFrame() {
+        value++;
+        if (write) {
+            if (size == 1) {
+                prepared.setData((byte) value);
+            } else if (size == 2) {
+                prepared.setData((short) value);
+            } else {
+                prepared.setData(value);
+            }
+        }
+        return prepared.getCANMessage();
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.EPOS2Async;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.sim.VirtualCanBus;
+import ch.dermitza.epos2.sim.VirtualCanPort;
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import ch.dermitza.jcanopen.canopen.SDOIF;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks on the simulated bus that SDO requests queued for the same node
+ * reach it in the order they were issued, whatever their priority class,
+ * and that only emergency stop controlwords overtake the queue.
+ *
+ * A mode change queued behind a read must not be overtaken by the
+ * controlwords issued after it. Otherwise homing is started in the
+ * previous mode and fails. The bus latency keeps the first request in
+ * flight while the others are queued.
+ *
+ * Run without JMH:
+ * <pre>
+ * java -cp JEPOS.jar:bench:JCANOpen.jar ch.dermitza.epos2.bench.SDOOrderRegression
+ * </pre>
+ * The exit status is 0 if every check passed.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SDOOrderRegression {
+
+    private static final long LATENCY_NANOS = 2000000L;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        VirtualCanBus bus = new VirtualCanBus(VirtualCanBus.DEFAULT_BITRATE);
+        bus.setLatency(LATENCY_NANOS);
+        bus.addNode((short) 1);
+        bus.addNode((short) 2);
+        bus.addNode((short) 3);
+        VirtualCanPort port = bus.openPort();
+        Recorder rec = new Recorder(port);
+        EPOS2Transceiver trans = new EPOS2Transceiver();
+        trans.setReader(port);
+        trans.setWriter(rec);
+        bus.start();
+        try {
+            queuedModeChange(trans, rec);
+            stopOvertakes(trans, rec);
+            homing(trans);
+        } finally {
+            trans.shutdown();
+            bus.stop();
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Configuration and motion requests queued behind a read are sent
+     * first come, first served.
+     */
+    private static void queuedModeChange(EPOS2Transceiver trans, Recorder rec) throws Exception {
+        EPOS2Async a = async(trans, 1);
+        CompletableFuture<Integer> f = a.readStatusWord();
+        CompletableFuture<Integer> f1 = a.setOperationMode(EPOS2.OPMODE_HOMING);
+        CompletableFuture<Integer> f2 = a.enableOperation();
+        CompletableFuture<Integer> f3 = a.writeControlword(EPOS2.CW_START_HOMING);
+        EPOS2Async.collect(f, f1, f2, f3).get(1, TimeUnit.SECONDS);
+        check("mode change before start", rec.sent(1),
+                "6041", "6060=6", "6040=f", "6040=1f");
+    }
+
+    /**
+     * A disable voltage controlword is sent right after the request in
+     * flight, ahead of the requests queued before it.
+     */
+    private static void stopOvertakes(EPOS2Transceiver trans, Recorder rec) throws Exception {
+        EPOS2Async a = async(trans, 2);
+        CompletableFuture<Integer> f = a.readStatusWord();
+        CompletableFuture<Integer> f1 = a.setOperationMode(EPOS2.OPMODE_HOMING);
+        CompletableFuture<Integer> f2 = a.enableOperation();
+        CompletableFuture<Integer> f3 = a.disableVoltage();
+        EPOS2Async.collect(f, f1, f2, f3).get(1, TimeUnit.SECONDS);
+        check("stop overtakes", rec.sent(2),
+                "6041", "6040=0", "6060=6", "6040=f");
+    }
+
+    /**
+     * Homing started asynchronously, while a read of the same drive is in
+     * flight, completes.
+     */
+    private static void homing(EPOS2Transceiver trans) throws Exception {
+        EPOS2 epos = new EPOS2((short) 3, true);
+        epos.setTranceiver(trans);
+        if (!epos.enableController()) {
+            fail("homing", "drive could not be enabled");
+            return;
+        }
+        epos.enableMotor(EPOS2.OPMODE_PROFILE_POSITION);
+        EPOS2Async a = new EPOS2Async(epos);
+        try {
+            a.configureHoming(EPOS2.HOMING_HOME_SWITCH_NEGATIVE, 2000, 100, 10000, 0)
+                    .get(1, TimeUnit.SECONDS);
+            a.readStatusWord();
+            a.home(5000).get(6, TimeUnit.SECONDS);
+            System.out.println("ok      homing");
+        } catch (Exception e) {
+            fail("homing", String.valueOf(e.getCause() != null ? e.getCause() : e));
+        }
+    }
+
+    private static EPOS2Async async(EPOS2Transceiver trans, int nodeID) {
+        EPOS2 epos = new EPOS2((short) nodeID, false);
+        epos.setTranceiver(trans);
+        return new EPOS2Async(epos);
+    }
+
+    private static void check(String name, List<String> sent, String... expected) {
+        List<String> exp = new ArrayList<String>();
+        for (String s : expected) {
+            exp.add(s);
+        }
+        if (sent.equals(exp)) {
+            System.out.println("ok      " + name);
+        } else {
+            fail(name, "sent " + sent + ", expected " + exp);
+        }
+    }
+
+    private static void fail(String name, String detail) {
+        failures++;
+        System.out.println("FAILED  " + name + ": " + detail);
+    }
+
+    /**
+     * Records the SDO requests written to the bus, per node, as the object
+     * index and the value of writes.
+     */
+    private static class Recorder implements CanWriterIF {
+
+        private final CanWriterIF writer;
+        private final List<int[]> frames = new ArrayList<int[]>();
+
+        Recorder(CanWriterIF writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean writeMessage(CanMessage msg, int timeout) {
+            record(msg);
+            return writer.writeMessage(msg, timeout);
+        }
+
+        @Override
+        public boolean writeMessageImmediate(CanMessage msg) {
+            record(msg);
+            return writer.writeMessageImmediate(msg);
+        }
+
+        private synchronized void record(CanMessage msg) {
+            int node = msg.getID() - SDOIF.SDO_RX;
+            byte[] d = msg.getData();
+            if (node < 1 || node > 127 || d.length < 8) {
+                return;
+            }
+            int index = (d[1] & 0xFF) | ((d[2] & 0xFF) << 8);
+            boolean write = (d[0] & 0xE0) == 0x20;
+            int value = write ? (d[4] & 0xFF) | ((d[5] & 0xFF) << 8) : -1;
+            frames.add(new int[]{node, index, value});
+        }
+
+        synchronized List<String> sent(int nodeID) {
+            List<String> ret = new ArrayList<String>();
+            for (int[] f : frames) {
+                if (f[0] == nodeID) {
+                    ret.add(Integer.toHexString(f[1]) + (f[2] < 0 ? "" : "=" + Integer.toHexString(f[2])));
+                }
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bench;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.StatusWord;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of decoding the DS402 state, from a raw statusword and through
+ * {@link EPOS2#getState()} over a loopback transceiver.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatusWordBenchmark {
+
+    private static final int WORDS = 1024;
+    private final int[] words = new int[WORDS];
+    private int next;
+    private EPOS2 epos;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = r.nextInt(0x10000);
+        }
+        epos = new EPOS2((short) 1, true);
+        epos.setTranceiver(new LoopbackTransceiver());
+    }
+
+    @Benchmark
+    public int decodeState() {
+        next = (next + 1) & (WORDS - 1);
+        return StatusWord.decodeState(words[next]);
+    }
+
+    @Benchmark
+    public void decodeFlags(Blackhole bh) {
+        next = (next + 1) & (WORDS - 1);
+        int sw = words[next];
+        bh.consume(StatusWord.decodeState(sw));
+        bh.consume(StatusWord.isTargetReached(sw));
+        bh.consume(StatusWord.isFault(sw));
+    }
+
+    @Benchmark
+    public int getState() {
+        return epos.getState();
+    }
+}
@@ -1,618 +1,1160 @@
-/**
- * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
- * <dermitza@gmail.com>
- *
- * JEPOS is free software: you can redistribute it and/or modify it under
- * the terms of the GNU Affero General Public License as published by the Free
- * Software Foundation, either version 3 of the License, or (at your option) any
- * later version.
- *
- * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
- * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
- * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
- * details.
- *
- * You should have received a copy of the GNU Affero General Public License
- * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
- */
-package ch.dermitza.epos2;
-
-import ch.dermitza.jcanopen.canopen.SDOFrame;
-import ch.dermitza.jcanopen.canopen.async.AbstractSDOTransceiver;
-
-/**
- * 
- *
- * @author K. Dermitzakis
- * @version 0.04
- * @since   0.04
- */
-public class EPOS2 {
-
-    public static final String MOTION_PROFILES[] = {
-        "Trapezoidal",
-        "Sinusoidal"
-    };
-    public static final short OBJ_STATUSWORD = 0x6041;
-    public static final short OBJ_CONTROLWORD = 0x6040;
-    public static final short OBJ_OPERATION_DISPLAY_MODES = 0x6061;
-    public static final short OBJ_OPERATION_MODES = 0x6060;
-    public static final short OBJ_VELOCITY_MODE_SETTING_VALUE = 0x206B;
-    public static final short OBJ_VELOCITY_ACTUAL_VALUE = 0x606C;
-    public static final short OBJ_VELOCITY_ACTUAL_AVG_VALUE = 0x2028;
-    public static final short OBJ_VELOCITY_SENSOR_ACTUAL_VALUE = 0x6069;
-    public static final short OBJ_VELOCITY_DEMAND_VALUE = 0x606B;
-    public static final short OBJ_POSITION_ACTUAL_VALUE = 0x6064;
-    public static final short OBJ_TARGET_PROFILE_POSITION = 0x607A;
-    public static final short OBJ_CURRENT_CONTROL_PARAMS = 0x60F6;
-    public static final short OBJ_PROFILE_VELOCITY = 0x6081;
-    public static final short OBJ_MOTION_PROFILE_TYPE = 0x6086;
-    public static final short OBJ_PROFILE_ACCELERATION = 0x6083;
-    public static final short OBJ_PROFILE_DECELERATION = 0x6084;
-    public static final byte OBJ_CURRENT_PGAIN_SUBIDX = 0x01;
-    public static final byte OBJ_CURRENT_IGAIN_SUBIDX = 0x02;
-    public static final int ST_FAULT = 0;
-    public static final int ST_START = 1;
-    public static final int ST_NOT_READY_TO_SWITCH_ON = 2;
-    public static final int ST_SWITCH_ON_DISABLED = 3;
-    public static final int ST_READY_TO_SWITCH_ON = 4;
-    public static final int ST_SWITCH_ON = 5;
-    public static final int ST_REFRESH = 6;
-    public static final int ST_MEASURE_INIT = 7;
-    public static final int ST_OPERATION_ENABLE = 8;
-    public static final int ST_QUICK_STOP = 9;
-    public static final int ST_QUICK_STOP_ACTIVE_DISABLE = 10;
-    public static final int ST_QUICK_STOP_ACTIVE_ENABLE = 11;
-    public static final byte OPMODE_NOOP = 99;
-    public static final byte OPMODE_VELOCITY = -2;
-    public static final byte OPMODE_POSITION = -1;
-    public static final byte OPMODE_PROFILE_VELOCITY = 3;
-    public static final byte OPMODE_PROFILE_POSITION = 1;
-    public static final byte OPMODE_INTERPOLATED_PROFILE_POSITION = 7;
-    public static final byte OPMODE_HOMING = 6;
-    public static final short CW_SHUTDOWN = 0x06;
-    public static final short CW_SWITCH_ON = 0x07;
-    public static final short CW_SWITCH_ON_ENABLE_OP = 0x0F;
-    public static final short CW_DISABLE_VOLTAGE = 0x00;
-    public static final short CW_QUICKSTOP = 0x02;
-    public static final short CW_DISABLE_OPERATION = 0x07;
-    public static final short CW_ENABLE_OPERATION = 0x0F;
-    public static final short CW_FAULT_RESET = 0x80;
-    public static final short CW_PROFILE_POSITION_RELATIVE = 0x7F;
-    public static final short CW_PROFILE_POSITION_ABSOLUTE = 0x3F;
-    public static final int FLAG_1 = 1;
-    public static final int FLAG_2 = 2;
-    public static final int FLAG_3 = 4;
-    public static final int FLAG_4 = 8;
-    public static final int START = 0;
-    public static final int NOT_READY = (FLAG_1 << 8);
-    public static final int SWITCH_ON_DISABLED = (FLAG_1 << 8) | (FLAG_3 << 4);
-    public static final int READY_TO_SWITCH_ON = (FLAG_1 << 8) | (FLAG_2 << 4) | FLAG_1;
-    public static final int SWITCHED_ON = (FLAG_1 << 8) | (FLAG_2 << 4) | FLAG_2 | FLAG_1;
-    public static final int REFRESH = (FLAG_3 << 12) | (FLAG_1 << 8) | (FLAG_2 << 4) | FLAG_2 | FLAG_1;
-    public static final int MEASURE_INIT = (FLAG_3 << 12) | (FLAG_1 << 8) | (FLAG_2 << 4) | (FLAG_1 << 4) | FLAG_2 | FLAG_1;
-    public static final int OPERATION_ENABLE = (FLAG_1 << 8) | (FLAG_2 << 4) | (FLAG_1 << 4) | FLAG_3 | FLAG_2 | FLAG_1;
-    public static final int QUICKSTOP_ACTIVE = (FLAG_1 << 8) | (FLAG_1 << 4) | FLAG_3 | FLAG_2 | FLAG_1;
-    public static final int FAULT_REACTION_ACTIVE_DISABLED = (FLAG_1 << 8) | FLAG_4 | FLAG_3 | FLAG_2 | FLAG_1;
-    public static final int FAULT_REACTION_ACTIVE_ENABLED = (FLAG_1 << 8) | (FLAG_1 << 4) | FLAG_4 | FLAG_3 | FLAG_2 | FLAG_1;
-    public static final int FAULT = (FLAG_1 << 8);
-    private short nodeID;
-    private AbstractSDOTransceiver trans;
-
-    public EPOS2(short nodeID) {
-        this.nodeID = nodeID;
-    }
-
-    public void setTranceiver(AbstractSDOTransceiver trans) {
-        this.trans = trans;
-    }
-
-    public short getNodeID() {
-        return this.nodeID;
-    }
-
-    public void setNodeID(short nodeID) {
-        this.nodeID = nodeID;
-    }
-
-    public int getState() {
-        int state = -1;
-        String str = "STATE: ";
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_STATUSWORD, (byte) 0x00);
-
-        int rsp = trans.transmitSDO(f);
-
-        if ((rsp & (FLAG_3 << 12)) == (FLAG_3 << 12)) {
-            // REFRESH or MEASURE_INIT
-            if ((rsp & (FLAG_1 << 4)) == (FLAG_1 << 4)) {
-                // MEASURE_INIT
-                str += "MEASURE_INIT";
-                state = ST_MEASURE_INIT;
-            } else {
-                // REFRESH
-                str += "REFRESH";
-                state = ST_REFRESH;
-            }
-        } else {
-            // ALL OTHERS
-            if ((rsp & (FLAG_1 << 8)) == (FLAG_1 << 8)) {
-                // ALL OTHERS
-                if ((rsp & (FLAG_3 << 4)) == (FLAG_3 << 4)) {
-                    // SWITCH_ON_DISABLED
-                    str += "SWITCH_ON_DISABLED";
-                    state = ST_SWITCH_ON_DISABLED;
-                } else {
-                    // ALL OTHERS
-                    if ((rsp & (FLAG_2 << 4)) == (FLAG_2 << 4)) {
-                        // OPERATION_ENABLE, SWITCHED_ON, READY_TO_SWITCH_ON
-                        if ((rsp & (FLAG_1 << 4)) == (FLAG_1 << 4)) {
-                            // OPERATION_ENABLE
-                            str += "OPERATION_ENABLE";
-                            state = ST_OPERATION_ENABLE;
-                        } else {
-                            if ((rsp & (FLAG_2)) == (FLAG_2)) {
-                                // SWITCHED_ON
-                                str += "SWITCHED_ON";
-                                state = ST_SWITCH_ON;
-                            } else {
-                                // READY_TO_SWITCH_ON
-                                str += "READY_TO_SWITCH_ON";
-                                state = ST_READY_TO_SWITCH_ON;
-                            }
-                        }
-                    } else {
-                        // QUICKSTOP_ACTIVE, FAULT_REACTION_ACTIVE_DISABLED
-                        // FAULT_REACTION_ACTIVE_ENABLED, NOT_READY_TO_SWITCH_ON
-                        if ((rsp & (FLAG_1 << 4)) == (FLAG_1 << 4)) {
-                            // QUICKSTOP_ACTIVE, FAULT_REACTION_ACTIVE_ENABLED
-                            if ((rsp & (FLAG_4)) == (FLAG_4)) {
-                                // FAULT_REACTION_ACTIVE_ENABLED
-                                str += "FAULT_REACTION_ACTIVE_ENABLED";
-                                state = ST_QUICK_STOP_ACTIVE_ENABLE;
-                            } else {
-                                // QUICKSTOP_ACTIVE
-                                str += "QUICKSTOP_ACTIVE";
-                                state = ST_QUICK_STOP;
-                            }
-                        } else {
-                            // FAULT_REACTION_ACTIVE_DISABLED, FAULT, NOT_READY_TO_SWITCH_ON
-                            if ((rsp & (FLAG_4)) == (FLAG_4)) {
-                                // FAULT_REACTION_ACTIVE_DISABLED, FAULT
-                                if ((rsp & (FLAG_3)) == (FLAG_3)) {
-                                    // FAULT_REACTION_ACTIVE_DISABLED
-                                    str += "FAULT_REACTION_ACTIVE_DISABLED";
-                                    state = ST_QUICK_STOP_ACTIVE_DISABLE;
-                                } else {
-                                    // FAULT
-                                    str += "FAULT";
-                                    state = ST_FAULT;
-                                }
-                            } else {
-                                str += "NOT_READY_TO_SWITCH_ON";
-                                state = ST_NOT_READY_TO_SWITCH_ON;
-                                // NOT_READY_TO_SWITCH_ON
-                            }
-                        }
-                    }
-                }
-            } else {
-                str += "START";
-                state = ST_START;
-                // START
-            }
-        }
-        System.out.println(str);
-        return state;
-        /*
-         if((rsp & NOT_READY) == NOT_READY){
-         str += "NOT_READY";
-         state = ST_NOT_READY_TO_SWITCH_ON;
-         }else if((rsp & SWITCH_ON_DISABLED) == SWITCH_ON_DISABLED){
-         str += "SWITCH_ON_DISABLED";
-         state = ST_SWITCH_ON_DISABLED;
-         }else if((rsp & READY_TO_SWITCH_ON) == READY_TO_SWITCH_ON){
-         str += "READY_TO_SWITCH_ON";
-         state = ST_READY_TO_SWITCH_ON;
-         }else if((rsp & SWITCHED_ON) == SWITCHED_ON){
-         str += "SWITCHED_ON";
-         state = ST_SWITCH_ON;
-         }else if((rsp & REFRESH) == REFRESH){
-         str += "REFRESH";
-         state = ST_REFRESH;
-         }else if((rsp & MEASURE_INIT) == MEASURE_INIT){
-         str += "MEASURE_INIT";
-         state = ST_MEASURE_INIT;
-         }else if((rsp & OPERATION_ENABLE) == OPERATION_ENABLE){
-         str += "OPERATION_ENABLE";
-         state = ST_OPERATION_ENABLE;
-         }else if((rsp & QUICKSTOP_ACTIVE) == QUICKSTOP_ACTIVE){
-         str += "QUICKSTOP_ACTIVE";
-         state = ST_QUICK_STOP;
-         }else 
-            
-         if((rsp & FAULT_REACTION_ACTIVE_ENABLED) == FAULT_REACTION_ACTIVE_ENABLED){
-         str += "FAULT_REACTION_ACTIVE_ENABLED";
-         state = ST_QUICK_STOP_ACTIVE_ENABLE;
-         } else if((rsp & FAULT_REACTION_ACTIVE_DISABLED) == FAULT_REACTION_ACTIVE_DISABLED){
-         str += "FAULT_REACTION_ACTIVE_DISABLED";
-         state = ST_QUICK_STOP_ACTIVE_DISABLE;
-         }
-         else if((rsp & FAULT) == FAULT){
-         str += "FAULT";
-         state = ST_FAULT;
-         } else if((rsp & START) == START){
-         str += "START";
-         state = ST_START;
-         }else {
-         str += "UNKNOWN";
-         }
-         System.out.println(str);
-         return state;
-
-         if(rsp != -1){
-         boolean[] bits = new boolean[16];
-         bits[0] = (rsp & 0x0001) == 0x0001;
-         bits[1] = (rsp & 0x0002) == 0x0002;
-         bits[2] = (rsp & 0x0004) == 0x0004;
-         bits[3] = (rsp & 0x0008) == 0x0008;
-
-         bits[4] = (rsp & 0x0010) == 0x0010;
-         bits[5] = (rsp & 0x0020) == 0x0020;
-         bits[6] = (rsp & 0x0040) == 0x0040;
-         bits[7] = (rsp & 0x0080) == 0x0080;
-
-         bits[8] = (rsp & 0x0100) == 0x0100;
-         bits[9] = (rsp & 0x0200) == 0x0200;
-         bits[10] = (rsp & 0x0400) == 0x0400;
-         bits[11] = (rsp & 0x0800) == 0x0800;
-
-         bits[12] = (rsp & 0x1000) == 0x1000;
-         bits[13] = (rsp & 0x2000) == 0x2000;
-         bits[14] = (rsp & 0x4000) == 0x4000;
-         bits[15] = (rsp & 0x8000) == 0x8000;
-
-         if (bits[14]) {
-         if (bits[4]) {
-         System.out.println("State: Measure Init");
-         return ST_MEASURE_INIT;
-         } else {
-         System.out.println("State: Refresh");
-         return ST_REFRESH;
-         }
-         } else {
-         if (!bits[8]) {
-         System.out.println("State: Start");
-         return ST_START;
-         } else {
-         if (bits[6]) {
-         System.out.println("State: Switch on disabled");
-         return ST_SWITCH_ON_DISABLED;
-         } else {
-         if (bits[5]) {
-         if (bits[4]) {
-         System.out.println("State: Operation Enable");
-         return ST_OPERATION_ENABLE;
-         } else {
-         if (bits[1]) {
-         System.out.println("State: Switched On");
-         return ST_SWITCH_ON;
-         } else {
-         System.out.println("State: Ready to Switch On");
-         return ST_READY_TO_SWITCH_ON;
-         }
-         }
-         } else {
-         if (!bits[3]) {
-         if (bits[2]) {
-         System.out.println("State: Quick Stop Active");
-         return ST_QUICK_STOP;
-         } else {
-         System.out.println("State: Not Ready to Switch On");
-         return ST_NOT_READY_TO_SWITCH_ON;
-         }
-         } else {
-         if (bits[4]) {
-         System.out.println("State: Fault Reaction Active (Enabled)");
-         return ST_QUICK_STOP_ACTIVE_ENABLE;
-         } else {
-         if (bits[2]) {
-         System.out.println("State: Fault Reaction Active (Disabled)");
-         return ST_QUICK_STOP_ACTIVE_DISABLE;
-         } else {
-         System.out.println("State: Fault");
-         return ST_FAULT;
-         }
-         }
-         }
-         }
-         }
-         }
-         }
-         }
-         */
-    }
-
-    public long faultReset() {
-        //System.out.println("Fault reset");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, CW_FAULT_RESET);
-        return trans.transmitSDO(f);
-    }
-
-    public long shutdown() {
-        //System.out.println("Shutdown");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, CW_SHUTDOWN);
-        return trans.transmitSDO(f);
-    }
-
-    public long switchOn() {
-        //System.out.println("Switch on");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, CW_SWITCH_ON);
-        return trans.transmitSDO(f);
-    }
-
-    public long disableOperation() {
-        //System.out.println("Disable operation");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, CW_DISABLE_OPERATION);
-        return trans.transmitSDO(f);
-    }
-
-    public long disableVoltage() {
-        //System.out.println("Disable voltage");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, CW_DISABLE_VOLTAGE);
-        return trans.transmitSDO(f);
-    }
-
-    public void enableMotor(byte opMode) {
-        //System.out.println("Enable motor");
-        int state = getState();
-        if (state == ST_SWITCH_ON) {
-            enableOperation();
-        }
-
-        if (opMode != OPMODE_NOOP) {
-            int currMode = getOperationMode();
-            //if ((currMode & 0xFF) != (opMode & 0xFF)) {
-                setOperationMode(opMode);
-            //} else {
-                //System.err.println("SAME_MODE");
-            //}
-        } else {
-            //System.err.println("NO_OPERATION");
-        }
-    }
-
-    public int getOperationMode() {
-        //System.out.println("Get operation mode");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_OPERATION_DISPLAY_MODES, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public long setOperationMode(byte opMode) {
-        //System.out.println("Set operation mode");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_OPERATION_MODES, (byte) 0x00, opMode);
-        return trans.transmitSDO(f);
-    }
-//    public long setTargetVelocity(long velocity) {
-//        //System.out.println("Set target velocity");
-//        SDOFrame f = new SDOFrame(nodeID, true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) velocity);
-//        return trans.transmitSDO(f);
-//    }
-     
-    public int setTargetVelocity(int velocity) {
-        //System.out.println("Set target velocity");
-        SDOFrame f = new SDOFrame(nodeID, true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) velocity);
-        return trans.transmitSDO(f);
-    }
-//    public int setVelocityMode() {
-//        //System.out.println("Set target velocity");
-//        SDOFrame f = new SDOFrame(nodeID, true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) velocity);
-//        return trans.transmitSDO(f);
-//    }
-        
-
-    public long getTargetVelocity() {
-        //System.out.println("Get target velocity");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    // WTF IS THIS?
-//    public long startVelocity() {
-//        //System.out.println("Start velocity");
-//        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, (short) 0x000f);
-//        return trans.transmitSDO(f);
-//    }
-    
-    public long startVelocity() {
-        //System.out.println("Start velocity");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (short) 0x000f);
-        return trans.transmitSDO(f);
-    }
-        
-        
-
-    public long stopVelocity() {
-        //System.out.println("Stop velocity");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) 0);
-        return trans.transmitSDO(f);
-    }
-
-    public long readVelocitySensorActual() {
-        //System.out.println("Read velocity sensor actual");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_VELOCITY_SENSOR_ACTUAL_VALUE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public long readVelocityActualAvg() {
-        //System.out.println("Read velocity actual average");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_VELOCITY_ACTUAL_AVG_VALUE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public long readVelocityActual() {
-        //System.out.println("Read velocity actual");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_VELOCITY_ACTUAL_VALUE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public long readVelocityDemand() {
-        //System.out.println("Read velocity demand");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_VELOCITY_DEMAND_VALUE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    // ================================================================ VELOCITY
-    public long readStatusWord() {
-        //System.out.println("Read status word");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_STATUSWORD, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    // POSITION ================================================================
-    public int readPositionActual() {
-        //System.out.println("Read position actual");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_POSITION_ACTUAL_VALUE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public int readTargetProfilePosition() {
-        //System.out.println("Read target profile position");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_TARGET_PROFILE_POSITION, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public int setTargetProfilePosition(int position) {
-        //System.out.println("Set target profile position");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_TARGET_PROFILE_POSITION, (byte) 0x00, position);
-        return trans.transmitSDO(f);
-    }
-
-    public int readProfileVelocity() {
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_PROFILE_VELOCITY, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public int setProfileVelocity(int velocity) {
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_PROFILE_VELOCITY, (byte) 0x00, velocity);
-        return trans.transmitSDO(f);
-    }
-
-    public int readProfileAcceleration() {
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_PROFILE_ACCELERATION, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public int setProfileAcceleration(int acceleration) {
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_PROFILE_ACCELERATION, (byte) 0x00, acceleration);
-        return trans.transmitSDO(f);
-    }
-
-    public int readProfileDeceleration() {
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_PROFILE_DECELERATION, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public int setProfileDeceleration(int deceleration) {
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_PROFILE_DECELERATION, (byte) 0x00, deceleration);
-        return trans.transmitSDO(f);
-    }
-
-    public int readMotionProfileType() {
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_MOTION_PROFILE_TYPE, (byte) 0x00);
-        return trans.transmitSDO(f);
-    }
-
-    public int setMotionProfileType(short type) {
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_MOTION_PROFILE_TYPE, (byte) 0x00, type);
-        return trans.transmitSDO(f);
-    }
-
-    // WTF IS THIS?
-    public long startProfilePosition(boolean absolute) {
-        //System.out.println("Start profile position");
-
-        /*
-         int halt        = mode==HALT ?      0x0100 : 0x0000;
-         int rel         = mode==RELATIVE ?  0x0040 : 0x0000;
-         int nowait      = !wait ?           0x0020 : 0x0000;
-         int newsetpoint = new_point ?       0x0010 : 0x0000;
-         */
-
-        short cw = absolute ? CW_PROFILE_POSITION_ABSOLUTE : CW_PROFILE_POSITION_RELATIVE;
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, cw);
-        return trans.transmitSDO(f);
-    }
-
-    // ================================================================ POSITION
-    // CURRENT =================================================================
-    public int readTargetCurrent() {
-        return -1;
-    }
-
-    public int setTargetCurrent(int current) {
-        return -1;
-    }
-
-    // ================================================================= CURRENT
-    public boolean isTargetReached() {
-        //System.out.println("Is target reached");
-        SDOFrame f = new SDOFrame(getNodeID(), false, OBJ_STATUSWORD, (byte) 0x00);
-        int ans = trans.transmitSDO(f);
-        return ((ans & 0x0400) == 0x0400);
-    }
-
-    public long enableOperation() {
-        //System.out.println("Enable operation");
-        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, CW_ENABLE_OPERATION);
-        return trans.transmitSDO(f);
-    }
-
-    public void disableController() {
-        //System.out.println("Disable controller");
-        disableVoltage();
-    }
-
-    public boolean enableController() {
-        int retries = 0;
-        boolean enabled = false;
-
-        int state = getState();
-        while (!enabled && retries < 10) {
-            switch (state) {
-                case ST_FAULT:
-                    faultReset();
-                    retries++;
-                    break;
-                case ST_START:
-                    break;
-                case ST_NOT_READY_TO_SWITCH_ON:
-                    break;
-                case ST_SWITCH_ON_DISABLED:
-                    retries++;
-                    shutdown();
-                    break;
-                case ST_READY_TO_SWITCH_ON:
-                    switchOn();
-                    break;
-                case ST_SWITCH_ON:
-                    enabled = true;
-                    break;
-                case ST_REFRESH:
-                    break;
-                case ST_MEASURE_INIT:
-                    break;
-                case ST_OPERATION_ENABLE:
-                    disableOperation();
-                    break;
-                case ST_QUICK_STOP:
-                    disableVoltage();
-                case ST_QUICK_STOP_ACTIVE_DISABLE:
-                    break;
-                case ST_QUICK_STOP_ACTIVE_ENABLE:
-                    break;
-            }
-            state = getState();
-        }
-        return enabled;
-    }
-}
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.io.SDOBatch;
+import ch.dermitza.epos2.io.SDOResult;
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import ch.dermitza.jcanopen.canopen.async.AbstractSDOTransceiver;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 
+ *
+ * @author K. Dermitzakis
+ * @version 0.04
+ * @since   0.04
+ */
+public class EPOS2 {
+
+    public static final String MOTION_PROFILES[] = {
+        "Trapezoidal",
+        "Sinusoidal"
+    };
+    public static final short OBJ_STATUSWORD = 0x6041;
+    public static final short OBJ_CONTROLWORD = 0x6040;
+    public static final short OBJ_OPERATION_DISPLAY_MODES = 0x6061;
+    public static final short OBJ_OPERATION_MODES = 0x6060;
+    public static final short OBJ_VELOCITY_MODE_SETTING_VALUE = 0x206B;
+    public static final short OBJ_VELOCITY_ACTUAL_VALUE = 0x606C;
+    public static final short OBJ_VELOCITY_ACTUAL_AVG_VALUE = 0x2028;
+    public static final short OBJ_VELOCITY_SENSOR_ACTUAL_VALUE = 0x6069;
+    public static final short OBJ_VELOCITY_DEMAND_VALUE = 0x606B;
+    public static final short OBJ_POSITION_ACTUAL_VALUE = 0x6064;
+    public static final short OBJ_TARGET_PROFILE_POSITION = 0x607A;
+    public static final short OBJ_CURRENT_CONTROL_PARAMS = 0x60F6;
+    public static final short OBJ_PROFILE_VELOCITY = 0x6081;
+    public static final short OBJ_MOTION_PROFILE_TYPE = 0x6086;
+    public static final short OBJ_PROFILE_ACCELERATION = 0x6083;
+    public static final short OBJ_PROFILE_DECELERATION = 0x6084;
+    public static final short OBJ_CURRENT_ACTUAL_VALUE = 0x6078;
+    public static final short OBJ_DEVICE_TYPE = 0x1000;
+    public static final short OBJ_TPDO_PARAMS = 0x1800;
+    public static final short OBJ_TPDO_MAPPING = 0x1A00;
+    public static final short OBJ_RPDO_PARAMS = 0x1400;
+    public static final short OBJ_RPDO_MAPPING = 0x1600;
+    public static final short OBJ_INTERPOLATION_SUB_MODE = 0x60C0;
+    public static final short OBJ_INTERPOLATION_DATA_RECORD = 0x20C1;
+    public static final short OBJ_INTERPOLATION_BUFFER = 0x20C4;
+    public static final short OBJ_INTERPOLATION_DATA_CONFIG = 0x60C4;
+    public static final byte OBJ_IPM_BUFFER_STATUS_SUBIDX = 0x03;
+    public static final byte OBJ_IPM_MAX_BUFFER_SIZE_SUBIDX = 0x01;
+    public static final byte OBJ_IPM_ACTUAL_BUFFER_SIZE_SUBIDX = 0x02;
+    public static final byte OBJ_IPM_BUFFER_CLEAR_SUBIDX = 0x06;
+    public static final byte OBJ_CURRENT_PGAIN_SUBIDX = 0x01;
+    public static final byte OBJ_CURRENT_IGAIN_SUBIDX = 0x02;
+    public static final short OBJ_CURRENT_MODE_SETTING_VALUE = 0x2030;
+    public static final short OBJ_CURRENT_THRESHOLD_HOMING = 0x2080;
+    public static final short OBJ_HOME_POSITION = 0x2081;
+    public static final short OBJ_HOME_OFFSET = 0x607C;
+    public static final short OBJ_HOMING_METHOD = 0x6098;
+    public static final short OBJ_SENSOR_CONFIGURATION = 0x2210;
+    public static final byte OBJ_ENCODER_PULSE_NUMBER_SUBIDX = 0x01;
+    public static final short OBJ_HOMING_SPEEDS = 0x6099;
+    public static final short OBJ_HOMING_ACCELERATION = 0x609A;
+    public static final byte OBJ_HOMING_SWITCH_SPEED_SUBIDX = 0x01;
+    public static final byte OBJ_HOMING_ZERO_SPEED_SUBIDX = 0x02;
+    public static final byte HOMING_NEGATIVE_LIMIT_SWITCH_INDEX = 1;
+    public static final byte HOMING_POSITIVE_LIMIT_SWITCH_INDEX = 2;
+    public static final byte HOMING_HOME_SWITCH_POSITIVE_INDEX = 7;
+    public static final byte HOMING_HOME_SWITCH_NEGATIVE_INDEX = 11;
+    public static final byte HOMING_NEGATIVE_LIMIT_SWITCH = 17;
+    public static final byte HOMING_POSITIVE_LIMIT_SWITCH = 18;
+    public static final byte HOMING_HOME_SWITCH_POSITIVE = 23;
+    public static final byte HOMING_HOME_SWITCH_NEGATIVE = 27;
+    public static final byte HOMING_INDEX_NEGATIVE = 33;
+    public static final byte HOMING_INDEX_POSITIVE = 34;
+    public static final byte HOMING_ACTUAL_POSITION = 35;
+    public static final byte HOMING_CURRENT_THRESHOLD_POSITIVE_INDEX = -1;
+    public static final byte HOMING_CURRENT_THRESHOLD_NEGATIVE_INDEX = -2;
+    public static final byte HOMING_CURRENT_THRESHOLD_POSITIVE = -3;
+    public static final byte HOMING_CURRENT_THRESHOLD_NEGATIVE = -4;
+    public static final int ST_FAULT = 0;
+    public static final int ST_START = 1;
+    public static final int ST_NOT_READY_TO_SWITCH_ON = 2;
+    public static final int ST_SWITCH_ON_DISABLED = 3;
+    public static final int ST_READY_TO_SWITCH_ON = 4;
+    public static final int ST_SWITCH_ON = 5;
+    public static final int ST_REFRESH = 6;
+    public static final int ST_MEASURE_INIT = 7;
+    public static final int ST_OPERATION_ENABLE = 8;
+    public static final int ST_QUICK_STOP = 9;
+    public static final int ST_QUICK_STOP_ACTIVE_DISABLE = 10;
+    public static final int ST_QUICK_STOP_ACTIVE_ENABLE = 11;
+    public static final byte OPMODE_NOOP = 99;
+    public static final byte OPMODE_VELOCITY = -2;
+    public static final byte OPMODE_POSITION = -1;
+    public static final byte OPMODE_PROFILE_VELOCITY = 3;
+    public static final byte OPMODE_PROFILE_POSITION = 1;
+    public static final byte OPMODE_INTERPOLATED_PROFILE_POSITION = 7;
+    public static final byte OPMODE_HOMING = 6;
+    public static final byte OPMODE_CURRENT = -3;
+    public static final long DEFAULT_STATE_TRANSITION_TIMEOUT_MS = 2000;
+    public static final int PDO_TRANSMISSION_SYNC = 1;
+    public static final int PDO_TRANSMISSION_ASYNC = 255;
+    public static final short CW_SHUTDOWN = 0x06;
+    public static final short CW_SWITCH_ON = 0x07;
+    public static final short CW_SWITCH_ON_ENABLE_OP = 0x0F;
+    public static final short CW_DISABLE_VOLTAGE = 0x00;
+    public static final short CW_QUICKSTOP = 0x02;
+    public static final short CW_DISABLE_OPERATION = 0x07;
+    public static final short CW_ENABLE_OPERATION = 0x0F;
+    public static final short CW_FAULT_RESET = 0x80;
+    public static final short CW_PROFILE_POSITION_RELATIVE = 0x7F;
+    public static final short CW_PROFILE_POSITION_ABSOLUTE = 0x3F;
+    public static final short CW_ENABLE_IP_MODE = 0x1F;
+    public static final short CW_START_HOMING = 0x1F;
+    public static final short CW_HALT_HOMING = 0x11F;
+    public static final int FLAG_1 = 1;
+    public static final int FLAG_2 = 2;
+    public static final int FLAG_3 = 4;
+    public static final int FLAG_4 = 8;
+    public static final int START = 0;
+    public static final int NOT_READY = (FLAG_1 << 8);
+    public static final int SWITCH_ON_DISABLED = (FLAG_1 << 8) | (FLAG_3 << 4);
+    public static final int READY_TO_SWITCH_ON = (FLAG_1 << 8) | (FLAG_2 << 4) | FLAG_1;
+    public static final int SWITCHED_ON = (FLAG_1 << 8) | (FLAG_2 << 4) | FLAG_2 | FLAG_1;
+    public static final int REFRESH = (FLAG_3 << 12) | (FLAG_1 << 8) | (FLAG_2 << 4) | FLAG_2 | FLAG_1;
+    public static final int MEASURE_INIT = (FLAG_3 << 12) | (FLAG_1 << 8) | (FLAG_2 << 4) | (FLAG_1 << 4) | FLAG_2 | FLAG_1;
+    public static final int OPERATION_ENABLE = (FLAG_1 << 8) | (FLAG_2 << 4) | (FLAG_1 << 4) | FLAG_3 | FLAG_2 | FLAG_1;
+    public static final int QUICKSTOP_ACTIVE = (FLAG_1 << 8) | (FLAG_1 << 4) | FLAG_3 | FLAG_2 | FLAG_1;
+    public static final int FAULT_REACTION_ACTIVE_DISABLED = (FLAG_1 << 8) | FLAG_4 | FLAG_3 | FLAG_2 | FLAG_1;
+    public static final int FAULT_REACTION_ACTIVE_ENABLED = (FLAG_1 << 8) | (FLAG_1 << 4) | FLAG_4 | FLAG_3 | FLAG_2 | FLAG_1;
+    public static final int FAULT = (FLAG_1 << 8);
+    private short nodeID;
+    private AbstractSDOTransceiver trans;
+    private final SDOFrameCache frames;
+    private final SDOFrameCache controlFrames;
+    private volatile ProcessDataCache processData;
+    private volatile ShadowCache shadow;
+    private volatile EmergencyMonitor emergency;
+    private volatile long processDataMaxAge;
+    private volatile long stateTransitionTimeout = DEFAULT_STATE_TRANSITION_TIMEOUT_MS;
+    private StateMachineDriver stateMachine;
+
+    public EPOS2(short nodeID) {
+        this(nodeID, false);
+    }
+
+    /**
+     * Creates a new EPOS2 instance for the given node.
+     *
+     * When {@code reuseFrames} is set, the instance keeps one pre-encoded
+     * {@link PreparedSDOFrame} per accessed object and direction, and every
+     * subsequent read or write only patches the payload of that frame. The
+     * command path does not allocate in this mode once each object has been
+     * accessed once. Calls on the same instance are serialized while frames
+     * are in use, which matches the one-outstanding-SDO-per-node rule of
+     * CANopen. The controlword has a table of its own, so that a stop
+     * command is only queued behind the request in flight, as stops
+     * overtake the waiting requests, rather than behind every caller of the
+     * instance.
+     *
+     * @param nodeID the CANopen node ID of the drive
+     * @param reuseFrames whether pre-encoded SDO frames should be reused
+     */
+    public EPOS2(short nodeID, boolean reuseFrames) {
+        this.nodeID = nodeID;
+        this.frames = reuseFrames ? new SDOFrameCache(nodeID) : null;
+        this.controlFrames = reuseFrames ? new SDOFrameCache(nodeID) : null;
+    }
+
+    public void setTranceiver(AbstractSDOTransceiver trans) {
+        this.trans = trans;
+    }
+
+    public AbstractSDOTransceiver<?> getTranceiver() {
+        return this.trans;
+    }
+
+    public short getNodeID() {
+        return this.nodeID;
+    }
+
+    public void setNodeID(short nodeID) {
+        boolean shadowing = shadow != null;
+        EmergencyMonitor monitor = emergency;
+        disableShadowCache();
+        disableEmergencyMonitor();
+        this.nodeID = nodeID;
+        if (frames != null) {
+            synchronized (frames) {
+                frames.reset(nodeID);
+            }
+            synchronized (controlFrames) {
+                controlFrames.reset(nodeID);
+            }
+        }
+        if (shadowing) {
+            enableShadowCache();
+        }
+        if (monitor != null) {
+            enableEmergencyMonitor(monitor);
+        }
+    }
+
+    public boolean isReusingFrames() {
+        return frames != null;
+    }
+
+    /**
+     * Starts shadowing the configuration objects of the drive, so that
+     * writes which would not change the value held by the drive are skipped.
+     * See {@link ShadowCache} for the shadowed objects and the events that
+     * invalidate the shadow.
+     *
+     * When the transceiver is an {@link EPOS2Transceiver}, heartbeat,
+     * boot-up and EMCY messages of the node invalidate the shadow
+     * automatically. Otherwise only fault resets, fault states observed
+     * through {@link #getState()} and NMT commands sent through
+     * {@link #sendNMT(byte)} do.
+     *
+     * @return the shadow cache, for its counters
+     */
+    public synchronized ShadowCache enableShadowCache() {
+        ShadowCache s = shadow;
+        if (s == null) {
+            s = new ShadowCache(nodeID);
+            if (trans instanceof EPOS2Transceiver) {
+                s.register((EPOS2Transceiver) trans);
+            }
+            shadow = s;
+        }
+        return s;
+    }
+
+    public synchronized void disableShadowCache() {
+        ShadowCache s = shadow;
+        shadow = null;
+        if (s != null && trans instanceof EPOS2Transceiver) {
+            s.unregister((EPOS2Transceiver) trans);
+        }
+    }
+
+    public ShadowCache getShadowCache() {
+        return shadow;
+    }
+
+    /**
+     * Subscribes to the EMCY messages of the drive through the given
+     * monitor, which may be shared by all drives of a bus. While enabled,
+     * the {@link StateMachineDriver} of this instance reacts to a reported
+     * fault immediately rather than on its next statusword poll.
+     *
+     * @param monitor the monitor of the bus the drive is connected to
+     */
+    public synchronized void enableEmergencyMonitor(EmergencyMonitor monitor) {
+        disableEmergencyMonitor();
+        monitor.watch(nodeID);
+        emergency = monitor;
+    }
+
+    public synchronized void disableEmergencyMonitor() {
+        EmergencyMonitor m = emergency;
+        emergency = null;
+        if (m != null) {
+            m.unwatch(nodeID);
+        }
+    }
+
+    public EmergencyMonitor getEmergencyMonitor() {
+        return emergency;
+    }
+
+    /**
+     * Checks for a fault without any bus traffic.
+     *
+     * @return the last error reported by EMCY and not yet cleared, or null
+     * if there is none or no emergency monitor is enabled
+     */
+    public EmergencyEvent getActiveError() {
+        EmergencyMonitor m = emergency;
+        return m == null ? null : m.getActiveError(nodeID);
+    }
+
+    /**
+     * Sends an NMT command to this node. Reset commands invalidate the
+     * shadow cache, as the drive reloads its configuration.
+     *
+     * @param command one of the {@code EPOS2Transceiver.NMT_*} commands
+     * @return true if the command was sent
+     */
+    public boolean sendNMT(byte command) {
+        if (!(trans instanceof EPOS2Transceiver)) {
+            throw new IllegalStateException("NMT requires an EPOS2Transceiver");
+        }
+        if (command == EPOS2Transceiver.NMT_RESET_NODE
+                || command == EPOS2Transceiver.NMT_RESET_COMMUNICATION) {
+            invalidateShadow();
+        }
+        return ((EPOS2Transceiver) trans).sendNMT(command, nodeID);
+    }
+
+    private SDOFrameCache frames(short index) {
+        return index == OBJ_CONTROLWORD ? controlFrames : frames;
+    }
+
+    /**
+     * Tells the process data cache that a controlword is about to be sent,
+     * so that statuswords received before it are no longer served.
+     */
+    void commandSent(short index) {
+        ProcessDataCache pd = processData;
+        if (pd != null && index == OBJ_CONTROLWORD) {
+            pd.commandSent();
+        }
+    }
+
+    private void invalidateShadow() {
+        ShadowCache s = shadow;
+        if (s != null) {
+            s.invalidate();
+        }
+    }
+
+    /**
+     * Maps statusword, position, velocity, current, average velocity and
+     * demand velocity onto TPDO1-3 of the drive, starts the node and keeps
+     * the received values in a {@link ProcessDataCache}.
+     *
+     * Once enabled, {@link #readStatusWord()}, {@link #isTargetReached()},
+     * {@link #readPositionActual()}, {@link #readVelocityActual()},
+     * {@link #readVelocityActualAvg()}, {@link #readVelocityDemand()} and
+     * {@link #readCurrentActual()} return the cached value whenever it is not
+     * older than {@code maxAgeNanos}, and fall back to an SDO read otherwise.
+     *
+     * The transceiver must be an {@link EPOS2Transceiver}, as only that one
+     * dispatches PDOs to listeners.
+     *
+     * @param transmissionType {@link #PDO_TRANSMISSION_ASYNC} to transmit on
+     * change, or the number of SYNCs between transmissions
+     * @param inhibitTime minimum time between two transmissions of the same
+     * TPDO, in multiples of 100us
+     * @param maxAgeNanos the maximum age of a cached value
+     * @return true if all TPDOs were configured successfully
+     */
+    public boolean enableProcessData(int transmissionType, int inhibitTime, long maxAgeNanos) {
+        if (!(trans instanceof EPOS2Transceiver)) {
+            throw new IllegalStateException("Process data requires an EPOS2Transceiver");
+        }
+        EPOS2Transceiver t = (EPOS2Transceiver) trans;
+        boolean ok = configureTPDO(0, transmissionType, inhibitTime,
+                pdoMapping(OBJ_STATUSWORD, 16), pdoMapping(OBJ_POSITION_ACTUAL_VALUE, 32));
+        ok &= configureTPDO(1, transmissionType, inhibitTime,
+                pdoMapping(OBJ_VELOCITY_ACTUAL_VALUE, 32), pdoMapping(OBJ_CURRENT_ACTUAL_VALUE, 16));
+        ok &= configureTPDO(2, transmissionType, inhibitTime,
+                pdoMapping(OBJ_VELOCITY_ACTUAL_AVG_VALUE, 32), pdoMapping(OBJ_VELOCITY_DEMAND_VALUE, 32));
+        if (!ok) {
+            return false;
+        }
+        disableProcessData();
+        ProcessDataCache cache = new ProcessDataCache(nodeID);
+        cache.register(t);
+        processDataMaxAge = maxAgeNanos;
+        processData = cache;
+        return sendNMT(EPOS2Transceiver.NMT_START);
+    }
+
+    /**
+     * Stops serving reads from the process data cache. The TPDO
+     * configuration of the drive is left untouched.
+     */
+    public void disableProcessData() {
+        ProcessDataCache cache = processData;
+        processData = null;
+        if (cache != null) {
+            cache.unregister((EPOS2Transceiver) trans);
+        }
+    }
+
+    public ProcessDataCache getProcessData() {
+        return processData;
+    }
+
+    /**
+     * Configures one transmit PDO of the drive. The PDO is disabled while
+     * its mapping is rewritten and enabled again afterwards.
+     *
+     * @param pdo the zero-based TPDO number (0-3)
+     * @param transmissionType the PDO transmission type
+     * @param inhibitTime the inhibit time in multiples of 100us
+     * @param mappings the mapping entries, see {@link #pdoMapping(short, int)}
+     * @return true if every SDO write was acknowledged
+     */
+    public boolean configureTPDO(int pdo, int transmissionType, int inhibitTime, int... mappings) {
+        short params = (short) (OBJ_TPDO_PARAMS + pdo);
+        short mapping = (short) (OBJ_TPDO_MAPPING + pdo);
+        int cobID = EPOS2Transceiver.COB_TPDO1 + (pdo << 8) + nodeID;
+        int rc = writeObject(params, (byte) 0x01, cobID | 0x80000000);
+        rc |= writeObject(mapping, (byte) 0x00, (byte) 0);
+        for (int i = 0; i < mappings.length; i++) {
+            rc |= writeObject(mapping, (byte) (i + 1), mappings[i]);
+        }
+        rc |= writeObject(mapping, (byte) 0x00, (byte) mappings.length);
+        rc |= writeObject(params, (byte) 0x02, (byte) transmissionType);
+        rc |= writeObject(params, (byte) 0x03, (short) inhibitTime);
+        rc |= writeObject(params, (byte) 0x01, cobID);
+        return rc == 0;
+    }
+
+    /**
+     * Configures one receive PDO of the drive. The PDO is disabled while
+     * its mapping is rewritten and enabled again afterwards.
+     *
+     * @param pdo the zero-based RPDO number (0-3)
+     * @param transmissionType {@link #PDO_TRANSMISSION_ASYNC} to apply the
+     * data on reception, {@link #PDO_TRANSMISSION_SYNC} to apply it on the
+     * next SYNC
+     * @param mappings the mapping entries, see {@link #pdoMapping(short, int)}
+     * @return true if every SDO write was acknowledged
+     */
+    public boolean configureRPDO(int pdo, int transmissionType, int... mappings) {
+        short params = (short) (OBJ_RPDO_PARAMS + pdo);
+        short mapping = (short) (OBJ_RPDO_MAPPING + pdo);
+        int cobID = EPOS2Transceiver.COB_RPDO1 + (pdo << 8) + nodeID;
+        int rc = writeObject(params, (byte) 0x01, cobID | 0x80000000);
+        rc |= writeObject(mapping, (byte) 0x00, (byte) 0);
+        for (int i = 0; i < mappings.length; i++) {
+            rc |= writeObject(mapping, (byte) (i + 1), mappings[i]);
+        }
+        rc |= writeObject(mapping, (byte) 0x00, (byte) mappings.length);
+        rc |= writeObject(params, (byte) 0x02, (byte) transmissionType);
+        rc |= writeObject(params, (byte) 0x01, cobID);
+        return rc == 0;
+    }
+
+    /**
+     * Encodes a PDO mapping entry for subindex 0 of the given object.
+     *
+     * @param index the mapped object
+     * @param bits the size of the object in bits
+     * @return the mapping entry
+     */
+    public static int pdoMapping(short index, int bits) {
+        return pdoMapping(index, (byte) 0x00, bits);
+    }
+
+    public static int pdoMapping(short index, byte subIndex, int bits) {
+        return ((index & 0xFFFF) << 16) | ((subIndex & 0xFF) << 8) | (bits & 0xFF);
+    }
+
+    /**
+     * Reads an arbitrary object of the drive.
+     *
+     * @param index the object index
+     * @param subIndex the object subindex
+     * @return the raw response payload, or -1 on error
+     */
+    public int readObject(short index, byte subIndex) {
+        if (frames == null) {
+            return trans.transmitSDO(new SDOFrame(nodeID, false, index, subIndex));
+        }
+        SDOFrameCache c = frames(index);
+        synchronized (c) {
+            return trans.transmitSDO(c.get(index, subIndex, false));
+        }
+    }
+
+    /**
+     * Reads a typed object of the drive.
+     *
+     * @param entry the object
+     * @return the value, or null if the read failed
+     */
+    public <T extends Number> T read(ObjectEntry<T> entry) {
+        if (!(trans instanceof EPOS2Transceiver)) {
+            int raw = readObject(entry.getIndex(), entry.getSubIndex());
+            return raw == -1 ? null : entry.box(entry.decode(raw));
+        }
+        SDOBatch b = new SDOBatch(1);
+        b.add(entry.readFrame(nodeID));
+        ((EPOS2Transceiver) trans).submitBatch(b);
+        return b.await() ? entry.box(entry.decode(b.getValue(0))) : null;
+    }
+
+    /**
+     * Writes a typed object of the drive with a transfer of the size of the
+     * object.
+     *
+     * @param entry the object
+     * @param value the value to write
+     * @return 0 on success, the abort code or -1 on error
+     */
+    public int write(ObjectEntry<?> entry, long value) {
+        switch (entry.getBits()) {
+            case 8:
+                return writeObject(entry.getIndex(), entry.getSubIndex(), (byte) value);
+            case 16:
+                return writeObject(entry.getIndex(), entry.getSubIndex(), (short) value);
+            default:
+                return writeObject(entry.getIndex(), entry.getSubIndex(), (int) value);
+        }
+    }
+
+    /**
+     * Reads a typed object of the drive, telling the value apart from an
+     * abort code or a timeout. Use {@link ObjectEntry#decode(int)} on the
+     * value of a successful result.
+     *
+     * @param entry the object
+     * @return the outcome of the read
+     */
+    public SDOResult readResult(ObjectEntry<?> entry) {
+        SDOFrame f = new SDOFrame(nodeID, false, entry.getIndex(), entry.getSubIndex());
+        if (!(trans instanceof EPOS2Transceiver)) {
+            return SDOResult.of(trans.transmitSDO(f), false);
+        }
+        return ((EPOS2Transceiver) trans).transfer(f);
+    }
+
+    /**
+     * Writes a typed object of the drive, as {@link #write(ObjectEntry, long)}
+     * does, reporting the abort code or timeout of a failed write.
+     *
+     * @param entry the object
+     * @param value the value to write
+     * @return the outcome of the write
+     */
+    public SDOResult writeResult(ObjectEntry<?> entry, long value) {
+        short index = entry.getIndex();
+        byte subIndex = entry.getSubIndex();
+        SDOFrame f;
+        int v;
+        switch (entry.getBits()) {
+            case 8:
+                v = (byte) value;
+                f = new SDOFrame(nodeID, true, index, subIndex, (byte) v);
+                break;
+            case 16:
+                v = (short) value;
+                f = new SDOFrame(nodeID, true, index, subIndex, (short) v);
+                break;
+            default:
+                v = (int) value;
+                f = new SDOFrame(nodeID, true, index, subIndex, v);
+                break;
+        }
+        ShadowCache s = shadow;
+        if (s != null && s.skip(index, subIndex, v)) {
+            return SDOResult.of(0, true);
+        }
+        commandSent(index);
+        SDOResult r = trans instanceof EPOS2Transceiver
+                ? ((EPOS2Transceiver) trans).transfer(f) : SDOResult.of(trans.transmitSDO(f), true);
+        if (s != null) {
+            s.written(index, subIndex, v, r.isOk());
+        }
+        return r;
+    }
+
+    /**
+     * Reads several objects of the drive in one pipelined pass. For reads
+     * repeated periodically, or spanning several drives, keep an
+     * {@link ObjectBatch} instead.
+     *
+     * @param results receives the decoded values in the order of
+     * {@code entries}, -1 for failed reads
+     * @param entries the objects to read
+     * @return true if every read succeeded
+     */
+    public boolean readBatch(long[] results, ObjectEntry<?>... entries) {
+        if (!(trans instanceof EPOS2Transceiver)) {
+            boolean ok = true;
+            for (int i = 0; i < entries.length; i++) {
+                int raw = readObject(entries[i].getIndex(), entries[i].getSubIndex());
+                results[i] = raw == -1 ? -1 : entries[i].decode(raw);
+                ok &= raw != -1;
+            }
+            return ok;
+        }
+        ObjectBatch b = new ObjectBatch(new EPOS2[]{this}, entries);
+        boolean ok = b.read();
+        System.arraycopy(b.getValues(), 0, results, 0, entries.length);
+        return ok;
+    }
+
+    /**
+     * Writes an arbitrary object of the drive. The overload used determines
+     * the size of the expedited transfer. If the shadow cache is enabled and
+     * already holds {@code value} for a shadowed object, nothing is sent.
+     *
+     * @param index the object index
+     * @param subIndex the object subindex
+     * @param value the value to write
+     * @return 0 on success, the abort code or -1 on error
+     */
+    public int writeObject(short index, byte subIndex, int value) {
+        ShadowCache s = shadow;
+        if (s != null && s.skip(index, subIndex, value)) {
+            return 0;
+        }
+        commandSent(index);
+        int rc;
+        if (frames == null) {
+            rc = trans.transmitSDO(new SDOFrame(nodeID, true, index, subIndex, value));
+        } else {
+            SDOFrameCache c = frames(index);
+            synchronized (c) {
+                SDOFrame f = c.get(index, subIndex, true);
+                f.setData(value);
+                rc = trans.transmitSDO(f);
+            }
+        }
+        if (s != null) {
+            s.written(index, subIndex, value, rc == 0);
+        }
+        return rc;
+    }
+
+    public int writeObject(short index, byte subIndex, short value) {
+        ShadowCache s = shadow;
+        if (s != null && s.skip(index, subIndex, value)) {
+            return 0;
+        }
+        commandSent(index);
+        int rc;
+        if (frames == null) {
+            rc = trans.transmitSDO(new SDOFrame(nodeID, true, index, subIndex, value));
+        } else {
+            SDOFrameCache c = frames(index);
+            synchronized (c) {
+                SDOFrame f = c.get(index, subIndex, true);
+                f.setData(value);
+                rc = trans.transmitSDO(f);
+            }
+        }
+        if (s != null) {
+            s.written(index, subIndex, value, rc == 0);
+        }
+        return rc;
+    }
+
+    public int writeObject(short index, byte subIndex, byte value) {
+        ShadowCache s = shadow;
+        if (s != null && s.skip(index, subIndex, value)) {
+            return 0;
+        }
+        commandSent(index);
+        int rc;
+        if (frames == null) {
+            rc = trans.transmitSDO(new SDOFrame(nodeID, true, index, subIndex, value));
+        } else {
+            SDOFrameCache c = frames(index);
+            synchronized (c) {
+                SDOFrame f = c.get(index, subIndex, true);
+                f.setData(value);
+                rc = trans.transmitSDO(f);
+            }
+        }
+        if (s != null) {
+            s.written(index, subIndex, value, rc == 0);
+        }
+        return rc;
+    }
+
+    /**
+     * Reads the statusword and decodes the DS402 state of the drive.
+     *
+     * @return one of the {@code ST_*} constants
+     * @see StatusWord#decodeState(int)
+     */
+    public int getState() {
+        int state = StatusWord.decodeState(readObject(OBJ_STATUSWORD, (byte) 0x00));
+        if (state == ST_FAULT) {
+            invalidateShadow();
+        }
+        return state;
+    }
+
+    /**
+     * Reads the statusword once and returns it as a {@link StatusWord}, so
+     * that the state, target reached, warning and fault bits can all be
+     * inspected without further SDO round trips.
+     *
+     * @return the current statusword of the drive
+     */
+    public StatusWord readStatus() {
+        StatusWord sw = new StatusWord(readObject(OBJ_STATUSWORD, (byte) 0x00));
+        if (sw.isFault()) {
+            invalidateShadow();
+        }
+        return sw;
+    }
+
+    public long faultReset() {
+        //System.out.println("Fault reset");
+        invalidateShadow();
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_FAULT_RESET);
+    }
+
+    public long shutdown() {
+        //System.out.println("Shutdown");
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_SHUTDOWN);
+    }
+
+    public long switchOn() {
+        //System.out.println("Switch on");
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_SWITCH_ON);
+    }
+
+    public long disableOperation() {
+        //System.out.println("Disable operation");
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_DISABLE_OPERATION);
+    }
+
+    public long disableVoltage() {
+        //System.out.println("Disable voltage");
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_DISABLE_VOLTAGE);
+    }
+
+    public void enableMotor(byte opMode) {
+        //System.out.println("Enable motor");
+        int state = getState();
+        if (state == ST_SWITCH_ON) {
+            enableOperation();
+        }
+
+        if (opMode != OPMODE_NOOP) {
+            if (shadow != null) {
+                // The shadow cache skips the write if the mode is unchanged
+                setOperationMode(opMode);
+            } else {
+                int currMode = getOperationMode();
+                if ((currMode & 0xFF) != (opMode & 0xFF)) {
+                    setOperationMode(opMode);
+                } else {
+                    //System.err.println("SAME_MODE");
+                }
+            }
+        } else {
+            //System.err.println("NO_OPERATION");
+        }
+    }
+
+    public int getOperationMode() {
+        //System.out.println("Get operation mode");
+        return readObject(OBJ_OPERATION_DISPLAY_MODES, (byte) 0x00);
+    }
+
+    public long setOperationMode(byte opMode) {
+        //System.out.println("Set operation mode");
+        return writeObject(OBJ_OPERATION_MODES, (byte) 0x00, opMode);
+    }
+//    public long setTargetVelocity(long velocity) {
+//        //System.out.println("Set target velocity");
+//        SDOFrame f = new SDOFrame(nodeID, true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) velocity);
+//        return trans.transmitSDO(f);
+//    }
+     
+    public int setTargetVelocity(int velocity) {
+        //System.out.println("Set target velocity");
+        return writeObject(OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) velocity);
+    }
+//    public int setVelocityMode() {
+//        //System.out.println("Set target velocity");
+//        SDOFrame f = new SDOFrame(nodeID, true, OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) velocity);
+//        return trans.transmitSDO(f);
+//    }
+        
+
+    public long getTargetVelocity() {
+        //System.out.println("Get target velocity");
+        return readObject(OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00);
+    }
+
+    // WTF IS THIS?
+//    public long startVelocity() {
+//        //System.out.println("Start velocity");
+//        SDOFrame f = new SDOFrame(getNodeID(), true, OBJ_CONTROLWORD, (byte) 0x00, (short) 0x000f);
+//        return trans.transmitSDO(f);
+//    }
+    
+    public long startVelocity() {
+        //System.out.println("Start velocity");
+        return writeObject(OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (short) 0x000f);
+    }
+        
+        
+
+    public long stopVelocity() {
+        //System.out.println("Stop velocity");
+        return writeObject(OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, (int) 0);
+    }
+
+    /**
+     * Switches to velocity mode with a zero setpoint, so that the motor does
+     * not jump to a stale setpoint, and enables the operation.
+     *
+     * @return 0 if every write was acknowledged
+     */
+    public int enterVelocityMode() {
+        int rc = setTargetVelocity(0);
+        rc |= (int) setOperationMode(OPMODE_VELOCITY);
+        return rc | (int) enableOperation();
+    }
+
+    public long readVelocitySensorActual() {
+        //System.out.println("Read velocity sensor actual");
+        return readObject(OBJ_VELOCITY_SENSOR_ACTUAL_VALUE, (byte) 0x00);
+    }
+
+    public long readVelocityActualAvg() {
+        ProcessDataCache pd = processData;
+        if (pd != null && ProcessDataCache.isFresh(pd.getAverageTimestamp(), processDataMaxAge)) {
+            return pd.getVelocityActualAvg();
+        }
+        //System.out.println("Read velocity actual average");
+        return readObject(OBJ_VELOCITY_ACTUAL_AVG_VALUE, (byte) 0x00);
+    }
+
+    public long readVelocityActual() {
+        ProcessDataCache pd = processData;
+        if (pd != null && ProcessDataCache.isFresh(pd.getVelocityTimestamp(), processDataMaxAge)) {
+            return pd.getVelocityActual();
+        }
+        //System.out.println("Read velocity actual");
+        return readObject(OBJ_VELOCITY_ACTUAL_VALUE, (byte) 0x00);
+    }
+
+    public long readVelocityDemand() {
+        ProcessDataCache pd = processData;
+        if (pd != null && ProcessDataCache.isFresh(pd.getAverageTimestamp(), processDataMaxAge)) {
+            return pd.getVelocityDemand();
+        }
+        //System.out.println("Read velocity demand");
+        return readObject(OBJ_VELOCITY_DEMAND_VALUE, (byte) 0x00);
+    }
+
+    // ================================================================ VELOCITY
+    public long readStatusWord() {
+        ProcessDataCache pd = processData;
+        if (pd != null && pd.isStatusCurrent(processDataMaxAge)) {
+            return pd.getStatusWord();
+        }
+        //System.out.println("Read status word");
+        return readObject(OBJ_STATUSWORD, (byte) 0x00);
+    }
+
+    // POSITION ================================================================
+    public int readPositionActual() {
+        ProcessDataCache pd = processData;
+        if (pd != null && pd.isStatusCurrent(processDataMaxAge)) {
+            return pd.getPositionActual();
+        }
+        //System.out.println("Read position actual");
+        return readObject(OBJ_POSITION_ACTUAL_VALUE, (byte) 0x00);
+    }
+
+    public int readTargetProfilePosition() {
+        //System.out.println("Read target profile position");
+        return readObject(OBJ_TARGET_PROFILE_POSITION, (byte) 0x00);
+    }
+
+    public int setTargetProfilePosition(int position) {
+        //System.out.println("Set target profile position");
+        return writeObject(OBJ_TARGET_PROFILE_POSITION, (byte) 0x00, position);
+    }
+
+    public int readProfileVelocity() {
+        return readObject(OBJ_PROFILE_VELOCITY, (byte) 0x00);
+    }
+
+    public int setProfileVelocity(int velocity) {
+        return writeObject(OBJ_PROFILE_VELOCITY, (byte) 0x00, velocity);
+    }
+
+    public int readProfileAcceleration() {
+        return readObject(OBJ_PROFILE_ACCELERATION, (byte) 0x00);
+    }
+
+    public int setProfileAcceleration(int acceleration) {
+        return writeObject(OBJ_PROFILE_ACCELERATION, (byte) 0x00, acceleration);
+    }
+
+    public int readProfileDeceleration() {
+        return readObject(OBJ_PROFILE_DECELERATION, (byte) 0x00);
+    }
+
+    public int setProfileDeceleration(int deceleration) {
+        return writeObject(OBJ_PROFILE_DECELERATION, (byte) 0x00, deceleration);
+    }
+
+    public int readMotionProfileType() {
+        return readObject(OBJ_MOTION_PROFILE_TYPE, (byte) 0x00);
+    }
+
+    public int setMotionProfileType(short type) {
+        return writeObject(OBJ_MOTION_PROFILE_TYPE, (byte) 0x00, type);
+    }
+
+    // WTF IS THIS?
+    public long startProfilePosition(boolean absolute) {
+        //System.out.println("Start profile position");
+
+        /*
+         int halt        = mode==HALT ?      0x0100 : 0x0000;
+         int rel         = mode==RELATIVE ?  0x0040 : 0x0000;
+         int nowait      = !wait ?           0x0020 : 0x0000;
+         int newsetpoint = new_point ?       0x0010 : 0x0000;
+         */
+
+        short cw = absolute ? CW_PROFILE_POSITION_ABSOLUTE : CW_PROFILE_POSITION_RELATIVE;
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, cw);
+    }
+
+    /**
+     * Starts a Profile Position Mode move and returns a handle on its
+     * completion. The new setpoint bit is cleared first, so the start
+     * command always produces the rising edge the drive expects.
+     *
+     * @param position the target position
+     * @param absolute true for an absolute, false for a relative target
+     * @param timeoutMs the time allowed for the move
+     * @return a future as returned by {@link #awaitTargetReached(long)},
+     * completed on the same thread, or failed right away if one of the
+     * commands was not acknowledged
+     */
+    public CompletableFuture<Integer> moveTo(int position, boolean absolute, long timeoutMs) {
+        int rc = setTargetProfilePosition(position);
+        rc |= (int) enableOperation();
+        rc |= (int) startProfilePosition(absolute);
+        if (rc != 0) {
+            CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+            f.completeExceptionally(new IllegalStateException("Node " + nodeID + " did not accept the move"));
+            return f;
+        }
+        return awaitTargetReached(timeoutMs);
+    }
+
+    /**
+     * Waits for the drive to report target reached without polling from
+     * the calling thread, see {@link MotionMonitor}. Must be called after
+     * the command starting the motion has been acknowledged.
+     *
+     * @param timeoutMs the deadline
+     * @return a future completing with the statusword reporting target
+     * reached, or exceptionally on timeout, fault or loss of operation
+     * enabled. It is completed on a thread of the {@link MotionMonitor}
+     * completion pool, never on the receiver thread of the transceiver.
+     */
+    public CompletableFuture<Integer> awaitTargetReached(long timeoutMs) {
+        return MotionMonitor.shared().await(this, timeoutMs);
+    }
+
+    // ================================================================ POSITION
+    // HOMING ==================================================================
+    public int readHomingMethod() {
+        return (byte) readObject(OBJ_HOMING_METHOD, (byte) 0x00);
+    }
+
+    public int setHomingMethod(byte method) {
+        return writeObject(OBJ_HOMING_METHOD, (byte) 0x00, method);
+    }
+
+    public int setHomingSpeeds(int switchSearch, int zeroSearch) {
+        int rc = writeObject(OBJ_HOMING_SPEEDS, OBJ_HOMING_SWITCH_SPEED_SUBIDX, switchSearch);
+        return rc | writeObject(OBJ_HOMING_SPEEDS, OBJ_HOMING_ZERO_SPEED_SUBIDX, zeroSearch);
+    }
+
+    public int setHomingAcceleration(int acceleration) {
+        return writeObject(OBJ_HOMING_ACCELERATION, (byte) 0x00, acceleration);
+    }
+
+    public int readHomeOffset() {
+        return readObject(OBJ_HOME_OFFSET, (byte) 0x00);
+    }
+
+    public int setHomeOffset(int offset) {
+        return writeObject(OBJ_HOME_OFFSET, (byte) 0x00, offset);
+    }
+
+    /**
+     * @param position the position assigned to the home position once
+     * homing has completed
+     */
+    public int setHomePosition(int position) {
+        return writeObject(OBJ_HOME_POSITION, (byte) 0x00, position);
+    }
+
+    /**
+     * Writes the homing parameters. With the shadow cache enabled,
+     * parameters that have not changed since the last homing are not
+     * written again.
+     *
+     * @param method one of the {@code HOMING_*} methods
+     * @param switchSearch the speed while searching for the switch, in rpm
+     * @param zeroSearch the speed while searching for the index, in rpm
+     * @param acceleration the homing acceleration, in rpm/s
+     * @param offset the offset moved away from the home position, in qc
+     * @return 0 if every write was acknowledged
+     */
+    public int configureHoming(byte method, int switchSearch, int zeroSearch, int acceleration, int offset) {
+        int rc = setHomingMethod(method);
+        rc |= setHomingSpeeds(switchSearch, zeroSearch);
+        rc |= setHomingAcceleration(acceleration);
+        return rc | setHomeOffset(offset);
+    }
+
+    /**
+     * Switches to homing mode and starts homing with the configured
+     * parameters. The drive must be in operation enabled.
+     *
+     * @param timeoutMs the time allowed for homing
+     * @return a future completing with the statusword reporting homing
+     * attained, or exceptionally on homing error, fault or timeout, see
+     * {@link MotionMonitor#awaitHomingAttained(EPOS2, long)}. It is
+     * completed on a thread of the {@link MotionMonitor} completion pool.
+     */
+    public CompletableFuture<Integer> home(long timeoutMs) {
+        int rc = (int) setOperationMode(OPMODE_HOMING);
+        rc |= (int) enableOperation();
+        rc |= writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_START_HOMING);
+        if (rc != 0) {
+            CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+            f.completeExceptionally(new IllegalStateException("Node " + nodeID + " did not start homing"));
+            return f;
+        }
+        return MotionMonitor.shared().awaitHomingAttained(this, timeoutMs);
+    }
+
+    /**
+     * Stops a homing procedure in progress.
+     */
+    public int haltHoming() {
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_HALT_HOMING);
+    }
+
+    // ================================================================== HOMING
+    // CURRENT =================================================================
+    public int readTargetCurrent() {
+        return (short) readObject(OBJ_CURRENT_MODE_SETTING_VALUE, (byte) 0x00);
+    }
+
+    /**
+     * @param current the current setpoint in mA, used in
+     * {@link #OPMODE_CURRENT}
+     */
+    public int setTargetCurrent(int current) {
+        return writeObject(OBJ_CURRENT_MODE_SETTING_VALUE, (byte) 0x00, (short) current);
+    }
+
+    public int readCurrentPGain() {
+        return readObject(OBJ_CURRENT_CONTROL_PARAMS, OBJ_CURRENT_PGAIN_SUBIDX) & 0xFFFF;
+    }
+
+    public int setCurrentPGain(int gain) {
+        return writeObject(OBJ_CURRENT_CONTROL_PARAMS, OBJ_CURRENT_PGAIN_SUBIDX, (short) gain);
+    }
+
+    public int readCurrentIGain() {
+        return readObject(OBJ_CURRENT_CONTROL_PARAMS, OBJ_CURRENT_IGAIN_SUBIDX) & 0xFFFF;
+    }
+
+    public int setCurrentIGain(int gain) {
+        return writeObject(OBJ_CURRENT_CONTROL_PARAMS, OBJ_CURRENT_IGAIN_SUBIDX, (short) gain);
+    }
+
+    /**
+     * Switches to current mode with a zero setpoint, so that the motor does
+     * not jump to a stale setpoint, and enables the operation.
+     *
+     * @return 0 if every write was acknowledged
+     */
+    public int enterCurrentMode() {
+        int rc = setTargetCurrent(0);
+        rc |= (int) setOperationMode(OPMODE_CURRENT);
+        return rc | (int) enableOperation();
+    }
+
+    public int readCurrentActual() {
+        ProcessDataCache pd = processData;
+        if (pd != null && ProcessDataCache.isFresh(pd.getVelocityTimestamp(), processDataMaxAge)) {
+            return pd.getCurrentActual();
+        }
+        return (short) readObject(OBJ_CURRENT_ACTUAL_VALUE, (byte) 0x00);
+    }
+
+    // ================================================================= CURRENT
+    public boolean isTargetReached() {
+        ProcessDataCache pd = processData;
+        if (pd != null && pd.isStatusCurrent(processDataMaxAge)) {
+            return StatusWord.isTargetReached(pd.getStatusWord());
+        }
+        //System.out.println("Is target reached");
+        return StatusWord.isTargetReached(readObject(OBJ_STATUSWORD, (byte) 0x00));
+    }
+
+    public long enableOperation() {
+        //System.out.println("Enable operation");
+        return writeObject(OBJ_CONTROLWORD, (byte) 0x00, CW_ENABLE_OPERATION);
+    }
+
+    public void disableController() {
+        //System.out.println("Disable controller");
+        disableVoltage();
+    }
+
+    /**
+     * Brings the drive to the switched on state, resetting faults on the
+     * way if necessary.
+     *
+     * The transition is carried out by the {@link StateMachineDriver} of
+     * this instance, this method merely waits for its result.
+     *
+     * @return true if the drive reached switched on before the state
+     * transition timeout
+     * @see #setStateTransitionTimeout(long)
+     */
+    public boolean enableController() {
+        try {
+            return getStateMachine().enableController(stateTransitionTimeout).get() == ST_SWITCH_ON;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ee) {
+            return false;
+        }
+    }
+
+    public synchronized StateMachineDriver getStateMachine() {
+        if (stateMachine == null) {
+            stateMachine = new StateMachineDriver(this);
+        }
+        return stateMachine;
+    }
+
+    public void setStateTransitionTimeout(long timeoutMs) {
+        this.stateTransitionTimeout = timeoutMs;
+    }
+
+    public long getStateTransitionTimeout() {
+        return stateTransitionTimeout;
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Non-blocking counterpart of {@link EPOS2}. Every method submits its SDO
+ * through {@link EPOS2Transceiver#submitSDO(SDOFrame)} and returns
+ * immediately with a future of the value the blocking method would have
+ * returned.
+ *
+ * Requests to the same node are executed one after the other, requests to
+ * different nodes are in flight at the same time. Reading the position of
+ * a whole bus is therefore a matter of one round trip:
+ * <pre>
+ * CompletableFuture&lt;int[]&gt; pos = EPOS2Async.collect(
+ *         axis1.readPositionActual(), axis2.readPositionActual(), ...);
+ * </pre>
+ *
+ * Futures are completed on the receiver thread of the transceiver.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class EPOS2Async {
+
+    private static final Function<Integer, Integer> DECODE_STATE = new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer rsp) {
+            return StatusWord.decodeState(rsp);
+        }
+    };
+    private static final Function<Integer, StatusWord> TO_STATUS = new Function<Integer, StatusWord>() {
+        @Override
+        public StatusWord apply(Integer rsp) {
+            return new StatusWord(rsp);
+        }
+    };
+    private static final Function<Integer, Integer> TO_SHORT = new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer rsp) {
+            return (int) rsp.shortValue();
+        }
+    };
+    private static final Function<int[], Integer> OR_RESULTS = new Function<int[], Integer>() {
+        @Override
+        public Integer apply(int[] rsp) {
+            int rc = 0;
+            for (int i = 0; i < rsp.length; i++) {
+                rc |= rsp[i];
+            }
+            return rc;
+        }
+    };
+    private final EPOS2 epos;
+
+    public EPOS2Async(EPOS2 epos) {
+        this.epos = epos;
+    }
+
+    public EPOS2 getEPOS2() {
+        return epos;
+    }
+
+    public CompletableFuture<Integer> getState() {
+        return readObject(EPOS2.OBJ_STATUSWORD, (byte) 0x00).thenApply(DECODE_STATE);
+    }
+
+    public CompletableFuture<StatusWord> readStatus() {
+        return readObject(EPOS2.OBJ_STATUSWORD, (byte) 0x00).thenApply(TO_STATUS);
+    }
+
+    public CompletableFuture<Integer> readStatusWord() {
+        return readObject(EPOS2.OBJ_STATUSWORD, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> getOperationMode() {
+        return readObject(EPOS2.OBJ_OPERATION_DISPLAY_MODES, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> readPositionActual() {
+        return readObject(EPOS2.OBJ_POSITION_ACTUAL_VALUE, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> readVelocityActual() {
+        return readObject(EPOS2.OBJ_VELOCITY_ACTUAL_VALUE, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> readVelocityActualAvg() {
+        return readObject(EPOS2.OBJ_VELOCITY_ACTUAL_AVG_VALUE, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> readVelocityDemand() {
+        return readObject(EPOS2.OBJ_VELOCITY_DEMAND_VALUE, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> readCurrentActual() {
+        return readObject(EPOS2.OBJ_CURRENT_ACTUAL_VALUE, (byte) 0x00).thenApply(TO_SHORT);
+    }
+
+    public CompletableFuture<Integer> readTargetProfilePosition() {
+        return readObject(EPOS2.OBJ_TARGET_PROFILE_POSITION, (byte) 0x00);
+    }
+
+    public CompletableFuture<Integer> setOperationMode(byte opMode) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_OPERATION_MODES, (byte) 0x00, opMode));
+    }
+
+    public CompletableFuture<Integer> setTargetVelocity(int velocity) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00, velocity));
+    }
+
+    public CompletableFuture<Integer> setTargetProfilePosition(int position) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_TARGET_PROFILE_POSITION, (byte) 0x00, position));
+    }
+
+    public CompletableFuture<Integer> setProfileVelocity(int velocity) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_PROFILE_VELOCITY, (byte) 0x00, velocity));
+    }
+
+    public CompletableFuture<Integer> setProfileAcceleration(int acceleration) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_PROFILE_ACCELERATION, (byte) 0x00, acceleration));
+    }
+
+    public CompletableFuture<Integer> setProfileDeceleration(int deceleration) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_PROFILE_DECELERATION, (byte) 0x00, deceleration));
+    }
+
+    public CompletableFuture<Integer> writeControlword(short cw) {
+        return submit(new SDOFrame(epos.getNodeID(), true, EPOS2.OBJ_CONTROLWORD, (byte) 0x00, cw));
+    }
+
+    public CompletableFuture<Integer> faultReset() {
+        ShadowCache s = epos.getShadowCache();
+        if (s != null) {
+            s.invalidate();
+        }
+        return writeControlword(EPOS2.CW_FAULT_RESET);
+    }
+
+    public CompletableFuture<Integer> shutdown() {
+        return writeControlword(EPOS2.CW_SHUTDOWN);
+    }
+
+    public CompletableFuture<Integer> switchOn() {
+        return writeControlword(EPOS2.CW_SWITCH_ON);
+    }
+
+    public CompletableFuture<Integer> enableOperation() {
+        return writeControlword(EPOS2.CW_ENABLE_OPERATION);
+    }
+
+    public CompletableFuture<Integer> disableOperation() {
+        return writeControlword(EPOS2.CW_DISABLE_OPERATION);
+    }
+
+    public CompletableFuture<Integer> disableVoltage() {
+        return writeControlword(EPOS2.CW_DISABLE_VOLTAGE);
+    }
+
+    public CompletableFuture<Integer> startProfilePosition(boolean absolute) {
+        return writeControlword(absolute ? EPOS2.CW_PROFILE_POSITION_ABSOLUTE : EPOS2.CW_PROFILE_POSITION_RELATIVE);
+    }
+
+    /**
+     * Writes the homing parameters, see
+     * {@link EPOS2#configureHoming(byte, int, int, int, int)}.
+     *
+     * @return a future completing with 0 if every write was acknowledged
+     */
+    public CompletableFuture<Integer> configureHoming(byte method, int switchSearch, int zeroSearch,
+            int acceleration, int offset) {
+        short nodeID = epos.getNodeID();
+        return collect(
+                submit(new SDOFrame(nodeID, true, EPOS2.OBJ_HOMING_METHOD, (byte) 0x00, method)),
+                submit(new SDOFrame(nodeID, true, EPOS2.OBJ_HOMING_SPEEDS, EPOS2.OBJ_HOMING_SWITCH_SPEED_SUBIDX, switchSearch)),
+                submit(new SDOFrame(nodeID, true, EPOS2.OBJ_HOMING_SPEEDS, EPOS2.OBJ_HOMING_ZERO_SPEED_SUBIDX, zeroSearch)),
+                submit(new SDOFrame(nodeID, true, EPOS2.OBJ_HOMING_ACCELERATION, (byte) 0x00, acceleration)),
+                submit(new SDOFrame(nodeID, true, EPOS2.OBJ_HOME_OFFSET, (byte) 0x00, offset)))
+                .thenApply(OR_RESULTS);
+    }
+
+    /**
+     * Switches to homing mode and starts homing, see
+     * {@link EPOS2#home(long)}. Each step is only sent once the previous
+     * one has been acknowledged, as the start depends on the mode and
+     * on operation being enabled.
+     *
+     * @param timeoutMs the time allowed for homing once it has started
+     * @return a future completing with the statusword reporting homing
+     * attained
+     */
+    public CompletableFuture<Integer> home(final long timeoutMs) {
+        return setOperationMode(EPOS2.OPMODE_HOMING)
+                .thenCompose(new Function<Integer, CompletableFuture<Integer>>() {
+                    @Override
+                    public CompletableFuture<Integer> apply(Integer rc) {
+                        return rc != 0 ? homingNotStarted() : enableOperation();
+                    }
+                })
+                .thenCompose(new Function<Integer, CompletableFuture<Integer>>() {
+                    @Override
+                    public CompletableFuture<Integer> apply(Integer rc) {
+                        return rc != 0 ? homingNotStarted() : writeControlword(EPOS2.CW_START_HOMING);
+                    }
+                })
+                .thenCompose(new Function<Integer, CompletableFuture<Integer>>() {
+                    @Override
+                    public CompletableFuture<Integer> apply(Integer rc) {
+                        if (rc != 0) {
+                            return homingNotStarted();
+                        }
+                        return MotionMonitor.shared().awaitHomingAttained(epos, timeoutMs);
+                    }
+                });
+    }
+
+    private CompletableFuture<Integer> homingNotStarted() {
+        CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+        f.completeExceptionally(new IllegalStateException("Node " + epos.getNodeID()
+                + " did not start homing"));
+        return f;
+    }
+
+    /**
+     * Homes several drives in parallel with their configured parameters.
+     * The SDOs starting homing are in flight on all nodes at the same time,
+     * and completion is observed as described in {@link MotionMonitor}.
+     *
+     * @param timeoutMs the time allowed for homing of each drive
+     * @param axes the drives, in operation enabled
+     * @return a future completing with the final statusword of each drive,
+     * or exceptionally if one of them fails
+     */
+    public static CompletableFuture<int[]> homeAll(long timeoutMs, EPOS2... axes) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Integer>[] f = new CompletableFuture[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            f[i] = new EPOS2Async(axes[i]).home(timeoutMs);
+        }
+        return collect(f);
+    }
+
+    /**
+     * Reads an arbitrary object of the drive.
+     *
+     * @param index the object index
+     * @param subIndex the object subindex
+     * @return a future completing with the raw response payload
+     */
+    public CompletableFuture<Integer> readObject(short index, byte subIndex) {
+        return submit(new SDOFrame(epos.getNodeID(), false, index, subIndex));
+    }
+
+    private CompletableFuture<Integer> submit(SDOFrame f) {
+        if (!(epos.getTranceiver() instanceof EPOS2Transceiver)) {
+            throw new IllegalStateException("Asynchronous access requires an EPOS2Transceiver");
+        }
+        if (f.write) {
+            epos.commandSent(f.index);
+        }
+        ShadowCache s = epos.getShadowCache();
+        if (s != null && f.write) {
+            // Asynchronous writes bypass the shadow, so it must forget the object
+            s.forget(f.index, f.subIndex);
+        }
+        return ((EPOS2Transceiver) epos.getTranceiver()).submitSDO(f);
+    }
+
+    /**
+     * Combines per-node results into one array, in the order given.
+     *
+     * @param futures the futures to combine
+     * @return a future completing once all given futures have completed
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public static CompletableFuture<int[]> collect(final CompletableFuture<Integer>... futures) {
+        return CompletableFuture.allOf(futures).thenApply(new Function<Void, int[]>() {
+            @Override
+            public int[] apply(Void v) {
+                int[] ret = new int[futures.length];
+                for (int i = 0; i < futures.length; i++) {
+                    ret[i] = futures[i].join();
+                }
+                return ret;
+            }
+        });
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static CompletableFuture<int[]> collect(List<CompletableFuture<Integer>> futures) {
+        return collect(futures.toArray(new CompletableFuture[futures.size()]));
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+/**
+ * {@link ObjectEntry} descriptors of the EPOS2 objects used by this
+ * library, with the data types given in the EPOS2 firmware specification.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public final class EPOS2Objects {
+
+    public static final ObjectEntry<Long> DEVICE_TYPE =
+            ObjectEntry.uint32("Device Type", EPOS2.OBJ_DEVICE_TYPE, (byte) 0x00);
+    public static final ObjectEntry<Integer> STATUSWORD =
+            ObjectEntry.uint16("Statusword", EPOS2.OBJ_STATUSWORD, (byte) 0x00);
+    public static final ObjectEntry<Integer> CONTROLWORD =
+            ObjectEntry.uint16("Controlword", EPOS2.OBJ_CONTROLWORD, (byte) 0x00);
+    public static final ObjectEntry<Byte> MODES_OF_OPERATION =
+            ObjectEntry.int8("Modes of Operation", EPOS2.OBJ_OPERATION_MODES, (byte) 0x00);
+    public static final ObjectEntry<Byte> MODES_OF_OPERATION_DISPLAY =
+            ObjectEntry.int8("Modes of Operation Display", EPOS2.OBJ_OPERATION_DISPLAY_MODES, (byte) 0x00);
+    public static final ObjectEntry<Integer> POSITION_ACTUAL =
+            ObjectEntry.int32("Position Actual Value", EPOS2.OBJ_POSITION_ACTUAL_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Integer> TARGET_POSITION =
+            ObjectEntry.int32("Target Position", EPOS2.OBJ_TARGET_PROFILE_POSITION, (byte) 0x00);
+    public static final ObjectEntry<Integer> VELOCITY_ACTUAL =
+            ObjectEntry.int32("Velocity Actual Value", EPOS2.OBJ_VELOCITY_ACTUAL_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Integer> VELOCITY_ACTUAL_AVG =
+            ObjectEntry.int32("Velocity Actual Value Averaged", EPOS2.OBJ_VELOCITY_ACTUAL_AVG_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Integer> VELOCITY_SENSOR_ACTUAL =
+            ObjectEntry.int32("Velocity Sensor Actual Value", EPOS2.OBJ_VELOCITY_SENSOR_ACTUAL_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Integer> VELOCITY_DEMAND =
+            ObjectEntry.int32("Velocity Demand Value", EPOS2.OBJ_VELOCITY_DEMAND_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Integer> VELOCITY_MODE_SETTING =
+            ObjectEntry.int32("Velocity Mode Setting Value", EPOS2.OBJ_VELOCITY_MODE_SETTING_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Short> CURRENT_ACTUAL =
+            ObjectEntry.int16("Current Actual Value", EPOS2.OBJ_CURRENT_ACTUAL_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Short> CURRENT_MODE_SETTING =
+            ObjectEntry.int16("Current Mode Setting Value", EPOS2.OBJ_CURRENT_MODE_SETTING_VALUE, (byte) 0x00);
+    public static final ObjectEntry<Integer> CURRENT_P_GAIN =
+            ObjectEntry.uint16("Current Regulator P-Gain", EPOS2.OBJ_CURRENT_CONTROL_PARAMS,
+                    EPOS2.OBJ_CURRENT_PGAIN_SUBIDX);
+    public static final ObjectEntry<Integer> CURRENT_I_GAIN =
+            ObjectEntry.uint16("Current Regulator I-Gain", EPOS2.OBJ_CURRENT_CONTROL_PARAMS,
+                    EPOS2.OBJ_CURRENT_IGAIN_SUBIDX);
+    public static final ObjectEntry<Long> PROFILE_VELOCITY =
+            ObjectEntry.uint32("Profile Velocity", EPOS2.OBJ_PROFILE_VELOCITY, (byte) 0x00);
+    public static final ObjectEntry<Long> PROFILE_ACCELERATION =
+            ObjectEntry.uint32("Profile Acceleration", EPOS2.OBJ_PROFILE_ACCELERATION, (byte) 0x00);
+    public static final ObjectEntry<Long> PROFILE_DECELERATION =
+            ObjectEntry.uint32("Profile Deceleration", EPOS2.OBJ_PROFILE_DECELERATION, (byte) 0x00);
+    public static final ObjectEntry<Short> MOTION_PROFILE_TYPE =
+            ObjectEntry.int16("Motion Profile Type", EPOS2.OBJ_MOTION_PROFILE_TYPE, (byte) 0x00);
+    public static final ObjectEntry<Long> ENCODER_PULSE_NUMBER =
+            ObjectEntry.uint32("Encoder Pulse Number", EPOS2.OBJ_SENSOR_CONFIGURATION,
+                    EPOS2.OBJ_ENCODER_PULSE_NUMBER_SUBIDX);
+    public static final ObjectEntry<Integer> HOME_OFFSET =
+            ObjectEntry.int32("Home Offset", EPOS2.OBJ_HOME_OFFSET, (byte) 0x00);
+    public static final ObjectEntry<Byte> HOMING_METHOD =
+            ObjectEntry.int8("Homing Method", EPOS2.OBJ_HOMING_METHOD, (byte) 0x00);
+
+    /**
+     * The entries of a typical periodic axis snapshot, for use with
+     * {@link ObjectBatch}.
+     */
+    public static ObjectEntry<?>[] axisState() {
+        return new ObjectEntry<?>[]{STATUSWORD, POSITION_ACTUAL, VELOCITY_ACTUAL, CURRENT_ACTUAL,
+            MODES_OF_OPERATION_DISPLAY};
+    }
+
+    private EPOS2Objects() {
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+/**
+ * One EMCY message of an EPOS2 node: the error code, the error register
+ * (0x1001) at the time of the error and the manufacturer specific bytes.
+ * An error code of {@link #NO_ERROR} signals that the node has left the
+ * error state.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class EmergencyEvent {
+
+    public static final int NO_ERROR = 0x0000;
+    public static final int GENERIC_ERROR = 0x1000;
+    public static final int OVER_CURRENT = 0x2310;
+    public static final int OVER_VOLTAGE = 0x3210;
+    public static final int UNDER_VOLTAGE = 0x3220;
+    public static final int OVER_TEMPERATURE = 0x4210;
+    public static final int SUPPLY_VOLTAGE_LOW = 0x5113;
+    public static final int INTERNAL_SOFTWARE_ERROR = 0x6100;
+    public static final int SOFTWARE_PARAMETER_ERROR = 0x6320;
+    public static final int SENSOR_POSITION_ERROR = 0x7320;
+    public static final int CAN_OVERRUN_OBJECTS_LOST = 0x8110;
+    public static final int CAN_OVERRUN = 0x8111;
+    public static final int CAN_PASSIVE_MODE = 0x8120;
+    public static final int CAN_LIFE_GUARD_ERROR = 0x8130;
+    public static final int CAN_COB_ID_COLLISION = 0x8150;
+    public static final int CAN_BUS_OFF = 0x81FD;
+    public static final int CAN_RX_QUEUE_OVERRUN = 0x81FE;
+    public static final int CAN_TX_QUEUE_OVERRUN = 0x81FF;
+    public static final int FOLLOWING_ERROR = 0x8611;
+    public static final int HALL_SENSOR_ERROR = 0xFF01;
+    public static final int INDEX_PROCESSING_ERROR = 0xFF02;
+    public static final int ENCODER_RESOLUTION_ERROR = 0xFF03;
+    public static final int HALL_SENSOR_NOT_FOUND = 0xFF04;
+    public static final int NEGATIVE_LIMIT_SWITCH = 0xFF06;
+    public static final int POSITIVE_LIMIT_SWITCH = 0xFF07;
+    public static final int HALL_ANGLE_DETECTION_ERROR = 0xFF08;
+    public static final int SOFTWARE_POSITION_LIMIT = 0xFF09;
+    public static final int POSITION_SENSOR_BREACH = 0xFF0A;
+    public static final int SYSTEM_OVERLOADED = 0xFF0B;
+    public static final int REGISTER_GENERIC = 0x01;
+    public static final int REGISTER_CURRENT = 0x02;
+    public static final int REGISTER_VOLTAGE = 0x04;
+    public static final int REGISTER_TEMPERATURE = 0x08;
+    public static final int REGISTER_COMMUNICATION = 0x10;
+    public static final int REGISTER_DEVICE_PROFILE = 0x20;
+    public static final int REGISTER_MANUFACTURER = 0x80;
+    private final short nodeID;
+    private final int errorCode;
+    private final int errorRegister;
+    private final long manufacturerData;
+    private final long nanoTime;
+    private final long timeMillis;
+
+    public EmergencyEvent(short nodeID, int errorCode, int errorRegister, long manufacturerData,
+            long nanoTime, long timeMillis) {
+        this.nodeID = nodeID;
+        this.errorCode = errorCode;
+        this.errorRegister = errorRegister;
+        this.manufacturerData = manufacturerData;
+        this.nanoTime = nanoTime;
+        this.timeMillis = timeMillis;
+    }
+
+    public short getNodeID() {
+        return nodeID;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return the error register, a combination of the {@code REGISTER_*}
+     * flags
+     */
+    public int getErrorRegister() {
+        return errorRegister;
+    }
+
+    /**
+     * @return bytes 3 to 7 of the message, little-endian
+     */
+    public long getManufacturerData() {
+        return manufacturerData;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the message was taken
+     * off the bus
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * @return the wall clock time of reception in milliseconds since the
+     * epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return true unless the message signals the end of an error
+     */
+    public boolean isError() {
+        return errorCode != NO_ERROR;
+    }
+
+    /**
+     * @param errorCode an EMCY error code
+     * @return the name of the error as given in the EPOS2 firmware
+     * specification
+     */
+    public static String describe(int errorCode) {
+        switch (errorCode) {
+            case NO_ERROR:
+                return "No error";
+            case GENERIC_ERROR:
+                return "Generic error";
+            case OVER_CURRENT:
+                return "Over current";
+            case OVER_VOLTAGE:
+                return "Over voltage";
+            case UNDER_VOLTAGE:
+                return "Under voltage";
+            case OVER_TEMPERATURE:
+                return "Over temperature";
+            case SUPPLY_VOLTAGE_LOW:
+                return "Supply voltage (+5V) too low";
+            case INTERNAL_SOFTWARE_ERROR:
+                return "Internal software error";
+            case SOFTWARE_PARAMETER_ERROR:
+                return "Software parameter error";
+            case SENSOR_POSITION_ERROR:
+                return "Sensor position error";
+            case CAN_OVERRUN_OBJECTS_LOST:
+                return "CAN overrun (objects lost)";
+            case CAN_OVERRUN:
+                return "CAN overrun";
+            case CAN_PASSIVE_MODE:
+                return "CAN passive mode";
+            case CAN_LIFE_GUARD_ERROR:
+                return "CAN life guard error";
+            case CAN_COB_ID_COLLISION:
+                return "CAN transmit COB-ID collision";
+            case CAN_BUS_OFF:
+                return "CAN bus off";
+            case CAN_RX_QUEUE_OVERRUN:
+                return "CAN Rx queue overrun";
+            case CAN_TX_QUEUE_OVERRUN:
+                return "CAN Tx queue overrun";
+            case FOLLOWING_ERROR:
+                return "Following error";
+            case HALL_SENSOR_ERROR:
+                return "Hall sensor error";
+            case INDEX_PROCESSING_ERROR:
+                return "Index processing error";
+            case ENCODER_RESOLUTION_ERROR:
+                return "Encoder resolution error";
+            case HALL_SENSOR_NOT_FOUND:
+                return "Hall sensor not found";
+            case NEGATIVE_LIMIT_SWITCH:
+                return "Negative limit switch error";
+            case POSITIVE_LIMIT_SWITCH:
+                return "Positive limit switch error";
+            case HALL_ANGLE_DETECTION_ERROR:
+                return "Hall angle detection error";
+            case SOFTWARE_POSITION_LIMIT:
+                return "Software position limit error";
+            case POSITION_SENSOR_BREACH:
+                return "Position sensor breach";
+            case SYSTEM_OVERLOADED:
+                return "System overloaded";
+            default:
+                return String.format("Unknown error 0x%04X", errorCode);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("node %d: 0x%04X %s (register 0x%02X)", nodeID, errorCode,
+                describe(errorCode), errorRegister);
+    }
+}
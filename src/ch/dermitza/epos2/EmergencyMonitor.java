@@ -0,0 +1,239 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.CanFrameListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.util.LongRingBuffer;
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receives the EMCY messages of the watched nodes of one bus and publishes
+ * them to {@link EmergencyListener}s, so that faults are seen as soon as
+ * the drive reports them instead of on the next statusword poll.
+ *
+ * The receiver thread only copies each message into a lock-free ring and
+ * wakes the dispatcher thread, it neither allocates nor calls listeners.
+ * The dispatcher decodes the messages into {@link EmergencyEvent}s, keeps
+ * the last {@link #HISTORY_SIZE} events of every node and calls the
+ * listeners, which may therefore issue SDOs. When the ring is full, further
+ * messages are dropped and counted.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class EmergencyMonitor implements CanFrameListener, Runnable {
+
+    public static final int HISTORY_SIZE = 16;
+    private static final int RECORD = 3;
+    private static final EmergencyListener[] NONE = new EmergencyListener[0];
+    private final EPOS2Transceiver trans;
+    private final LongRingBuffer ring;
+    private final long[] record = new long[RECORD];
+    private final boolean[] watched = new boolean[EPOS2Transceiver.MAX_NODES];
+    private final EmergencyEvent[][] history = new EmergencyEvent[EPOS2Transceiver.MAX_NODES][];
+    private final int[] historyCount = new int[EPOS2Transceiver.MAX_NODES];
+    private final EmergencyEvent[] active = new EmergencyEvent[EPOS2Transceiver.MAX_NODES];
+    private volatile EmergencyListener[] listeners = NONE;
+    private volatile boolean running;
+    private volatile long received;
+    private volatile long dropped;
+    private volatile Thread thread;
+
+    /**
+     * @param trans the transceiver of the bus
+     * @param capacity the number of messages the ring holds
+     */
+    public EmergencyMonitor(EPOS2Transceiver trans, int capacity) {
+        this.trans = trans;
+        this.ring = new LongRingBuffer(capacity * RECORD);
+    }
+
+    public EmergencyMonitor(EPOS2Transceiver trans) {
+        this(trans, 256);
+    }
+
+    /**
+     * Starts receiving the EMCY messages of the given node, and the
+     * dispatcher thread if it is not running yet.
+     */
+    public synchronized void watch(short nodeID) {
+        if (!watched[nodeID & 0x7F]) {
+            watched[nodeID & 0x7F] = true;
+            trans.addFrameListener(EPOS2Transceiver.COB_EMCY + nodeID, this);
+        }
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, "EPOS2 EMCY");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void unwatch(short nodeID) {
+        if (watched[nodeID & 0x7F]) {
+            watched[nodeID & 0x7F] = false;
+            trans.removeFrameListener(EPOS2Transceiver.COB_EMCY + nodeID, this);
+        }
+    }
+
+    /**
+     * Unwatches all nodes and stops the dispatcher thread once it has
+     * delivered the pending events.
+     */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            for (int n = 0; n < watched.length; n++) {
+                if (watched[n]) {
+                    unwatch((short) n);
+                }
+            }
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized void addListener(EmergencyListener l) {
+        EmergencyListener[] n = new EmergencyListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, n, 0, listeners.length);
+        n[listeners.length] = l;
+        listeners = n;
+    }
+
+    public synchronized void removeListener(EmergencyListener l) {
+        EmergencyListener[] arr = listeners;
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] == l) {
+                EmergencyListener[] n = new EmergencyListener[arr.length - 1];
+                System.arraycopy(arr, 0, n, 0, i);
+                System.arraycopy(arr, i + 1, n, i, arr.length - i - 1);
+                listeners = n;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void frameReceived(CanMessage msg, long nanoTime) {
+        byte[] d = msg.getData();
+        long data = 0;
+        for (int i = Math.min(d.length, 8) - 1; i >= 0; i--) {
+            data = (data << 8) | (d[i] & 0xFF);
+        }
+        record[0] = nanoTime;
+        record[1] = msg.getID() - EPOS2Transceiver.COB_EMCY;
+        record[2] = data;
+        received++;
+        if (ring.offerAll(record, 0, RECORD)) {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        } else {
+            dropped++;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running || !ring.isEmpty()) {
+            if (ring.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            long nanoTime = ring.poll();
+            short nodeID = (short) ring.poll();
+            long data = ring.poll();
+            long millis = System.currentTimeMillis() - (System.nanoTime() - nanoTime) / 1000000L;
+            EmergencyEvent e = new EmergencyEvent(nodeID, (int) (data & 0xFFFF), (int) ((data >>> 16) & 0xFF),
+                    data >>> 24, nanoTime, millis);
+            synchronized (this) {
+                EmergencyEvent[] h = history[nodeID];
+                if (h == null) {
+                    h = new EmergencyEvent[HISTORY_SIZE];
+                    history[nodeID] = h;
+                }
+                h[historyCount[nodeID]++ % HISTORY_SIZE] = e;
+                active[nodeID] = e.isError() ? e : null;
+            }
+            EmergencyListener[] l = listeners;
+            for (int i = 0; i < l.length; i++) {
+                l[i].emergency(e);
+            }
+        }
+    }
+
+    /**
+     * @param nodeID the node
+     * @return the events received from the node, most recent first, at most
+     * {@link #HISTORY_SIZE}
+     */
+    public synchronized List<EmergencyEvent> getHistory(short nodeID) {
+        int n = historyCount[nodeID & 0x7F];
+        int size = Math.min(n, HISTORY_SIZE);
+        List<EmergencyEvent> list = new ArrayList<EmergencyEvent>(size);
+        for (int i = 1; i <= size; i++) {
+            list.add(history[nodeID & 0x7F][(n - i) % HISTORY_SIZE]);
+        }
+        return list;
+    }
+
+    /**
+     * @return the last error reported by the node, or null if the node has
+     * not reported one or has signalled the end of the error since
+     */
+    public synchronized EmergencyEvent getActiveError(short nodeID) {
+        return active[nodeID & 0x7F];
+    }
+
+    /**
+     * @return the number of events received from the node since the monitor
+     * was created
+     */
+    public synchronized int getEventCount(short nodeID) {
+        return historyCount[nodeID & 0x7F];
+    }
+
+    public synchronized void clearHistory(short nodeID) {
+        history[nodeID & 0x7F] = null;
+        historyCount[nodeID & 0x7F] = 0;
+        active[nodeID & 0x7F] = null;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+}
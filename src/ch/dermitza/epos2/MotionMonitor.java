@@ -0,0 +1,429 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Completes futures when a drive reports target reached (statusword bit
+ * 10) or homing attained (bits 10 and 12), replacing
+ * {@link EPOS2#isTargetReached()} loops.
+ *
+ * The statusword of an axis with process data enabled is taken from its
+ * statusword TPDO, so waiting costs no bus traffic at all. Axes without
+ * process data, or whose TPDO has not reported since the wait began, are
+ * polled by one shared task at {@link #setPollInterval(long)}: each axis is
+ * read at most once per interval however many waits are outstanding on it,
+ * and reads to different nodes are issued asynchronously when the drive is
+ * connected through an {@link EPOS2Transceiver}.
+ *
+ * Only statuswords sampled after the wait began are considered, so a wait
+ * must be registered once the command starting the motion has been
+ * confirmed. A wait fails with an {@link IllegalStateException} if the
+ * drive reports a fault, a homing error (bit 13 in homing mode) or leaves
+ * operation enabled, and with a {@link TimeoutException} once its deadline
+ * passes.
+ *
+ * The futures are completed on a thread of the monitor's completion pool,
+ * never on the receiver thread of the transceiver and never with the
+ * monitor lock held. Dependent stages may therefore issue blocking SDOs,
+ * e.g. {@code moveTo(a, ...).thenCompose(...)} starting the next move,
+ * without stalling the reception of SDO responses and process data.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class MotionMonitor {
+
+    public static final long DEFAULT_POLL_NANOS = 10000000L;
+    private static MotionMonitor shared;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService completer;
+    private final Map<EPOS2, Axis> axes = new IdentityHashMap<EPOS2, Axis>();
+    private final Runnable poller = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+    private volatile long pollNanos = DEFAULT_POLL_NANOS;
+    private ScheduledFuture<?> task;
+    private long polls;
+
+    public MotionMonitor() {
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "EPOS2 motion monitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        completer = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "EPOS2 motion completion");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return the monitor used by {@link EPOS2#awaitTargetReached(long)}
+     */
+    public static synchronized MotionMonitor shared() {
+        if (shared == null) {
+            shared = new MotionMonitor();
+        }
+        return shared;
+    }
+
+    /**
+     * Waits for the given drive to report target reached.
+     *
+     * @param epos the drive
+     * @param timeoutMs the deadline
+     * @return a future completing with the statusword that reported target
+     * reached
+     */
+    public CompletableFuture<Integer> await(EPOS2 epos, long timeoutMs) {
+        return add(epos, new Wait(false, System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(timeoutMs)));
+    }
+
+    /**
+     * Waits for the given drive to report homing attained.
+     *
+     * @param epos the drive, homing in {@link EPOS2#OPMODE_HOMING}
+     * @param timeoutMs the deadline
+     * @return a future completing with the statusword that reported homing
+     * attained
+     */
+    public CompletableFuture<Integer> awaitHomingAttained(EPOS2 epos, long timeoutMs) {
+        return add(epos, new Wait(true, System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(timeoutMs)));
+    }
+
+    private CompletableFuture<Integer> add(EPOS2 epos, Wait w) {
+        synchronized (this) {
+            Axis a = axes.get(epos);
+            if (a == null) {
+                a = new Axis(epos);
+                axes.put(epos, a);
+            }
+            a.add(w);
+            if (task == null) {
+                long p = pollNanos;
+                task = scheduler.scheduleWithFixedDelay(poller, p, p, TimeUnit.NANOSECONDS);
+            }
+        }
+        return w.future;
+    }
+
+    /**
+     * @param nanos the interval at which axes without a recent statusword
+     * TPDO are read, taking effect with the next wait when idle
+     */
+    public void setPollInterval(long nanos) {
+        this.pollNanos = nanos;
+    }
+
+    public long getPollInterval() {
+        return pollNanos;
+    }
+
+    /**
+     * @return the number of statusword reads issued by the poller
+     */
+    public synchronized long getPolls() {
+        return polls;
+    }
+
+    /**
+     * @return the number of outstanding waits
+     */
+    public synchronized int getPending() {
+        int n = 0;
+        for (Axis a : axes.values()) {
+            n += a.waits.size();
+        }
+        return n;
+    }
+
+    private void poll() {
+        List<Axis> read = new ArrayList<Axis>();
+        List<Done> done = null;
+        long now = System.nanoTime();
+        synchronized (this) {
+            Iterator<Axis> it = axes.values().iterator();
+            while (it.hasNext()) {
+                Axis a = it.next();
+                done = a.expire(now, done);
+                if (a.waits.isEmpty()) {
+                    a.release();
+                    it.remove();
+                    continue;
+                }
+                ProcessDataCache c = a.cache;
+                long ts = c == null ? 0 : c.getStatusTimestamp();
+                if (c != null && ts - a.oldest() > 0) {
+                    done = a.evaluate(c.getStatusWord(), ts, done);
+                } else if (!a.reading && now - a.oldest() >= pollNanos) {
+                    a.reading = true;
+                    polls++;
+                    read.add(a);
+                }
+            }
+            if (axes.isEmpty() && task != null) {
+                task.cancel(false);
+                task = null;
+            }
+        }
+        complete(done);
+        for (int i = 0; i < read.size(); i++) {
+            read.get(i).read();
+        }
+    }
+
+    /**
+     * Completes the futures of finished waits on the completion pool.
+     * Called without the monitor lock held.
+     */
+    private void complete(List<Done> done) {
+        if (done == null) {
+            return;
+        }
+        for (int i = 0; i < done.size(); i++) {
+            completer.execute(done.get(i));
+        }
+    }
+
+    /**
+     * A finished wait and its outcome, collected under the monitor lock.
+     */
+    private static class Done implements Runnable {
+
+        private final Wait wait;
+        private final int statusWord;
+        private final Throwable error;
+
+        Done(Wait wait, int statusWord, Throwable error) {
+            this.wait = wait;
+            this.statusWord = statusWord;
+            this.error = error;
+        }
+
+        @Override
+        public void run() {
+            if (error != null) {
+                wait.future.completeExceptionally(error);
+            } else {
+                wait.future.complete(statusWord);
+            }
+        }
+    }
+
+    private static List<Done> finished(List<Done> done, Wait w, int sw, Throwable error) {
+        List<Done> l = done == null ? new ArrayList<Done>() : done;
+        l.add(new Done(w, sw, error));
+        return l;
+    }
+
+    private static class Wait {
+
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        final boolean homing;
+        final long since;
+        final long deadline;
+
+        Wait(boolean homing, long since, long timeoutNanos) {
+            this.homing = homing;
+            this.since = since;
+            this.deadline = since + timeoutNanos;
+        }
+    }
+
+    /**
+     * The outstanding waits of one drive. All fields are guarded by the
+     * monitor lock.
+     */
+    private class Axis implements StatusWordListener {
+
+        private final EPOS2 epos;
+        private final EPOS2Async async;
+        private final List<Wait> waits = new ArrayList<Wait>();
+        private ProcessDataCache cache;
+        private boolean reading;
+
+        Axis(EPOS2 epos) {
+            this.epos = epos;
+            this.async = (epos.getTranceiver() instanceof EPOS2Transceiver) ? new EPOS2Async(epos) : null;
+        }
+
+        void add(Wait w) {
+            waits.add(w);
+            ProcessDataCache c = epos.getProcessData();
+            if (c != cache) {
+                release();
+                if (c != null) {
+                    c.addStatusWordListener(this);
+                }
+                cache = c;
+            }
+        }
+
+        void release() {
+            if (cache != null) {
+                cache.removeStatusWordListener(this);
+                cache = null;
+            }
+        }
+
+        long oldest() {
+            long t = waits.get(0).since;
+            for (int i = 1; i < waits.size(); i++) {
+                if (waits.get(i).since - t < 0) {
+                    t = waits.get(i).since;
+                }
+            }
+            return t;
+        }
+
+        List<Done> expire(long now, List<Done> done) {
+            Iterator<Wait> it = waits.iterator();
+            while (it.hasNext()) {
+                Wait w = it.next();
+                if (now - w.deadline >= 0) {
+                    it.remove();
+                    done = finished(done, w, 0, new TimeoutException("Node " + epos.getNodeID()
+                            + (w.homing ? " did not complete homing" : " did not reach its target")));
+                }
+            }
+            return done;
+        }
+
+        /**
+         * Removes every wait that began before {@code sampleTime} and whose
+         * condition the statusword decides.
+         *
+         * @param done the finished waits so far, or null
+         * @return the finished waits, to be completed once the lock has
+         * been released, or null if there are none
+         */
+        List<Done> evaluate(int sw, long sampleTime, List<Done> done) {
+            int state = StatusWord.decodeState(sw);
+            Throwable error = null;
+            if (StatusWord.isFault(sw) || state == EPOS2.ST_FAULT) {
+                error = new IllegalStateException("Node " + epos.getNodeID()
+                        + " faulted, statusword 0x" + Integer.toHexString(sw));
+            } else if (state != EPOS2.ST_OPERATION_ENABLE) {
+                error = new IllegalStateException("Node " + epos.getNodeID() + " left operation enabled, "
+                        + StatusWord.stateName(state));
+            }
+            boolean reached = StatusWord.isTargetReached(sw);
+            boolean attained = (sw & StatusWord.BIT_OPMODE_SPECIFIC_12) != 0;
+            boolean homingError = (sw & StatusWord.BIT_OPMODE_SPECIFIC_13) != 0;
+            if (error == null && !reached && !homingError) {
+                return done;
+            }
+            Iterator<Wait> it = waits.iterator();
+            while (it.hasNext()) {
+                Wait w = it.next();
+                if (sampleTime - w.since <= 0 || (error == null && !reached && !w.homing)) {
+                    continue;
+                }
+                if (error != null) {
+                    done = finished(done, w, sw, error);
+                } else if (w.homing && homingError) {
+                    done = finished(done, w, sw, new IllegalStateException("Node " + epos.getNodeID()
+                            + " reported a homing error"));
+                } else if (w.homing && !attained) {
+                    // Target reached without homing attained: homing was halted
+                    done = finished(done, w, sw, new IllegalStateException("Node " + epos.getNodeID()
+                            + " stopped homing"));
+                } else {
+                    done = finished(done, w, sw, null);
+                }
+                it.remove();
+            }
+            return done;
+        }
+
+        /**
+         * Reads the statusword, called by the poller outside the lock.
+         */
+        void read() {
+            long issued = System.nanoTime();
+            if (async != null) {
+                async.readStatusWord().whenComplete(new Reading(issued));
+            } else {
+                int sw = epos.readObject(EPOS2.OBJ_STATUSWORD, (byte) 0x00);
+                completed(sw, issued);
+            }
+        }
+
+        void completed(int sw, long issued) {
+            List<Done> done = null;
+            synchronized (MotionMonitor.this) {
+                reading = false;
+                if (sw != -1) {
+                    done = evaluate(sw, issued, null);
+                }
+            }
+            complete(done);
+        }
+
+        @Override
+        public void statusWordChanged(short nodeID, int statusWord, long nanoTime) {
+            List<Done> done;
+            synchronized (MotionMonitor.this) {
+                done = evaluate(statusWord, nanoTime, null);
+            }
+            complete(done);
+        }
+
+        private class Reading implements BiConsumer<Integer, Throwable> {
+
+            private final long issued;
+
+            Reading(long issued) {
+                this.issued = issued;
+            }
+
+            @Override
+            public void accept(Integer sw, Throwable t) {
+                completed(t == null ? sw : -1, issued);
+            }
+        }
+    }
+}
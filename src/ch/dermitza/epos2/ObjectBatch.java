@@ -0,0 +1,166 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.io.SDOBatch;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a fixed set of {@link ObjectEntry}s from a fixed set of drives in
+ * one pipelined pass, for periodic snapshots of axis state.
+ *
+ * All requests of a pass are submitted at once through an {@link SDOBatch}:
+ * the drives answer concurrently, and the requests to one drive follow each
+ * other without waiting for the caller in between. A pass therefore takes
+ * about as long as the entries of one drive take back to back, instead of
+ * the sum over all drives of one round trip per entry. Decoded values are
+ * kept in a primitive array that is reused for every pass.
+ *
+ * The drives must be connected through {@link EPOS2Transceiver}s. Drives on
+ * different transceivers, such as the channels of a
+ * {@link ch.dermitza.epos2.bus.BusManager}, get one batch per transceiver,
+ * and all batches are submitted before the first is waited for. Instances
+ * are not thread-safe.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class ObjectBatch {
+
+    private final EPOS2[] drives;
+    private final ObjectEntry<?>[] entries;
+    private final EPOS2Transceiver[] trans;
+    private final SDOBatch[] batches;
+    private final int[] group;
+    private final int[] position;
+    private final long[] values;
+    private final boolean[] valid;
+
+    public ObjectBatch(EPOS2[] drives, ObjectEntry<?>... entries) {
+        this.drives = drives.clone();
+        this.entries = entries.clone();
+        this.group = new int[drives.length];
+        this.position = new int[drives.length * entries.length];
+        this.values = new long[drives.length * entries.length];
+        this.valid = new boolean[drives.length * entries.length];
+        List<EPOS2Transceiver> t = new ArrayList<EPOS2Transceiver>();
+        List<SDOBatch> b = new ArrayList<SDOBatch>();
+        for (int d = 0; d < drives.length; d++) {
+            if (!(drives[d].getTranceiver() instanceof EPOS2Transceiver)) {
+                throw new IllegalArgumentException("Batched reads require an EPOS2Transceiver");
+            }
+            EPOS2Transceiver tr = (EPOS2Transceiver) drives[d].getTranceiver();
+            int g = t.indexOf(tr);
+            if (g < 0) {
+                g = t.size();
+                t.add(tr);
+                b.add(new SDOBatch(drives.length * entries.length));
+            }
+            group[d] = g;
+            for (int e = 0; e < entries.length; e++) {
+                position[d * entries.length + e] = b.get(g).add(entries[e].readFrame(drives[d].getNodeID()));
+            }
+        }
+        this.trans = t.toArray(new EPOS2Transceiver[t.size()]);
+        this.batches = b.toArray(new SDOBatch[b.size()]);
+    }
+
+    /**
+     * Reads every entry from every drive and waits for the results.
+     *
+     * @return true if every read succeeded
+     */
+    public boolean read() {
+        for (int i = 0; i < batches.length; i++) {
+            trans[i].submitBatch(batches[i]);
+        }
+        boolean ok = true;
+        for (int i = 0; i < batches.length; i++) {
+            ok &= batches[i].await();
+        }
+        for (int d = 0; d < drives.length; d++) {
+            SDOBatch batch = batches[group[d]];
+            for (int e = 0; e < entries.length; e++) {
+                int i = d * entries.length + e;
+                int p = position[i];
+                valid[i] = batch.isOk(p);
+                values[i] = valid[i] ? entries[e].decode(batch.getValue(p)) : -1;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * @param drive the position of the drive given at construction
+     * @param entry the position of the entry given at construction
+     * @return the value read in the last pass, or -1 if the read failed
+     */
+    public long get(int drive, int entry) {
+        return values[drive * entries.length + entry];
+    }
+
+    /**
+     * @param drive the position of the drive given at construction
+     * @param entry the entry, which must be one of those given at
+     * construction
+     * @return the boxed value read in the last pass, or null if the read
+     * failed
+     */
+    public <T extends Number> T get(int drive, ObjectEntry<T> entry) {
+        for (int e = 0; e < entries.length; e++) {
+            if (entries[e] == entry) {
+                int i = drive * entries.length + e;
+                return valid[i] ? entry.box(values[i]) : null;
+            }
+        }
+        throw new IllegalArgumentException(entry + " is not part of the batch");
+    }
+
+    /**
+     * @return true if the given read succeeded in the last pass
+     */
+    public boolean isValid(int drive, int entry) {
+        return valid[drive * entries.length + entry];
+    }
+
+    /**
+     * @return the values of the last pass, one row of entries per drive;
+     * the array is reused by the next pass
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    public int getDriveCount() {
+        return drives.length;
+    }
+
+    public int getEntryCount() {
+        return entries.length;
+    }
+
+    /**
+     * @return the number of transceivers the drives are spread over
+     */
+    public int getTransceiverCount() {
+        return trans.length;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Typed descriptor of one object dictionary entry: index, subindex, size
+ * and signedness, together with the Java type its value is boxed into.
+ *
+ * The raw payload of an SDO response is always the four data bytes of the
+ * frame, {@link #decode(int)} turns it into the value of the entry with
+ * the correct sign, widened to a {@code long} so that unsigned 32 bit
+ * values fit. Read frames are encoded once per node and shared, see
+ * {@link #readFrame(short)}. Entries of the EPOS2 objects used by this
+ * library are listed in {@link EPOS2Objects}.
+ *
+ * @param <T> the boxed value type
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public final class ObjectEntry<T extends Number> {
+
+    private final String name;
+    private final short index;
+    private final byte subIndex;
+    private final int bits;
+    private final boolean signed;
+    private final AtomicReferenceArray<PreparedSDOFrame> readFrames =
+            new AtomicReferenceArray<PreparedSDOFrame>(128);
+
+    private ObjectEntry(String name, short index, byte subIndex, int bits, boolean signed) {
+        this.name = name;
+        this.index = index;
+        this.subIndex = subIndex;
+        this.bits = bits;
+        this.signed = signed;
+    }
+
+    public static ObjectEntry<Byte> int8(String name, short index, byte subIndex) {
+        return new ObjectEntry<Byte>(name, index, subIndex, 8, true);
+    }
+
+    public static ObjectEntry<Short> uint8(String name, short index, byte subIndex) {
+        return new ObjectEntry<Short>(name, index, subIndex, 8, false);
+    }
+
+    public static ObjectEntry<Short> int16(String name, short index, byte subIndex) {
+        return new ObjectEntry<Short>(name, index, subIndex, 16, true);
+    }
+
+    public static ObjectEntry<Integer> uint16(String name, short index, byte subIndex) {
+        return new ObjectEntry<Integer>(name, index, subIndex, 16, false);
+    }
+
+    public static ObjectEntry<Integer> int32(String name, short index, byte subIndex) {
+        return new ObjectEntry<Integer>(name, index, subIndex, 32, true);
+    }
+
+    public static ObjectEntry<Long> uint32(String name, short index, byte subIndex) {
+        return new ObjectEntry<Long>(name, index, subIndex, 32, false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public short getIndex() {
+        return index;
+    }
+
+    public byte getSubIndex() {
+        return subIndex;
+    }
+
+    /**
+     * @return the size of the entry in bits, 8, 16 or 32
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Extracts the value of the entry from a raw SDO payload.
+     *
+     * @param raw the payload as returned by {@link EPOS2#readObject(short, byte)}
+     * @return the value, sign extended for signed entries
+     */
+    public long decode(int raw) {
+        switch (bits) {
+            case 8:
+                return signed ? (byte) raw : raw & 0xFFL;
+            case 16:
+                return signed ? (short) raw : raw & 0xFFFFL;
+            default:
+                return signed ? raw : raw & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * @param value a value as returned by {@link #decode(int)}
+     * @return the value boxed into the type of the entry
+     */
+    @SuppressWarnings("unchecked")
+    public T box(long value) {
+        switch (bits) {
+            case 8:
+                return (T) (signed ? (Number) Byte.valueOf((byte) value) : Short.valueOf((short) value));
+            case 16:
+                return (T) (signed ? (Number) Short.valueOf((short) value) : Integer.valueOf((int) value));
+            default:
+                return (T) (signed ? (Number) Integer.valueOf((int) value) : Long.valueOf(value));
+        }
+    }
+
+    /**
+     * Returns the read request of this entry for the given node. The frame
+     * is created on first use and shared afterwards; it is never modified,
+     * so it may be in flight for several callers at once.
+     */
+    public PreparedSDOFrame readFrame(short nodeID) {
+        PreparedSDOFrame f = readFrames.get(nodeID & 0x7F);
+        if (f == null) {
+            f = new PreparedSDOFrame(nodeID, false, index, subIndex);
+            if (!readFrames.compareAndSet(nodeID & 0x7F, null, f)) {
+                f = readFrames.get(nodeID & 0x7F);
+            }
+        }
+        return f;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (0x%04X-%02X, %s%d)", name, index & 0xFFFF, subIndex & 0xFF,
+                signed ? "INTEGER" : "UNSIGNED", bits);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+
+/**
+ * An {@link SDOFrame} that can be sent any number of times without
+ * allocating. The COB-ID, CCD and index/subindex bytes are encoded once at
+ * construction; a write only patches the payload through one of the
+ * {@code setData()} methods before the frame is handed to the transceiver.
+ *
+ * The {@link CanMessage} returned by {@link #getCANMessage()} is owned by the
+ * frame and is overwritten on every call, callers must therefore not hold on
+ * to it across transmissions.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class PreparedSDOFrame extends SDOFrame {
+
+    private final CanMessage msg = new CanMessage();
+
+    public PreparedSDOFrame(short nodeID, boolean write, short index, byte subIndex) {
+        super(nodeID, write, index, subIndex);
+        msg.setMessage(cob, data, 0, false, false, false, false);
+    }
+
+    @Override
+    public CanMessage getCANMessage() {
+        System.arraycopy(data, 0, msg.getData(), 0, data.length);
+        return msg;
+    }
+}
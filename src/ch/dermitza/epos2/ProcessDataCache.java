@@ -0,0 +1,240 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.CanFrameListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.jcanopen.can.CanMessage;
+
+/**
+ * Latest process data of one EPOS2 node, as received through the TPDOs set
+ * up by {@link EPOS2#enableProcessData(int, int, long)}.
+ *
+ * The mapping is fixed:
+ * <ul>
+ * <li>TPDO1: statusword (0x6041), position actual value (0x6064)</li>
+ * <li>TPDO2: velocity actual value (0x606C), current actual value (0x6078)</li>
+ * <li>TPDO3: velocity actual average (0x2028), velocity demand (0x606B)</li>
+ * </ul>
+ *
+ * Values are written by the receiver thread only and may be read from any
+ * thread. Each TPDO carries a {@link System#nanoTime()} timestamp of its
+ * reception, which callers use to judge freshness. Changes of the
+ * statusword are additionally pushed to registered
+ * {@link StatusWordListener}s.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class ProcessDataCache implements CanFrameListener {
+
+    private static final StatusWordListener[] NONE = new StatusWordListener[0];
+    private final short nodeID;
+    private volatile StatusWordListener[] listeners = NONE;
+    private volatile int statusWord;
+    private volatile int positionActual;
+    private volatile int velocityActual;
+    private volatile int currentActual;
+    private volatile int velocityActualAvg;
+    private volatile int velocityDemand;
+    private volatile long statusTimestamp;
+    private volatile long velocityTimestamp;
+    private volatile long averageTimestamp;
+    private volatile long commandTimestamp;
+
+    public ProcessDataCache(short nodeID) {
+        this.nodeID = nodeID;
+    }
+
+    public short getNodeID() {
+        return nodeID;
+    }
+
+    @Override
+    public void frameReceived(CanMessage msg, long nanoTime) {
+        byte[] d = msg.getData();
+        switch (msg.getID() - nodeID) {
+            case EPOS2Transceiver.COB_TPDO1:
+                if (d.length >= 6) {
+                    int sw = u16(d, 0);
+                    int prev = statusWord;
+                    boolean first = statusTimestamp == 0;
+                    statusWord = sw;
+                    positionActual = i32(d, 2);
+                    statusTimestamp = nanoTime;
+                    if (sw != prev || first) {
+                        StatusWordListener[] l = listeners;
+                        for (int i = 0; i < l.length; i++) {
+                            l[i].statusWordChanged(nodeID, sw, nanoTime);
+                        }
+                    }
+                }
+                break;
+            case EPOS2Transceiver.COB_TPDO2:
+                if (d.length >= 6) {
+                    velocityActual = i32(d, 0);
+                    currentActual = (short) u16(d, 4);
+                    velocityTimestamp = nanoTime;
+                }
+                break;
+            case EPOS2Transceiver.COB_TPDO3:
+                if (d.length >= 8) {
+                    velocityActualAvg = i32(d, 0);
+                    velocityDemand = i32(d, 4);
+                    averageTimestamp = nanoTime;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public synchronized void addStatusWordListener(StatusWordListener l) {
+        StatusWordListener[] n = new StatusWordListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, n, 0, listeners.length);
+        n[listeners.length] = l;
+        listeners = n;
+    }
+
+    public synchronized void removeStatusWordListener(StatusWordListener l) {
+        StatusWordListener[] arr = listeners;
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] == l) {
+                StatusWordListener[] n = new StatusWordListener[arr.length - 1];
+                System.arraycopy(arr, 0, n, 0, i);
+                System.arraycopy(arr, i + 1, n, i, arr.length - i - 1);
+                listeners = n;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Clears all timestamps, so that every value is considered stale until
+     * the next TPDO arrives.
+     */
+    public void invalidate() {
+        statusTimestamp = 0;
+        velocityTimestamp = 0;
+        averageTimestamp = 0;
+    }
+
+    public int getStatusWord() {
+        return statusWord;
+    }
+
+    public int getPositionActual() {
+        return positionActual;
+    }
+
+    public int getVelocityActual() {
+        return velocityActual;
+    }
+
+    public int getCurrentActual() {
+        return currentActual;
+    }
+
+    public int getVelocityActualAvg() {
+        return velocityActualAvg;
+    }
+
+    public int getVelocityDemand() {
+        return velocityDemand;
+    }
+
+    /**
+     * @return the reception time of the last TPDO1 (statusword and
+     * position), or 0 if none has been received
+     */
+    public long getStatusTimestamp() {
+        return statusTimestamp;
+    }
+
+    /**
+     * @return the reception time of the last TPDO2 (velocity and current),
+     * or 0 if none has been received
+     */
+    public long getVelocityTimestamp() {
+        return velocityTimestamp;
+    }
+
+    /**
+     * @return the reception time of the last TPDO3 (average and demand
+     * velocity), or 0 if none has been received
+     */
+    public long getAverageTimestamp() {
+        return averageTimestamp;
+    }
+
+    /**
+     * Records that a controlword has just been sent. Statuswords received
+     * before are no longer considered current, as they may not reflect the
+     * command yet.
+     */
+    public void commandSent() {
+        commandTimestamp = System.nanoTime();
+    }
+
+    /**
+     * Checks whether the cached statusword is younger than
+     * {@code maxAgeNanos} and was received after the last controlword.
+     *
+     * @param maxAgeNanos the maximum acceptable age
+     * @return true if the cached statusword may be used
+     */
+    public boolean isStatusCurrent(long maxAgeNanos) {
+        long ts = statusTimestamp;
+        long cmd = commandTimestamp;
+        return isFresh(ts, maxAgeNanos) && (cmd == 0 || ts - cmd > 0);
+    }
+
+    /**
+     * Checks whether a value received at {@code timestamp} is younger than
+     * {@code maxAgeNanos}.
+     *
+     * @param timestamp one of the {@code get*Timestamp()} values
+     * @param maxAgeNanos the maximum acceptable age
+     * @return true if the value may be used
+     */
+    public static boolean isFresh(long timestamp, long maxAgeNanos) {
+        return timestamp != 0 && System.nanoTime() - timestamp <= maxAgeNanos;
+    }
+
+    void register(EPOS2Transceiver trans) {
+        trans.addFrameListener(EPOS2Transceiver.COB_TPDO1 + nodeID, this);
+        trans.addFrameListener(EPOS2Transceiver.COB_TPDO2 + nodeID, this);
+        trans.addFrameListener(EPOS2Transceiver.COB_TPDO3 + nodeID, this);
+    }
+
+    void unregister(EPOS2Transceiver trans) {
+        trans.removeFrameListener(EPOS2Transceiver.COB_TPDO1 + nodeID, this);
+        trans.removeFrameListener(EPOS2Transceiver.COB_TPDO2 + nodeID, this);
+        trans.removeFrameListener(EPOS2Transceiver.COB_TPDO3 + nodeID, this);
+    }
+
+    private static int u16(byte[] d, int off) {
+        return (d[off] & 0xFF) | ((d[off + 1] & 0xFF) << 8);
+    }
+
+    private static int i32(byte[] d, int off) {
+        return (d[off] & 0xFF) | ((d[off + 1] & 0xFF) << 8)
+                | ((d[off + 2] & 0xFF) << 16) | ((d[off + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+/**
+ * Per-node table of {@link PreparedSDOFrame}s, keyed by object index,
+ * subindex and direction. Frames are created on first use and reused
+ * afterwards, so a lookup on an already known object does not allocate.
+ *
+ * The table uses open addressing over primitive keys to avoid boxing the
+ * object index on every lookup. It is not thread-safe by itself, callers
+ * are expected to hold the table's monitor for as long as they use a frame
+ * returned by {@link #get(short, byte, boolean)}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+class SDOFrameCache {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private short nodeID;
+    private int[] keys;
+    private PreparedSDOFrame[] frames;
+    private int size;
+
+    SDOFrameCache(short nodeID) {
+        this.nodeID = nodeID;
+        this.keys = new int[INITIAL_CAPACITY];
+        this.frames = new PreparedSDOFrame[INITIAL_CAPACITY];
+    }
+
+    PreparedSDOFrame get(short index, byte subIndex, boolean write) {
+        // Keys are offset by one so that 0 can mark an empty slot
+        int key = (((write ? 1 : 0) << 24) | ((index & 0xFFFF) << 8) | (subIndex & 0xFF)) + 1;
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return frames[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        PreparedSDOFrame f = new PreparedSDOFrame(nodeID, write, index, subIndex);
+        keys[slot] = key;
+        frames[slot] = f;
+        if (++size > (keys.length >> 1)) {
+            grow();
+        }
+        return f;
+    }
+
+    /**
+     * Drops all prepared frames and re-targets the table to the given node.
+     * Frames are rebuilt lazily on the next access.
+     *
+     * @param nodeID the node ID new frames are encoded for
+     */
+    void reset(short nodeID) {
+        this.nodeID = nodeID;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 0;
+            frames[i] = null;
+        }
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        PreparedSDOFrame[] oldFrames = frames;
+        keys = new int[oldKeys.length << 1];
+        frames = new PreparedSDOFrame[oldKeys.length << 1];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                frames[slot] = oldFrames[i];
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
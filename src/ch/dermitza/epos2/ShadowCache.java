@@ -0,0 +1,228 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.CanFrameListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.util.Arrays;
+
+/**
+ * Write-through shadow of the configuration objects of one EPOS2 node.
+ *
+ * Every acknowledged write of a shadowed object is remembered, and a later
+ * write of the same value is skipped without any bus traffic. Only objects
+ * whose value stays in effect until it is written again are shadowed; the
+ * controlword and setpoints are never skipped. The default set covers the
+ * operation mode, the profile and homing parameters and the current
+ * controller gains, further objects can be added through
+ * {@link #addObject(short)}.
+ *
+ * The shadow is invalidated whenever the drive may have lost or changed
+ * its configuration: when a fault is observed or reset, when an EMCY is
+ * received, and when the NMT state reported by the heartbeat or boot-up
+ * message of the node changes.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class ShadowCache implements CanFrameListener {
+
+    private static final int CAPACITY = 64;
+    private static final short[] DEFAULT_OBJECTS = {
+        EPOS2.OBJ_OPERATION_MODES,
+        EPOS2.OBJ_PROFILE_VELOCITY,
+        EPOS2.OBJ_PROFILE_ACCELERATION,
+        EPOS2.OBJ_PROFILE_DECELERATION,
+        EPOS2.OBJ_MOTION_PROFILE_TYPE,
+        EPOS2.OBJ_INTERPOLATION_SUB_MODE,
+        EPOS2.OBJ_HOMING_METHOD,
+        EPOS2.OBJ_HOMING_SPEEDS,
+        EPOS2.OBJ_HOMING_ACCELERATION,
+        EPOS2.OBJ_HOME_OFFSET,
+        EPOS2.OBJ_CURRENT_CONTROL_PARAMS
+    };
+    private final short nodeID;
+    private short[] objects;
+    private final int[] keys = new int[CAPACITY];
+    private final int[] values = new int[CAPACITY];
+    private final boolean[] valid = new boolean[CAPACITY];
+    private int nmtState = -1;
+    private long sent;
+    private long skipped;
+    private long invalidations;
+
+    public ShadowCache(short nodeID) {
+        this.nodeID = nodeID;
+        this.objects = DEFAULT_OBJECTS.clone();
+        Arrays.sort(objects);
+    }
+
+    public short getNodeID() {
+        return nodeID;
+    }
+
+    /**
+     * Adds an object to the set of shadowed objects. Only objects whose
+     * value is not changed by the drive itself may be added.
+     *
+     * @param index the object index
+     */
+    public synchronized void addObject(short index) {
+        if (Arrays.binarySearch(objects, index) < 0) {
+            short[] n = Arrays.copyOf(objects, objects.length + 1);
+            n[objects.length] = index;
+            Arrays.sort(n);
+            objects = n;
+        }
+    }
+
+    public synchronized boolean isShadowed(short index) {
+        return Arrays.binarySearch(objects, index) >= 0;
+    }
+
+    /**
+     * Checks whether writing {@code value} can be skipped, counting the
+     * write as skipped if so.
+     *
+     * @return true if the object is shadowed and already holds the value
+     */
+    synchronized boolean skip(short index, byte subIndex, int value) {
+        if (Arrays.binarySearch(objects, index) < 0) {
+            return false;
+        }
+        int slot = find(key(index, subIndex));
+        if (slot >= 0 && valid[slot] && values[slot] == value) {
+            skipped++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the outcome of a write that went to the bus.
+     *
+     * @param ok whether the drive acknowledged the write
+     */
+    synchronized void written(short index, byte subIndex, int value, boolean ok) {
+        if (Arrays.binarySearch(objects, index) < 0) {
+            return;
+        }
+        sent++;
+        int key = key(index, subIndex);
+        int slot = find(key);
+        if (slot < 0) {
+            // Table full, start over rather than grow for a handful of objects
+            clear();
+            slot = find(key);
+        }
+        // A failed write leaves the drive value unknown, the key stays in
+        // place so that probing past this slot still works
+        keys[slot] = key;
+        values[slot] = value;
+        valid[slot] = ok;
+    }
+
+    /**
+     * Forgets the shadowed value of one object.
+     */
+    synchronized void forget(short index, byte subIndex) {
+        int slot = find(key(index, subIndex));
+        if (slot >= 0) {
+            valid[slot] = false;
+        }
+    }
+
+    /**
+     * Forgets all shadowed values, so that the next write of every object
+     * goes to the drive.
+     */
+    public synchronized void invalidate() {
+        clear();
+        invalidations++;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized void resetCounters() {
+        sent = 0;
+        skipped = 0;
+        invalidations = 0;
+    }
+
+    @Override
+    public void frameReceived(CanMessage msg, long nanoTime) {
+        int id = msg.getID();
+        byte[] d = msg.getData();
+        if (id == EPOS2Transceiver.COB_HEARTBEAT + nodeID && d.length > 0) {
+            int state = d[0] & 0x7F;
+            synchronized (this) {
+                if (state != nmtState) {
+                    nmtState = state;
+                    invalidate();
+                }
+            }
+        } else if (id == EPOS2Transceiver.COB_EMCY + nodeID && d.length >= 2
+                && (d[0] != 0 || d[1] != 0)) {
+            invalidate();
+        }
+    }
+
+    void register(EPOS2Transceiver trans) {
+        trans.addFrameListener(EPOS2Transceiver.COB_HEARTBEAT + nodeID, this);
+        trans.addFrameListener(EPOS2Transceiver.COB_EMCY + nodeID, this);
+    }
+
+    void unregister(EPOS2Transceiver trans) {
+        trans.removeFrameListener(EPOS2Transceiver.COB_HEARTBEAT + nodeID, this);
+        trans.removeFrameListener(EPOS2Transceiver.COB_EMCY + nodeID, this);
+    }
+
+    private void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(valid, false);
+    }
+
+    private int find(int key) {
+        int mask = CAPACITY - 1;
+        int slot = (key * 0x9E3779B9 >>> 16) & mask;
+        for (int i = 0; i < CAPACITY; i++) {
+            if (keys[slot] == key || keys[slot] == 0) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int key(short index, byte subIndex) {
+        // Offset by one so that 0 can mark an empty slot
+        return (((index & 0xFFFF) << 8) | (subIndex & 0xFF)) + 1;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Drives an EPOS2 through the DS402 state machine to a requested state.
+ *
+ * For every observed state the driver sends the one controlword that leads
+ * towards the target and then waits for the statusword to change. Changes
+ * are taken from the {@link ProcessDataCache} of the drive when process
+ * data is enabled, otherwise the statusword is polled with an exponential
+ * backoff. No thread is blocked or spinning while a transition is in
+ * progress: the waiting is done by a shared scheduler, and SDOs are issued
+ * asynchronously when the drive is connected through an
+ * {@link EPOS2Transceiver}.
+ *
+ * Transient states the drive leaves by itself (start, not ready to switch
+ * on, refresh, measure init and the fault reaction states) are only
+ * observed. A command that does not lead to a state change is repeated
+ * after {@link #setResendInterval(long)}.
+ *
+ * If the drive has an {@link EmergencyMonitor}, an EMCY reporting an error
+ * makes a transition in progress read the statusword at once, so that the
+ * fault is reset without waiting for the next poll.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class StateMachineDriver {
+
+    public static final long DEFAULT_MIN_POLL_NANOS = 1000000L;
+    public static final long DEFAULT_MAX_POLL_NANOS = 20000000L;
+    public static final long DEFAULT_RESEND_NANOS = 100000000L;
+    public static final int MAX_FAULT_RESETS = 10;
+    private static final short NO_COMMAND = -1;
+    private static ScheduledExecutorService sharedScheduler;
+    private final EPOS2 epos;
+    private final ScheduledExecutorService scheduler;
+    private final TransitionStatistics statistics = new TransitionStatistics();
+    private volatile long minPollNanos = DEFAULT_MIN_POLL_NANOS;
+    private volatile long maxPollNanos = DEFAULT_MAX_POLL_NANOS;
+    private volatile long resendNanos = DEFAULT_RESEND_NANOS;
+
+    public StateMachineDriver(EPOS2 epos) {
+        this(epos, sharedScheduler());
+    }
+
+    public StateMachineDriver(EPOS2 epos, ScheduledExecutorService scheduler) {
+        this.epos = epos;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Brings the drive to switched on, as {@link EPOS2#enableController()}
+     * does.
+     */
+    public CompletableFuture<Integer> enableController(long timeoutMs) {
+        return transitionTo(EPOS2.ST_SWITCH_ON, timeoutMs);
+    }
+
+    public CompletableFuture<Integer> enableOperation(long timeoutMs) {
+        return transitionTo(EPOS2.ST_OPERATION_ENABLE, timeoutMs);
+    }
+
+    public CompletableFuture<Integer> disable(long timeoutMs) {
+        return transitionTo(EPOS2.ST_SWITCH_ON_DISABLED, timeoutMs);
+    }
+
+    /**
+     * Starts driving the drive towards the given state.
+     *
+     * @param target {@link EPOS2#ST_SWITCH_ON_DISABLED},
+     * {@link EPOS2#ST_SWITCH_ON} or {@link EPOS2#ST_OPERATION_ENABLE}
+     * @param timeoutMs the deadline for reaching the target state
+     * @return a future completing with the target state, or exceptionally
+     * with a {@link TimeoutException} if the deadline passes first
+     */
+    public CompletableFuture<Integer> transitionTo(int target, long timeoutMs) {
+        Transition t = new Transition(target, TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+        t.begin();
+        return t.future;
+    }
+
+    public TransitionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setPollInterval(long minNanos, long maxNanos) {
+        this.minPollNanos = minNanos;
+        this.maxPollNanos = maxNanos;
+    }
+
+    public void setResendInterval(long nanos) {
+        this.resendNanos = nanos;
+    }
+
+    /**
+     * Returns the controlword that moves a drive in {@code state} towards
+     * {@code target}.
+     *
+     * @return the controlword, or -1 if the drive is in a transient state
+     * or already at the target
+     */
+    public static short nextCommand(int state, int target) {
+        if (state == target) {
+            return NO_COMMAND;
+        }
+        switch (state) {
+            case EPOS2.ST_FAULT:
+                return EPOS2.CW_FAULT_RESET;
+            case EPOS2.ST_SWITCH_ON_DISABLED:
+                return EPOS2.CW_SHUTDOWN;
+            case EPOS2.ST_READY_TO_SWITCH_ON:
+                return target == EPOS2.ST_SWITCH_ON_DISABLED
+                        ? EPOS2.CW_DISABLE_VOLTAGE : EPOS2.CW_SWITCH_ON;
+            case EPOS2.ST_SWITCH_ON:
+                if (target == EPOS2.ST_OPERATION_ENABLE) {
+                    return EPOS2.CW_ENABLE_OPERATION;
+                }
+                return EPOS2.CW_DISABLE_VOLTAGE;
+            case EPOS2.ST_OPERATION_ENABLE:
+                if (target == EPOS2.ST_SWITCH_ON) {
+                    return EPOS2.CW_DISABLE_OPERATION;
+                }
+                return EPOS2.CW_DISABLE_VOLTAGE;
+            case EPOS2.ST_QUICK_STOP:
+                return EPOS2.CW_DISABLE_VOLTAGE;
+            default:
+                return NO_COMMAND;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService sharedScheduler() {
+        if (sharedScheduler == null) {
+            ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "EPOS2 state machine");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            s.setRemoveOnCancelPolicy(true);
+            sharedScheduler = s;
+        }
+        return sharedScheduler;
+    }
+
+    private class Transition implements Runnable, StatusWordListener, EmergencyListener,
+            BiConsumer<Integer, Throwable> {
+
+        private final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        private final int target;
+        private final long start;
+        private final long deadline;
+        private final EPOS2Async async;
+        private ProcessDataCache cache;
+        private EmergencyMonitor monitor;
+        private boolean emergency;
+        private ScheduledFuture<?> poll;
+        private boolean reading;
+        private boolean done;
+        private int lastState = -1;
+        private long lastChange;
+        private int commandState = -1;
+        private long commandTime;
+        private int faultResets;
+        private long backoff = minPollNanos;
+
+        Transition(int target, long timeoutNanos) {
+            this.target = target;
+            this.start = System.nanoTime();
+            this.deadline = start + timeoutNanos;
+            this.async = (epos.getTranceiver() instanceof EPOS2Transceiver) ? new EPOS2Async(epos) : null;
+        }
+
+        void begin() {
+            cache = epos.getProcessData();
+            if (cache != null) {
+                cache.addStatusWordListener(this);
+            }
+            monitor = epos.getEmergencyMonitor();
+            if (monitor != null) {
+                monitor.addListener(this);
+            }
+            scheduler.execute(this);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (done || reading) {
+                    return;
+                }
+                ProcessDataCache c = cache;
+                boolean stale = emergency;
+                emergency = false;
+                // After an EMCY the cached statusword may predate the fault
+                if (!stale && c != null && c.isStatusCurrent(maxPollNanos)) {
+                    handle(c.getStatusWord());
+                    return;
+                }
+                if (async != null) {
+                    reading = true;
+                }
+            }
+            if (async != null) {
+                async.readStatusWord().whenComplete(this);
+            } else {
+                handle(epos.readObject(EPOS2.OBJ_STATUSWORD, (byte) 0x00));
+            }
+        }
+
+        @Override
+        public void accept(Integer sw, Throwable t) {
+            synchronized (this) {
+                reading = false;
+            }
+            handle(t == null ? sw : -1);
+        }
+
+        @Override
+        public void statusWordChanged(short nodeID, int statusWord, long nanoTime) {
+            handle(statusWord);
+        }
+
+        @Override
+        public void emergency(EmergencyEvent event) {
+            if (event.getNodeID() != epos.getNodeID() || !event.isError()) {
+                return;
+            }
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                emergency = true;
+            }
+            scheduler.execute(this);
+        }
+
+        private synchronized void handle(int sw) {
+            if (done) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (sw != -1) {
+                int state = StatusWord.decodeState(sw);
+                if (state != lastState) {
+                    if (lastState >= 0) {
+                        statistics.record(lastState, state, now - lastChange);
+                    }
+                    lastState = state;
+                    lastChange = now;
+                    backoff = minPollNanos;
+                }
+                if (state == target) {
+                    finish(null);
+                    return;
+                }
+                short cw = nextCommand(state, target);
+                if (cw != NO_COMMAND && (state != commandState || now - commandTime > resendNanos)) {
+                    if (cw == EPOS2.CW_FAULT_RESET && ++faultResets > MAX_FAULT_RESETS) {
+                        finish(new IllegalStateException("Node " + epos.getNodeID() + " remains in fault"));
+                        return;
+                    }
+                    commandState = state;
+                    commandTime = now;
+                    backoff = minPollNanos;
+                    if (async != null) {
+                        async.writeControlword(cw);
+                    } else {
+                        epos.writeObject(EPOS2.OBJ_CONTROLWORD, (byte) 0x00, cw);
+                    }
+                }
+            }
+            if (now - deadline >= 0) {
+                finish(new TimeoutException("Node " + epos.getNodeID() + " did not reach "
+                        + StatusWord.stateName(target) + ", last state "
+                        + StatusWord.stateName(lastState)));
+                return;
+            }
+            if (poll != null) {
+                poll.cancel(false);
+            }
+            long delay = Math.min(cache != null ? maxPollNanos : backoff, deadline - now);
+            poll = scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+            backoff = Math.min(backoff << 1, maxPollNanos);
+        }
+
+        private void finish(Throwable error) {
+            done = true;
+            if (poll != null) {
+                poll.cancel(false);
+            }
+            if (cache != null) {
+                cache.removeStatusWordListener(this);
+            }
+            if (monitor != null) {
+                monitor.removeListener(this);
+            }
+            statistics.recordSequence(System.nanoTime() - start, error == null);
+            if (error == null) {
+                future.complete(target);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+/**
+ * Immutable view of a DS402 statusword (object 0x6041).
+ *
+ * The drive state is decoded through a precomputed table over the nine
+ * statusword bits that take part in the DS402 state machine (0-6, 8 and
+ * 14), so decoding is a shift, a mask and an array load. The static
+ * {@code decodeState()} and {@code is*()} helpers operate on the raw value
+ * directly and can be used where even the wrapper object is not wanted.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public final class StatusWord {
+
+    public static final int BIT_READY_TO_SWITCH_ON = 0x0001;
+    public static final int BIT_SWITCHED_ON = 0x0002;
+    public static final int BIT_OPERATION_ENABLE = 0x0004;
+    public static final int BIT_FAULT = 0x0008;
+    public static final int BIT_VOLTAGE_ENABLED = 0x0010;
+    public static final int BIT_QUICK_STOP = 0x0020;
+    public static final int BIT_SWITCH_ON_DISABLED = 0x0040;
+    public static final int BIT_WARNING = 0x0080;
+    public static final int BIT_OFFSET_CURRENT_MEASURED = 0x0100;
+    public static final int BIT_REMOTE = 0x0200;
+    public static final int BIT_TARGET_REACHED = 0x0400;
+    public static final int BIT_INTERNAL_LIMIT_ACTIVE = 0x0800;
+    public static final int BIT_OPMODE_SPECIFIC_12 = 0x1000;
+    public static final int BIT_OPMODE_SPECIFIC_13 = 0x2000;
+    public static final int BIT_REFRESH_CYCLE = 0x4000;
+    public static final int BIT_POSITION_REFERENCED = 0x8000;
+    private static final String[] STATE_NAMES = {
+        "FAULT",
+        "START",
+        "NOT_READY_TO_SWITCH_ON",
+        "SWITCH_ON_DISABLED",
+        "READY_TO_SWITCH_ON",
+        "SWITCHED_ON",
+        "REFRESH",
+        "MEASURE_INIT",
+        "OPERATION_ENABLE",
+        "QUICKSTOP_ACTIVE",
+        "FAULT_REACTION_ACTIVE_DISABLED",
+        "FAULT_REACTION_ACTIVE_ENABLED"
+    };
+    private static final byte[] STATES = new byte[512];
+
+    static {
+        for (int key = 0; key < STATES.length; key++) {
+            // Expand the table key back into statusword bit positions
+            int word = (key & 0x7F) | ((key & 0x80) << 1) | ((key & 0x100) << 6);
+            STATES[key] = (byte) decodeTree(word);
+        }
+    }
+    private final int raw;
+
+    public StatusWord(int raw) {
+        this.raw = raw & 0xFFFF;
+    }
+
+    public int getRaw() {
+        return raw;
+    }
+
+    /**
+     * Returns the DS402 state encoded in this statusword as one of the
+     * {@code EPOS2.ST_*} constants.
+     *
+     * @return the decoded state
+     */
+    public int getState() {
+        return decodeState(raw);
+    }
+
+    public String getStateName() {
+        return stateName(decodeState(raw));
+    }
+
+    public boolean isReadyToSwitchOn() {
+        return (raw & BIT_READY_TO_SWITCH_ON) != 0;
+    }
+
+    public boolean isSwitchedOn() {
+        return (raw & BIT_SWITCHED_ON) != 0;
+    }
+
+    public boolean isOperationEnabled() {
+        return (raw & BIT_OPERATION_ENABLE) != 0;
+    }
+
+    public boolean isFault() {
+        return isFault(raw);
+    }
+
+    public boolean isVoltageEnabled() {
+        return (raw & BIT_VOLTAGE_ENABLED) != 0;
+    }
+
+    public boolean isQuickStop() {
+        return (raw & BIT_QUICK_STOP) != 0;
+    }
+
+    public boolean isSwitchOnDisabled() {
+        return (raw & BIT_SWITCH_ON_DISABLED) != 0;
+    }
+
+    public boolean isWarning() {
+        return isWarning(raw);
+    }
+
+    public boolean isRemote() {
+        return (raw & BIT_REMOTE) != 0;
+    }
+
+    public boolean isTargetReached() {
+        return isTargetReached(raw);
+    }
+
+    public boolean isInternalLimitActive() {
+        return (raw & BIT_INTERNAL_LIMIT_ACTIVE) != 0;
+    }
+
+    public boolean isPositionReferenced() {
+        return (raw & BIT_POSITION_REFERENCED) != 0;
+    }
+
+    public boolean isBitSet(int mask) {
+        return (raw & mask) == mask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof StatusWord) && ((StatusWord) o).raw == raw;
+    }
+
+    @Override
+    public int hashCode() {
+        return raw;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusWord[0x" + Integer.toHexString(raw) + ", " + getStateName() + "]";
+    }
+
+    /**
+     * Decodes the DS402 state of a raw statusword without allocating.
+     *
+     * @param statusWord the raw statusword as returned by the drive
+     * @return one of the {@code EPOS2.ST_*} constants
+     */
+    public static int decodeState(int statusWord) {
+        int key = (statusWord & 0x7F) | ((statusWord >> 1) & 0x80) | ((statusWord >> 6) & 0x100);
+        return STATES[key];
+    }
+
+    public static String stateName(int state) {
+        if (state < 0 || state >= STATE_NAMES.length) {
+            return "UNKNOWN";
+        }
+        return STATE_NAMES[state];
+    }
+
+    public static boolean isTargetReached(int statusWord) {
+        return (statusWord & BIT_TARGET_REACHED) != 0;
+    }
+
+    public static boolean isFault(int statusWord) {
+        return (statusWord & BIT_FAULT) != 0;
+    }
+
+    public static boolean isWarning(int statusWord) {
+        return (statusWord & BIT_WARNING) != 0;
+    }
+
+    /**
+     * The decision tree previously evaluated by {@link EPOS2#getState()} on
+     * every call. It is now only used to populate the lookup table.
+     */
+    private static int decodeTree(int rsp) {
+        if ((rsp & (EPOS2.FLAG_3 << 12)) == (EPOS2.FLAG_3 << 12)) {
+            // REFRESH or MEASURE_INIT
+            if ((rsp & (EPOS2.FLAG_1 << 4)) == (EPOS2.FLAG_1 << 4)) {
+                return EPOS2.ST_MEASURE_INIT;
+            }
+            return EPOS2.ST_REFRESH;
+        }
+        if ((rsp & (EPOS2.FLAG_1 << 8)) != (EPOS2.FLAG_1 << 8)) {
+            return EPOS2.ST_START;
+        }
+        if ((rsp & (EPOS2.FLAG_3 << 4)) == (EPOS2.FLAG_3 << 4)) {
+            return EPOS2.ST_SWITCH_ON_DISABLED;
+        }
+        if ((rsp & (EPOS2.FLAG_2 << 4)) == (EPOS2.FLAG_2 << 4)) {
+            // OPERATION_ENABLE, SWITCHED_ON, READY_TO_SWITCH_ON
+            if ((rsp & (EPOS2.FLAG_1 << 4)) == (EPOS2.FLAG_1 << 4)) {
+                return EPOS2.ST_OPERATION_ENABLE;
+            }
+            if ((rsp & EPOS2.FLAG_2) == EPOS2.FLAG_2) {
+                return EPOS2.ST_SWITCH_ON;
+            }
+            return EPOS2.ST_READY_TO_SWITCH_ON;
+        }
+        // QUICKSTOP_ACTIVE, FAULT_REACTION_ACTIVE_*, FAULT, NOT_READY_TO_SWITCH_ON
+        if ((rsp & (EPOS2.FLAG_1 << 4)) == (EPOS2.FLAG_1 << 4)) {
+            if ((rsp & EPOS2.FLAG_4) == EPOS2.FLAG_4) {
+                return EPOS2.ST_QUICK_STOP_ACTIVE_ENABLE;
+            }
+            return EPOS2.ST_QUICK_STOP;
+        }
+        if ((rsp & EPOS2.FLAG_4) == EPOS2.FLAG_4) {
+            if ((rsp & EPOS2.FLAG_3) == EPOS2.FLAG_3) {
+                return EPOS2.ST_QUICK_STOP_ACTIVE_DISABLE;
+            }
+            return EPOS2.ST_FAULT;
+        }
+        return EPOS2.ST_NOT_READY_TO_SWITCH_ON;
+    }
+}
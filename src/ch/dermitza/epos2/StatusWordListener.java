@@ -0,0 +1,37 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+/**
+ * Notified by a {@link ProcessDataCache} whenever a TPDO carries a
+ * statusword that differs from the previous one. Implementations run on the
+ * receiver thread and must not block.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public interface StatusWordListener {
+
+    /**
+     * @param nodeID the node the statusword belongs to
+     * @param statusWord the new statusword
+     * @param nanoTime the reception time of the TPDO
+     */
+    public void statusWordChanged(short nodeID, int statusWord, long nanoTime);
+}
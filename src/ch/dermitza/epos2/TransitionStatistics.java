@@ -0,0 +1,153 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2;
+
+/**
+ * Timing of DS402 state transitions observed by a
+ * {@link StateMachineDriver}.
+ *
+ * Each observed change from one {@code EPOS2.ST_*} state to another is
+ * recorded with the time spent in the source state, and each completed
+ * {@link StateMachineDriver#transitionTo(int, long)} call with its total
+ * duration. All times are in nanoseconds.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class TransitionStatistics {
+
+    public static final int STATES = 12;
+    private final long[] count = new long[STATES * STATES];
+    private final long[] total = new long[STATES * STATES];
+    private final long[] min = new long[STATES * STATES];
+    private final long[] max = new long[STATES * STATES];
+    private long sequences;
+    private long failures;
+    private long sequenceTotal;
+    private long sequenceMax;
+    private long lastSequence;
+
+    synchronized void record(int from, int to, long nanos) {
+        if (from < 0 || from >= STATES || to < 0 || to >= STATES) {
+            return;
+        }
+        int i = from * STATES + to;
+        if (count[i] == 0 || nanos < min[i]) {
+            min[i] = nanos;
+        }
+        if (nanos > max[i]) {
+            max[i] = nanos;
+        }
+        count[i]++;
+        total[i] += nanos;
+    }
+
+    synchronized void recordSequence(long nanos, boolean success) {
+        if (!success) {
+            failures++;
+            return;
+        }
+        sequences++;
+        sequenceTotal += nanos;
+        lastSequence = nanos;
+        if (nanos > sequenceMax) {
+            sequenceMax = nanos;
+        }
+    }
+
+    public synchronized long getCount(int from, int to) {
+        return count[from * STATES + to];
+    }
+
+    public synchronized long getMin(int from, int to) {
+        return min[from * STATES + to];
+    }
+
+    public synchronized long getMax(int from, int to) {
+        return max[from * STATES + to];
+    }
+
+    public synchronized long getMean(int from, int to) {
+        int i = from * STATES + to;
+        return count[i] == 0 ? 0 : total[i] / count[i];
+    }
+
+    /**
+     * @return the number of successfully completed transition sequences
+     */
+    public synchronized long getSequences() {
+        return sequences;
+    }
+
+    /**
+     * @return the number of sequences that timed out or failed
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getSequenceMean() {
+        return sequences == 0 ? 0 : sequenceTotal / sequences;
+    }
+
+    public synchronized long getSequenceMax() {
+        return sequenceMax;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < count.length; i++) {
+            count[i] = 0;
+            total[i] = 0;
+            min[i] = 0;
+            max[i] = 0;
+        }
+        sequences = 0;
+        failures = 0;
+        sequenceTotal = 0;
+        sequenceMax = 0;
+        lastSequence = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("sequences=").append(sequences)
+                .append(" failures=").append(failures)
+                .append(" mean=").append(getSequenceMean() / 1000).append("us")
+                .append(" max=").append(sequenceMax / 1000).append("us");
+        for (int from = 0; from < STATES; from++) {
+            for (int to = 0; to < STATES; to++) {
+                int i = from * STATES + to;
+                if (count[i] > 0) {
+                    sb.append('\n').append(StatusWord.stateName(from))
+                            .append(" -> ").append(StatusWord.stateName(to))
+                            .append(": n=").append(count[i])
+                            .append(" min=").append(min[i] / 1000).append("us")
+                            .append(" mean=").append(total[i] / count[i] / 1000).append("us")
+                            .append(" max=").append(max[i] / 1000).append("us");
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bus;
+
+import ch.dermitza.epos2.StatusWord;
+
+/**
+ * The outcome of {@link FleetManager#bringUp(int, long)}: for every drive
+ * whether it reached the target state and how long it took, measured from
+ * the NMT start broadcast.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class BringUpReport {
+
+    private final int target;
+    private final short[] nodeIDs;
+    private final long[] nanos;
+    private final Throwable[] errors;
+    private final long totalNanos;
+
+    BringUpReport(int target, short[] nodeIDs, long[] nanos, Throwable[] errors, long totalNanos) {
+        this.target = target;
+        this.nodeIDs = nodeIDs;
+        this.nanos = nanos;
+        this.errors = errors;
+        this.totalNanos = totalNanos;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public int getDriveCount() {
+        return nodeIDs.length;
+    }
+
+    public short getNodeID(int i) {
+        return nodeIDs[i];
+    }
+
+    /**
+     * @return the time drive {@code i} took to reach the target state or to
+     * fail
+     */
+    public long getNanos(int i) {
+        return nanos[i];
+    }
+
+    /**
+     * @return true if drive {@code i} reached the target state
+     */
+    public boolean isUp(int i) {
+        return errors[i] == null;
+    }
+
+    /**
+     * @return why drive {@code i} did not reach the target state, or null
+     */
+    public Throwable getError(int i) {
+        return errors[i];
+    }
+
+    /**
+     * @return true if every drive reached the target state
+     */
+    public boolean isAllUp() {
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the time the whole bring-up took
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the time the slowest drive took
+     */
+    public long getSlowestNanos() {
+        long max = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            max = Math.max(max, nanos[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the sum of the times of all drives, what bringing them up one
+     * after the other would roughly take
+     */
+    public long getSumNanos() {
+        long sum = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            sum += nanos[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d drives to %s in %.1f ms (slowest %.1f ms, sum %.1f ms)",
+                nodeIDs.length, StatusWord.stateName(target), totalNanos / 1e6,
+                getSlowestNanos() / 1e6, getSumNanos() / 1e6));
+        for (int i = 0; i < nodeIDs.length; i++) {
+            sb.append(String.format("%n  node %d: %.1f ms %s", nodeIDs[i], nanos[i] / 1e6,
+                    errors[i] == null ? "up" : errors[i].getMessage()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bus;
+
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.io.SDOStatistics;
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One CAN channel of a {@link BusManager}: its own {@link EPOS2Transceiver}
+ * with a dedicated receiver thread, and counters of the traffic in both
+ * directions.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class BusChannel {
+
+    private final int channel;
+    private final int bitrate;
+    private final EPOS2Transceiver trans;
+    private final AtomicLong txFrames = new AtomicLong();
+    private final AtomicLong txBits = new AtomicLong();
+    private volatile long rxFrames;
+    private volatile long rxBits;
+    private volatile int nodes;
+    private long lastSample;
+    private long lastFrames;
+    private long lastRx;
+    private long lastBits;
+    private long lastRequests;
+    private long lastTimeouts;
+
+    BusChannel(int channel, int bitrate, CanReaderIF reader, CanWriterIF writer) {
+        this.channel = channel;
+        this.bitrate = bitrate;
+        this.trans = new EPOS2Transceiver("ch" + channel);
+        trans.setWriter(new CountingWriter(writer));
+        trans.setReader(new CountingReader(reader));
+        trans.getReceiverThread().setPriority(Thread.MAX_PRIORITY);
+        lastSample = System.nanoTime();
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public EPOS2Transceiver getTransceiver() {
+        return trans;
+    }
+
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    void nodeAdded() {
+        nodes++;
+    }
+
+    void nodeRemoved() {
+        nodes--;
+    }
+
+    public long getRxFrames() {
+        return rxFrames;
+    }
+
+    public long getTxFrames() {
+        return txFrames.get();
+    }
+
+    /**
+     * Returns the traffic since the previous call, or since the channel was
+     * created.
+     */
+    public synchronized ChannelLoad sample() {
+        long now = System.nanoTime();
+        long tx = txFrames.get();
+        long rx = rxFrames;
+        long bits = txBits.get() + rxBits;
+        SDOStatistics s = trans.getStatistics();
+        long requests = s == null ? 0 : s.getRequests();
+        long timeouts = s == null ? 0 : s.getTimeouts();
+        ChannelLoad load = new ChannelLoad(channel, now - lastSample, rx - lastRx, tx - lastFrames,
+                bits - lastBits, bitrate, requests - lastRequests, timeouts - lastTimeouts, nodes);
+        lastSample = now;
+        lastFrames = tx;
+        lastRx = rx;
+        lastBits = bits;
+        lastRequests = requests;
+        lastTimeouts = timeouts;
+        return load;
+    }
+
+    /**
+     * @return the length of a standard data frame on the bus, including
+     * worst case bit stuffing and the interframe space
+     */
+    static int frameBits(CanMessage msg) {
+        int payload = 8 * msg.getData().length;
+        return 47 + payload + (34 + payload - 1) / 4;
+    }
+
+    private class CountingReader implements CanReaderIF {
+
+        private final CanReaderIF reader;
+
+        CountingReader(CanReaderIF reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean readMessage(CanMessage msg) {
+            if (!reader.readMessage(msg)) {
+                return false;
+            }
+            // Only the receiver thread reads
+            rxFrames++;
+            rxBits += frameBits(msg);
+            return true;
+        }
+    }
+
+    private class CountingWriter implements CanWriterIF {
+
+        private final CanWriterIF writer;
+
+        CountingWriter(CanWriterIF writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean writeMessage(CanMessage msg, int timeout) {
+            return counted(msg, writer.writeMessage(msg, timeout));
+        }
+
+        @Override
+        public boolean writeMessageImmediate(CanMessage msg) {
+            return counted(msg, writer.writeMessageImmediate(msg));
+        }
+
+        private boolean counted(CanMessage msg, boolean sent) {
+            if (sent) {
+                txFrames.incrementAndGet();
+                txBits.addAndGet(frameBits(msg));
+            }
+            return sent;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bus;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.ObjectBatch;
+import ch.dermitza.epos2.ObjectEntry;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.jcanopen.can.CanDeviceIF;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the drives of a cell over several CAN channels, each with its own
+ * {@link EPOS2Transceiver} and receiver thread, and addresses them by node
+ * ID regardless of the channel they are on.
+ *
+ * A single bus saturates at around a dozen drives with process data
+ * enabled. With one channel per CAN interface, traffic on different
+ * channels proceeds in parallel: each channel has its own receiver thread,
+ * run at maximum priority, its own SDO slots and its own write lock.
+ * Node IDs must be unique across all channels of a manager.
+ *
+ * Drives are either added to the channel they are wired to, or placed by
+ * {@link #addDrive(short)} on the channel with the fewest drives, for cells
+ * whose wiring follows that plan. {@link #sampleLoad()} reports the traffic
+ * of every channel, to check that the load is balanced.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class BusManager {
+
+    private final List<BusChannel> channels = new ArrayList<BusChannel>();
+    private final EPOS2[] drives = new EPOS2[EPOS2Transceiver.MAX_NODES];
+    private final BusChannel[] nodeChannels = new BusChannel[EPOS2Transceiver.MAX_NODES];
+    private boolean reuseFrames = true;
+
+    /**
+     * Opens a channel of the given device. The device must be connected and
+     * initialised.
+     *
+     * @param device the CAN device
+     * @param channel the channel number of the device
+     * @param bitrate the bit rate of the channel, for the load figures
+     * @return the new channel
+     */
+    public BusChannel addChannel(CanDeviceIF device, int channel, int bitrate) {
+        return addChannel(channel, bitrate, device.getReader(channel), device.getWriter(channel));
+    }
+
+    /**
+     * Adds a channel served by the given reader and writer.
+     *
+     * @param channel the channel number, unique within the manager
+     * @param bitrate the bit rate of the channel, for the load figures
+     * @return the new channel
+     */
+    public synchronized BusChannel addChannel(int channel, int bitrate, CanReaderIF reader, CanWriterIF writer) {
+        if (findChannel(channel) != null) {
+            throw new IllegalArgumentException("Channel " + channel + " already added");
+        }
+        BusChannel c = new BusChannel(channel, bitrate, reader, writer);
+        channels.add(c);
+        return c;
+    }
+
+    /**
+     * Sets whether drives added afterwards reuse their SDO frames, see
+     * {@link EPOS2#EPOS2(short, boolean)}. On by default.
+     */
+    public synchronized void setReuseFrames(boolean reuseFrames) {
+        this.reuseFrames = reuseFrames;
+    }
+
+    /**
+     * Adds the drive with the given node ID on the given channel.
+     *
+     * @return the drive, connected to the transceiver of the channel
+     */
+    public synchronized EPOS2 addDrive(int channel, short nodeID) {
+        BusChannel c = findChannel(channel);
+        if (c == null) {
+            throw new IllegalArgumentException("No channel " + channel);
+        }
+        return add(c, nodeID);
+    }
+
+    /**
+     * Adds the drive with the given node ID on the channel that has the
+     * fewest drives.
+     *
+     * @return the drive, connected to the transceiver of the channel
+     */
+    public synchronized EPOS2 addDrive(short nodeID) {
+        if (channels.isEmpty()) {
+            throw new IllegalStateException("No channel added");
+        }
+        BusChannel least = channels.get(0);
+        for (BusChannel c : channels) {
+            if (c.getNodeCount() < least.getNodeCount()) {
+                least = c;
+            }
+        }
+        return add(least, nodeID);
+    }
+
+    public synchronized void removeDrive(short nodeID) {
+        BusChannel c = nodeChannels[nodeID & 0x7F];
+        if (c != null) {
+            c.nodeRemoved();
+            nodeChannels[nodeID & 0x7F] = null;
+            drives[nodeID & 0x7F] = null;
+        }
+    }
+
+    private EPOS2 add(BusChannel c, short nodeID) {
+        if (nodeID < 1 || nodeID > 127) {
+            throw new IllegalArgumentException("Invalid node ID " + nodeID);
+        }
+        if (drives[nodeID] != null) {
+            throw new IllegalArgumentException("Node " + nodeID + " is already on channel "
+                    + nodeChannels[nodeID].getChannel());
+        }
+        EPOS2 epos = new EPOS2(nodeID, reuseFrames);
+        epos.setTranceiver(c.getTransceiver());
+        drives[nodeID] = epos;
+        nodeChannels[nodeID] = c;
+        c.nodeAdded();
+        return epos;
+    }
+
+    /**
+     * @return the drive with the given node ID, or null if there is none
+     */
+    public synchronized EPOS2 getDrive(short nodeID) {
+        return drives[nodeID & 0x7F];
+    }
+
+    /**
+     * @return all drives, in ascending node ID order
+     */
+    public synchronized EPOS2[] getDrives() {
+        List<EPOS2> list = new ArrayList<EPOS2>();
+        for (int n = 0; n < drives.length; n++) {
+            if (drives[n] != null) {
+                list.add(drives[n]);
+            }
+        }
+        return list.toArray(new EPOS2[list.size()]);
+    }
+
+    /**
+     * @return the drives on the given channel, in ascending node ID order
+     */
+    public synchronized EPOS2[] getDrives(int channel) {
+        List<EPOS2> list = new ArrayList<EPOS2>();
+        for (int n = 0; n < drives.length; n++) {
+            if (drives[n] != null && nodeChannels[n].getChannel() == channel) {
+                list.add(drives[n]);
+            }
+        }
+        return list.toArray(new EPOS2[list.size()]);
+    }
+
+    /**
+     * @return the channel of the given node, or null if the node is unknown
+     */
+    public synchronized BusChannel getChannelOf(short nodeID) {
+        return nodeChannels[nodeID & 0x7F];
+    }
+
+    public synchronized BusChannel getChannel(int channel) {
+        return findChannel(channel);
+    }
+
+    public synchronized List<BusChannel> getChannels() {
+        return new ArrayList<BusChannel>(channels);
+    }
+
+    /**
+     * Reads an object of the given node, see {@link EPOS2#readObject(short, byte)}.
+     *
+     * @return the raw response payload, or -1 on error or if the node is
+     * unknown
+     */
+    public int readObject(short nodeID, short index, byte subIndex) {
+        EPOS2 epos = getDrive(nodeID);
+        return epos == null ? -1 : epos.readObject(index, subIndex);
+    }
+
+    /**
+     * Writes an object of the given node, see
+     * {@link EPOS2#writeObject(short, byte, int)}.
+     *
+     * @return 0 on success, the abort code or -1 on error or if the node is
+     * unknown
+     */
+    public int writeObject(short nodeID, short index, byte subIndex, int value) {
+        EPOS2 epos = getDrive(nodeID);
+        return epos == null ? -1 : epos.writeObject(index, subIndex, value);
+    }
+
+    /**
+     * Sends an NMT command to one node, or to all nodes of every channel if
+     * {@code nodeID} is 0.
+     *
+     * @return true if every frame was handed to its CAN device
+     */
+    public boolean sendNMT(byte command, short nodeID) {
+        if (nodeID != 0) {
+            EPOS2 epos = getDrive(nodeID);
+            return epos != null && epos.sendNMT(command);
+        }
+        boolean ok = true;
+        for (BusChannel c : getChannels()) {
+            ok &= c.getTransceiver().sendNMT(command, 0);
+        }
+        return ok;
+    }
+
+    /**
+     * Creates a batch reading the given entries from every drive. Each
+     * channel works through its share of the batch in parallel with the
+     * others.
+     */
+    public ObjectBatch newBatch(ObjectEntry<?>... entries) {
+        return new ObjectBatch(getDrives(), entries);
+    }
+
+    /**
+     * @return the traffic of every channel since the previous call
+     */
+    public List<ChannelLoad> sampleLoad() {
+        List<ChannelLoad> list = new ArrayList<ChannelLoad>();
+        for (BusChannel c : getChannels()) {
+            list.add(c.sample());
+        }
+        return list;
+    }
+
+    /**
+     * Shuts down the transceivers of all channels.
+     */
+    public synchronized void shutdown() {
+        for (BusChannel c : channels) {
+            c.getTransceiver().shutdown();
+        }
+    }
+
+    private BusChannel findChannel(int channel) {
+        for (BusChannel c : channels) {
+            if (c.getChannel() == channel) {
+                return c;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bus;
+
+/**
+ * Traffic of one {@link BusChannel} over a sampling interval.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class ChannelLoad {
+
+    private final int channel;
+    private final long intervalNanos;
+    private final long rxFrames;
+    private final long txFrames;
+    private final long bits;
+    private final int bitrate;
+    private final long sdoRequests;
+    private final long sdoTimeouts;
+    private final int nodes;
+
+    ChannelLoad(int channel, long intervalNanos, long rxFrames, long txFrames, long bits, int bitrate,
+            long sdoRequests, long sdoTimeouts, int nodes) {
+        this.channel = channel;
+        this.intervalNanos = intervalNanos;
+        this.rxFrames = rxFrames;
+        this.txFrames = txFrames;
+        this.bits = bits;
+        this.bitrate = bitrate;
+        this.sdoRequests = sdoRequests;
+        this.sdoTimeouts = sdoTimeouts;
+        this.nodes = nodes;
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public long getInterval() {
+        return intervalNanos;
+    }
+
+    public long getRxFrames() {
+        return rxFrames;
+    }
+
+    public long getTxFrames() {
+        return txFrames;
+    }
+
+    /**
+     * @return the frames per second in both directions
+     */
+    public double getFrameRate() {
+        return intervalNanos == 0 ? 0 : (rxFrames + txFrames) * 1e9 / intervalNanos;
+    }
+
+    /**
+     * @return the share of the bus bandwidth used, between 0 and 1. Frame
+     * sizes include worst case bit stuffing, so this is an upper bound.
+     */
+    public double getBusLoad() {
+        return intervalNanos == 0 ? 0 : Math.min(1.0, bits * 1e9 / intervalNanos / bitrate);
+    }
+
+    public long getSdoRequests() {
+        return sdoRequests;
+    }
+
+    public long getSdoTimeouts() {
+        return sdoTimeouts;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("channel %d: %d nodes, %.0f frames/s, load %.1f%%, %d SDOs, %d timeouts",
+                channel, nodes, getFrameRate(), getBusLoad() * 100, sdoRequests, sdoTimeouts);
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.bus;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.EPOS2Objects;
+import ch.dermitza.epos2.StateMachineDriver;
+import ch.dermitza.epos2.io.CanFrameListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.io.SDOBatch;
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Finds the drives of a {@link BusManager} and brings them up together.
+ *
+ * {@link #discover()} reads the device type (0x1000) of every node ID that
+ * is not yet known, on all channels at once, and listens for boot-up
+ * messages while doing so. Nodes that answer, even with an abort, or that
+ * boot during the scan are added to the bus manager on the channel they
+ * were found on. The reads of one channel are in flight at the same time,
+ * so a scan takes about one SDO timeout of the channel, see
+ * {@link EPOS2Transceiver#setTimeout(long)}.
+ *
+ * {@link #bringUp(int, long)} starts all nodes with one broadcast NMT
+ * command per channel and then runs the DS402 state machine of every drive
+ * at the same time through {@link StateMachineDriver}s. Bring-up takes
+ * about as long as the slowest drive instead of the sum over all drives.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class FleetManager {
+
+    private final BusManager bus;
+    private final long[] deviceTypes = new long[EPOS2Transceiver.MAX_NODES];
+
+    public FleetManager(BusManager bus) {
+        this.bus = bus;
+        Arrays.fill(deviceTypes, -1);
+    }
+
+    public BusManager getBusManager() {
+        return bus;
+    }
+
+    /**
+     * Scans all channels for nodes that are not yet known to the bus
+     * manager and adds the nodes found. A node that answers on more than
+     * one channel is added on the first.
+     *
+     * @return the node IDs found by this scan, in ascending order
+     */
+    public short[] discover() {
+        List<BusChannel> channels = bus.getChannels();
+        int n = channels.size();
+        SDOBatch[] batches = new SDOBatch[n];
+        short[][] scanned = new short[n][];
+        BootListener[] boots = new BootListener[n];
+        for (int c = 0; c < n; c++) {
+            EPOS2Transceiver trans = channels.get(c).getTransceiver();
+            boots[c] = new BootListener();
+            short[] ids = new short[EPOS2Transceiver.MAX_NODES - 1];
+            int count = 0;
+            for (short id = 1; id < EPOS2Transceiver.MAX_NODES; id++) {
+                if (bus.getDrive(id) == null) {
+                    ids[count++] = id;
+                    trans.addFrameListener(EPOS2Transceiver.COB_HEARTBEAT + id, boots[c]);
+                }
+            }
+            scanned[c] = Arrays.copyOf(ids, count);
+            batches[c] = new SDOBatch(count);
+            for (int i = 0; i < count; i++) {
+                batches[c].add(EPOS2Objects.DEVICE_TYPE.readFrame(ids[i]));
+            }
+        }
+        for (int c = 0; c < n; c++) {
+            channels.get(c).getTransceiver().submitBatch(batches[c]);
+        }
+        List<Short> found = new ArrayList<Short>();
+        for (int c = 0; c < n; c++) {
+            batches[c].await();
+            EPOS2Transceiver trans = channels.get(c).getTransceiver();
+            for (int i = 0; i < scanned[c].length; i++) {
+                short id = scanned[c][i];
+                trans.removeFrameListener(EPOS2Transceiver.COB_HEARTBEAT + id, boots[c]);
+                boolean answered = !batches[c].isTimedOut(i) || boots[c].booted(id);
+                if (!answered || bus.getDrive(id) != null) {
+                    continue;
+                }
+                synchronized (this) {
+                    deviceTypes[id] = batches[c].isOk(i)
+                            ? EPOS2Objects.DEVICE_TYPE.decode(batches[c].getValue(i)) : -1;
+                }
+                bus.addDrive(channels.get(c).getChannel(), id);
+                found.add(id);
+            }
+        }
+        short[] ids = new short[found.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = found.get(i);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @return the device type read during discovery, or -1 if the node was
+     * not discovered or did not report it
+     */
+    public synchronized long getDeviceType(short nodeID) {
+        return deviceTypes[nodeID & 0x7F];
+    }
+
+    /**
+     * Starts all nodes and drives every drive of the bus manager to the
+     * given state, all at the same time, waiting until every drive has
+     * reached it or failed.
+     *
+     * @param target {@link EPOS2#ST_SWITCH_ON} or
+     * {@link EPOS2#ST_OPERATION_ENABLE}
+     * @param timeoutMs the deadline of every drive
+     * @return the outcome and bring-up time of every drive
+     */
+    public BringUpReport bringUp(int target, long timeoutMs) {
+        EPOS2[] drives = bus.getDrives();
+        long start = System.nanoTime();
+        bus.sendNMT(EPOS2Transceiver.NMT_START, (short) 0);
+        final long[] done = new long[drives.length];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Integer>[] futures = new CompletableFuture[drives.length];
+        for (int i = 0; i < drives.length; i++) {
+            final int d = i;
+            futures[i] = new StateMachineDriver(drives[i]).transitionTo(target, timeoutMs)
+                    .whenComplete(new BiConsumer<Integer, Throwable>() {
+                        @Override
+                        public void accept(Integer state, Throwable t) {
+                            done[d] = System.nanoTime();
+                        }
+                    });
+        }
+        short[] ids = new short[drives.length];
+        long[] nanos = new long[drives.length];
+        Throwable[] errors = new Throwable[drives.length];
+        for (int i = 0; i < drives.length; i++) {
+            try {
+                futures[i].join();
+            } catch (CompletionException e) {
+                errors[i] = e.getCause();
+            }
+            ids[i] = drives[i].getNodeID();
+            nanos[i] = done[i] - start;
+        }
+        return new BringUpReport(target, ids, nanos, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * Discovers the drives of all channels and brings them up.
+     *
+     * @see #discover()
+     * @see #bringUp(int, long)
+     */
+    public BringUpReport discoverAndBringUp(int target, long timeoutMs) {
+        discover();
+        return bringUp(target, timeoutMs);
+    }
+
+    private static class BootListener implements CanFrameListener {
+
+        private final boolean[] booted = new boolean[EPOS2Transceiver.MAX_NODES];
+
+        @Override
+        public void frameReceived(CanMessage msg, long nanoTime) {
+            byte[] d = msg.getData();
+            if (d.length > 0 && d[0] == 0) {
+                synchronized (this) {
+                    booted[(msg.getID() - EPOS2Transceiver.COB_HEARTBEAT) & 0x7F] = true;
+                }
+            }
+        }
+
+        synchronized boolean booted(short nodeID) {
+            return booted[nodeID];
+        }
+    }
+}
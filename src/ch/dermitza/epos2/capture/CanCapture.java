@@ -0,0 +1,286 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.capture;
+
+import ch.dermitza.epos2.util.LongRingBuffer;
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Captures CAN traffic into a compact binary log, see
+ * {@link CanCaptureFile} for the format.
+ *
+ * Frames are handed over by a {@link CapturingCanReader} and a
+ * {@link CapturingCanWriter}. Each frame is packed into three longs
+ * (timestamp, identifier and flags, payload) and queued in a lock-free ring
+ * per direction, so capturing neither allocates nor performs I/O on the
+ * calling thread. A background thread merges both rings in timestamp order
+ * into a direct buffer and writes it to the file once {@link #start()} has
+ * been called. Frames arriving while a ring is full are dropped and
+ * counted.
+ *
+ * Transmitted frames are timestamped before they are handed to the
+ * device, received frames after they have been read. While a transmission
+ * is in progress, frames newer than its timestamp are held back until it
+ * has been queued, so a response never precedes its request in the log.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class CanCapture implements Runnable {
+
+    public static final int DEFAULT_RING_FRAMES = 16384;
+    public static final long DEFAULT_FLUSH_NANOS = 10000000L;
+    /**
+     * Time a frame is held back before being written, so that a frame
+     * queued late on the other ring can still be merged in order.
+     */
+    private static final long HOLD_NANOS = 1000000L;
+    private static final int WORDS = 3;
+    private static final long IDLE = Long.MIN_VALUE;
+    private final LongRingBuffer rx;
+    private final LongRingBuffer tx;
+    private final long[] rxScratch = new long[WORDS];
+    private final long[] txScratch = new long[WORDS];
+    private final Object txLock = new Object();
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final FileChannel channel;
+    private volatile long flushNanos = DEFAULT_FLUSH_NANOS;
+    private volatile boolean running;
+    private volatile boolean closed;
+    private volatile long frames;
+    private volatile long dropped;
+    /**
+     * Timestamp of the transmission currently handed to the device, or
+     * {@link #IDLE}.
+     */
+    private volatile long pendingTx = IDLE;
+    private long written;
+    private Thread thread;
+
+    public CanCapture(Path path) throws IOException {
+        this(path, DEFAULT_RING_FRAMES);
+    }
+
+    /**
+     * Creates the capture file, replacing any existing one.
+     *
+     * @param path the file to write
+     * @param ringFrames the number of frames each direction can queue
+     * @throws IOException if the file cannot be created
+     */
+    public CanCapture(Path path, int ringFrames) throws IOException {
+        rx = new LongRingBuffer(ringFrames * WORDS);
+        tx = new LongRingBuffer(ringFrames * WORDS);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        out.putLong(CanCaptureFile.MAGIC);
+        out.putInt(CanCaptureFile.VERSION);
+        out.putInt(CanCaptureFile.RECORD_SIZE);
+        out.putLong(System.nanoTime());
+        out.putLong(System.currentTimeMillis());
+        flush();
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "CAN capture");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes out all queued frames and closes the file. Frames captured
+     * afterwards are dropped.
+     *
+     * @throws IOException if the file cannot be written or closed
+     */
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            drain(Long.MAX_VALUE);
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Records a frame read from the device. Must only be called from one
+     * thread at a time, which is the case for the receiver thread of a
+     * transceiver.
+     */
+    void received(CanMessage msg, long nanoTime) {
+        offer(rx, rxScratch, msg, nanoTime, false);
+    }
+
+    /**
+     * Hands a frame to the device and records it if the write succeeds.
+     * The frame is timestamped before the write and queued after it, so
+     * transmissions are serialized and the writer is reported as pending
+     * in between. May be called from any thread.
+     *
+     * @param timeout the write timeout, ignored for an immediate write
+     * @param immediate whether to write without waiting for room in the
+     * device queue
+     * @return whether the device accepted the frame
+     */
+    boolean transmit(CanWriterIF writer, CanMessage msg, int timeout, boolean immediate) {
+        synchronized (txLock) {
+            long now = System.nanoTime();
+            pendingTx = now;
+            try {
+                boolean ok = immediate ? writer.writeMessageImmediate(msg)
+                        : writer.writeMessage(msg, timeout);
+                if (ok) {
+                    offer(tx, txScratch, msg, now, true);
+                }
+                return ok;
+            } finally {
+                pendingTx = IDLE;
+            }
+        }
+    }
+
+    private void offer(LongRingBuffer ring, long[] w, CanMessage msg, long nanoTime, boolean transmit) {
+        if (closed) {
+            dropped++;
+            return;
+        }
+        byte[] d = msg.getData();
+        int len = Math.min(d.length, 8);
+        long payload = 0;
+        for (int i = 0; i < len; i++) {
+            payload |= (d[i] & 0xFFL) << (i << 3);
+        }
+        w[0] = nanoTime;
+        w[1] = CanCaptureFile.header(msg.getID(), len, transmit, msg.isExtendedFormat(), msg.isRTR());
+        w[2] = payload;
+        if (ring.offerAll(w, 0, WORDS)) {
+            frames++;
+        } else {
+            dropped++;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                long before = System.nanoTime() - HOLD_NANOS;
+                long pending = pendingTx;
+                if (pending != IDLE && pending - before < 0) {
+                    before = pending;
+                }
+                synchronized (this) {
+                    drain(before);
+                }
+            } catch (IOException ioe) {
+                running = false;
+                return;
+            }
+            LockSupport.parkNanos(flushNanos);
+        }
+    }
+
+    /**
+     * Writes all queued frames older than {@code before}, merging both
+     * directions by timestamp.
+     */
+    private void drain(long before) throws IOException {
+        while (true) {
+            boolean hasRx = !rx.isEmpty() && rx.peek() - before < 0;
+            boolean hasTx = !tx.isEmpty() && tx.peek() - before < 0;
+            if (!hasRx && !hasTx) {
+                break;
+            }
+            LongRingBuffer ring = hasRx && (!hasTx || rx.peek() - tx.peek() < 0) ? rx : tx;
+            if (out.remaining() < CanCaptureFile.RECORD_SIZE) {
+                flush();
+            }
+            out.putLong(ring.poll());
+            out.putLong(ring.poll());
+            out.putLong(ring.poll());
+            written++;
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Sets how often the background thread writes queued frames to the
+     * file. Each ring must hold at least one interval worth of frames.
+     */
+    public void setFlushInterval(long nanos) {
+        this.flushNanos = nanos;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of frames queued for writing
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of frames lost because a ring was full or the
+     * capture was already closed
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+}
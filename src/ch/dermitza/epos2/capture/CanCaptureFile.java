@@ -0,0 +1,271 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.capture;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A CAN capture written by {@link CanCapture}, loaded into memory.
+ *
+ * The file consists of a 32 byte header followed by 24 byte records, all
+ * little-endian:
+ * <pre>
+ * header:  long magic "JEPOSCAN", int version, int record size,
+ *          long System.nanoTime() and long System.currentTimeMillis()
+ *          when the capture was created
+ * record:  long System.nanoTime() of the frame
+ *          long flags: bit 63 transmitted by the host, bit 62 extended
+ *               identifier, bit 61 RTR, bits 32-35 data length,
+ *               bits 0-28 identifier
+ *          long payload, byte 0 in the least significant byte
+ * </pre>
+ * Records are ordered by timestamp. A capture that was not closed
+ * properly may end in a partial record, which is ignored.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class CanCaptureFile {
+
+    public static final long MAGIC = 0x4E4143534F50454AL;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 24;
+    private static final long TRANSMIT = 1L << 63;
+    private static final long EXTENDED = 1L << 62;
+    private static final long RTR = 1L << 61;
+    private final long[] records;
+    private final int size;
+    private final long startNanos;
+    private final long startMillis;
+    private final byte[][] scratch = new byte[9][];
+
+    /**
+     * Reads the given capture.
+     *
+     * @param path the capture to read
+     * @throws IOException if the file cannot be read or is not a capture
+     */
+    public CanCaptureFile(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long bytes = ch.size();
+            if (bytes < HEADER_SIZE || (bytes - HEADER_SIZE) / RECORD_SIZE > Integer.MAX_VALUE / 3) {
+                throw new IOException(path + " is not a supported capture");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(bytes, 1 << 20)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, buf, HEADER_SIZE);
+            if (buf.getLong() != MAGIC) {
+                throw new IOException(path + " is not a CAN capture");
+            }
+            if (buf.getInt() != VERSION || buf.getInt() != RECORD_SIZE) {
+                throw new IOException(path + " has an unsupported version");
+            }
+            startNanos = buf.getLong();
+            startMillis = buf.getLong();
+            size = (int) ((bytes - HEADER_SIZE) / RECORD_SIZE);
+            records = new long[size * 3];
+            int i = 0;
+            while (i < records.length) {
+                int n = Math.min((records.length - i) / 3, buf.capacity() / RECORD_SIZE);
+                readFully(ch, buf, n * RECORD_SIZE);
+                for (int j = 0; j < n * 3; j++) {
+                    records[i++] = buf.getLong();
+                }
+            }
+        } finally {
+            ch.close();
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, int len) throws IOException {
+        buf.clear();
+        buf.limit(len);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new IOException("Unexpected end of capture");
+            }
+        }
+        buf.flip();
+    }
+
+    static long header(int id, int length, boolean transmit, boolean extended, boolean rtr) {
+        long h = ((long) (length & 0xF) << 32) | (id & 0x1FFFFFFFL);
+        if (transmit) {
+            h |= TRANSMIT;
+        }
+        if (extended) {
+            h |= EXTENDED;
+        }
+        if (rtr) {
+            h |= RTR;
+        }
+        return h;
+    }
+
+    /**
+     * @return the number of frames in the capture
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getNanoTime(int i) {
+        return records[i * 3];
+    }
+
+    /**
+     * @return the time of frame {@code i} relative to the start of the
+     * capture, in nanoseconds
+     */
+    public long getRelativeNanos(int i) {
+        return records[i * 3] - startNanos;
+    }
+
+    /**
+     * @return the wall clock time at which the capture was created
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return true if frame {@code i} was sent by the host, false if it was
+     * received
+     */
+    public boolean isTransmitted(int i) {
+        return (records[i * 3 + 1] & TRANSMIT) != 0;
+    }
+
+    public int getID(int i) {
+        return (int) (records[i * 3 + 1] & 0x1FFFFFFFL);
+    }
+
+    public int getLength(int i) {
+        return (int) ((records[i * 3 + 1] >>> 32) & 0xF);
+    }
+
+    public boolean isExtendedFormat(int i) {
+        return (records[i * 3 + 1] & EXTENDED) != 0;
+    }
+
+    public boolean isRTR(int i) {
+        return (records[i * 3 + 1] & RTR) != 0;
+    }
+
+    /**
+     * @return the payload of frame {@code i}, byte 0 in the least
+     * significant byte
+     */
+    public long getPayload(int i) {
+        return records[i * 3 + 2];
+    }
+
+    /**
+     * Checks whether a frame has the identifier and payload of frame
+     * {@code i}.
+     */
+    public boolean matches(int i, CanMessage msg) {
+        byte[] d = msg.getData();
+        if (msg.getID() != getID(i) || d.length != getLength(i)) {
+            return false;
+        }
+        long payload = getPayload(i);
+        for (int j = 0; j < d.length; j++) {
+            if (d[j] != (byte) (payload >>> (j << 3))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies frame {@code i} into the given message. The data array of the
+     * message is reused when it has the right length.
+     *
+     * @param i the frame
+     * @param msg the message to fill in
+     * @param timestamp the timestamp to set, in seconds
+     */
+    public void copy(int i, CanMessage msg, double timestamp) {
+        int len = getLength(i);
+        long payload = getPayload(i);
+        byte[] d = msg.getData();
+        if (d == null || d.length != len) {
+            if (scratch[len] == null) {
+                scratch[len] = new byte[len];
+            }
+            msg.setMessage(getID(i), scratch[len], timestamp, isExtendedFormat(i), false, isRTR(i), false);
+            d = msg.getData();
+        } else {
+            msg.setID(getID(i));
+            msg.setTimestamp(timestamp);
+            msg.setExtendedFormat(isExtendedFormat(i));
+            msg.setRTR(isRTR(i));
+        }
+        for (int j = 0; j < len; j++) {
+            d[j] = (byte) (payload >>> (j << 3));
+        }
+    }
+
+    /**
+     * Writes the capture in the log format of the SocketCAN
+     * {@code candump -l} tool, one frame per line, e.g.
+     * {@code (1400000000.123456) can0 601#4041600000000000}.
+     *
+     * @param out the destination
+     * @param iface the interface name to write
+     * @throws IOException if writing fails
+     */
+    public void writeCandump(Appendable out, String iface) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < size; i++) {
+            long micros = startMillis * 1000L + getRelativeNanos(i) / 1000L;
+            sb.setLength(0);
+            sb.append('(').append(micros / 1000000L).append('.');
+            String frac = Long.toString(micros % 1000000L);
+            for (int j = frac.length(); j < 6; j++) {
+                sb.append('0');
+            }
+            sb.append(frac).append(") ").append(iface).append(' ');
+            String id = Integer.toHexString(getID(i)).toUpperCase();
+            for (int j = id.length(); j < (isExtendedFormat(i) ? 8 : 3); j++) {
+                sb.append('0');
+            }
+            sb.append(id).append('#');
+            if (isRTR(i)) {
+                sb.append('R');
+            } else {
+                long payload = getPayload(i);
+                for (int j = 0; j < getLength(i); j++) {
+                    int b = (int) (payload >>> (j << 3)) & 0xFF;
+                    sb.append(Character.toUpperCase(Character.forDigit(b >> 4, 16)))
+                            .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+                }
+            }
+            out.append(sb).append('\n');
+        }
+    }
+}
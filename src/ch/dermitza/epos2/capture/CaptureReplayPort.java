@@ -0,0 +1,221 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.capture;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+
+/**
+ * Plays a {@link CanCaptureFile} back to a transceiver in place of the CAN
+ * device, so that a recorded session can be reproduced without the
+ * machine.
+ *
+ * The received frames of the capture are returned by
+ * {@link #readMessage(CanMessage)}, frames written by the host are
+ * compared against the transmitted frames of the capture. A received frame
+ * is only released once the host has written as many frames as had been
+ * transmitted before it in the original session, so responses never
+ * overtake the requests they answer. In timed mode a frame is additionally
+ * held back until its original offset from the start of the replay, scaled
+ * by the replay speed, has passed. In fast mode it is released as soon as
+ * its requests have been written, which measures the host side alone.
+ *
+ * Like a device reader, {@link #readMessage(CanMessage)} blocks while no
+ * frame is due, but at most for {@link #READ_TIMEOUT_NANOS}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class CaptureReplayPort implements CanReaderIF, CanWriterIF {
+
+    public static final long READ_TIMEOUT_NANOS = 1000000L;
+    private final CanCaptureFile capture;
+    private final double speed;
+    /**
+     * For each received frame, its index in the capture and the number of
+     * transmitted frames preceding it.
+     */
+    private final int[] rxIndex;
+    private final int[] txBefore;
+    private final int[] txIndex;
+    private int nextRx;
+    private int written;
+    private long mismatches;
+    private long begin;
+    private long finished;
+
+    /**
+     * @param capture the capture to replay
+     * @param speed 1 to reproduce the original timing, 2 for twice as fast
+     * and so on, or 0 to release frames as soon as their requests have been
+     * written
+     */
+    public CaptureReplayPort(CanCaptureFile capture, double speed) {
+        this.capture = capture;
+        this.speed = speed;
+        int rx = 0;
+        for (int i = 0; i < capture.size(); i++) {
+            if (!capture.isTransmitted(i)) {
+                rx++;
+            }
+        }
+        rxIndex = new int[rx];
+        txBefore = new int[rx];
+        txIndex = new int[capture.size() - rx];
+        int r = 0;
+        int t = 0;
+        for (int i = 0; i < capture.size(); i++) {
+            if (capture.isTransmitted(i)) {
+                txIndex[t++] = i;
+            } else {
+                rxIndex[r] = i;
+                txBefore[r++] = t;
+            }
+        }
+    }
+
+    @Override
+    public boolean readMessage(CanMessage msg) {
+        long deadline = System.nanoTime() + READ_TIMEOUT_NANOS;
+        synchronized (this) {
+            if (nextRx >= rxIndex.length) {
+                waitUntil(deadline);
+                return false;
+            }
+            while (written < txBefore[nextRx]) {
+                if (!waitUntil(deadline)) {
+                    return false;
+                }
+            }
+            begin();
+            int i = rxIndex[nextRx];
+            long offset = capture.getRelativeNanos(i) - capture.getRelativeNanos(0);
+            if (speed > 0) {
+                long due = begin + (long) (offset / speed);
+                while (System.nanoTime() - due < 0) {
+                    if (!waitUntil(Math.min(deadline, due)) && System.nanoTime() - deadline >= 0) {
+                        return false;
+                    }
+                }
+            }
+            capture.copy(i, msg, offset / 1e9);
+            if (++nextRx == rxIndex.length && written >= txIndex.length) {
+                finished = System.nanoTime();
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean writeMessage(CanMessage msg, int timeout) {
+        return writeMessageImmediate(msg);
+    }
+
+    /**
+     * Accepts a frame from the host and checks it against the next
+     * transmitted frame of the capture.
+     */
+    @Override
+    public synchronized boolean writeMessageImmediate(CanMessage msg) {
+        begin();
+        if (written < txIndex.length) {
+            if (!capture.matches(txIndex[written], msg)) {
+                mismatches++;
+            }
+            if (++written == txIndex.length && nextRx >= rxIndex.length) {
+                finished = System.nanoTime();
+            }
+        } else {
+            mismatches++;
+        }
+        notifyAll();
+        return true;
+    }
+
+    private void begin() {
+        if (begin == 0) {
+            begin = System.nanoTime();
+        }
+    }
+
+    /**
+     * Waits on the monitor until notified or {@code deadline} passes.
+     *
+     * @return false if the deadline has passed or the thread was
+     * interrupted
+     */
+    private boolean waitUntil(long deadline) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+            return false;
+        }
+        try {
+            wait(left / 1000000L, (int) (left % 1000000L));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true once every frame of the capture has been replayed and
+     * every transmitted frame has been matched by a write
+     */
+    public synchronized boolean isFinished() {
+        return finished != 0;
+    }
+
+    /**
+     * @return the time from the first read or write to the end of the
+     * replay, or so far if it has not finished, in nanoseconds
+     */
+    public synchronized long getElapsed() {
+        if (begin == 0) {
+            return 0;
+        }
+        return (finished != 0 ? finished : System.nanoTime()) - begin;
+    }
+
+    /**
+     * @return the capture duration, for comparison with
+     * {@link #getElapsed()}
+     */
+    public long getCapturedDuration() {
+        int n = capture.size();
+        return n == 0 ? 0 : capture.getRelativeNanos(n - 1) - capture.getRelativeNanos(0);
+    }
+
+    /**
+     * @return the number of frames written by the host that differed from
+     * the captured ones, or exceeded them
+     */
+    public synchronized long getMismatches() {
+        return mismatches;
+    }
+
+    public synchronized int getWritten() {
+        return written;
+    }
+
+    public synchronized int getReplayed() {
+        return nextRx;
+    }
+}
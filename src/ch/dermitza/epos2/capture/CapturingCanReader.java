@@ -0,0 +1,54 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.capture;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+
+/**
+ * Reader that passes every frame read from the underlying device on to a
+ * {@link CanCapture}. It can be installed with the {@code setReader()}
+ * method of any transceiver in place of the device reader.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class CapturingCanReader implements CanReaderIF {
+
+    private final CanReaderIF reader;
+    private final CanCapture capture;
+
+    public CapturingCanReader(CanReaderIF reader, CanCapture capture) {
+        this.reader = reader;
+        this.capture = capture;
+    }
+
+    @Override
+    public boolean readMessage(CanMessage msg) {
+        if (!reader.readMessage(msg)) {
+            return false;
+        }
+        capture.received(msg, System.nanoTime());
+        return true;
+    }
+
+    public CanReaderIF getReader() {
+        return reader;
+    }
+}
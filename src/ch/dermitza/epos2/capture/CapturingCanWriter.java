@@ -0,0 +1,56 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.capture;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+
+/**
+ * Writer that passes every frame successfully handed to the underlying
+ * device on to a {@link CanCapture}. It can be installed with the
+ * {@code setWriter()} method of any transceiver in place of the device
+ * writer.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class CapturingCanWriter implements CanWriterIF {
+
+    private final CanWriterIF writer;
+    private final CanCapture capture;
+
+    public CapturingCanWriter(CanWriterIF writer, CanCapture capture) {
+        this.writer = writer;
+        this.capture = capture;
+    }
+
+    @Override
+    public boolean writeMessage(CanMessage msg, int timeout) {
+        return capture.transmit(writer, msg, timeout, false);
+    }
+
+    @Override
+    public boolean writeMessageImmediate(CanMessage msg) {
+        return capture.transmit(writer, msg, 0, true);
+    }
+
+    public CanWriterIF getWriter() {
+        return writer;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+
+/**
+ * Receives raw CAN frames from an {@link EPOS2PDOReceiver}.
+ *
+ * Listeners are called on the receiver thread. The message instance is
+ * reused for the next frame, implementations must therefore copy out what
+ * they need and must not block.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public interface CanFrameListener {
+
+    /**
+     * Called for every received frame the listener is registered for.
+     *
+     * @param msg the received frame, only valid for the duration of the call
+     * @param nanoTime the {@link System#nanoTime()} at which the frame was
+     * taken off the bus
+     */
+    public void frameReceived(CanMessage msg, long nanoTime);
+}
@@ -0,0 +1,144 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.canopen.SDOIF;
+import ch.dermitza.jcanopen.canopen.async.CanDataListener;
+import ch.dermitza.jcanopen.canopen.io.AbstractPDOReceiver;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Receiver thread of an {@link EPOS2Transceiver}. It is the only consumer of
+ * the CAN reader: SDO responses are handed to the waiting request of the
+ * corresponding node, every other frame is dispatched to the
+ * {@link CanFrameListener}s registered for its COB-ID.
+ *
+ * Listener tables are copy-on-write, dispatching a frame does not allocate
+ * or take a lock.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class EPOS2PDOReceiver extends AbstractPDOReceiver {
+
+    public static final int COB_ID_COUNT = 0x800;
+    private static final CanFrameListener[] NONE = new CanFrameListener[0];
+    private final SDOResponseSlot[] slots;
+    private final AtomicReferenceArray<CanFrameListener[]> byCob =
+            new AtomicReferenceArray<CanFrameListener[]>(COB_ID_COUNT);
+    private final boolean[] disabled = new boolean[COB_ID_COUNT];
+    private volatile CanFrameListener[] all = NONE;
+    private volatile boolean dispatching = true;
+
+    EPOS2PDOReceiver(CanReaderIF reader, SDOResponseSlot[] slots) {
+        super(reader);
+        this.slots = slots;
+        for (int i = 0; i < COB_ID_COUNT; i++) {
+            byCob.set(i, NONE);
+        }
+    }
+
+    @Override
+    protected void handleCanMessage() {
+        long now = System.nanoTime();
+        int id = msg.getID();
+        if (id > SDOIF.SDO_TX && id < SDOIF.SDO_TX + slots.length) {
+            slots[id - SDOIF.SDO_TX].offer(msg.getData());
+        }
+        CanFrameListener[] l = all;
+        for (int i = 0; i < l.length; i++) {
+            l[i].frameReceived(msg, now);
+        }
+        if (id < 0 || id >= COB_ID_COUNT || !dispatching || disabled[id]) {
+            return;
+        }
+        l = byCob.get(id);
+        for (int i = 0; i < l.length; i++) {
+            l[i].frameReceived(msg, now);
+        }
+        if (!listeners.isEmpty()) {
+            byte[] data = msg.getData();
+            int value = 0;
+            for (int i = Math.min(4, data.length) - 1; i >= 0; i--) {
+                value = (value << 8) | (data[i] & 0xFF);
+            }
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).dataArrived(id, msg.getTimestamp(), value);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener for all frames received with the given COB-ID.
+     *
+     * @param cobID the COB-ID to listen to
+     * @param l the listener to add
+     */
+    public synchronized void addFrameListener(int cobID, CanFrameListener l) {
+        byCob.set(cobID, append(byCob.get(cobID), l));
+    }
+
+    public synchronized void removeFrameListener(int cobID, CanFrameListener l) {
+        byCob.set(cobID, remove(byCob.get(cobID), l));
+    }
+
+    /**
+     * Registers a listener for every frame taken off the bus, including SDO
+     * responses.
+     *
+     * @param l the listener to add
+     */
+    public synchronized void addFrameListener(CanFrameListener l) {
+        all = append(all, l);
+    }
+
+    public synchronized void removeFrameListener(CanFrameListener l) {
+        all = remove(all, l);
+    }
+
+    @Override
+    public void enableAll(boolean enable) {
+        dispatching = enable;
+    }
+
+    @Override
+    public void enable(int cobID, boolean enable) {
+        disabled[cobID] = !enable;
+    }
+
+    private static CanFrameListener[] append(CanFrameListener[] arr, CanFrameListener l) {
+        CanFrameListener[] n = new CanFrameListener[arr.length + 1];
+        System.arraycopy(arr, 0, n, 0, arr.length);
+        n[arr.length] = l;
+        return n;
+    }
+
+    private static CanFrameListener[] remove(CanFrameListener[] arr, CanFrameListener l) {
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] == l) {
+                CanFrameListener[] n = new CanFrameListener[arr.length - 1];
+                System.arraycopy(arr, 0, n, 0, i);
+                System.arraycopy(arr, i + 1, n, i, arr.length - i - 1);
+                return n;
+            }
+        }
+        return arr;
+    }
+}
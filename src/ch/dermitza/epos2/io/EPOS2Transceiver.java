@@ -0,0 +1,586 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import ch.dermitza.jcanopen.canopen.async.AbstractSDOTransceiver;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SDO transceiver that routes all received traffic through a single
+ * receiver thread.
+ *
+ * Unlike {@code SimpleSDOTransceiver}, the calling thread never reads from
+ * the bus itself. SDO responses are matched to the outstanding request of
+ * their node by the {@link EPOS2PDOReceiver}, and PDOs, EMCY and any other
+ * frames are dispatched to registered {@link CanFrameListener}s. Requests to
+ * different nodes may therefore be issued concurrently from different
+ * threads, and a request that is not answered times out instead of blocking
+ * forever.
+ *
+ * Requests can also be submitted asynchronously through
+ * {@link #submitSDO(SDOFrame)}. Each node has at most one SDO in flight,
+ * later requests to the same node are queued, while requests to different
+ * nodes are all on the bus at the same time. Reading one object from N
+ * nodes therefore takes about one round trip rather than N.
+ *
+ * Requests waiting for the same node are served in the order they were
+ * issued. Only emergency stop controlwords overtake the queue, so that a
+ * stop issued while other threads poll the drive only waits for the
+ * request already in flight. The {@link SDOPriority} class is derived from
+ * the request unless given explicitly.
+ *
+ * The latency and outcome of every request, blocking or asynchronous, is
+ * recorded in an {@link SDOStatistics} instance per transceiver, see
+ * {@link #getStatistics()}.
+ *
+ * By default every request waits for the configured timeout and is sent
+ * once. With an {@link SDORetryPolicy}, timeouts follow the measured round
+ * trip time of each node and requests whose response is lost are repeated
+ * as the policy allows. {@link #transfer(SDOFrame)} reports abort codes and
+ * timeouts as an {@link SDOResult} instead of folding them into the value.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class EPOS2Transceiver extends AbstractSDOTransceiver<EPOS2PDOReceiver> {
+
+    public static final int MAX_NODES = 128;
+    public static final int COB_NMT = 0x000;
+    public static final int COB_SYNC = 0x080;
+    public static final int COB_EMCY = 0x080;
+    public static final int COB_TPDO1 = 0x180;
+    public static final int COB_RPDO1 = 0x200;
+    public static final int COB_TPDO2 = 0x280;
+    public static final int COB_RPDO2 = 0x300;
+    public static final int COB_TPDO3 = 0x380;
+    public static final int COB_RPDO3 = 0x400;
+    public static final int COB_TPDO4 = 0x480;
+    public static final int COB_RPDO4 = 0x500;
+    public static final int COB_HEARTBEAT = 0x700;
+    public static final byte NMT_START = 0x01;
+    public static final byte NMT_STOP = 0x02;
+    public static final byte NMT_PRE_OPERATIONAL = (byte) 0x80;
+    public static final byte NMT_RESET_NODE = (byte) 0x81;
+    public static final byte NMT_RESET_COMMUNICATION = (byte) 0x82;
+    public static final long DEFAULT_TIMEOUT_MS = 500;
+    private static final int CCD_DOWNLOAD_RESPONSE = 0x60;
+    private static final int CCD_UPLOAD_RESPONSE = 0x40;
+    private static final int CCD_ABORT = 0x80;
+    private static final int VERIFIED = 0;
+    private static final int NOT_APPLIED = 1;
+    private static final int UNKNOWN = 2;
+    private static final int UNANSWERED = 3;
+    private final SDOResponseSlot[] slots = new SDOResponseSlot[MAX_NODES];
+    private final Object writeLock = new Object();
+    private final CanMessage nmt = new CanMessage();
+    private final String name;
+    private volatile long timeoutNanos = DEFAULT_TIMEOUT_MS * 1000000L;
+    private volatile SDOStatistics statistics = new SDOStatistics();
+    private volatile SDORetryPolicy retryPolicy;
+    private ScheduledThreadPoolExecutor timer;
+
+    public EPOS2Transceiver() {
+        this(null);
+    }
+
+    /**
+     * @param name the name of the bus, appended to the name of the receiver
+     * thread, or null
+     */
+    public EPOS2Transceiver(String name) {
+        this.name = name;
+        for (int i = 0; i < MAX_NODES; i++) {
+            slots[i] = new SDOResponseSlot(this);
+        }
+        nmt.setMessage(COB_NMT, new byte[2], 0, false, false, false, false);
+    }
+
+    @Override
+    public void setReader(CanReaderIF reader) {
+        this.reader = reader;
+        if (receiver == null) {
+            receiver = new EPOS2PDOReceiver(reader, slots);
+            receiverThread = new Thread(receiver, name == null ? "EPOS2 receiver" : "EPOS2 receiver " + name);
+            receiverThread.setDaemon(true);
+            receiverThread.start();
+        } else {
+            receiver.setReader(reader);
+        }
+    }
+
+    @Override
+    public void setWriter(CanWriterIF writer) {
+        this.writer = writer;
+    }
+
+    public EPOS2PDOReceiver getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * @return the thread reading from the bus, or null before
+     * {@link #setReader(CanReaderIF)}
+     */
+    public Thread getReceiverThread() {
+        return receiverThread;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the time a confirmed SDO request waits for its response before
+     * it fails with -1. Not used while a retry policy is set.
+     *
+     * @param timeoutMs the response timeout in milliseconds
+     */
+    public void setTimeout(long timeoutMs) {
+        this.timeoutNanos = timeoutMs * 1000000L;
+    }
+
+    public long getTimeout() {
+        return timeoutNanos / 1000000L;
+    }
+
+    /**
+     * @return the SDO statistics of this transceiver, or null if recording
+     * has been disabled
+     */
+    public SDOStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Replaces the SDO statistics, e.g. to share one instance between
+     * several transceivers.
+     *
+     * @param statistics the new statistics, or null to stop recording
+     */
+    public void setStatistics(SDOStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Sets the policy deriving timeouts and repeating lost requests.
+     *
+     * @param policy the policy, or null to wait for the configured timeout
+     * and send every request once
+     */
+    public void setRetryPolicy(SDORetryPolicy policy) {
+        this.retryPolicy = policy;
+    }
+
+    public SDORetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Transmits the given SDO request and waits for the matching response.
+     *
+     * @param f the SDO request to transmit
+     * @return the response payload, or -1 if the request could not be sent
+     * or was not answered within the configured timeout
+     */
+    @Override
+    public int transmitSDO(SDOFrame f) {
+        return transmitSDO(f, SDOPriority.classify(f));
+    }
+
+    /**
+     * Transmits the given SDO request with the given priority and waits for
+     * the matching response.
+     *
+     * @param f the SDO request to transmit
+     * @param priority the {@link SDOPriority} class of the request
+     * @return the response payload, or -1 if the request could not be sent
+     * or was not answered within the configured timeout
+     */
+    public int transmitSDO(SDOFrame f, int priority) {
+        return transmit(f, priority, null);
+    }
+
+    /**
+     * Transmits the given SDO request and waits for the matching response,
+     * telling a value apart from an abort code or a timeout.
+     *
+     * @param f the SDO request to transmit
+     * @return the outcome of the request
+     */
+    public SDOResult transfer(SDOFrame f) {
+        return transfer(f, SDOPriority.classify(f));
+    }
+
+    /**
+     * Transmits the given SDO request with the given priority and waits for
+     * the matching response, see {@link #transfer(SDOFrame)}.
+     *
+     * @param f the SDO request to transmit
+     * @param priority the {@link SDOPriority} class of the request
+     * @return the outcome of the request
+     */
+    public SDOResult transfer(SDOFrame f, int priority) {
+        SDOResult result = new SDOResult();
+        transmit(f, priority, result);
+        return result;
+    }
+
+    private int transmit(SDOFrame f, int priority, SDOResult result) {
+        SDOResponseSlot slot = slots[f.nodeID & 0x7F];
+        long submitted = System.nanoTime();
+        if (!slot.acquire(f, priority)) {
+            if (result != null) {
+                result.set(-1, -1, 0);
+            }
+            return -1;
+        }
+        SDORetryPolicy policy = retryPolicy;
+        SDOStatistics s = statistics;
+        int ret = -1;
+        int ccd = -1;
+        int attempts = 0;
+        long first = 0;
+        try {
+            while (true) {
+                slot.arm(f);
+                long start = System.nanoTime();
+                if (!writeFrame(f.getCANMessage())) {
+                    break;
+                }
+                if (attempts == 0) {
+                    first = start;
+                }
+                ret = slot.await(policy == null ? timeoutNanos : policy.timeoutNanos(f.nodeID, attempts));
+                ccd = slot.ccd();
+                long end = System.nanoTime();
+                attempts++;
+                if (s != null) {
+                    s.record(f.nodeID, index(f), end - start, ccd);
+                }
+                if (ccd != -1) {
+                    if (policy != null && attempts == 1) {
+                        policy.record(f.nodeID, end - start);
+                    }
+                    break;
+                }
+                if (policy == null || !policy.shouldRetry(f, attempts - 1)
+                        || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                if (!policy.isIdempotent(f)) {
+                    // The read back is idempotent and may be repeated
+                    int v = UNANSWERED;
+                    for (int i = 0; v == UNANSWERED && i <= policy.getMaxRetries(); i++) {
+                        v = verify(slot, f, policy.timeoutNanos(f.nodeID, i));
+                    }
+                    if (v == VERIFIED) {
+                        ret = 0;
+                        ccd = CCD_DOWNLOAD_RESPONSE;
+                        break;
+                    } else if (v != NOT_APPLIED) {
+                        break;
+                    }
+                }
+                if (s != null) {
+                    s.recordRetry(f.nodeID, index(f));
+                }
+            }
+            if (s != null && attempts > 0) {
+                s.recordDispatch(priority, first - submitted, System.nanoTime() - submitted);
+            }
+        } finally {
+            SDORequest next = slot.release();
+            if (next != null) {
+                start(slot, next);
+            }
+        }
+        if (result != null) {
+            result.set(ret, ccd, attempts);
+        }
+        return ret;
+    }
+
+    /**
+     * Reads back the object of a write that was not answered, to find out
+     * whether the write arrived. Called while owning the slot.
+     *
+     * @return {@link #VERIFIED} if the object holds the written value or
+     * the write was confirmed late, {@link #NOT_APPLIED} if it holds
+     * another value, {@link #UNANSWERED} if the read was not answered and
+     * {@link #UNKNOWN} if it failed otherwise
+     */
+    private int verify(SDOResponseSlot slot, SDOFrame f, long timeout) {
+        SDOFrame read = new SDOFrame(f.nodeID, false, (short) index(f), f.subIndex);
+        // Also accepts the late response to the write
+        slot.armReadBack(read);
+        if (!writeFrame(read.getCANMessage())) {
+            return UNKNOWN;
+        }
+        int value = slot.await(timeout);
+        int ccd = slot.ccd();
+        if (ccd == CCD_DOWNLOAD_RESPONSE) {
+            // The response to the write itself, only late
+            return VERIFIED;
+        }
+        if (ccd == -1) {
+            return UNANSWERED;
+        }
+        if (ccd == CCD_ABORT || (ccd & 0xE0) != CCD_UPLOAD_RESPONSE) {
+            return UNKNOWN;
+        }
+        int size = 4 - ((f.data[0] >> 2) & 3);
+        int mask = size == 4 ? -1 : (1 << (size << 3)) - 1;
+        int written = (f.data[4] & 0xFF) | ((f.data[5] & 0xFF) << 8)
+                | ((f.data[6] & 0xFF) << 16) | ((f.data[7] & 0xFF) << 24);
+        return (value & mask) == (written & mask) ? VERIFIED : NOT_APPLIED;
+    }
+
+    /**
+     * Submits the given SDO request without waiting for its response.
+     *
+     * The returned future completes with the same value
+     * {@link #transmitSDO(SDOFrame)} would have returned, including -1 on
+     * timeout. It is completed on the receiver thread, dependent actions
+     * that may block should therefore use the {@code *Async} variants of
+     * {@link CompletableFuture}.
+     *
+     * The frame is referenced until the request completes and must not be
+     * modified or reused before that.
+     *
+     * @param f the SDO request to transmit
+     * @return a future completing with the response payload
+     */
+    public CompletableFuture<Integer> submitSDO(SDOFrame f) {
+        return submitSDO(f, SDOPriority.classify(f));
+    }
+
+    /**
+     * Submits the given SDO request with the given priority without waiting
+     * for its response, see {@link #submitSDO(SDOFrame)}.
+     *
+     * @param f the SDO request to transmit
+     * @param priority the {@link SDOPriority} class of the request
+     * @return a future completing with the response payload
+     */
+    public CompletableFuture<Integer> submitSDO(SDOFrame f, int priority) {
+        SDORequest r = new SDORequest(f, priority);
+        submit(r);
+        return r.future;
+    }
+
+    /**
+     * Submits all requests of the given batch without waiting for their
+     * responses. Requests to different nodes are in flight at the same
+     * time, requests to the same node follow each other without a round
+     * trip through the caller. Use {@link SDOBatch#await()} to wait for the
+     * results.
+     *
+     * @param batch the batch, which must not be in progress
+     */
+    public void submitBatch(SDOBatch batch) {
+        int n = batch.begin();
+        for (int i = 0; i < n; i++) {
+            submit(batch.request(i));
+        }
+    }
+
+    private void submit(SDORequest r) {
+        r.submitNanos = System.nanoTime();
+        r.attempt = 0;
+        r.pass++;
+        SDOResponseSlot slot = slots[r.frame.nodeID & 0x7F];
+        if (slot.enqueue(r)) {
+            start(slot, r);
+        }
+    }
+
+    /**
+     * @param nodeID the node to query
+     * @return the number of asynchronous requests queued behind the one in
+     * flight for the given node
+     */
+    public int getQueuedRequests(int nodeID) {
+        return slots[nodeID & 0x7F].queued();
+    }
+
+    /**
+     * @param nodeID the node to query
+     * @return the number of blocking callers waiting for the request in
+     * flight for the given node
+     */
+    public int getWaitingCallers(int nodeID) {
+        return slots[nodeID & 0x7F].waiting();
+    }
+
+    void start(final SDOResponseSlot slot, final SDORequest r) {
+        final int pass = r.pass;
+        SDORetryPolicy policy = retryPolicy;
+        r.startNanos = System.nanoTime();
+        r.timeout = timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                slot.expire(r, pass);
+            }
+        }, policy == null ? timeoutNanos : policy.timeoutNanos(r.frame.nodeID, r.attempt),
+                TimeUnit.NANOSECONDS);
+        if (!writeFrame(r.frame.getCANMessage())) {
+            slot.expire(r, pass);
+        }
+    }
+
+    /**
+     * Called by a slot when an asynchronous request timed out, to decide
+     * whether it is sent again. Writes the policy does not consider
+     * idempotent are not repeated, as verifying them would block the
+     * calling timer thread.
+     */
+    boolean retry(SDORequest r) {
+        SDORetryPolicy policy = retryPolicy;
+        return policy != null && policy.isIdempotent(r.frame) && policy.shouldRetry(r.frame, r.attempt);
+    }
+
+    /**
+     * Called by a slot to send a timed out asynchronous request again. The
+     * slot stays armed for the request, and its pass has been advanced so
+     * that the timer of the previous attempt no longer applies.
+     */
+    void resend(SDOResponseSlot slot, SDORequest r) {
+        if (r.timeout != null) {
+            r.timeout.cancel(false);
+        }
+        SDOStatistics s = statistics;
+        if (s != null) {
+            s.record(r.frame.nodeID, index(r.frame), System.nanoTime() - r.startNanos, -1);
+            s.recordRetry(r.frame.nodeID, index(r.frame));
+        }
+        r.attempt++;
+        start(slot, r);
+    }
+
+    /**
+     * Called by a slot once an asynchronous request has been answered or
+     * has timed out, after the slot has already moved on to {@code next}.
+     *
+     * @param ccd the command specifier of the response, -1 on timeout
+     */
+    void complete(SDOResponseSlot slot, SDORequest r, int value, int ccd, SDORequest next) {
+        if (r.timeout != null) {
+            r.timeout.cancel(false);
+        }
+        long end = System.nanoTime();
+        SDOStatistics s = statistics;
+        if (s != null) {
+            s.record(r.frame.nodeID, index(r.frame), end - r.startNanos, ccd);
+            s.recordDispatch(r.priority, r.startNanos - r.submitNanos, end - r.submitNanos);
+        }
+        SDORetryPolicy policy = retryPolicy;
+        if (policy != null && ccd != -1 && r.attempt == 0) {
+            policy.record(r.frame.nodeID, end - r.startNanos);
+        }
+        if (next != null) {
+            start(slot, next);
+        }
+        if (r.batch != null) {
+            r.batch.complete(r.position, value, ccd);
+        } else {
+            r.future.complete(value);
+        }
+    }
+
+    private static int index(SDOFrame f) {
+        return (f.lsb & 0xFF) | ((f.msb & 0xFF) << 8);
+    }
+
+    private synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "EPOS2 SDO timeout");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+    }
+
+    /**
+     * Writes a raw frame to the bus without waiting for any response.
+     *
+     * @param msg the frame to write
+     * @return true if the frame was handed to the CAN device
+     */
+    public boolean writeFrame(CanMessage msg) {
+        synchronized (writeLock) {
+            return writer.writeMessageImmediate(msg);
+        }
+    }
+
+    /**
+     * Sends an NMT command.
+     *
+     * @param command one of the {@code NMT_*} commands
+     * @param nodeID the addressed node, or 0 to address all nodes
+     * @return true if the frame was handed to the CAN device
+     */
+    public boolean sendNMT(byte command, int nodeID) {
+        synchronized (writeLock) {
+            byte[] d = nmt.getData();
+            d[0] = command;
+            d[1] = (byte) nodeID;
+            return writer.writeMessageImmediate(nmt);
+        }
+    }
+
+    public void addFrameListener(int cobID, CanFrameListener l) {
+        receiver.addFrameListener(cobID, l);
+    }
+
+    public void removeFrameListener(int cobID, CanFrameListener l) {
+        receiver.removeFrameListener(cobID, l);
+    }
+
+    public void addFrameListener(CanFrameListener l) {
+        receiver.addFrameListener(l);
+    }
+
+    public void removeFrameListener(CanFrameListener l) {
+        receiver.removeFrameListener(l);
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import ch.dermitza.jcanopen.canopen.SDOIF;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reusable set of SDO requests submitted together through
+ * {@link EPOS2Transceiver#submitBatch(SDOBatch)}.
+ *
+ * The requests are added once and may then be submitted any number of
+ * times. Results are written into primitive arrays owned by the batch
+ * instead of completing a future per request, so a pass allocates nothing
+ * on the batch side. A batch may only be submitted again once the previous
+ * pass has completed. The frames are referenced for the lifetime of the
+ * batch and must not be modified while a pass is in progress.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SDOBatch {
+
+    private static final int PENDING = -2;
+    private final SDORequest[] requests;
+    private final int[] values;
+    private final int[] ccds;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private int size;
+
+    /**
+     * @param capacity the maximum number of requests
+     */
+    public SDOBatch(int capacity) {
+        this.requests = new SDORequest[capacity];
+        this.values = new int[capacity];
+        this.ccds = new int[capacity];
+    }
+
+    /**
+     * Adds a request with the priority derived from the frame.
+     *
+     * @return the position of the request, used to look up its result
+     */
+    public int add(SDOFrame f) {
+        return add(f, SDOPriority.classify(f));
+    }
+
+    /**
+     * Adds a request with the given {@link SDOPriority} class.
+     *
+     * @return the position of the request, used to look up its result
+     */
+    public synchronized int add(SDOFrame f, int priority) {
+        checkIdle();
+        if (size == requests.length) {
+            throw new IllegalStateException("Batch is full");
+        }
+        requests[size] = new SDORequest(f, priority, this, size);
+        ccds[size] = PENDING;
+        return size++;
+    }
+
+    /**
+     * Removes all requests.
+     */
+    public synchronized void clear() {
+        checkIdle();
+        Arrays.fill(requests, 0, size, null);
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isDone() {
+        return remaining.get() == 0;
+    }
+
+    /**
+     * Waits until every request of the current pass has been answered or
+     * has timed out. Each request times out on its own, so this returns
+     * after at most the transceiver timeout times the number of requests
+     * to the busiest node.
+     *
+     * @return true if every request succeeded, false if any failed or the
+     * calling thread was interrupted
+     */
+    public synchronized boolean await() {
+        while (remaining.get() != 0) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (!isOk(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the response payload of the request at the given position, or
+     * the abort code if it was aborted
+     */
+    public int getValue(int position) {
+        return values[position];
+    }
+
+    /**
+     * @return true if the request at the given position was answered with
+     * a regular response
+     */
+    public boolean isOk(int position) {
+        int ccd = ccds[position];
+        return ccd >= 0 && ccd != SDOIF.SDO_RESPONSE_ERROR;
+    }
+
+    /**
+     * @return true if the drive answered the request at the given position
+     * with an abort code
+     */
+    public boolean isAborted(int position) {
+        return ccds[position] == SDOIF.SDO_RESPONSE_ERROR;
+    }
+
+    /**
+     * @return true if the request at the given position was not answered
+     * in time
+     */
+    public boolean isTimedOut(int position) {
+        return ccds[position] == -1;
+    }
+
+    synchronized int begin() {
+        checkIdle();
+        Arrays.fill(ccds, 0, size, PENDING);
+        remaining.set(size);
+        return size;
+    }
+
+    SDORequest request(int position) {
+        return requests[position];
+    }
+
+    void complete(int position, int value, int ccd) {
+        values[position] = value;
+        ccds[position] = ccd;
+        if (remaining.decrementAndGet() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void checkIdle() {
+        if (remaining.get() != 0) {
+            throw new IllegalStateException("Batch is in progress");
+        }
+    }
+}
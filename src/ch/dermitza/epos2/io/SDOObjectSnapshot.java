@@ -0,0 +1,139 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+/**
+ * Point in time copy of the SDO counters and latency histogram of one
+ * object of one node, as returned by {@link SDOStatistics#snapshot()}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public final class SDOObjectSnapshot {
+
+    private final int nodeID;
+    private final int index;
+    private final long successes;
+    private final long aborts;
+    private final long timeouts;
+    private final long retries;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] buckets;
+
+    SDOObjectSnapshot(int nodeID, int index, long successes, long aborts, long timeouts,
+            long retries, long totalNanos, long maxNanos, long[] buckets) {
+        this.nodeID = nodeID;
+        this.index = index;
+        this.successes = successes;
+        this.aborts = aborts;
+        this.timeouts = timeouts;
+        this.retries = retries;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    public int getNodeID() {
+        return nodeID;
+    }
+
+    /**
+     * @return the object index, or {@link SDOStatistics#OTHER_OBJECTS} for
+     * the entry collecting objects beyond the per-node capacity
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public long getRequests() {
+        return successes + aborts + timeouts;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public long getAborts() {
+        return aborts;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the mean latency of answered requests in nanoseconds
+     */
+    public long getMeanNanos() {
+        long n = successes + aborts;
+        return n == 0 ? 0 : totalNanos / n;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the number of answered requests per histogram bucket, see
+     * {@link SDOStatistics#bucketUpperNanos(int)}
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * Estimates a latency percentile from the histogram. The result is the
+     * upper bound of the bucket containing the percentile, which is at most
+     * 25% above the true value.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds, or -1 if no request was answered
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            n += buckets[i];
+        }
+        if (n == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(SDOStatistics.bucketUpperNanos(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("node=%d index=0x%04X ok=%d abort=%d timeout=%d retry=%d"
+                + " mean=%dus p50=%dus p99=%dus max=%dus",
+                nodeID, index, successes, aborts, timeouts, retries, getMeanNanos() / 1000,
+                getPercentileNanos(50) / 1000, getPercentileNanos(99) / 1000, maxNanos / 1000);
+    }
+}
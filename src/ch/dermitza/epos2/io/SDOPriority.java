@@ -0,0 +1,120 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+
+/**
+ * Priority classes of SDO requests. When several requests wait for the
+ * same node, the {@link EPOS2Transceiver} serves them first come, first
+ * served, as later requests often depend on earlier ones. Only emergency
+ * stop controlwords overtake the requests waiting before them, see
+ * {@link #overtakes(SDOFrame, int)}. The class of the other requests is
+ * used for the latency statistics.
+ *
+ * Requests submitted without an explicit class are classified by
+ * {@link #classify(SDOFrame)}: controlwords that remove power, quick stop
+ * or halt are {@link #EMERGENCY}, other controlwords, including fault
+ * resets, and setpoint writes are {@link #MOTION}, all other writes are
+ * {@link #CONFIGURATION} and reads are {@link #TELEMETRY}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public final class SDOPriority {
+
+    public static final int EMERGENCY = 0;
+    public static final int MOTION = 1;
+    public static final int CONFIGURATION = 2;
+    public static final int TELEMETRY = 3;
+    public static final int COUNT = 4;
+    private static final String[] NAMES = {"emergency", "motion", "configuration", "telemetry"};
+    private static final int CONTROLWORD = 0x6040;
+    private static final int CW_ENABLE_VOLTAGE = 0x0002;
+    private static final int CW_QUICK_STOP = 0x0004;
+    private static final int CW_FAULT_RESET = 0x0080;
+    private static final int CW_HALT = 0x0100;
+    private static final int[] SETPOINTS = {
+        0x2030, // current mode setting value
+        0x2062, // position mode setting value
+        0x206B, // velocity mode setting value
+        0x20C1, // interpolation data record
+        0x607A, // target position
+        0x60FF  // target velocity
+    };
+
+    private SDOPriority() {
+    }
+
+    /**
+     * @param f an SDO request
+     * @return the priority class of the request
+     */
+    public static int classify(SDOFrame f) {
+        if (!f.write) {
+            return TELEMETRY;
+        }
+        int index = f.index & 0xFFFF;
+        if (index == CONTROLWORD) {
+            return isStop(f) ? EMERGENCY : MOTION;
+        }
+        for (int i = 0; i < SETPOINTS.length; i++) {
+            if (SETPOINTS[i] == index) {
+                return MOTION;
+            }
+        }
+        return CONFIGURATION;
+    }
+
+    /**
+     * Checks whether a request is served before the requests already
+     * waiting for the same node. This holds only for emergency stop
+     * controlwords, any other request keeps its place so that dependent
+     * sequences, such as a mode change followed by a start, are not
+     * reordered.
+     *
+     * @param f an SDO request
+     * @param priority the class the request was submitted with
+     * @return true if the request overtakes the waiting requests
+     */
+    public static boolean overtakes(SDOFrame f, int priority) {
+        return priority == EMERGENCY && isStop(f);
+    }
+
+    /**
+     * @return true if the request writes a controlword that removes power,
+     * quick stops or halts the drive. A fault reset is a state transition
+     * like any other and not a stop.
+     */
+    private static boolean isStop(SDOFrame f) {
+        if (!f.write || (f.index & 0xFFFF) != CONTROLWORD) {
+            return false;
+        }
+        int cw = (f.data[4] & 0xFF) | ((f.data[5] & 0xFF) << 8);
+        if ((cw & CW_FAULT_RESET) != 0) {
+            return false;
+        }
+        return (cw & (CW_ENABLE_VOLTAGE | CW_QUICK_STOP)) != (CW_ENABLE_VOLTAGE | CW_QUICK_STOP)
+                || (cw & CW_HALT) != 0;
+    }
+
+    public static String name(int priority) {
+        return priority >= 0 && priority < COUNT ? NAMES[priority] : "unknown";
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * An SDO request issued through {@link EPOS2Transceiver#submitSDO(SDOFrame)}
+ * together with the future it completes, or one entry of an
+ * {@link SDOBatch}. Batch entries have no future, they report to their
+ * batch and are reused for every pass of it.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+class SDORequest {
+
+    final SDOFrame frame;
+    final int priority;
+    final CompletableFuture<Integer> future;
+    final SDOBatch batch;
+    final int position;
+    volatile ScheduledFuture<?> timeout;
+    volatile long submitNanos;
+    volatile long startNanos;
+    volatile int pass;
+    volatile int attempt;
+
+    SDORequest(SDOFrame frame, int priority) {
+        this(frame, priority, new CompletableFuture<Integer>(), null, 0);
+    }
+
+    SDORequest(SDOFrame frame, int priority, SDOBatch batch, int position) {
+        this(frame, priority, null, batch, position);
+    }
+
+    private SDORequest(SDOFrame frame, int priority, CompletableFuture<Integer> future,
+            SDOBatch batch, int position) {
+        this.frame = frame;
+        this.priority = priority;
+        this.future = future;
+        this.batch = batch;
+        this.position = position;
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import java.util.ArrayDeque;
+
+/**
+ * Holds the single outstanding SDO request of one node and receives the
+ * matching response from the receiver thread.
+ *
+ * CANopen allows only one outstanding SDO per server. The slot is therefore
+ * owned by one request at a time: either a blocking caller, which waits on
+ * the slot monitor for the response, or an {@link SDORequest} issued through
+ * {@link EPOS2Transceiver#submitSDO(SDOFrame)}, which is completed from the
+ * receiver thread.
+ *
+ * Requests arriving while the slot is owned wait in arrival order,
+ * blocking callers and asynchronous requests alike, so that dependent
+ * requests such as a mode change followed by a start reach the drive in
+ * the order they were issued. Only requests that
+ * {@link SDOPriority#overtakes(SDOFrame, int) overtake} the queue, the
+ * emergency stop controlwords, wait in a queue of their own that is
+ * served first. The queues are array based and only grow, so waiting does
+ * not allocate once they have reached the number of concurrent callers.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+class SDOResponseSlot {
+
+    private static final int CCD_UPLOAD_RESPONSE = 0x40;
+    private static final int CCD_DOWNLOAD_RESPONSE = 0x60;
+    private static final int CCD_ABORT = 0x80;
+    private final EPOS2Transceiver owner;
+    private final byte[] rsp = new byte[8];
+    // Waiting blocking callers (their Thread) and asynchronous requests
+    private final ArrayDeque<Object> urgent = new ArrayDeque<Object>();
+    private final ArrayDeque<Object> fifo = new ArrayDeque<Object>();
+    private SDORequest current;
+    private boolean busy;
+    private boolean pending;
+    private boolean done;
+    private byte lsb;
+    private byte msb;
+    private byte subIndex;
+    private int expected;
+    private boolean lateWrite;
+
+    SDOResponseSlot(EPOS2Transceiver owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Takes ownership of the slot for a blocking request, waiting for any
+     * request in flight and all requests queued earlier to complete first.
+     *
+     * @param f the request
+     * @param priority the {@link SDOPriority} class of the request
+     * @return false if the calling thread was interrupted while waiting
+     */
+    boolean acquire(SDOFrame f, int priority) {
+        SDORequest next;
+        synchronized (this) {
+            Thread self = Thread.currentThread();
+            boolean u = SDOPriority.overtakes(f, priority);
+            if (!busy && isHead(u)) {
+                busy = true;
+                return true;
+            }
+            ArrayDeque<Object> q = u ? urgent : fifo;
+            q.add(self);
+            try {
+                while (busy || next() != self) {
+                    wait();
+                }
+                q.poll();
+                busy = true;
+                return true;
+            } catch (InterruptedException ie) {
+                q.remove(self);
+                Thread.currentThread().interrupt();
+                if (busy) {
+                    return false;
+                }
+                // The slot was idle and this thread may have been next in
+                // line, hand it on as the owner would have done
+                busy = true;
+                next = releaseLocked();
+            }
+        }
+        if (next != null) {
+            owner.start(this, next);
+        }
+        return false;
+    }
+
+    /**
+     * Hands an asynchronous request to the slot.
+     *
+     * @param r the request
+     * @return true if the slot was idle and the caller must start the
+     * request, false if it was queued
+     */
+    synchronized boolean enqueue(SDORequest r) {
+        boolean u = SDOPriority.overtakes(r.frame, r.priority);
+        if (busy || !isHead(u)) {
+            (u ? urgent : fifo).add(r);
+            return false;
+        }
+        busy = true;
+        current = r;
+        armLocked(r.frame);
+        return true;
+    }
+
+    /**
+     * Releases the slot after a blocking request.
+     *
+     * @return the next queued request the caller must start, or null
+     */
+    synchronized SDORequest release() {
+        return releaseLocked();
+    }
+
+    synchronized void arm(SDOFrame f) {
+        armLocked(f);
+    }
+
+    /**
+     * Arms the slot for the read back of an unanswered write. Besides the
+     * read response, the late download response of the write itself, for
+     * the same object, is accepted as well.
+     *
+     * @param read the read of the written object
+     */
+    synchronized void armReadBack(SDOFrame read) {
+        armLocked(read);
+        lateWrite = true;
+    }
+
+    /**
+     * @return the number of asynchronous requests waiting for the slot
+     */
+    synchronized int queued() {
+        return count(urgent, false) + count(fifo, false);
+    }
+
+    /**
+     * @return the number of blocking callers waiting for the slot
+     */
+    synchronized int waiting() {
+        return count(urgent, true) + count(fifo, true);
+    }
+
+    /**
+     * Offers a frame received on this node's SDO response COB-ID. The frame
+     * is accepted only if it answers the armed request.
+     *
+     * @param data the frame payload
+     * @return true if the frame completed the outstanding request
+     */
+    boolean offer(byte[] data) {
+        SDORequest r;
+        SDORequest next;
+        synchronized (this) {
+            if (!pending || data.length < 8 || data[1] != lsb || data[2] != msb
+                    || data[3] != subIndex || !answers(data[0])) {
+                return false;
+            }
+            System.arraycopy(data, 0, rsp, 0, 8);
+            pending = false;
+            done = true;
+            r = current;
+            if (r == null) {
+                notifyAll();
+                return true;
+            }
+            next = releaseLocked();
+        }
+        owner.complete(this, r, payload(data), data[0] & 0xFF, next);
+        return true;
+    }
+
+    /**
+     * Fails the given asynchronous request if it still owns the slot, or
+     * has it sent again if the retry policy of the owner allows.
+     *
+     * @param r the request that timed out
+     * @param pass the pass of the request the timeout was set for, batch
+     * requests being reused
+     */
+    void expire(SDORequest r, int pass) {
+        SDORequest next = null;
+        boolean retry;
+        synchronized (this) {
+            if (current != r || r.pass != pass) {
+                return;
+            }
+            retry = owner.retry(r);
+            if (retry) {
+                // Keep the slot and send the request again
+                r.pass++;
+                armLocked(r.frame);
+            } else {
+                next = releaseLocked();
+            }
+        }
+        if (retry) {
+            owner.resend(this, r);
+        } else {
+            owner.complete(this, r, -1, -1, next);
+        }
+    }
+
+    /**
+     * Waits for the armed blocking request to complete.
+     *
+     * @param timeoutNanos the maximum time to wait
+     * @return the response payload as transmitted by the drive, or -1 if no
+     * response arrived in time
+     */
+    synchronized int await(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long left = timeoutNanos;
+        while (!done && left > 0) {
+            try {
+                wait(left / 1000000L, (int) (left % 1000000L));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            left = deadline - System.nanoTime();
+        }
+        if (!done) {
+            pending = false;
+            return -1;
+        }
+        return payload(rsp);
+    }
+
+    /**
+     * @return the command specifier of the response to the last blocking
+     * request, or -1 if it was not answered
+     */
+    synchronized int ccd() {
+        return done ? rsp[0] & 0xFF : -1;
+    }
+
+    private void armLocked(SDOFrame f) {
+        lsb = f.lsb;
+        msb = f.msb;
+        subIndex = f.subIndex;
+        // A late response to an earlier request of the other direction
+        // must not complete this one
+        expected = f.write ? CCD_DOWNLOAD_RESPONSE : CCD_UPLOAD_RESPONSE;
+        lateWrite = false;
+        done = false;
+        pending = true;
+    }
+
+    private boolean answers(byte ccd) {
+        int scs = ccd & 0xE0;
+        return scs == expected || scs == CCD_ABORT || (lateWrite && scs == CCD_DOWNLOAD_RESPONSE);
+    }
+
+    private SDORequest releaseLocked() {
+        current = null;
+        pending = false;
+        if (next() instanceof SDORequest) {
+            SDORequest next = (SDORequest) (urgent.isEmpty() ? fifo : urgent).poll();
+            current = next;
+            armLocked(next.frame);
+            return next;
+        }
+        // Idle, or a blocking caller is next and takes the slot itself
+        busy = false;
+        notifyAll();
+        return null;
+    }
+
+    /**
+     * @return the waiting blocking caller or asynchronous request that gets
+     * the slot next, or null if nobody is waiting
+     */
+    private Object next() {
+        Object o = urgent.peek();
+        return o != null ? o : fifo.peek();
+    }
+
+    /**
+     * @return true if a request arriving now would be the next to get the
+     * slot
+     */
+    private boolean isHead(boolean overtakes) {
+        return urgent.isEmpty() && (overtakes || fifo.isEmpty());
+    }
+
+    private static int count(ArrayDeque<Object> q, boolean blocking) {
+        int n = 0;
+        for (Object o : q) {
+            if ((o instanceof Thread) == blocking) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static int payload(byte[] d) {
+        return (d[4] & 0xFF) | ((d[5] & 0xFF) << 8)
+                | ((d[6] & 0xFF) << 16) | ((d[7] & 0xFF) << 24);
+    }
+}
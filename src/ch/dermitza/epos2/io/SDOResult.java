@@ -0,0 +1,263 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+/**
+ * The outcome of a confirmed SDO transfer: the value read, or why the
+ * transfer failed.
+ *
+ * A drive that refuses a request answers with an abort code, which is
+ * kept apart from the value instead of being returned in its place. The
+ * {@code ABORT_*} constants are the codes of CiA 301 and the EPOS2 specific
+ * ones of the EPOS2 firmware specification.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SDOResult {
+
+    public static final int OK = 0;
+    public static final int ABORTED = 1;
+    public static final int TIMED_OUT = 2;
+    public static final int NOT_SENT = 3;
+    public static final int ABORT_TOGGLE_BIT = 0x05030000;
+    public static final int ABORT_TIMEOUT = 0x05040000;
+    public static final int ABORT_COMMAND_SPECIFIER = 0x05040001;
+    public static final int ABORT_INVALID_BLOCK_SIZE = 0x05040002;
+    public static final int ABORT_INVALID_SEQUENCE = 0x05040003;
+    public static final int ABORT_CRC_ERROR = 0x05040004;
+    public static final int ABORT_OUT_OF_MEMORY = 0x05040005;
+    public static final int ABORT_UNSUPPORTED_ACCESS = 0x06010000;
+    public static final int ABORT_WRITE_ONLY = 0x06010001;
+    public static final int ABORT_READ_ONLY = 0x06010002;
+    public static final int ABORT_NO_OBJECT = 0x06020000;
+    public static final int ABORT_NOT_MAPPABLE = 0x06040041;
+    public static final int ABORT_PDO_LENGTH = 0x06040042;
+    public static final int ABORT_PARAMETER_INCOMPATIBLE = 0x06040043;
+    public static final int ABORT_DEVICE_INCOMPATIBLE = 0x06040047;
+    public static final int ABORT_HARDWARE_ERROR = 0x06060000;
+    public static final int ABORT_TYPE_MISMATCH = 0x06070010;
+    public static final int ABORT_TOO_LONG = 0x06070012;
+    public static final int ABORT_TOO_SHORT = 0x06070013;
+    public static final int ABORT_NO_SUBINDEX = 0x06090011;
+    public static final int ABORT_VALUE_RANGE = 0x06090030;
+    public static final int ABORT_VALUE_TOO_HIGH = 0x06090031;
+    public static final int ABORT_VALUE_TOO_LOW = 0x06090032;
+    public static final int ABORT_MAX_BELOW_MIN = 0x06090036;
+    public static final int ABORT_GENERAL = 0x08000000;
+    public static final int ABORT_TRANSFER = 0x08000020;
+    public static final int ABORT_LOCAL_CONTROL = 0x08000021;
+    public static final int ABORT_DEVICE_STATE = 0x08000022;
+    public static final int ABORT_NO_DICTIONARY = 0x08000023;
+    public static final int ABORT_COMMUNICATION_ERROR = 0x0F00FFB9;
+    public static final int ABORT_SERVICE_MODE = 0x0F00FFBC;
+    public static final int ABORT_PASSWORD = 0x0F00FFBE;
+    public static final int ABORT_ILLEGAL_COMMAND = 0x0F00FFBF;
+    public static final int ABORT_NMT_STATE = 0x0F00FFC0;
+    private static final int CCD_ABORT = 0x80;
+    private int status = NOT_SENT;
+    private int value = -1;
+    private int attempts;
+
+    /**
+     * @return one of {@link #OK}, {@link #ABORTED}, {@link #TIMED_OUT} or
+     * {@link #NOT_SENT}
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == OK;
+    }
+
+    public boolean isAborted() {
+        return status == ABORTED;
+    }
+
+    public boolean isTimedOut() {
+        return status == TIMED_OUT;
+    }
+
+    /**
+     * @return the response payload of a successful transfer, 0 for writes,
+     * or -1 if the transfer failed
+     */
+    public int getValue() {
+        return status == OK ? value : -1;
+    }
+
+    /**
+     * @return the abort code sent by the drive, or 0 if the transfer was
+     * not aborted
+     */
+    public int getAbortCode() {
+        return status == ABORTED ? value : 0;
+    }
+
+    /**
+     * @return the number of times the request was sent, more than one if
+     * it was retried
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void set(int value, int ccd, int attempts) {
+        this.attempts = attempts;
+        this.value = value;
+        if (ccd == CCD_ABORT) {
+            status = ABORTED;
+        } else if (ccd >= 0) {
+            status = OK;
+        } else {
+            status = attempts == 0 ? NOT_SENT : TIMED_OUT;
+        }
+    }
+
+    /**
+     * Builds a result from the return value of a transceiver that does
+     * not report the command specifier, e.g. {@code transmitSDO()} of a
+     * plain {@code AbstractSDOTransceiver}. Aborts can only be told apart
+     * from values for writes, whose successful payload is 0.
+     *
+     * @param value the value returned for the transfer
+     * @param write whether the transfer was a write
+     */
+    public static SDOResult of(int value, boolean write) {
+        SDOResult r = new SDOResult();
+        if (value == -1) {
+            r.set(-1, -1, 1);
+        } else {
+            r.set(value, write && value != 0 ? CCD_ABORT : 0, 1);
+        }
+        return r;
+    }
+
+    /**
+     * @param status one of the status constants
+     * @return the name of the status
+     */
+    public static String statusName(int status) {
+        switch (status) {
+            case OK:
+                return "OK";
+            case ABORTED:
+                return "ABORTED";
+            case TIMED_OUT:
+                return "TIMED_OUT";
+            case NOT_SENT:
+                return "NOT_SENT";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    /**
+     * @param abortCode an SDO abort code
+     * @return the meaning of the code as given in CiA 301 and the EPOS2
+     * firmware specification
+     */
+    public static String describe(int abortCode) {
+        switch (abortCode) {
+            case ABORT_TOGGLE_BIT:
+                return "Toggle bit not alternated";
+            case ABORT_TIMEOUT:
+                return "SDO protocol timed out";
+            case ABORT_COMMAND_SPECIFIER:
+                return "Command specifier not valid or unknown";
+            case ABORT_INVALID_BLOCK_SIZE:
+                return "Invalid block size";
+            case ABORT_INVALID_SEQUENCE:
+                return "Invalid sequence number";
+            case ABORT_CRC_ERROR:
+                return "CRC error";
+            case ABORT_OUT_OF_MEMORY:
+                return "Out of memory";
+            case ABORT_UNSUPPORTED_ACCESS:
+                return "Unsupported access to an object";
+            case ABORT_WRITE_ONLY:
+                return "Attempt to read a write only object";
+            case ABORT_READ_ONLY:
+                return "Attempt to write a read only object";
+            case ABORT_NO_OBJECT:
+                return "Object does not exist in the object dictionary";
+            case ABORT_NOT_MAPPABLE:
+                return "Object cannot be mapped to the PDO";
+            case ABORT_PDO_LENGTH:
+                return "The number and length of the objects to be mapped would exceed PDO length";
+            case ABORT_PARAMETER_INCOMPATIBLE:
+                return "General parameter incompatibility";
+            case ABORT_DEVICE_INCOMPATIBLE:
+                return "General internal incompatibility in the device";
+            case ABORT_HARDWARE_ERROR:
+                return "Access failed due to a hardware error";
+            case ABORT_TYPE_MISMATCH:
+                return "Data type does not match, length of service parameter does not match";
+            case ABORT_TOO_LONG:
+                return "Data type does not match, length of service parameter too high";
+            case ABORT_TOO_SHORT:
+                return "Data type does not match, length of service parameter too low";
+            case ABORT_NO_SUBINDEX:
+                return "Sub-index does not exist";
+            case ABORT_VALUE_RANGE:
+                return "Value range of parameter exceeded";
+            case ABORT_VALUE_TOO_HIGH:
+                return "Value of parameter written too high";
+            case ABORT_VALUE_TOO_LOW:
+                return "Value of parameter written too low";
+            case ABORT_MAX_BELOW_MIN:
+                return "Maximum value is less than minimum value";
+            case ABORT_GENERAL:
+                return "General error";
+            case ABORT_TRANSFER:
+                return "Data cannot be transferred or stored to the application";
+            case ABORT_LOCAL_CONTROL:
+                return "Data cannot be transferred or stored because of local control";
+            case ABORT_DEVICE_STATE:
+                return "Data cannot be transferred or stored because of the present device state";
+            case ABORT_NO_DICTIONARY:
+                return "Object dictionary dynamic generation failed or no object dictionary present";
+            case ABORT_COMMUNICATION_ERROR:
+                return "Communication error";
+            case ABORT_SERVICE_MODE:
+                return "Device is not in service mode";
+            case ABORT_PASSWORD:
+                return "Password is incorrect";
+            case ABORT_ILLEGAL_COMMAND:
+                return "Illegal command";
+            case ABORT_NMT_STATE:
+                return "Device is in wrong NMT state";
+            default:
+                return String.format("Unknown abort code 0x%08X", abortCode);
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (status) {
+            case OK:
+                return "OK " + value;
+            case ABORTED:
+                return String.format("ABORTED 0x%08X %s", value, describe(value));
+            default:
+                return statusName(status) + " after " + attempts + " attempt(s)";
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.canopen.SDOFrame;
+import java.util.Arrays;
+
+/**
+ * Derives SDO response timeouts from the measured round trip time of each
+ * node and decides which requests an {@link EPOS2Transceiver} repeats when
+ * their response is lost.
+ *
+ * The round trip time is tracked per node as a smoothed mean and mean
+ * deviation, updated with every answered request that was sent only once
+ * (ambiguous samples of repeated requests are skipped). The timeout is the
+ * mean plus four deviations plus a fixed margin, which covers the tail of
+ * the distribution without keeping samples around, clamped between a
+ * minimum and a maximum. Until a node has answered, the initial timeout is
+ * used. Every repetition of a request doubles its timeout.
+ *
+ * Reads are repeated, as are writes to objects whose repeated write has
+ * the same effect as a single one. Writes to the objects registered with
+ * {@link #addNonIdempotent(short)}, by default the controlword, are not
+ * repeated blindly: a blocking write is repeated only after reading the
+ * object back has shown that the first write did not arrive, an
+ * asynchronous one fails and is left to the caller.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SDORetryPolicy {
+
+    public static final long DEFAULT_MIN_TIMEOUT_NANOS = 2000000L;
+    public static final long DEFAULT_MAX_TIMEOUT_NANOS = EPOS2Transceiver.DEFAULT_TIMEOUT_MS * 1000000L;
+    public static final long DEFAULT_INITIAL_TIMEOUT_NANOS = 100000000L;
+    public static final long DEFAULT_MARGIN_NANOS = 1000000L;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    private static final short CONTROLWORD = 0x6040;
+    // Smoothing of the mean and deviation, as shifts: 1/8 and 1/4
+    private static final int MEAN_SHIFT = 3;
+    private static final int DEVIATION_SHIFT = 2;
+    private final long[] mean = new long[EPOS2Transceiver.MAX_NODES];
+    private final long[] deviation = new long[EPOS2Transceiver.MAX_NODES];
+    private final long[] samples = new long[EPOS2Transceiver.MAX_NODES];
+    private short[] nonIdempotent = {CONTROLWORD};
+    private volatile long minTimeoutNanos = DEFAULT_MIN_TIMEOUT_NANOS;
+    private volatile long maxTimeoutNanos = DEFAULT_MAX_TIMEOUT_NANOS;
+    private volatile long initialTimeoutNanos = DEFAULT_INITIAL_TIMEOUT_NANOS;
+    private volatile long marginNanos = DEFAULT_MARGIN_NANOS;
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+    /**
+     * Records the round trip time of an answered request.
+     *
+     * @param nodeID the node that answered
+     * @param nanos the time from sending the request to its response
+     */
+    public synchronized void record(int nodeID, long nanos) {
+        int n = nodeID & 0x7F;
+        if (samples[n]++ == 0) {
+            mean[n] = nanos;
+            deviation[n] = nanos >> 1;
+            return;
+        }
+        long err = nanos - mean[n];
+        mean[n] += err >> MEAN_SHIFT;
+        deviation[n] += (Math.abs(err) - deviation[n]) >> DEVIATION_SHIFT;
+    }
+
+    /**
+     * @param nodeID the node the request goes to
+     * @param attempt 0 for the first transmission, 1 for the first
+     * repetition and so on
+     * @return the time to wait for the response
+     */
+    public long timeoutNanos(int nodeID, int attempt) {
+        long t;
+        synchronized (this) {
+            int n = nodeID & 0x7F;
+            t = samples[n] == 0 ? initialTimeoutNanos
+                    : mean[n] + 4 * deviation[n] + marginNanos;
+        }
+        t = Math.max(t, minTimeoutNanos) << Math.min(attempt, 16);
+        return Math.min(t, maxTimeoutNanos);
+    }
+
+    /**
+     * @param f the request that was not answered
+     * @param attempt the attempt that timed out
+     * @return true if the request may be sent again
+     */
+    public boolean shouldRetry(SDOFrame f, int attempt) {
+        return attempt < maxRetries;
+    }
+
+    /**
+     * @return true if sending the request twice has the same effect as
+     * sending it once
+     */
+    public synchronized boolean isIdempotent(SDOFrame f) {
+        if (!f.write) {
+            return true;
+        }
+        short index = (short) ((f.lsb & 0xFF) | ((f.msb & 0xFF) << 8));
+        return Arrays.binarySearch(nonIdempotent, index) < 0;
+    }
+
+    /**
+     * Marks writes to the given object as not safely repeatable, e.g.
+     * objects whose write triggers an action.
+     *
+     * @param index the object index
+     */
+    public synchronized void addNonIdempotent(short index) {
+        if (Arrays.binarySearch(nonIdempotent, index) < 0) {
+            short[] n = Arrays.copyOf(nonIdempotent, nonIdempotent.length + 1);
+            n[nonIdempotent.length] = index;
+            Arrays.sort(n);
+            nonIdempotent = n;
+        }
+    }
+
+    /**
+     * @return the smoothed round trip time of the node, or 0 if it has not
+     * answered yet
+     */
+    public synchronized long getRoundTripNanos(int nodeID) {
+        return mean[nodeID & 0x7F];
+    }
+
+    /**
+     * @return the mean deviation of the round trip time of the node
+     */
+    public synchronized long getDeviationNanos(int nodeID) {
+        return deviation[nodeID & 0x7F];
+    }
+
+    /**
+     * Forgets the round trip times of all nodes.
+     */
+    public synchronized void reset() {
+        Arrays.fill(mean, 0);
+        Arrays.fill(deviation, 0);
+        Arrays.fill(samples, 0);
+    }
+
+    /**
+     * Sets the bounds of the derived timeouts.
+     */
+    public void setTimeoutBounds(long minNanos, long maxNanos) {
+        this.minTimeoutNanos = minNanos;
+        this.maxTimeoutNanos = maxNanos;
+    }
+
+    /**
+     * Sets the timeout used for nodes that have not answered yet.
+     */
+    public void setInitialTimeout(long nanos) {
+        this.initialTimeoutNanos = nanos;
+    }
+
+    public void setMargin(long nanos) {
+        this.marginNanos = nanos;
+    }
+
+    public long getMargin() {
+        return marginNanos;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
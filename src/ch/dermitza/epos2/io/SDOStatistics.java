@@ -0,0 +1,416 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.canopen.SDOIF;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and outcome counters of the SDO requests handled by
+ * an {@link EPOS2Transceiver}, per node and object index.
+ *
+ * Every request is classified as a success, an abort (the drive answered
+ * with an abort code) or a timeout. Answered requests are added to a
+ * histogram with four buckets per power of two microseconds, so
+ * percentiles are accurate to within 25%. Recording takes no lock and does
+ * not allocate once an object has been seen on a node: counters live in a
+ * preallocated {@link AtomicLongArray} per object, found through a small
+ * open-addressed table per node. Each node tracks up to
+ * {@link #OBJECTS_PER_NODE} objects, further objects share one entry with
+ * index {@link #OTHER_OBJECTS}.
+ *
+ * Separately, the time each request spent waiting for its node and its
+ * total latency from submission are kept per {@link SDOPriority} class, so
+ * that the worst case of the emergency class can be watched under load.
+ *
+ * The figures are available as immutable {@link SDOObjectSnapshot}s and
+ * through JMX once {@link #register(String)} has been called.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SDOStatistics implements SDOStatisticsMBean {
+
+    public static final int OBJECTS_PER_NODE = 64;
+    public static final int OTHER_OBJECTS = -1;
+    public static final int BUCKETS = 96;
+    private static final int SUCCESS = 0;
+    private static final int ABORT = 1;
+    private static final int TIMEOUT = 2;
+    private static final int RETRY = 3;
+    private static final int TOTAL = 4;
+    private static final int MAX = 5;
+    private static final int HISTOGRAM = 6;
+    private static final int DISPATCH_COUNT = 0;
+    private static final int DISPATCH_TOTAL = 1;
+    private static final int DISPATCH_MAX = 2;
+    private static final int DISPATCH_MAX_WAIT = 3;
+    private static final int DISPATCH_FIELDS = 4;
+    private final AtomicLongArray dispatch = new AtomicLongArray(SDOPriority.COUNT * DISPATCH_FIELDS);
+    private final AtomicReferenceArray<Counters[]> nodes =
+            new AtomicReferenceArray<Counters[]>(EPOS2Transceiver.MAX_NODES);
+    private ObjectName name;
+
+    /**
+     * Records a completed request.
+     *
+     * @param nodeID the addressed node
+     * @param index the object index
+     * @param nanos the time from sending the request to its completion
+     * @param ccd the command specifier of the response, or -1 if the
+     * request timed out
+     */
+    public void record(int nodeID, int index, long nanos, int ccd) {
+        AtomicLongArray c = counters(nodeID, index);
+        if (ccd == -1) {
+            c.incrementAndGet(TIMEOUT);
+            return;
+        }
+        c.incrementAndGet(ccd == SDOIF.SDO_RESPONSE_ERROR ? ABORT : SUCCESS);
+        c.addAndGet(TOTAL, nanos);
+        c.incrementAndGet(HISTOGRAM + bucket(nanos));
+        updateMax(c, MAX, nanos);
+    }
+
+    private static void updateMax(AtomicLongArray a, int i, long value) {
+        long max = a.get(i);
+        while (value > max && !a.compareAndSet(i, max, value)) {
+            max = a.get(i);
+        }
+    }
+
+    /**
+     * Records the dispatch latency of a completed request.
+     *
+     * @param priority the {@link SDOPriority} class of the request
+     * @param waitNanos the time the request waited for its node
+     * @param totalNanos the time from submission to completion
+     */
+    public void recordDispatch(int priority, long waitNanos, long totalNanos) {
+        int base = priority * DISPATCH_FIELDS;
+        dispatch.incrementAndGet(base + DISPATCH_COUNT);
+        dispatch.addAndGet(base + DISPATCH_TOTAL, totalNanos);
+        updateMax(dispatch, base + DISPATCH_MAX, totalNanos);
+        updateMax(dispatch, base + DISPATCH_MAX_WAIT, waitNanos);
+    }
+
+    /**
+     * @param priority an {@link SDOPriority} class
+     * @return the number of completed requests of the class
+     */
+    public long getDispatched(int priority) {
+        return dispatch.get(priority * DISPATCH_FIELDS + DISPATCH_COUNT);
+    }
+
+    /**
+     * @param priority an {@link SDOPriority} class
+     * @return the mean time from submission to completion in nanoseconds
+     */
+    public long getMeanDispatchLatency(int priority) {
+        long n = getDispatched(priority);
+        return n == 0 ? 0 : dispatch.get(priority * DISPATCH_FIELDS + DISPATCH_TOTAL) / n;
+    }
+
+    /**
+     * @param priority an {@link SDOPriority} class
+     * @return the worst time from submission to completion in nanoseconds
+     */
+    public long getMaxDispatchLatency(int priority) {
+        return dispatch.get(priority * DISPATCH_FIELDS + DISPATCH_MAX);
+    }
+
+    /**
+     * @param priority an {@link SDOPriority} class
+     * @return the worst time a request waited for its node in nanoseconds
+     */
+    public long getMaxDispatchWait(int priority) {
+        return dispatch.get(priority * DISPATCH_FIELDS + DISPATCH_MAX_WAIT);
+    }
+
+    @Override
+    public double getEmergencyMaxLatencyMicros() {
+        return getMaxDispatchLatency(SDOPriority.EMERGENCY) / 1000.0;
+    }
+
+    @Override
+    public double getEmergencyMaxWaitMicros() {
+        return getMaxDispatchWait(SDOPriority.EMERGENCY) / 1000.0;
+    }
+
+    @Override
+    public String[] getDispatchSummary() {
+        String[] lines = new String[SDOPriority.COUNT];
+        for (int p = 0; p < lines.length; p++) {
+            lines[p] = String.format("%s: requests=%d mean=%.1fus max=%.1fus max wait=%.1fus",
+                    SDOPriority.name(p), getDispatched(p), getMeanDispatchLatency(p) / 1000.0,
+                    getMaxDispatchLatency(p) / 1000.0, getMaxDispatchWait(p) / 1000.0);
+        }
+        return lines;
+    }
+
+    /**
+     * Records that a request to the given object was repeated.
+     */
+    public void recordRetry(int nodeID, int index) {
+        counters(nodeID, index).incrementAndGet(RETRY);
+    }
+
+    /**
+     * Maps a latency to its histogram bucket. Latencies below 4us get one
+     * bucket per microsecond, above that each power of two is split into
+     * four buckets.
+     */
+    static int bucket(long nanos) {
+        long us = nanos / 1000;
+        if (us < 4) {
+            return (int) Math.max(us, 0);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(us);
+        int b = (exp - 1) * 4 + (int) ((us >>> (exp - 2)) & 3);
+        return Math.min(b, BUCKETS - 1);
+    }
+
+    /**
+     * @param bucket a histogram bucket
+     * @return the exclusive upper latency bound of the bucket in
+     * nanoseconds
+     */
+    public static long bucketUpperNanos(int bucket) {
+        if (bucket < 4) {
+            return (bucket + 1L) * 1000;
+        }
+        int exp = bucket / 4 + 1;
+        return ((5L + bucket % 4) << (exp - 2)) * 1000;
+    }
+
+    private AtomicLongArray counters(int nodeID, int index) {
+        int node = nodeID & 0x7F;
+        Counters[] table = nodes.get(node);
+        if (table == null) {
+            nodes.compareAndSet(node, null, new Counters[OBJECTS_PER_NODE + 1]);
+            table = nodes.get(node);
+        }
+        int key = index & 0xFFFF;
+        int slot = (key * 0x9E3779B9 >>> 16) & (OBJECTS_PER_NODE - 1);
+        for (int i = 0; i < OBJECTS_PER_NODE; i++) {
+            Counters c = table[slot];
+            if (c == null) {
+                return insert(table, slot, key);
+            }
+            if (c.index == key) {
+                return c.values;
+            }
+            slot = (slot + 1) & (OBJECTS_PER_NODE - 1);
+        }
+        return insert(table, OBJECTS_PER_NODE, OTHER_OBJECTS);
+    }
+
+    private synchronized AtomicLongArray insert(Counters[] table, int slot, int key) {
+        // Another thread may have claimed the slot, or inserted the same key
+        // further along the probe sequence, since the unlocked lookup
+        while (slot < OBJECTS_PER_NODE && table[slot] != null && table[slot].index != key) {
+            slot = (slot + 1) & (OBJECTS_PER_NODE - 1);
+        }
+        if (table[slot] == null) {
+            table[slot] = new Counters(key);
+        }
+        return table[slot].values;
+    }
+
+    /**
+     * @return a copy of the counters of every node and object seen so far
+     */
+    public synchronized List<SDOObjectSnapshot> snapshot() {
+        List<SDOObjectSnapshot> list = new ArrayList<SDOObjectSnapshot>();
+        for (int n = 0; n < EPOS2Transceiver.MAX_NODES; n++) {
+            Counters[] table = nodes.get(n);
+            if (table == null) {
+                continue;
+            }
+            for (int i = 0; i < table.length; i++) {
+                if (table[i] != null) {
+                    list.add(table[i].snapshot(n));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return a copy of the counters of the given object, or null if no
+     * request to it was recorded
+     */
+    public synchronized SDOObjectSnapshot snapshot(int nodeID, int index) {
+        Counters[] table = nodes.get(nodeID & 0x7F);
+        if (table == null) {
+            return null;
+        }
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != null && table[i].index == (index == OTHER_OBJECTS ? OTHER_OBJECTS : index & 0xFFFF)) {
+                return table[i].snapshot(nodeID & 0x7F);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under
+     * {@code ch.dermitza.epos2:type=SDOStatistics,name=<name>}.
+     *
+     * @param busName a name identifying the bus, e.g. the CAN channel
+     * @throws JMException if the registration fails
+     */
+    public synchronized void register(String busName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName("ch.dermitza.epos2:type=SDOStatistics,name="
+                + ObjectName.quote(busName));
+        server.registerMBean(this, on);
+        name = on;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    @Override
+    public long getRequests() {
+        return sum(SUCCESS) + sum(ABORT) + sum(TIMEOUT);
+    }
+
+    @Override
+    public long getSuccesses() {
+        return sum(SUCCESS);
+    }
+
+    @Override
+    public long getAborts() {
+        return sum(ABORT);
+    }
+
+    @Override
+    public long getTimeouts() {
+        return sum(TIMEOUT);
+    }
+
+    @Override
+    public long getRetries() {
+        return sum(RETRY);
+    }
+
+    @Override
+    public int[] getNodes() {
+        int count = 0;
+        int[] ids = new int[EPOS2Transceiver.MAX_NODES];
+        for (int n = 0; n < EPOS2Transceiver.MAX_NODES; n++) {
+            if (nodes.get(n) != null) {
+                ids[count++] = n;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(ids, 0, result, 0, count);
+        return result;
+    }
+
+    @Override
+    public String[] getSummary() {
+        List<SDOObjectSnapshot> list = snapshot();
+        String[] lines = new String[list.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = list.get(i).toString();
+        }
+        return lines;
+    }
+
+    @Override
+    public double getLatencyPercentileMicros(int nodeID, int index, double percentile) {
+        SDOObjectSnapshot s = snapshot(nodeID, index);
+        long nanos = s == null ? -1 : s.getPercentileNanos(percentile);
+        return nanos < 0 ? -1 : nanos / 1000.0;
+    }
+
+    /**
+     * Clears all counters. Requests completing concurrently may be partly
+     * counted.
+     */
+    @Override
+    public synchronized void reset() {
+        for (int n = 0; n < EPOS2Transceiver.MAX_NODES; n++) {
+            Counters[] table = nodes.get(n);
+            if (table == null) {
+                continue;
+            }
+            for (int i = 0; i < table.length; i++) {
+                if (table[i] != null) {
+                    for (int j = 0; j < table[i].values.length(); j++) {
+                        table[i].values.set(j, 0);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < dispatch.length(); i++) {
+            dispatch.set(i, 0);
+        }
+    }
+
+    private long sum(int field) {
+        long total = 0;
+        for (int n = 0; n < EPOS2Transceiver.MAX_NODES; n++) {
+            Counters[] table = nodes.get(n);
+            if (table == null) {
+                continue;
+            }
+            for (int i = 0; i < table.length; i++) {
+                Counters c = table[i];
+                if (c != null) {
+                    total += c.values.get(field);
+                }
+            }
+        }
+        return total;
+    }
+
+    private static final class Counters {
+
+        final int index;
+        final AtomicLongArray values = new AtomicLongArray(HISTOGRAM + BUCKETS);
+
+        Counters(int index) {
+            this.index = index;
+        }
+
+        SDOObjectSnapshot snapshot(int nodeID) {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = values.get(HISTOGRAM + i);
+            }
+            return new SDOObjectSnapshot(nodeID, index, values.get(SUCCESS), values.get(ABORT),
+                    values.get(TIMEOUT), values.get(RETRY), values.get(TOTAL), values.get(MAX), buckets);
+        }
+    }
+}
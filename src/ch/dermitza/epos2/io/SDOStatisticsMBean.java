@@ -0,0 +1,78 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+/**
+ * JMX view of an {@link SDOStatistics} instance.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public interface SDOStatisticsMBean {
+
+    public long getRequests();
+
+    public long getSuccesses();
+
+    public long getAborts();
+
+    public long getTimeouts();
+
+    public long getRetries();
+
+    /**
+     * @return the IDs of all nodes with recorded requests
+     */
+    public int[] getNodes();
+
+    /**
+     * @return one line per node and object, see
+     * {@link SDOObjectSnapshot#toString()}
+     */
+    public String[] getSummary();
+
+    /**
+     * @param nodeID the node
+     * @param index the object index
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency below which the given percentile of requests
+     * completed, in microseconds, or -1 if nothing was recorded
+     */
+    public double getLatencyPercentileMicros(int nodeID, int index, double percentile);
+
+    /**
+     * @return the worst time from submission to completion of an
+     * {@link SDOPriority#EMERGENCY} request, in microseconds
+     */
+    public double getEmergencyMaxLatencyMicros();
+
+    /**
+     * @return the worst time an {@link SDOPriority#EMERGENCY} request waited
+     * for its node, in microseconds
+     */
+    public double getEmergencyMaxWaitMicros();
+
+    /**
+     * @return one line per {@link SDOPriority} class with its request count
+     * and latencies
+     */
+    public String[] getDispatchSummary();
+
+    public void reset();
+}
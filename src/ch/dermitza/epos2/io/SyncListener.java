@@ -0,0 +1,36 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+/**
+ * Notified by a {@link SyncProducer} right after each SYNC has been put on
+ * the bus. Implementations run on the SYNC thread and must not block.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public interface SyncListener {
+
+    /**
+     * @param count the number of SYNCs sent so far, including this one
+     * @param nanoTime the {@link System#nanoTime()} at which the SYNC was
+     * sent
+     */
+    public void syncSent(long count, long nanoTime);
+}
@@ -0,0 +1,181 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.io;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emits the CANopen SYNC object at a fixed period from a dedicated thread.
+ *
+ * The thread sleeps until shortly before each deadline and spins for the
+ * remainder, so the SYNC period is not bound to the scheduler granularity
+ * of the host. A deadline that is missed by more than a full period is
+ * skipped rather than caught up, the number of skipped deadlines and the
+ * worst lateness are recorded.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SyncProducer implements Runnable {
+
+    private static final long SPIN_NANOS = 100000L;
+    private static final SyncListener[] NONE = new SyncListener[0];
+    private final EPOS2Transceiver trans;
+    private final CanMessage sync = new CanMessage();
+    private volatile long periodNanos;
+    private volatile boolean running;
+    private volatile SyncListener[] listeners = NONE;
+    private volatile long count;
+    private volatile long missed;
+    private volatile long maxLateness;
+    private volatile Thread thread;
+
+    public SyncProducer(EPOS2Transceiver trans, long periodNanos) {
+        this.trans = trans;
+        this.periodNanos = periodNanos;
+        sync.setMessage(EPOS2Transceiver.COB_SYNC, new byte[0], 0, false, false, false, false);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "EPOS2 SYNC");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the SYNC thread and waits for it to exit, so that a subsequent
+     * {@link #start()} never runs alongside the old thread. When called from
+     * a {@link SyncListener} on the SYNC thread itself, the thread exits after
+     * the current listener pass instead.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        long next = System.nanoTime();
+        while (thread == self) {
+            long now = System.nanoTime();
+            long left = next - now;
+            if (left > SPIN_NANOS) {
+                LockSupport.parkNanos(left - SPIN_NANOS);
+                continue;
+            }
+            while (left > 0) {
+                now = System.nanoTime();
+                left = next - now;
+            }
+            long late = -left;
+            if (late > maxLateness) {
+                maxLateness = late;
+            }
+            trans.writeFrame(sync);
+            long n = ++count;
+            SyncListener[] l = listeners;
+            for (int i = 0; i < l.length; i++) {
+                l[i].syncSent(n, now);
+            }
+            long period = periodNanos;
+            next += period;
+            now = System.nanoTime();
+            if (now - next > period) {
+                missed += (now - next) / period;
+                next = now + period;
+            }
+        }
+    }
+
+    public void setPeriod(long periodNanos) {
+        this.periodNanos = periodNanos;
+    }
+
+    public long getPeriod() {
+        return periodNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of SYNC deadlines that were skipped because the
+     * thread fell behind by more than one period
+     */
+    public long getMissed() {
+        return missed;
+    }
+
+    /**
+     * @return the largest delay between a deadline and the actual
+     * transmission of its SYNC, in nanoseconds
+     */
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    public void resetStatistics() {
+        missed = 0;
+        maxLateness = 0;
+    }
+
+    public synchronized void addSyncListener(SyncListener l) {
+        SyncListener[] n = new SyncListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, n, 0, listeners.length);
+        n[listeners.length] = l;
+        listeners = n;
+    }
+
+    public synchronized void removeSyncListener(SyncListener l) {
+        SyncListener[] arr = listeners;
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] == l) {
+                SyncListener[] n = new SyncListener[arr.length - 1];
+                System.arraycopy(arr, 0, n, 0, i);
+                System.arraycopy(arr, i + 1, n, i, arr.length - i - 1);
+                listeners = n;
+                return;
+            }
+        }
+    }
+}
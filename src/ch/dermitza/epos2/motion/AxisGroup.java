@@ -0,0 +1,440 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.motion;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.EPOS2Async;
+import ch.dermitza.epos2.ProcessDataCache;
+import ch.dermitza.epos2.StatusWord;
+import ch.dermitza.epos2.StatusWordListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.io.SyncProducer;
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts a Profile Position Mode move on several axes at the same time.
+ *
+ * Issuing {@code setTargetProfilePosition()} and
+ * {@code startProfilePosition()} on one axis after the other takes two
+ * confirmed SDOs per axis, so the axes start milliseconds apart. A group
+ * instead splits a coordinated move in two phases:
+ * <ol>
+ * <li>{@link #preload(int[], int, int, int)} writes targets and profile
+ * parameters to all axes, with the SDOs of different axes in flight at the
+ * same time, and leaves every axis in operation enabled with the new
+ * setpoint bit cleared.</li>
+ * <li>{@link #start(boolean)} sends the start controlword to every axis
+ * through an unconfirmed RPDO, one frame per axis back to back. With
+ * {@link #TRIGGER_SYNC} the RPDOs are synchronous and the drives apply
+ * them together on the following SYNC, which removes the remaining skew of
+ * the burst itself.</li>
+ * </ol>
+ *
+ * The start skew is measured from the statusword TPDOs: every axis with
+ * process data enabled reports when it acknowledged the new setpoint
+ * (statusword bit 12). The reception times are taken on the host, so the
+ * measurement includes the TPDO latency of each drive.
+ *
+ * All axes must be connected through the same {@link EPOS2Transceiver}
+ * and be in Profile Position Mode.
+ *
+ * The group lock is not held while the start frames are written, and the
+ * acknowledges are recorded without it, so the receiver thread delivering
+ * them never waits for a start in progress.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class AxisGroup {
+
+    /**
+     * Apply the start controlword as soon as it is received.
+     */
+    public static final int TRIGGER_BURST = 0;
+    /**
+     * Apply the start controlword on the SYNC following the burst.
+     */
+    public static final int TRIGGER_SYNC = 1;
+    public static final long DEFAULT_SYNC_DELAY_NANOS = 1000000L;
+    public static final long ARM_TIMEOUT_NANOS = 100000000L;
+    private static final long ARM_POLL_NANOS = 100000L;
+    // Enable operation with the halt bit set
+    private static final short CW_HALT = 0x10F;
+    private final EPOS2[] axes;
+    private final EPOS2Async[] async;
+    private final EPOS2Transceiver trans;
+    private final CanMessage[] frames;
+    private final CanMessage syncFrame = new CanMessage();
+    private final Acknowledge[] acks;
+    private final AtomicInteger pending = new AtomicInteger();
+    private int trigger = -1;
+    private SyncProducer sync;
+    private long syncDelayNanos = DEFAULT_SYNC_DELAY_NANOS;
+    private boolean starting;
+    private volatile CompletableFuture<Long> started;
+    private volatile long triggerNanos;
+    private volatile long transmitSkew;
+
+    public AxisGroup(EPOS2... axes) {
+        if (axes.length == 0 || !(axes[0].getTranceiver() instanceof EPOS2Transceiver)) {
+            throw new IllegalArgumentException("An axis group requires axes on an EPOS2Transceiver");
+        }
+        this.axes = axes.clone();
+        this.trans = (EPOS2Transceiver) axes[0].getTranceiver();
+        this.async = new EPOS2Async[axes.length];
+        this.frames = new CanMessage[axes.length];
+        this.acks = new Acknowledge[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            if (axes[i].getTranceiver() != trans) {
+                throw new IllegalArgumentException("Node " + axes[i].getNodeID() + " is on another transceiver");
+            }
+            async[i] = new EPOS2Async(axes[i]);
+            frames[i] = new CanMessage();
+            acks[i] = new Acknowledge(i);
+        }
+        syncFrame.setMessage(EPOS2Transceiver.COB_SYNC, new byte[0], 0, false, false, false, false);
+    }
+
+    /**
+     * Maps the controlword onto the given RPDO of every axis and starts the
+     * nodes.
+     *
+     * @param rpdo the zero-based RPDO to use
+     * @param trigger {@link #TRIGGER_BURST} or {@link #TRIGGER_SYNC}
+     * @return true if all axes were configured
+     */
+    public synchronized boolean configure(int rpdo, int trigger) {
+        if (starting) {
+            throw new IllegalStateException("A start is in progress");
+        }
+        int type = trigger == TRIGGER_SYNC ? EPOS2.PDO_TRANSMISSION_SYNC : EPOS2.PDO_TRANSMISSION_ASYNC;
+        boolean ok = true;
+        for (int i = 0; i < axes.length; i++) {
+            ok &= axes[i].configureRPDO(rpdo, type, EPOS2.pdoMapping(EPOS2.OBJ_CONTROLWORD, 16));
+            frames[i].setMessage(EPOS2Transceiver.COB_RPDO1 + (rpdo << 8) + axes[i].getNodeID(),
+                    new byte[2], 0, false, false, false, false);
+            ok &= axes[i].sendNMT(EPOS2Transceiver.NMT_START);
+        }
+        this.trigger = ok ? trigger : -1;
+        return ok;
+    }
+
+    /**
+     * Sets the SYNC producer whose next SYNC starts the move in
+     * {@link #TRIGGER_SYNC} mode. Without a running producer, the group
+     * sends a single SYNC itself, see {@link #setSyncDelay(long)}.
+     */
+    public synchronized void setSyncProducer(SyncProducer sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Sets the time between the burst and the SYNC the group sends when no
+     * SYNC producer is running. The SYNC outranks the RPDOs in arbitration,
+     * so it must only be queued once the burst has left the CAN controller.
+     *
+     * @param nanos the delay, at least the bus time of the burst
+     */
+    public synchronized void setSyncDelay(long nanos) {
+        this.syncDelayNanos = nanos;
+    }
+
+    /**
+     * Writes target and profile parameters to all axes and clears the new
+     * setpoint bit, so that the next {@link #start(boolean)} produces a
+     * rising edge. Profile parameters of -1 are left unchanged.
+     *
+     * Axes with process data must then report the setpoint acknowledge
+     * cleared within {@link #ARM_TIMEOUT_NANOS}, so that the acknowledge of
+     * the next start shows up as a statusword change.
+     *
+     * @param targets the target position of each axis, in group order
+     * @param velocity the profile velocity, or -1
+     * @param acceleration the profile acceleration, or -1
+     * @param deceleration the profile deceleration, or -1
+     * @return true if every write was acknowledged
+     */
+    public boolean preload(int[] targets, int velocity, int acceleration, int deceleration) {
+        if (targets.length != axes.length) {
+            throw new IllegalArgumentException(targets.length + " targets for " + axes.length + " axes");
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Integer>[] rc = new CompletableFuture[axes.length * 5];
+        int n = 0;
+        for (int i = 0; i < axes.length; i++) {
+            rc[n++] = async[i].setTargetProfilePosition(targets[i]);
+            if (velocity != -1) {
+                rc[n++] = async[i].setProfileVelocity(velocity);
+            }
+            if (acceleration != -1) {
+                rc[n++] = async[i].setProfileAcceleration(acceleration);
+            }
+            if (deceleration != -1) {
+                rc[n++] = async[i].setProfileDeceleration(deceleration);
+            }
+            rc[n++] = async[i].enableOperation();
+        }
+        boolean ok = true;
+        for (int i = 0; i < n; i++) {
+            ok &= rc[i].join() == 0;
+        }
+        long deadline = System.nanoTime() + ARM_TIMEOUT_NANOS;
+        for (int i = 0; i < axes.length && ok; i++) {
+            ProcessDataCache cache = axes[i].getProcessData();
+            while (cache != null && (cache.getStatusWord() & StatusWord.BIT_OPMODE_SPECIFIC_12) != 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(ARM_POLL_NANOS);
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Triggers the preloaded move on all axes.
+     *
+     * If a start frame cannot be written, the axes whose frame was already
+     * written are sent a halt controlword instead, and the exception
+     * reports any of them that could not be halted.
+     *
+     * @param absolute true for absolute, false for relative targets
+     * @return a future completing with the start skew in nanoseconds once
+     * every axis has acknowledged the setpoint, or with -1 right away if not
+     * all axes have process data enabled
+     * @throws IllegalStateException if the group is not configured, another
+     * start is in progress or a frame could not be written
+     */
+    public CompletableFuture<Long> start(boolean absolute) {
+        short cw = absolute ? EPOS2.CW_PROFILE_POSITION_ABSOLUTE : EPOS2.CW_PROFILE_POSITION_RELATIVE;
+        boolean measure = true;
+        boolean syncTrigger;
+        SyncProducer producer;
+        long delay;
+        CompletableFuture<Long> previous;
+        CompletableFuture<Long> f = new CompletableFuture<Long>();
+        synchronized (this) {
+            if (trigger < 0) {
+                throw new IllegalStateException("Axis group is not configured");
+            }
+            if (starting) {
+                throw new IllegalStateException("A start is already in progress");
+            }
+            starting = true;
+            syncTrigger = trigger == TRIGGER_SYNC;
+            producer = sync;
+            delay = syncDelayNanos;
+        }
+        try {
+            for (int i = 0; i < axes.length; i++) {
+                setControlword(i, cw);
+                ProcessDataCache cache = axes[i].getProcessData();
+                if (cache == null) {
+                    measure = false;
+                } else {
+                    cache.commandSent();
+                }
+            }
+            previous = started;
+            pending.set(0);
+            for (int i = 0; i < axes.length; i++) {
+                acks[i].arm(measure ? axes[i].getProcessData() : null);
+            }
+            started = f;
+            pending.set(measure ? axes.length : 0);
+            if (previous != null) {
+                previous.complete(-1L);
+            }
+            long first = System.nanoTime();
+            long last = first;
+            for (int i = 0; i < axes.length; i++) {
+                if (!trans.writeFrame(frames[i])) {
+                    IllegalStateException e = new IllegalStateException(abort(i));
+                    pending.set(0);
+                    f.completeExceptionally(e);
+                    throw e;
+                }
+                last = System.nanoTime();
+            }
+            if (syncTrigger && (producer == null || !producer.isRunning())) {
+                long due = last + delay;
+                while (System.nanoTime() - due < 0) {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+                trans.writeFrame(syncFrame);
+                first = System.nanoTime();
+            }
+            triggerNanos = first;
+            transmitSkew = syncTrigger ? 0 : last - first;
+        } finally {
+            synchronized (this) {
+                starting = false;
+            }
+        }
+        if (!measure) {
+            f.complete(-1L);
+        }
+        return f;
+    }
+
+    /**
+     * Halts the axes whose start frame was written before the frame of the
+     * given axis failed. In {@link #TRIGGER_SYNC} mode the halt replaces the
+     * start the drives hold for the next SYNC.
+     *
+     * @return the message describing the failure
+     */
+    private String abort(int failed) {
+        StringBuilder sb = new StringBuilder("Could not send start to node ");
+        sb.append(axes[failed].getNodeID());
+        String sep = ", could not halt node ";
+        for (int i = 0; i < failed; i++) {
+            setControlword(i, CW_HALT);
+            if (!trans.writeFrame(frames[i])) {
+                sb.append(sep).append(axes[i].getNodeID());
+                sep = ", ";
+            }
+        }
+        if (failed > 0 && sep.length() > 2) {
+            sb.append(", the axes before it were halted");
+        }
+        return sb.toString();
+    }
+
+    private void setControlword(int axis, short cw) {
+        byte[] d = frames[axis].getData();
+        d[0] = (byte) cw;
+        d[1] = (byte) (cw >> 8);
+    }
+
+    private void acknowledged(int axis, long nanoTime) {
+        if (pending.get() == 0) {
+            return;
+        }
+        acks[axis].nanos = nanoTime;
+        int n;
+        do {
+            n = pending.get();
+            if (n == 0) {
+                return;
+            }
+        } while (!pending.compareAndSet(n, n - 1));
+        if (n == 1) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < acks.length; i++) {
+                min = Math.min(min, acks[i].nanos);
+                max = Math.max(max, acks[i].nanos);
+            }
+            started.complete(max - min);
+        }
+    }
+
+    /**
+     * @return the time between writing the first and the last start frame
+     * of the last burst, or 0 in {@link #TRIGGER_SYNC} mode
+     */
+    public long getTransmitSkew() {
+        return transmitSkew;
+    }
+
+    /**
+     * @param axis the axis, in group order
+     * @return the time from the last trigger to the setpoint acknowledge of
+     * the axis, or -1 if it has not been observed
+     */
+    public long getStartDelay(int axis) {
+        long t = acks[axis].nanos;
+        return t == 0 ? -1 : t - triggerNanos;
+    }
+
+    /**
+     * Waits for all axes to report target reached. With process data, call
+     * this once the future returned by {@link #start(boolean)} has
+     * completed, as an axis still reports the previous target until it has
+     * acknowledged the new one.
+     *
+     * @param timeoutMs the deadline
+     * @return a future completing with the final statusword of each axis
+     * @see EPOS2#awaitTargetReached(long)
+     */
+    public CompletableFuture<int[]> awaitTargetReached(long timeoutMs) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Integer>[] f = new CompletableFuture[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            f[i] = axes[i].awaitTargetReached(timeoutMs);
+        }
+        return EPOS2Async.collect(f);
+    }
+
+    public EPOS2 getAxis(int axis) {
+        return axes[axis];
+    }
+
+    public int size() {
+        return axes.length;
+    }
+
+    /**
+     * Watches the statusword of one axis for the setpoint acknowledge
+     * following a trigger.
+     */
+    private class Acknowledge implements StatusWordListener {
+
+        private final int axis;
+        private ProcessDataCache cache;
+        private volatile long nanos;
+
+        Acknowledge(int axis) {
+            this.axis = axis;
+        }
+
+        /**
+         * Called by the starting thread, before the trigger is sent.
+         */
+        void arm(ProcessDataCache c) {
+            nanos = 0;
+            if (cache != c) {
+                if (cache != null) {
+                    cache.removeStatusWordListener(this);
+                }
+                if (c != null) {
+                    c.addStatusWordListener(this);
+                }
+                cache = c;
+            }
+        }
+
+        @Override
+        public void statusWordChanged(short nodeID, int statusWord, long nanoTime) {
+            if ((statusWord & StatusWord.BIT_OPMODE_SPECIFIC_12) != 0) {
+                acknowledge(nanoTime);
+            }
+        }
+
+        private void acknowledge(long nanoTime) {
+            if (nanos == 0) {
+                acknowledged(axis, nanoTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.motion;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.io.CanFrameListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.io.SyncListener;
+import ch.dermitza.epos2.io.SyncProducer;
+import ch.dermitza.epos2.util.LongRingBuffer;
+import ch.dermitza.jcanopen.can.CanMessage;
+
+/**
+ * Streams PVT points into the interpolation buffer of an EPOS2 running in
+ * Interpolated Position Mode (IPM).
+ *
+ * Points are queued by the trajectory planner through {@link #push(int, int, int)}
+ * or its batch variant, and handed to the drive over an unconfirmed RPDO
+ * mapped onto the interpolation data record (0x20C1). After every SYNC of
+ * the attached {@link SyncProducer}, the streamer tops the drive buffer up
+ * to {@link #setTargetFill(int)} points. The fill level and the buffer
+ * status (0x20C4-03) are reported back by the drive on a TPDO transmitted
+ * on every SYNC, so no confirmed SDO is involved once streaming has
+ * started.
+ *
+ * The point queue is single-producer: only one thread may push points.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class InterpolatedPositionStreamer implements SyncListener, CanFrameListener {
+
+    public static final byte SUB_MODE_PVT = -1;
+    public static final int STATUS_UNDERFLOW_WARNING = 0x0001;
+    public static final int STATUS_OVERFLOW_WARNING = 0x0002;
+    public static final int STATUS_VELOCITY_WARNING = 0x0004;
+    public static final int STATUS_ACCELERATION_WARNING = 0x0008;
+    public static final int STATUS_UNDERFLOW_ERROR = 0x0100;
+    public static final int STATUS_OVERFLOW_ERROR = 0x0200;
+    public static final int STATUS_VELOCITY_ERROR = 0x0400;
+    public static final int STATUS_ACCELERATION_ERROR = 0x0800;
+    public static final int STATUS_BUFFER_ENABLED = 0x4000;
+    public static final int STATUS_IP_MODE_ACTIVE = 0x8000;
+    private static final int UNDERFLOW = STATUS_UNDERFLOW_WARNING | STATUS_UNDERFLOW_ERROR;
+    private static final int OVERFLOW = STATUS_OVERFLOW_WARNING | STATUS_OVERFLOW_ERROR;
+    private final EPOS2 epos;
+    private final SyncProducer sync;
+    private final int rpdo;
+    private final int tpdo;
+    private final LongRingBuffer points;
+    private final CanMessage frame = new CanMessage();
+    private EPOS2Transceiver trans;
+    private volatile int targetFill = 8;
+    private volatile int capacity;
+    private volatile int bufferStatus;
+    private volatile int reportedFill;
+    private volatile long reportedSent;
+    private volatile long syncMark;
+    private volatile long sent;
+    private volatile long underflows;
+    private volatile long overflows;
+
+    /**
+     * @param epos the drive to stream to
+     * @param sync the SYNC producer driving the stream
+     * @param rpdo the zero-based RPDO used for the interpolation data
+     * @param tpdo the zero-based TPDO used for the buffer status
+     * @param queueCapacity the number of points the host-side queue holds
+     */
+    public InterpolatedPositionStreamer(EPOS2 epos, SyncProducer sync, int rpdo, int tpdo, int queueCapacity) {
+        this.epos = epos;
+        this.sync = sync;
+        this.rpdo = rpdo;
+        this.tpdo = tpdo;
+        this.points = new LongRingBuffer(queueCapacity);
+    }
+
+    /**
+     * Switches the drive to IPM with PVT interpolation, clears its buffer
+     * and sets up the PDOs used for streaming.
+     *
+     * @return true if the drive accepted the configuration
+     */
+    public boolean configure() {
+        if (!(epos.getTranceiver() instanceof EPOS2Transceiver)) {
+            throw new IllegalStateException("IPM streaming requires an EPOS2Transceiver");
+        }
+        trans = (EPOS2Transceiver) epos.getTranceiver();
+        int nodeID = epos.getNodeID();
+        frame.setMessage(EPOS2Transceiver.COB_RPDO1 + (rpdo << 8) + nodeID, new byte[8], 0,
+                false, false, false, false);
+
+        int rc = (int) epos.setOperationMode(EPOS2.OPMODE_INTERPOLATED_PROFILE_POSITION);
+        rc |= epos.writeObject(EPOS2.OBJ_INTERPOLATION_SUB_MODE, (byte) 0x00, (short) SUB_MODE_PVT);
+        capacity = epos.readObject(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_MAX_BUFFER_SIZE_SUBIDX);
+        if (rc != 0 || capacity <= 0 || !clearBuffer()) {
+            return false;
+        }
+        if (targetFill > capacity) {
+            targetFill = capacity;
+        }
+        boolean ok = epos.configureRPDO(rpdo, EPOS2.PDO_TRANSMISSION_ASYNC,
+                EPOS2.pdoMapping(EPOS2.OBJ_INTERPOLATION_DATA_RECORD, 64));
+        ok &= epos.configureTPDO(tpdo, EPOS2.PDO_TRANSMISSION_SYNC, 0,
+                EPOS2.pdoMapping(EPOS2.OBJ_INTERPOLATION_BUFFER, EPOS2.OBJ_IPM_BUFFER_STATUS_SUBIDX, 16),
+                EPOS2.pdoMapping(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_ACTUAL_BUFFER_SIZE_SUBIDX, 32));
+        if (!ok) {
+            return false;
+        }
+        trans.addFrameListener(EPOS2Transceiver.COB_TPDO1 + (tpdo << 8) + nodeID, this);
+        sync.addSyncListener(this);
+        return trans.sendNMT(EPOS2Transceiver.NMT_START, nodeID);
+    }
+
+    /**
+     * Detaches the streamer from the SYNC producer and the receiver.
+     */
+    public void release() {
+        sync.removeSyncListener(this);
+        if (trans != null) {
+            trans.removeFrameListener(EPOS2Transceiver.COB_TPDO1 + (tpdo << 8) + epos.getNodeID(), this);
+        }
+    }
+
+    /**
+     * Clears the drive interpolation buffer and re-enables it.
+     *
+     * @return true if both writes were acknowledged
+     */
+    public boolean clearBuffer() {
+        int rc = epos.writeObject(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_BUFFER_CLEAR_SUBIDX, (byte) 0);
+        rc |= epos.writeObject(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_BUFFER_CLEAR_SUBIDX, (byte) 1);
+        reportedFill = 0;
+        reportedSent = sent;
+        return rc == 0;
+    }
+
+    /**
+     * Pre-fills the drive buffer from the queue and starts interpolation by
+     * setting the enable IP mode bit of the controlword.
+     *
+     * @return the controlword write result, 0 on success
+     */
+    public int start() {
+        fill();
+        return epos.writeObject(EPOS2.OBJ_CONTROLWORD, (byte) 0x00, EPOS2.CW_ENABLE_IP_MODE);
+    }
+
+    /**
+     * Stops interpolation by clearing the enable IP mode bit. Queued points
+     * are kept.
+     *
+     * @return the controlword write result, 0 on success
+     */
+    public int stop() {
+        return epos.writeObject(EPOS2.OBJ_CONTROLWORD, (byte) 0x00, EPOS2.CW_ENABLE_OPERATION);
+    }
+
+    /**
+     * Queues one PVT point. Must only be called from the producer thread.
+     *
+     * @param position the target position in qc
+     * @param velocity the velocity at the point in rpm, 24 bit signed
+     * @param timeMs the time to reach the point from the previous one, 1-255
+     * @return false if the host-side queue is full
+     */
+    public boolean push(int position, int velocity, int timeMs) {
+        return points.offer(encode(position, velocity, timeMs));
+    }
+
+    /**
+     * Queues a batch of PVT points. Must only be called from the producer
+     * thread.
+     *
+     * @return the number of points queued, less than {@code len} if the
+     * host-side queue filled up
+     */
+    public int push(int[] positions, int[] velocities, int[] timesMs, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (!points.offer(encode(positions[off + i], velocities[off + i], timesMs[off + i]))) {
+                return i;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Encodes a PVT point in the little-endian layout of the interpolation
+     * data record: 32 bit position, 24 bit velocity, 8 bit time.
+     */
+    public static long encode(int position, int velocity, int timeMs) {
+        return (position & 0xFFFFFFFFL)
+                | ((long) (velocity & 0xFFFFFF) << 32)
+                | ((long) (timeMs & 0xFF) << 56);
+    }
+
+    @Override
+    public void syncSent(long count, long nanoTime) {
+        syncMark = sent;
+        fill();
+    }
+
+    @Override
+    public void frameReceived(CanMessage msg, long nanoTime) {
+        byte[] d = msg.getData();
+        if (d.length < 6) {
+            return;
+        }
+        int status = (d[0] & 0xFF) | ((d[1] & 0xFF) << 8);
+        int prev = bufferStatus;
+        if ((status & UNDERFLOW) != 0 && (prev & UNDERFLOW) == 0) {
+            underflows++;
+        }
+        if ((status & OVERFLOW) != 0 && (prev & OVERFLOW) == 0) {
+            overflows++;
+        }
+        bufferStatus = status;
+        reportedSent = syncMark;
+        reportedFill = (d[2] & 0xFF) | ((d[3] & 0xFF) << 8) | ((d[4] & 0xFF) << 16) | ((d[5] & 0xFF) << 24);
+    }
+
+    private synchronized void fill() {
+        long s = sent;
+        long estimated = reportedFill + (s - reportedSent);
+        byte[] d = frame.getData();
+        while (estimated < targetFill && !points.isEmpty()) {
+            // Only consume the point once it is on the bus, a failed write
+            // retries it on the next SYNC
+            long p = points.peek();
+            for (int i = 0; i < 8; i++) {
+                d[i] = (byte) (p >>> (i << 3));
+            }
+            if (!trans.writeFrame(frame)) {
+                break;
+            }
+            points.poll();
+            s++;
+            estimated++;
+        }
+        sent = s;
+    }
+
+    /**
+     * Sets the number of points the streamer keeps in the drive buffer.
+     *
+     * @param points the target fill level, capped at the drive buffer size
+     */
+    public void setTargetFill(int points) {
+        int cap = capacity;
+        targetFill = cap > 0 ? Math.min(points, cap) : points;
+    }
+
+    public int getTargetFill() {
+        return targetFill;
+    }
+
+    /**
+     * @return the drive buffer size read during {@link #configure()}
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getQueued() {
+        return points.size();
+    }
+
+    /**
+     * @return the last fill level reported by the drive
+     */
+    public int getBufferFill() {
+        return reportedFill;
+    }
+
+    /**
+     * @return the last reported buffer status, a combination of the
+     * {@code STATUS_*} flags
+     */
+    public int getBufferStatus() {
+        return bufferStatus;
+    }
+
+    public long getPointsSent() {
+        return sent;
+    }
+
+    public long getUnderflows() {
+        return underflows;
+    }
+
+    public long getOverflows() {
+        return overflows;
+    }
+}
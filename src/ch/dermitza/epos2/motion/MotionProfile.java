@@ -0,0 +1,358 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.motion;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The host-side plan of one Profile Position Mode move, as the drive runs
+ * it with the given profile velocity, acceleration and deceleration.
+ *
+ * The move starts at rest and consists of an acceleration ramp, a phase at
+ * constant velocity and a deceleration ramp. If the distance is too short
+ * to reach the profile velocity, the constant phase is dropped and the
+ * peak velocity lowered so that both ramps meet. With
+ * {@link #TRAPEZOIDAL} the ramps are linear. With {@link #SINUSOIDAL} the
+ * acceleration follows a sin^2 curve; the ramps are planned to take as long
+ * as the linear ones, the profile acceleration being the mean acceleration
+ * of the ramp, so that both profile types cover the same distance in the
+ * same time and only differ in shape.
+ *
+ * Positions are in quadcounts (qc), velocities in rpm and accelerations in
+ * rpm/s, the units of the drive objects; the encoder resolution converts
+ * between them. Times are measured from the start of the move.
+ *
+ * Instances are immutable, apart from the lazily computed setpoint table,
+ * and may be shared between threads.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class MotionProfile {
+
+    /**
+     * Linear ramps, motion profile type 0 of the drive.
+     */
+    public static final int TRAPEZOIDAL = 0;
+    /**
+     * sin^2 ramps, motion profile type 1 of the drive.
+     */
+    public static final int SINUSOIDAL = 1;
+    private static final double TWO_PI = 2 * Math.PI;
+    private final int type;
+    private final int start;
+    private final int target;
+    private final double direction;
+    private final double distance;
+    private final double peakVelocity;
+    private final double accelTime;
+    private final double cruiseTime;
+    private final double decelTime;
+    private final double accelDistance;
+    private final double cruiseDistance;
+    private final double qcPerRevolution;
+    private volatile Table table;
+
+    /**
+     * @param type {@link #TRAPEZOIDAL} or {@link #SINUSOIDAL}
+     * @param start the position at the start of the move, in qc
+     * @param target the absolute target position, in qc
+     * @param velocity the profile velocity, in rpm
+     * @param acceleration the profile acceleration, in rpm/s
+     * @param deceleration the profile deceleration, in rpm/s
+     * @param qcPerRevolution the encoder resolution, four times the number
+     * of encoder pulses per revolution
+     */
+    public MotionProfile(int type, int start, int target, double velocity, double acceleration,
+            double deceleration, double qcPerRevolution) {
+        if (velocity <= 0 || acceleration <= 0 || deceleration <= 0 || qcPerRevolution <= 0) {
+            throw new IllegalArgumentException("Profile parameters must be positive");
+        }
+        this.type = type;
+        this.start = start;
+        this.target = target;
+        this.qcPerRevolution = qcPerRevolution;
+        this.direction = target >= start ? 1 : -1;
+        this.distance = Math.abs((double) target - start);
+        double v = velocity * qcPerRevolution / 60.0;
+        double a = acceleration * qcPerRevolution / 60.0;
+        double d = deceleration * qcPerRevolution / 60.0;
+        if (v * v / (2 * a) + v * v / (2 * d) > distance) {
+            v = Math.sqrt(2 * distance * a * d / (a + d));
+        }
+        this.peakVelocity = v;
+        this.accelTime = v / a;
+        this.decelTime = v / d;
+        this.accelDistance = v * accelTime / 2;
+        double decelDistance = v * decelTime / 2;
+        this.cruiseDistance = Math.max(distance - accelDistance - decelDistance, 0);
+        this.cruiseTime = v > 0 ? cruiseDistance / v : 0;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the duration of the move in seconds
+     */
+    public double getDuration() {
+        return accelTime + cruiseTime + decelTime;
+    }
+
+    public long getDurationNanos() {
+        return (long) Math.ceil(getDuration() * 1e9);
+    }
+
+    /**
+     * @return the highest velocity of the move in rpm, below the profile
+     * velocity if the move is too short to reach it
+     */
+    public double getPeakVelocity() {
+        return peakVelocity * 60.0 / qcPerRevolution;
+    }
+
+    /**
+     * @return the durations of the acceleration, constant velocity and
+     * deceleration phases in seconds
+     */
+    public double[] getPhases() {
+        return new double[]{accelTime, cruiseTime, decelTime};
+    }
+
+    /**
+     * @param t the time since the start of the move, in seconds
+     * @return the planned position in qc, not rounded
+     */
+    public double position(double t) {
+        return start + direction * travelled(t);
+    }
+
+    /**
+     * @param t the time since the start of the move, in seconds
+     * @return the planned velocity in rpm, signed
+     */
+    public double velocity(double t) {
+        double v;
+        if (t <= 0 || t >= getDuration()) {
+            v = 0;
+        } else if (t < accelTime) {
+            v = rampVelocity(t, accelTime);
+        } else if (t < accelTime + cruiseTime) {
+            v = peakVelocity;
+        } else {
+            v = peakVelocity - rampVelocity(t - accelTime - cruiseTime, decelTime);
+        }
+        return direction * v * 60.0 / qcPerRevolution;
+    }
+
+    /**
+     * @param nanos the time since the start of the move
+     * @return the planned position in qc, rounded
+     */
+    public int positionAt(long nanos) {
+        if (nanos >= getDurationNanos()) {
+            return target;
+        }
+        return (int) Math.round(position(nanos / 1e9));
+    }
+
+    /**
+     * Predicts when the move passes the given position.
+     *
+     * @param position a position in qc
+     * @return the time since the start of the move at which the planned
+     * position reaches {@code position}, or -1 if the move does not pass it
+     */
+    public long timeTo(int position) {
+        double d = direction * ((double) position - start);
+        if (d < 0 || d > distance) {
+            return -1;
+        }
+        if (d == distance) {
+            return getDurationNanos();
+        }
+        // The travelled distance is strictly increasing, bisect it
+        double lo = 0;
+        double hi = getDuration();
+        for (int i = 0; i < 64 && hi - lo > 1e-10; i++) {
+            double mid = (lo + hi) / 2;
+            if (travelled(mid) < d) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return (long) Math.ceil(hi * 1e9);
+    }
+
+    /**
+     * @param periodNanos the sampling period
+     * @return the number of setpoints sampling the move at the given
+     * period, including the start and the target
+     */
+    public int points(long periodNanos) {
+        return (int) ((getDurationNanos() + periodNanos - 1) / periodNanos) + 1;
+    }
+
+    /**
+     * Samples the planned position at {@code k * periodNanos}, the last
+     * sample being the target.
+     *
+     * @param out receives {@link #points(long)} positions
+     * @param off the offset of the first position
+     * @param periodNanos the sampling period
+     * @return the number of positions written
+     */
+    public int positions(int[] out, int off, long periodNanos) {
+        int n = points(periodNanos);
+        double dt = periodNanos / 1e9;
+        for (int k = 0; k < n - 1; k++) {
+            out[off + k] = (int) Math.round(position(k * dt));
+        }
+        out[off + n - 1] = target;
+        return n;
+    }
+
+    /**
+     * Samples the planned velocity at {@code k * periodNanos}, see
+     * {@link #positions(int[], int, long)}.
+     *
+     * @param out receives {@link #points(long)} velocities in rpm
+     * @return the number of velocities written
+     */
+    public int velocities(int[] out, int off, long periodNanos) {
+        int n = points(periodNanos);
+        double dt = periodNanos / 1e9;
+        for (int k = 0; k < n - 1; k++) {
+            out[off + k] = (int) Math.round(velocity(k * dt));
+        }
+        out[off + n - 1] = 0;
+        return n;
+    }
+
+    /**
+     * Returns the positions sampled at the given period, computed on the
+     * first call and kept until a different period is asked for.
+     *
+     * @param periodNanos the sampling period
+     * @return the positions, which must not be modified
+     */
+    public int[] getTable(long periodNanos) {
+        Table t = table;
+        if (t == null || t.periodNanos != periodNanos) {
+            int[] positions = new int[points(periodNanos)];
+            positions(positions, 0, periodNanos);
+            t = new Table(periodNanos, positions);
+            table = t;
+        }
+        return t.positions;
+    }
+
+    /**
+     * Queues the move into an interpolated position stream as PVT points,
+     * one per {@code periodMs}.
+     *
+     * @param streamer the streamer, which is fed from the calling thread
+     * @param periodMs the time between points, 1-255 ms
+     * @return the number of points queued, less than the whole move if the
+     * queue of the streamer filled up
+     */
+    public int push(InterpolatedPositionStreamer streamer, int periodMs) {
+        long period = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        int n = points(period);
+        int[] p = new int[n];
+        int[] v = new int[n];
+        int[] t = new int[n];
+        positions(p, 0, period);
+        velocities(v, 0, period);
+        for (int i = 1; i < n; i++) {
+            t[i] = periodMs;
+        }
+        // The first point is the start position, which the drive is at
+        return streamer.push(p, v, t, 1, n - 1);
+    }
+
+    private double travelled(double t) {
+        if (t <= 0) {
+            return 0;
+        }
+        if (t < accelTime) {
+            return rampDistance(t, accelTime);
+        }
+        t -= accelTime;
+        if (t < cruiseTime) {
+            return accelDistance + peakVelocity * t;
+        }
+        t -= cruiseTime;
+        if (t < decelTime) {
+            return accelDistance + cruiseDistance + peakVelocity * t - rampDistance(t, decelTime);
+        }
+        return distance;
+    }
+
+    /**
+     * @return the velocity gained after {@code t} of a ramp from rest to
+     * the peak velocity taking {@code ramp}
+     */
+    private double rampVelocity(double t, double ramp) {
+        if (type == SINUSOIDAL) {
+            return peakVelocity * (t / ramp - Math.sin(TWO_PI * t / ramp) / TWO_PI);
+        }
+        return peakVelocity * t / ramp;
+    }
+
+    /**
+     * @return the distance covered after {@code t} of a ramp from rest to
+     * the peak velocity taking {@code ramp}
+     */
+    private double rampDistance(double t, double ramp) {
+        if (type == SINUSOIDAL) {
+            return peakVelocity * (t * t / (2 * ramp)
+                    + (Math.cos(TWO_PI * t / ramp) - 1) * ramp / (TWO_PI * TWO_PI));
+        }
+        return peakVelocity * t * t / (2 * ramp);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d -> %d qc, peak %.0f rpm, %.1f/%.1f/%.1f ms",
+                type == SINUSOIDAL ? "sinusoidal" : "trapezoidal", start, target, getPeakVelocity(),
+                accelTime * 1e3, cruiseTime * 1e3, decelTime * 1e3);
+    }
+
+    private static class Table {
+
+        private final long periodNanos;
+        private final int[] positions;
+
+        Table(long periodNanos, int[] positions) {
+            this.periodNanos = periodNanos;
+            this.positions = positions;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.motion;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.EPOS2Objects;
+import ch.dermitza.epos2.ObjectBatch;
+import ch.dermitza.epos2.ObjectEntry;
+import ch.dermitza.epos2.io.SDOResult;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Plans Profile Position Mode moves on the host, so that the position of
+ * an axis during a move is known without reading it from the drive.
+ *
+ * {@link #plan(EPOS2, int, boolean)} reads the actual position, the
+ * profile parameters, the motion profile type and the encoder resolution
+ * of a drive and returns the {@link MotionProfile} the drive will follow
+ * for the given target. The plan holds as long as the move is started from
+ * rest and the parameters are not changed during the move.
+ *
+ * With the start time of a move, {@link #at(MotionProfile, long, int, Runnable)}
+ * runs an action when the axis passes a given position, e.g. to trigger
+ * I/O or start a dependent axis, without polling the drive. The
+ * parameters of several axes are read in one {@link ObjectBatch} by
+ * {@link #planAll(EPOS2[], int[], boolean)}, and their setpoint tables
+ * are computed in parallel by {@link #tables(MotionProfile[], long)}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class ProfilePlanner {
+
+    private static final ObjectEntry<?>[] PARAMETERS = {
+        EPOS2Objects.POSITION_ACTUAL,
+        EPOS2Objects.PROFILE_VELOCITY,
+        EPOS2Objects.PROFILE_ACCELERATION,
+        EPOS2Objects.PROFILE_DECELERATION,
+        EPOS2Objects.MOTION_PROFILE_TYPE,
+        EPOS2Objects.ENCODER_PULSE_NUMBER
+    };
+    private static ScheduledExecutorService sharedScheduler;
+    private final ScheduledExecutorService scheduler;
+
+    public ProfilePlanner() {
+        this(sharedScheduler());
+    }
+
+    /**
+     * @param scheduler runs the actions registered through
+     * {@link #at(MotionProfile, long, int, Runnable)}
+     */
+    public ProfilePlanner(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Plans a move of the given drive from its actual position.
+     *
+     * @param epos the drive, at rest
+     * @param target the target position in qc
+     * @param absolute true for an absolute, false for a relative target
+     * @return the plan, or null if a parameter could not be read
+     */
+    public MotionProfile plan(EPOS2 epos, int target, boolean absolute) {
+        long[] v = new long[PARAMETERS.length];
+        for (int i = 0; i < PARAMETERS.length; i++) {
+            SDOResult r = epos.readResult(PARAMETERS[i]);
+            if (!r.isOk()) {
+                return null;
+            }
+            v[i] = PARAMETERS[i].decode(r.getValue());
+        }
+        return plan(v, 0, target, absolute);
+    }
+
+    /**
+     * Plans a move of every drive at the same time. The parameters are read
+     * in one {@link ObjectBatch}, so the SDOs of different nodes are in
+     * flight at the same time.
+     *
+     * @param drives the drives, at rest, on EPOS2Transceivers
+     * @param targets the target position of every drive in qc
+     * @param absolute true for absolute, false for relative targets
+     * @return the plan of every drive, null where a parameter could not be
+     * read
+     */
+    public MotionProfile[] planAll(EPOS2[] drives, int[] targets, boolean absolute) {
+        ObjectBatch batch = new ObjectBatch(drives, PARAMETERS);
+        batch.read();
+        long[] v = batch.getValues();
+        MotionProfile[] plans = new MotionProfile[drives.length];
+        for (int d = 0; d < drives.length; d++) {
+            boolean ok = true;
+            for (int e = 0; e < PARAMETERS.length; e++) {
+                ok &= batch.isValid(d, e);
+            }
+            plans[d] = ok ? plan(v, d * PARAMETERS.length, targets[d], absolute) : null;
+        }
+        return plans;
+    }
+
+    /**
+     * @param v the decoded values of {@link #PARAMETERS}, starting at
+     * {@code off}, all read successfully
+     * @return the plan, or null if the profile parameters are not usable
+     */
+    private static MotionProfile plan(long[] v, int off, int target, boolean absolute) {
+        int position = (int) v[off];
+        long velocity = v[off + 1];
+        long acceleration = v[off + 2];
+        long deceleration = v[off + 3];
+        long type = v[off + 4];
+        long pulses = v[off + 5];
+        if (!usable(velocity) || !usable(acceleration) || !usable(deceleration) || !usable(pulses)) {
+            return null;
+        }
+        return new MotionProfile(type == MotionProfile.SINUSOIDAL ? MotionProfile.SINUSOIDAL
+                : MotionProfile.TRAPEZOIDAL, position, absolute ? target : position + target,
+                (int) velocity, (int) acceleration, (int) deceleration, 4.0 * pulses);
+    }
+
+    private static boolean usable(long value) {
+        return value > 0 && value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Computes the setpoint tables of several moves in parallel, see
+     * {@link MotionProfile#getTable(long)}.
+     *
+     * @param profiles the moves, null entries are skipped
+     * @param periodNanos the sampling period
+     * @return the positions of every move, null for null entries
+     */
+    public static int[][] tables(final MotionProfile[] profiles, final long periodNanos) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<int[]>[] f = new CompletableFuture[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            final MotionProfile p = profiles[i];
+            f[i] = p == null ? CompletableFuture.completedFuture((int[]) null)
+                    : CompletableFuture.supplyAsync(new Supplier<int[]>() {
+                        @Override
+                        public int[] get() {
+                            return p.getTable(periodNanos);
+                        }
+                    });
+        }
+        int[][] tables = new int[profiles.length][];
+        for (int i = 0; i < profiles.length; i++) {
+            tables[i] = f[i].join();
+        }
+        return tables;
+    }
+
+    /**
+     * Runs an action when a move passes the given position.
+     *
+     * @param profile the move
+     * @param startNanos the {@link System#nanoTime()} at which the move
+     * started, e.g. when the drive acknowledged the new setpoint
+     * @param position the position in qc
+     * @param action the action
+     * @return the scheduled action, or null if the move does not pass the
+     * position
+     */
+    public ScheduledFuture<?> at(MotionProfile profile, long startNanos, int position, Runnable action) {
+        long t = profile.timeTo(position);
+        if (t < 0) {
+            return null;
+        }
+        return scheduler.schedule(action, startNanos + t - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService sharedScheduler() {
+        if (sharedScheduler == null) {
+            ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "EPOS2 position events");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MAX_PRIORITY);
+                    return t;
+                }
+            });
+            s.setRemoveOnCancelPolicy(true);
+            sharedScheduler = s;
+        }
+        return sharedScheduler;
+    }
+}
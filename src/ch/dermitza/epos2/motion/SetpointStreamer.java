@@ -0,0 +1,272 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.motion;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.util.JitterStatistics;
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams a setpoint to an EPOS2 at a fixed period through an unconfirmed
+ * RPDO, for control loops running at 1 kHz and beyond where one confirmed
+ * SDO per setpoint is far too slow.
+ *
+ * The setpoint object is mapped onto the given RPDO by
+ * {@link #configure()}. A dedicated thread then sends one frame per period,
+ * sleeping until shortly before each deadline and spinning for the rest,
+ * like the {@link ch.dermitza.epos2.io.SyncProducer}. Each frame carries
+ * either the latest value passed to {@link #setSetpoint(int)} or the value
+ * returned by a {@link SetpointSource}. The timing of every cycle is
+ * recorded in a {@link JitterStatistics}.
+ *
+ * {@link #setSetpoint(int)} never blocks: the value is handed over through
+ * a single slot holding the setpoint together with a sequence number. A
+ * setpoint replaced before the next cycle is coalesced, only the latest
+ * one goes to the drive. When no new setpoint arrives the previous one is
+ * sent again.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SetpointStreamer implements Runnable {
+
+    private static final long SPIN_NANOS = 100000L;
+    private final EPOS2 epos;
+    private final int rpdo;
+    private final short index;
+    private final int bits;
+    private final CanMessage frame = new CanMessage();
+    private final JitterStatistics statistics = new JitterStatistics();
+    private EPOS2Transceiver trans;
+    private volatile long periodNanos;
+    private final AtomicLong slot = new AtomicLong();
+    private volatile SetpointSource source;
+    private volatile boolean running;
+    private volatile long failures;
+    private volatile long fresh;
+    private volatile long coalesced;
+    private Thread thread;
+
+    /**
+     * @param epos the drive
+     * @param rpdo the zero-based RPDO to use
+     * @param index the setpoint object, mapped with subindex 0
+     * @param bits the size of the setpoint object, 8, 16 or 32
+     * @param periodNanos the streaming period
+     */
+    public SetpointStreamer(EPOS2 epos, int rpdo, short index, int bits, long periodNanos) {
+        this.epos = epos;
+        this.rpdo = rpdo;
+        this.index = index;
+        this.bits = bits;
+        this.periodNanos = periodNanos;
+    }
+
+    /**
+     * Creates a streamer for the current mode setpoint (0x2030), in mA.
+     */
+    public static SetpointStreamer current(EPOS2 epos, int rpdo, long periodNanos) {
+        return new SetpointStreamer(epos, rpdo, EPOS2.OBJ_CURRENT_MODE_SETTING_VALUE, 16, periodNanos);
+    }
+
+    /**
+     * Creates a streamer for the velocity mode setpoint (0x206B), in rpm.
+     */
+    public static SetpointStreamer velocity(EPOS2 epos, int rpdo, long periodNanos) {
+        return new SetpointStreamer(epos, rpdo, EPOS2.OBJ_VELOCITY_MODE_SETTING_VALUE, 32, periodNanos);
+    }
+
+    /**
+     * Maps the setpoint onto the RPDO and starts the node.
+     *
+     * @return true if the drive accepted the configuration
+     */
+    public boolean configure() {
+        if (!(epos.getTranceiver() instanceof EPOS2Transceiver)) {
+            throw new IllegalStateException("Setpoint streaming requires an EPOS2Transceiver");
+        }
+        trans = (EPOS2Transceiver) epos.getTranceiver();
+        frame.setMessage(EPOS2Transceiver.COB_RPDO1 + (rpdo << 8) + epos.getNodeID(), new byte[bits / 8], 0,
+                false, false, false, false);
+        return epos.configureRPDO(rpdo, EPOS2.PDO_TRANSMISSION_ASYNC, EPOS2.pdoMapping(index, bits))
+                && epos.sendNMT(EPOS2Transceiver.NMT_START);
+    }
+
+    public synchronized void start() {
+        if (trans == null) {
+            throw new IllegalStateException("Setpoint streamer is not configured");
+        }
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "EPOS2 setpoint " + epos.getNodeID());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops streaming and sends a final zero setpoint, so that the drive
+     * does not keep acting on the last one.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t == null) {
+            return;
+        }
+        LockSupport.unpark(t);
+        try {
+            t.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        setSetpoint(0);
+        send(0);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        long last = 0;
+        long cycle = 0;
+        long seq = slot.get() >>> 32;
+        while (running) {
+            long now = System.nanoTime();
+            long left = next - now;
+            if (left > SPIN_NANOS) {
+                LockSupport.parkNanos(left - SPIN_NANOS);
+                continue;
+            }
+            while (left > 0) {
+                now = System.nanoTime();
+                left = next - now;
+            }
+            long period = periodNanos;
+            SetpointSource s = source;
+            if (s != null) {
+                send(s.setpoint(cycle, now));
+            } else {
+                long v = slot.get();
+                long n = v >>> 32;
+                if (n != seq) {
+                    fresh++;
+                    coalesced += ((n - seq) & 0xFFFFFFFFL) - 1;
+                    seq = n;
+                }
+                send((int) v);
+            }
+            statistics.record(-left, last == 0 ? 0 : now - last, period);
+            last = now;
+            cycle++;
+            next += period;
+            now = System.nanoTime();
+            if (now - next > period) {
+                statistics.recordMissed((now - next) / period);
+                next = now + period;
+            }
+        }
+    }
+
+    private void send(int value) {
+        byte[] d = frame.getData();
+        for (int i = 0; i < d.length; i++) {
+            d[i] = (byte) (value >>> (i << 3));
+        }
+        if (!trans.writeFrame(frame)) {
+            failures++;
+        }
+    }
+
+    /**
+     * Sets the value sent from the next cycle on, unless a
+     * {@link SetpointSource} is installed. May be called from any thread.
+     */
+    public void setSetpoint(int setpoint) {
+        long v;
+        do {
+            v = slot.get();
+        } while (!slot.compareAndSet(v, ((v >>> 32) + 1 << 32) | (setpoint & 0xFFFFFFFFL)));
+    }
+
+    public int getSetpoint() {
+        return (int) slot.get();
+    }
+
+    /**
+     * @return the number of setpoints handed over through
+     * {@link #setSetpoint(int)}, including the final zero of {@link #stop()}
+     */
+    public long getOffered() {
+        return slot.get() >>> 32;
+    }
+
+    /**
+     * @return the number of cycles that sent a new setpoint
+     */
+    public long getFresh() {
+        return fresh;
+    }
+
+    /**
+     * @return the number of setpoints replaced before they could be sent
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @param source the source queried every cycle, or null to send the
+     * value of {@link #setSetpoint(int)}
+     */
+    public void setSource(SetpointSource source) {
+        this.source = source;
+    }
+
+    public void setPeriod(long periodNanos) {
+        this.periodNanos = periodNanos;
+    }
+
+    public long getPeriod() {
+        return periodNanos;
+    }
+
+    public JitterStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the number of frames the CAN device did not accept
+     */
+    public long getWriteFailures() {
+        return failures;
+    }
+}
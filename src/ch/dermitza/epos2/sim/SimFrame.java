@@ -0,0 +1,52 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.sim;
+
+/**
+ * A frame travelling on a {@link VirtualCanBus}. Frames are immutable once
+ * handed to the bus and are shared between all receivers.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+final class SimFrame {
+
+    final int id;
+    final byte[] data;
+    final Object source;
+    long seq;
+    long time;
+
+    SimFrame(int id, byte[] data, Object source) {
+        this.id = id;
+        this.data = data;
+        this.source = source;
+    }
+
+    /**
+     * Number of bits an 11-bit identifier data frame occupies on the bus,
+     * including worst-case bit stuffing and the interframe space.
+     *
+     * @param dlc the number of data bytes
+     * @return the frame length in bits
+     */
+    static int bits(int dlc) {
+        return 47 + 8 * dlc + (34 + 8 * dlc - 1) / 4;
+    }
+}
@@ -0,0 +1,1146 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.sim;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.StatusWord;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.motion.InterpolatedPositionStreamer;
+import ch.dermitza.jcanopen.canopen.SDOIF;
+import java.util.HashMap;
+
+/**
+ * Simulated EPOS2 drive attached to a {@link VirtualCanBus}.
+ *
+ * The node implements the parts of the drive JEPOS talks to:
+ * <ul>
+ * <li>an expedited SDO server over the object dictionary entries used by
+ * {@link EPOS2}, answering unknown objects and read-only writes with the
+ * corresponding abort codes</li>
+ * <li>the DS402 state machine, driven by the controlword and reported in
+ * the statusword with the EPOS2 specific bits</li>
+ * <li>profile position, profile velocity, velocity, position, current,
+ * homing and interpolated position mode, with trapezoidal motion
+ * dynamics</li>
+ * <li>NMT, boot-up and heartbeat, EMCY on faults, and configurable
+ * synchronous and asynchronous TPDOs and RPDOs</li>
+ * </ul>
+ *
+ * Segmented SDO transfers are not supported and are aborted. All node
+ * state is guarded by the node monitor; the bus thread updates it, and
+ * the public accessors may be called from any thread.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class SimulatedEPOS2 {
+
+    public static final int NMT_BOOT_UP = 0x00;
+    public static final int NMT_STOPPED = 0x04;
+    public static final int NMT_OPERATIONAL = 0x05;
+    public static final int NMT_PRE_OPERATIONAL = 0x7F;
+    public static final int ABORT_COMMAND_SPECIFIER = 0x05040001;
+    public static final int ABORT_WRITE_ONLY = 0x06010001;
+    public static final int ABORT_READ_ONLY = 0x06010002;
+    public static final int ABORT_NO_OBJECT = 0x06020000;
+    public static final int ABORT_LENGTH = 0x06070010;
+    public static final int ABORT_NO_SUBINDEX = 0x06090011;
+    public static final int ABORT_DEVICE_STATE = 0x08000022;
+    public static final int ERROR_GENERIC = 0x1000;
+    public static final int ERROR_OVER_CURRENT = 0x2310;
+    public static final int ERROR_FOLLOWING = 0x8611;
+    public static final long DEFAULT_TICK_NANOS = 1000000L;
+    public static final long DEFAULT_RESPONSE_DELAY_NANOS = 200000L;
+    public static final int IPM_BUFFER_SIZE = 64;
+    public static final int PDO_COUNT = 4;
+    public static final short OBJ_ERROR_REGISTER = 0x1001;
+    public static final short OBJ_ERROR_HISTORY = 0x1003;
+    public static final short OBJ_HEARTBEAT_PRODUCER = 0x1017;
+    public static final short OBJ_CURRENT_MODE_SETTING_VALUE = 0x2030;
+    public static final short OBJ_POSITION_MODE_SETTING_VALUE = 0x2062;
+    public static final short OBJ_HOME_POSITION = 0x2081;
+    public static final short OBJ_ENCODER_PULSE_NUMBER = 0x2210;
+    public static final short OBJ_HOME_OFFSET = 0x607C;
+    public static final short OBJ_MAX_PROFILE_VELOCITY = 0x607F;
+    public static final short OBJ_QUICKSTOP_DECELERATION = 0x6085;
+    public static final short OBJ_HOMING_METHOD = 0x6098;
+    public static final short OBJ_HOMING_SPEEDS = 0x6099;
+    public static final short OBJ_HOMING_ACCELERATION = 0x609A;
+    public static final short OBJ_TARGET_VELOCITY = 0x60FF;
+    public static final byte OPMODE_CURRENT = -3;
+    private static final int RO = 1;
+    private static final int WO = 2;
+    private static final int RW = 3;
+    private static final int SIGNED = 4;
+    private static final int ERROR_HISTORY_SIZE = 5;
+    private static final double CURRENT_PER_ACCELERATION = 0.002;
+    private static final double CURRENT_PER_VELOCITY = 0.005;
+    private static final double AVERAGE_FILTER = 0.1;
+    private final short nodeID;
+    private final HashMap<Integer, Entry> od = new HashMap<Integer, Entry>();
+    private VirtualCanBus bus;
+    private final Runnable tickTask = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private long tickNanos = DEFAULT_TICK_NANOS;
+    private long responseDelayNanos = DEFAULT_RESPONSE_DELAY_NANOS;
+    private long nextTick;
+    private long lastHeartbeat;
+    private boolean powered;
+    private int nmtState = NMT_BOOT_UP;
+    private int state = EPOS2.ST_START;
+    private int controlword;
+    private boolean targetReached = true;
+    private boolean setpointAck;
+    private boolean homingActive;
+    private boolean homingAttained;
+    private boolean ipActive;
+    private int faultReactionTicks;
+    // Motion state, position in qc and velocity in qc/s
+    private double position;
+    private double velocity;
+    private double averageVelocity;
+    private double current;
+    private double targetPosition;
+    private boolean positionMove;
+    // Interpolation buffer and current segment
+    private final long[] ipBuffer = new long[IPM_BUFFER_SIZE];
+    private int ipHead;
+    private int ipSize;
+    private boolean ipEnabled;
+    private int ipStatus;
+    private double segStart;
+    private double segEnd;
+    private long segNanos;
+    private long segElapsed;
+    // PDO communication state
+    private final byte[][] lastTpdo = new byte[PDO_COUNT][];
+    private final long[] lastTpdoTime = new long[PDO_COUNT];
+    private final int[] syncCount = new int[PDO_COUNT];
+    private final byte[][] syncRpdo = new byte[PDO_COUNT][];
+    private long sdoRequests;
+    private long syncs;
+
+    public SimulatedEPOS2(short nodeID) {
+        this.nodeID = nodeID;
+        loadDefaults(true);
+    }
+
+    public short getNodeID() {
+        return nodeID;
+    }
+
+    void attach(VirtualCanBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Sets the time the node takes to answer an SDO request, measured from
+     * the reception of the request.
+     */
+    public synchronized void setResponseDelay(long nanos) {
+        this.responseDelayNanos = nanos;
+    }
+
+    public synchronized long getResponseDelay() {
+        return responseDelayNanos;
+    }
+
+    /**
+     * Sets the control cycle of the simulated drive, at which the motion is
+     * integrated and asynchronous TPDOs and heartbeats are produced.
+     */
+    public synchronized void setTickPeriod(long nanos) {
+        this.tickNanos = nanos;
+    }
+
+    public synchronized long getTickPeriod() {
+        return tickNanos;
+    }
+
+    /**
+     * Boots the node: sends the boot-up message, enters pre-operational
+     * and starts the control cycle. Called by the bus when it starts.
+     */
+    synchronized void powerOn() {
+        if (powered) {
+            return;
+        }
+        powered = true;
+        boot();
+        nextTick = System.nanoTime() + tickNanos;
+        bus.schedule(nextTick, tickTask);
+    }
+
+    /**
+     * Puts the drive into the fault state, as if the given error had been
+     * detected, and sends the corresponding EMCY.
+     *
+     * @param errorCode the CANopen error code, e.g. {@link #ERROR_FOLLOWING}
+     */
+    public synchronized void injectFault(int errorCode) {
+        if (state == EPOS2.ST_FAULT || state == EPOS2.ST_QUICK_STOP_ACTIVE_ENABLE) {
+            return;
+        }
+        Entry history = od.get(key(OBJ_ERROR_HISTORY, 0));
+        for (int i = ERROR_HISTORY_SIZE; i > 1; i--) {
+            od.get(key(OBJ_ERROR_HISTORY, i)).value = od.get(key(OBJ_ERROR_HISTORY, i - 1)).value;
+        }
+        od.get(key(OBJ_ERROR_HISTORY, 1)).value = errorCode & 0xFFFF;
+        history.value = Math.min(history.value + 1, ERROR_HISTORY_SIZE);
+        od.get(key(OBJ_ERROR_REGISTER, 0)).value = 0x01;
+        if (state == EPOS2.ST_OPERATION_ENABLE || state == EPOS2.ST_QUICK_STOP) {
+            state = EPOS2.ST_QUICK_STOP_ACTIVE_ENABLE;
+            faultReactionTicks = 1;
+        } else {
+            state = EPOS2.ST_FAULT;
+            stopMotion();
+        }
+        emcy(errorCode, 0x01);
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    public synchronized int getNMTState() {
+        return nmtState;
+    }
+
+    public synchronized int getStatusWord() {
+        return statusWord();
+    }
+
+    public synchronized int getPositionActual() {
+        return (int) Math.round(position);
+    }
+
+    public synchronized int getVelocityActual() {
+        return toRpm(velocity);
+    }
+
+    public synchronized byte getOperationMode() {
+        return (byte) od.get(key(EPOS2.OBJ_OPERATION_MODES, 0)).value;
+    }
+
+    /**
+     * @return the number of SDO requests served since power on
+     */
+    public synchronized long getSDORequests() {
+        return sdoRequests;
+    }
+
+    /**
+     * @return the number of SYNC frames received since power on
+     */
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Reads an object directly, bypassing the bus.
+     *
+     * @return the object value, or 0 if the object does not exist
+     */
+    public synchronized int getObject(short index, int subIndex) {
+        publish();
+        Entry e = od.get(key(index, subIndex));
+        return e == null ? 0 : e.value;
+    }
+
+    /**
+     * Writes an object directly, bypassing the bus and access checks. Side
+     * effects such as state transitions take place as for an SDO write.
+     */
+    public synchronized void setObject(short index, int subIndex, int value) {
+        Entry e = od.get(key(index, subIndex));
+        if (e != null) {
+            write(index, subIndex, e, value);
+        }
+    }
+
+    synchronized void receive(SimFrame f, long now) {
+        if (!powered) {
+            return;
+        }
+        int id = f.id;
+        if (id == EPOS2Transceiver.COB_NMT) {
+            if (f.data.length >= 2 && ((f.data[1] & 0xFF) == 0 || (f.data[1] & 0xFF) == nodeID)) {
+                nmt(f.data[0]);
+            }
+        } else if (id == EPOS2Transceiver.COB_SYNC) {
+            sync(now);
+        } else if (id == SDOIF.SDO_RX + nodeID) {
+            if (nmtState != NMT_STOPPED && f.data.length == 8) {
+                sdo(f.data, now);
+            }
+        } else if (nmtState == NMT_OPERATIONAL) {
+            for (int i = 0; i < PDO_COUNT; i++) {
+                int cob = od.get(key(EPOS2.OBJ_RPDO_PARAMS + i, 1)).value;
+                if ((cob & 0x80000000) == 0 && (cob & 0x7FF) == id) {
+                    int type = od.get(key(EPOS2.OBJ_RPDO_PARAMS + i, 2)).value;
+                    if (type <= 240) {
+                        syncRpdo[i] = f.data;
+                    } else {
+                        applyRPDO(i, f.data);
+                    }
+                }
+            }
+        }
+    }
+
+    private void nmt(byte command) {
+        switch (command) {
+            case EPOS2Transceiver.NMT_START:
+                nmtState = NMT_OPERATIONAL;
+                break;
+            case EPOS2Transceiver.NMT_STOP:
+                nmtState = NMT_STOPPED;
+                break;
+            case EPOS2Transceiver.NMT_PRE_OPERATIONAL:
+                nmtState = NMT_PRE_OPERATIONAL;
+                break;
+            case EPOS2Transceiver.NMT_RESET_NODE:
+                loadDefaults(true);
+                boot();
+                break;
+            case EPOS2Transceiver.NMT_RESET_COMMUNICATION:
+                loadDefaults(false);
+                boot();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void boot() {
+        nmtState = NMT_BOOT_UP;
+        send(EPOS2Transceiver.COB_HEARTBEAT + nodeID, new byte[]{0});
+        nmtState = NMT_PRE_OPERATIONAL;
+        if (state == EPOS2.ST_START) {
+            state = EPOS2.ST_SWITCH_ON_DISABLED;
+        }
+        for (int i = 0; i < PDO_COUNT; i++) {
+            lastTpdo[i] = null;
+            syncCount[i] = 0;
+            syncRpdo[i] = null;
+        }
+        lastHeartbeat = System.nanoTime();
+    }
+
+    private void sdo(byte[] req, long now) {
+        sdoRequests++;
+        int ccd = req[0] & 0xFF;
+        int index = (req[1] & 0xFF) | ((req[2] & 0xFF) << 8);
+        int sub = req[3] & 0xFF;
+        byte[] rsp = new byte[8];
+        rsp[1] = req[1];
+        rsp[2] = req[2];
+        rsp[3] = req[3];
+        int abort = 0;
+        Entry e = od.get(key(index, sub));
+        switch (ccd >> 5) {
+            case 1:
+                // Initiate download, expedited only
+                if ((ccd & 0x02) == 0) {
+                    abort = ABORT_COMMAND_SPECIFIER;
+                } else if (e == null) {
+                    abort = od.containsKey(key(index, 0)) ? ABORT_NO_SUBINDEX : ABORT_NO_OBJECT;
+                } else if ((e.access & WO) == 0) {
+                    abort = ABORT_READ_ONLY;
+                } else {
+                    int size = (ccd & 0x01) != 0 ? 4 - ((ccd >> 2) & 0x03) : 4;
+                    if (size != e.size && (ccd & 0x01) != 0) {
+                        abort = ABORT_LENGTH;
+                    } else {
+                        int value = 0;
+                        for (int i = size - 1; i >= 0; i--) {
+                            value = (value << 8) | (req[4 + i] & 0xFF);
+                        }
+                        abort = write(index, sub, e, e.extend(value));
+                        if (abort == 0) {
+                            rsp[0] = (byte) SDOIF.SDO_RESPONSE_WRITE_OK;
+                        }
+                    }
+                }
+                break;
+            case 2:
+                // Initiate upload
+                if (e == null) {
+                    abort = od.containsKey(key(index, 0)) ? ABORT_NO_SUBINDEX : ABORT_NO_OBJECT;
+                } else if ((e.access & RO) == 0) {
+                    abort = ABORT_WRITE_ONLY;
+                } else if (e.size > 4) {
+                    abort = ABORT_LENGTH;
+                } else {
+                    publish();
+                    rsp[0] = (byte) (SDOIF.SDO_RESPONSE_READ_OK | 0x03 | ((4 - e.size) << 2));
+                    for (int i = 0; i < e.size; i++) {
+                        rsp[4 + i] = (byte) (e.value >> (8 * i));
+                    }
+                }
+                break;
+            case 4:
+                // Abort from the client, nothing to answer
+                return;
+            default:
+                abort = ABORT_COMMAND_SPECIFIER;
+                break;
+        }
+        if (abort != 0) {
+            rsp[0] = (byte) SDOIF.SDO_RESPONSE_ERROR;
+            for (int i = 0; i < 4; i++) {
+                rsp[4 + i] = (byte) (abort >> (8 * i));
+            }
+        }
+        sendAt(now + responseDelayNanos, SDOIF.SDO_TX + nodeID, rsp);
+    }
+
+    /**
+     * Stores a value and applies its side effects.
+     *
+     * @return 0, or the abort code if the drive refuses the value
+     */
+    private int write(int index, int sub, Entry e, int value) {
+        switch (index) {
+            case EPOS2.OBJ_CONTROLWORD:
+                e.value = value & 0xFFFF;
+                control(value & 0xFFFF);
+                return 0;
+            case EPOS2.OBJ_OPERATION_MODES:
+                if (state == EPOS2.ST_OPERATION_ENABLE && (byte) value != (byte) e.value) {
+                    stopMotion();
+                }
+                e.value = (byte) value;
+                od.get(key(EPOS2.OBJ_OPERATION_DISPLAY_MODES, 0)).value = (byte) value;
+                ipActive = false;
+                homingActive = false;
+                targetReached = true;
+                return 0;
+            case EPOS2.OBJ_INTERPOLATION_DATA_CONFIG:
+                e.value = value;
+                if (sub == EPOS2.OBJ_IPM_BUFFER_CLEAR_SUBIDX) {
+                    ipHead = 0;
+                    ipSize = 0;
+                    ipEnabled = value != 0;
+                    ipStatus = 0;
+                }
+                return 0;
+            default:
+                e.value = value;
+                return 0;
+        }
+    }
+
+    private void control(int cw) {
+        int prev = controlword;
+        controlword = cw;
+        boolean disableVoltage = (cw & 0x82) == 0x00;
+        boolean quickStop = (cw & 0x86) == 0x02;
+        boolean shutdown = (cw & 0x87) == 0x06;
+        boolean switchOn = (cw & 0x8F) == 0x07;
+        boolean enableOperation = (cw & 0x8F) == 0x0F;
+        switch (state) {
+            case EPOS2.ST_FAULT:
+                if ((cw & 0x80) != 0 && (prev & 0x80) == 0) {
+                    state = EPOS2.ST_SWITCH_ON_DISABLED;
+                    od.get(key(OBJ_ERROR_REGISTER, 0)).value = 0;
+                    emcy(0, 0);
+                }
+                return;
+            case EPOS2.ST_SWITCH_ON_DISABLED:
+                if (shutdown) {
+                    state = EPOS2.ST_READY_TO_SWITCH_ON;
+                }
+                return;
+            case EPOS2.ST_READY_TO_SWITCH_ON:
+                if (disableVoltage || quickStop) {
+                    state = EPOS2.ST_SWITCH_ON_DISABLED;
+                } else if (switchOn) {
+                    state = EPOS2.ST_SWITCH_ON;
+                } else if (enableOperation) {
+                    enterOperationEnable();
+                }
+                return;
+            case EPOS2.ST_SWITCH_ON:
+                if (disableVoltage || quickStop) {
+                    state = EPOS2.ST_SWITCH_ON_DISABLED;
+                } else if (shutdown) {
+                    state = EPOS2.ST_READY_TO_SWITCH_ON;
+                } else if (enableOperation) {
+                    enterOperationEnable();
+                }
+                return;
+            case EPOS2.ST_OPERATION_ENABLE:
+                if (disableVoltage) {
+                    state = EPOS2.ST_SWITCH_ON_DISABLED;
+                    stopMotion();
+                } else if (quickStop) {
+                    state = EPOS2.ST_QUICK_STOP;
+                    positionMove = false;
+                    homingActive = false;
+                    ipActive = false;
+                } else if (shutdown) {
+                    state = EPOS2.ST_READY_TO_SWITCH_ON;
+                    stopMotion();
+                } else if (switchOn) {
+                    state = EPOS2.ST_SWITCH_ON;
+                    stopMotion();
+                } else {
+                    modeControl(prev, cw);
+                }
+                return;
+            case EPOS2.ST_QUICK_STOP:
+                if (disableVoltage) {
+                    state = EPOS2.ST_SWITCH_ON_DISABLED;
+                    stopMotion();
+                } else if (enableOperation) {
+                    enterOperationEnable();
+                }
+                return;
+            default:
+                return;
+        }
+    }
+
+    private void enterOperationEnable() {
+        state = EPOS2.ST_OPERATION_ENABLE;
+        targetPosition = position;
+        targetReached = true;
+        positionMove = false;
+    }
+
+    /**
+     * Handles the operation mode specific controlword bits while the
+     * operation is enabled.
+     */
+    private void modeControl(int prev, int cw) {
+        boolean rising = (cw & 0x10) != 0 && (prev & 0x10) == 0;
+        switch ((byte) od.get(key(EPOS2.OBJ_OPERATION_MODES, 0)).value) {
+            case EPOS2.OPMODE_PROFILE_POSITION:
+                if (rising) {
+                    int target = od.get(key(EPOS2.OBJ_TARGET_PROFILE_POSITION, 0)).value;
+                    targetPosition = (cw & 0x40) != 0 ? targetPosition + target : target;
+                    positionMove = true;
+                    targetReached = false;
+                    setpointAck = true;
+                } else if ((cw & 0x10) == 0) {
+                    setpointAck = false;
+                }
+                break;
+            case EPOS2.OPMODE_HOMING:
+                if (rising) {
+                    homingActive = true;
+                    homingAttained = false;
+                    targetReached = false;
+                } else if ((cw & 0x10) == 0 && homingActive) {
+                    homingActive = false;
+                    targetReached = true;
+                }
+                break;
+            case EPOS2.OPMODE_INTERPOLATED_PROFILE_POSITION:
+                if (rising) {
+                    ipActive = true;
+                    targetReached = false;
+                    segElapsed = segNanos = 0;
+                    segEnd = position;
+                } else if ((cw & 0x10) == 0) {
+                    ipActive = false;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void sync(long now) {
+        syncs++;
+        if (nmtState != NMT_OPERATIONAL) {
+            return;
+        }
+        for (int i = 0; i < PDO_COUNT; i++) {
+            if (syncRpdo[i] != null) {
+                applyRPDO(i, syncRpdo[i]);
+                syncRpdo[i] = null;
+            }
+        }
+        publish();
+        for (int i = 0; i < PDO_COUNT; i++) {
+            int cob = od.get(key(EPOS2.OBJ_TPDO_PARAMS + i, 1)).value;
+            int type = od.get(key(EPOS2.OBJ_TPDO_PARAMS + i, 2)).value;
+            if ((cob & 0x80000000) != 0 || type > 240) {
+                continue;
+            }
+            byte[] data = buildTPDO(i);
+            if (type == 0) {
+                if (!equal(data, lastTpdo[i])) {
+                    sendTPDO(i, cob, data, now);
+                }
+            } else if (++syncCount[i] >= type) {
+                syncCount[i] = 0;
+                sendTPDO(i, cob, data, now);
+            }
+        }
+    }
+
+    private void tick() {
+        long now;
+        synchronized (this) {
+            now = System.nanoTime();
+            integrate(tickNanos);
+            if (nmtState == NMT_OPERATIONAL) {
+                publish();
+                for (int i = 0; i < PDO_COUNT; i++) {
+                    int cob = od.get(key(EPOS2.OBJ_TPDO_PARAMS + i, 1)).value;
+                    int type = od.get(key(EPOS2.OBJ_TPDO_PARAMS + i, 2)).value;
+                    if ((cob & 0x80000000) != 0 || type < 254) {
+                        continue;
+                    }
+                    long inhibit = od.get(key(EPOS2.OBJ_TPDO_PARAMS + i, 3)).value * 100000L;
+                    if (lastTpdo[i] != null && now - lastTpdoTime[i] < inhibit) {
+                        continue;
+                    }
+                    byte[] data = buildTPDO(i);
+                    if (!equal(data, lastTpdo[i])) {
+                        sendTPDO(i, cob, data, now);
+                    }
+                }
+            }
+            long heartbeat = od.get(key(OBJ_HEARTBEAT_PRODUCER, 0)).value * 1000000L;
+            if (heartbeat > 0 && now - lastHeartbeat >= heartbeat) {
+                lastHeartbeat = now;
+                send(EPOS2Transceiver.COB_HEARTBEAT + nodeID, new byte[]{(byte) nmtState});
+            }
+            nextTick += tickNanos;
+            if (nextTick < now) {
+                nextTick = now + tickNanos;
+            }
+        }
+        bus.schedule(nextTick, tickTask);
+    }
+
+    /**
+     * Advances the motion of the drive by one control cycle.
+     */
+    private void integrate(long dtNanos) {
+        double dt = dtNanos / 1e9;
+        double v0 = velocity;
+        byte mode = (byte) od.get(key(EPOS2.OBJ_OPERATION_MODES, 0)).value;
+        boolean halt = (controlword & 0x100) != 0;
+        if (state == EPOS2.ST_QUICK_STOP_ACTIVE_ENABLE) {
+            ramp(0, param(OBJ_QUICKSTOP_DECELERATION), param(OBJ_QUICKSTOP_DECELERATION), dt);
+            if (--faultReactionTicks < 0 && velocity == 0) {
+                state = EPOS2.ST_FAULT;
+                stopMotion();
+            }
+        } else if (state == EPOS2.ST_QUICK_STOP) {
+            ramp(0, param(OBJ_QUICKSTOP_DECELERATION), param(OBJ_QUICKSTOP_DECELERATION), dt);
+            if (velocity == 0) {
+                state = EPOS2.ST_SWITCH_ON_DISABLED;
+            }
+        } else if (state != EPOS2.ST_OPERATION_ENABLE) {
+            velocity = 0;
+        } else if (halt && mode != OPMODE_CURRENT) {
+            ramp(0, param(EPOS2.OBJ_PROFILE_DECELERATION), param(EPOS2.OBJ_PROFILE_DECELERATION), dt);
+            if (velocity == 0) {
+                targetReached = true;
+                positionMove = false;
+                homingActive = false;
+            }
+        } else {
+            switch (mode) {
+                case EPOS2.OPMODE_PROFILE_POSITION:
+                    if (positionMove) {
+                        moveTo(targetPosition, toQcPerSecond(param(EPOS2.OBJ_PROFILE_VELOCITY)),
+                                param(EPOS2.OBJ_PROFILE_ACCELERATION), param(EPOS2.OBJ_PROFILE_DECELERATION), dt);
+                        if (position == targetPosition && velocity == 0) {
+                            positionMove = false;
+                            targetReached = true;
+                        }
+                    }
+                    break;
+                case EPOS2.OPMODE_PROFILE_VELOCITY:
+                    ramp(toQcPerSecond(od.get(key(OBJ_TARGET_VELOCITY, 0)).value),
+                            param(EPOS2.OBJ_PROFILE_ACCELERATION), param(EPOS2.OBJ_PROFILE_DECELERATION), dt);
+                    targetReached = velocity == toQcPerSecond(od.get(key(OBJ_TARGET_VELOCITY, 0)).value);
+                    break;
+                case EPOS2.OPMODE_VELOCITY:
+                    ramp(toQcPerSecond(od.get(key(EPOS2.OBJ_VELOCITY_MODE_SETTING_VALUE, 0)).value),
+                            param(EPOS2.OBJ_PROFILE_ACCELERATION), param(EPOS2.OBJ_PROFILE_DECELERATION), dt);
+                    break;
+                case EPOS2.OPMODE_POSITION:
+                    double max = param(OBJ_MAX_PROFILE_VELOCITY);
+                    moveTo(od.get(key(OBJ_POSITION_MODE_SETTING_VALUE, 0)).value, toQcPerSecond(max),
+                            max * 100, max * 100, dt);
+                    break;
+                case EPOS2.OPMODE_HOMING:
+                    if (homingActive) {
+                        double acc = param(OBJ_HOMING_ACCELERATION);
+                        moveTo(0, toQcPerSecond(od.get(key(OBJ_HOMING_SPEEDS, 1)).value), acc, acc, dt);
+                        if (position == 0 && velocity == 0) {
+                            // Found the home switch, the position becomes the home position
+                            position = od.get(key(OBJ_HOME_POSITION, 0)).value;
+                            targetPosition = position;
+                            homingActive = false;
+                            homingAttained = true;
+                            targetReached = true;
+                        }
+                    }
+                    break;
+                case EPOS2.OPMODE_INTERPOLATED_PROFILE_POSITION:
+                    interpolate(dtNanos);
+                    break;
+                default:
+                    velocity = 0;
+                    break;
+            }
+        }
+        if (mode == OPMODE_CURRENT && state == EPOS2.ST_OPERATION_ENABLE) {
+            current = (short) od.get(key(OBJ_CURRENT_MODE_SETTING_VALUE, 0)).value;
+        } else {
+            current = (velocity - v0) / dt * CURRENT_PER_ACCELERATION + velocity * CURRENT_PER_VELOCITY;
+        }
+        averageVelocity += (velocity - averageVelocity) * AVERAGE_FILTER;
+    }
+
+    private void interpolate(long dtNanos) {
+        if (!ipActive) {
+            velocity = 0;
+            return;
+        }
+        long left = dtNanos;
+        while (left > 0) {
+            if (segElapsed >= segNanos) {
+                if (ipSize == 0) {
+                    ipStatus |= InterpolatedPositionStreamer.STATUS_UNDERFLOW_WARNING
+                            | InterpolatedPositionStreamer.STATUS_UNDERFLOW_ERROR;
+                    ipActive = false;
+                    targetReached = true;
+                    velocity = 0;
+                    return;
+                }
+                long p = ipBuffer[ipHead];
+                ipHead = (ipHead + 1) % IPM_BUFFER_SIZE;
+                ipSize--;
+                segStart = segEnd;
+                segEnd = (int) p;
+                segNanos = ((p >>> 56) & 0xFF) * 1000000L;
+                segElapsed = 0;
+                if (segNanos == 0) {
+                    // A zero time point ends the trajectory
+                    position = segEnd;
+                    ipActive = false;
+                    targetReached = true;
+                    velocity = 0;
+                    return;
+                }
+            }
+            long step = Math.min(left, segNanos - segElapsed);
+            segElapsed += step;
+            left -= step;
+        }
+        double prev = position;
+        position = segStart + (segEnd - segStart) * segElapsed / segNanos;
+        velocity = (position - prev) * 1e9 / dtNanos;
+    }
+
+    /**
+     * Ramps the velocity towards {@code target}, in qc/s, with the given
+     * acceleration limits, in rpm/s, and integrates the position.
+     */
+    private void ramp(double target, double acc, double dec, double dt) {
+        double a = Math.abs(target) > Math.abs(velocity) && target * velocity >= 0 ? acc : dec;
+        double step = toQcPerSecond(a) * dt;
+        if (Math.abs(target - velocity) <= step) {
+            velocity = target;
+        } else {
+            velocity += target > velocity ? step : -step;
+        }
+        position += velocity * dt;
+    }
+
+    /**
+     * Moves towards an absolute position with a trapezoidal profile. The
+     * velocity limit is in qc/s, the acceleration limits in rpm/s.
+     */
+    private void moveTo(double target, double maxVelocity, double acc, double dec, double dt) {
+        double dist = target - position;
+        double decel = toQcPerSecond(dec);
+        double vmax = Math.min(maxVelocity, Math.sqrt(2 * decel * Math.abs(dist)));
+        ramp(Math.signum(dist) * vmax, acc, dec, dt);
+        double after = target - position;
+        if (after == 0 || Math.signum(after) != Math.signum(dist) || Math.abs(after) < 0.5
+                && Math.abs(velocity) <= toQcPerSecond(dec) * dt) {
+            position = target;
+            velocity = 0;
+        }
+    }
+
+    private void stopMotion() {
+        velocity = 0;
+        positionMove = false;
+        homingActive = false;
+        ipActive = false;
+        targetPosition = position;
+        targetReached = true;
+    }
+
+    private void applyRPDO(int pdo, byte[] data) {
+        int count = od.get(key(EPOS2.OBJ_RPDO_MAPPING + pdo, 0)).value;
+        int off = 0;
+        for (int i = 1; i <= count; i++) {
+            int m = od.get(key(EPOS2.OBJ_RPDO_MAPPING + pdo, i)).value;
+            int index = m >>> 16;
+            int sub = (m >> 8) & 0xFF;
+            int bytes = (m & 0xFF) / 8;
+            if (off + bytes > data.length) {
+                return;
+            }
+            if (index == EPOS2.OBJ_INTERPOLATION_DATA_RECORD && bytes == 8) {
+                long p = 0;
+                for (int b = 7; b >= 0; b--) {
+                    p = (p << 8) | (data[off + b] & 0xFF);
+                }
+                pushPoint(p);
+            } else {
+                Entry e = od.get(key(index, sub));
+                if (e != null) {
+                    int value = 0;
+                    for (int b = bytes - 1; b >= 0; b--) {
+                        value = (value << 8) | (data[off + b] & 0xFF);
+                    }
+                    write(index, sub, e, e.extend(value));
+                }
+            }
+            off += bytes;
+        }
+    }
+
+    private void pushPoint(long p) {
+        if (!ipEnabled) {
+            return;
+        }
+        if (ipSize == IPM_BUFFER_SIZE) {
+            ipStatus |= InterpolatedPositionStreamer.STATUS_OVERFLOW_WARNING
+                    | InterpolatedPositionStreamer.STATUS_OVERFLOW_ERROR;
+            return;
+        }
+        ipBuffer[(ipHead + ipSize) % IPM_BUFFER_SIZE] = p;
+        ipSize++;
+        ipStatus &= ~(InterpolatedPositionStreamer.STATUS_UNDERFLOW_WARNING
+                | InterpolatedPositionStreamer.STATUS_UNDERFLOW_ERROR);
+    }
+
+    private byte[] buildTPDO(int pdo) {
+        int count = od.get(key(EPOS2.OBJ_TPDO_MAPPING + pdo, 0)).value;
+        int len = 0;
+        for (int i = 1; i <= count; i++) {
+            len += (od.get(key(EPOS2.OBJ_TPDO_MAPPING + pdo, i)).value & 0xFF) / 8;
+        }
+        byte[] data = new byte[Math.min(len, 8)];
+        int off = 0;
+        for (int i = 1; i <= count; i++) {
+            int m = od.get(key(EPOS2.OBJ_TPDO_MAPPING + pdo, i)).value;
+            int bytes = (m & 0xFF) / 8;
+            Entry e = od.get(key(m >>> 16, (m >> 8) & 0xFF));
+            int value = e == null ? 0 : e.value;
+            for (int b = 0; b < bytes && off < data.length; b++) {
+                data[off++] = (byte) (b < 4 ? value >> (8 * b) : 0);
+            }
+        }
+        return data;
+    }
+
+    private void sendTPDO(int pdo, int cob, byte[] data, long now) {
+        lastTpdo[pdo] = data;
+        lastTpdoTime[pdo] = now;
+        send(cob & 0x7FF, data);
+    }
+
+    private void emcy(int errorCode, int errorRegister) {
+        byte[] d = new byte[8];
+        d[0] = (byte) errorCode;
+        d[1] = (byte) (errorCode >> 8);
+        d[2] = (byte) errorRegister;
+        send(EPOS2Transceiver.COB_EMCY + nodeID, d);
+    }
+
+    private void send(int id, byte[] data) {
+        bus.transmit(new SimFrame(id, data, this));
+    }
+
+    private void sendAt(long time, int id, byte[] data) {
+        if (time <= System.nanoTime()) {
+            send(id, data);
+            return;
+        }
+        final SimFrame f = new SimFrame(id, data, this);
+        bus.schedule(time, new Runnable() {
+            @Override
+            public void run() {
+                bus.transmit(f);
+            }
+        });
+    }
+
+    /**
+     * Copies the simulated process values into their object dictionary
+     * entries.
+     */
+    private void publish() {
+        od.get(key(EPOS2.OBJ_STATUSWORD, 0)).value = statusWord();
+        od.get(key(EPOS2.OBJ_POSITION_ACTUAL_VALUE, 0)).value = (int) Math.round(position);
+        od.get(key(EPOS2.OBJ_VELOCITY_ACTUAL_VALUE, 0)).value = toRpm(velocity);
+        od.get(key(EPOS2.OBJ_VELOCITY_SENSOR_ACTUAL_VALUE, 0)).value = toRpm(velocity);
+        od.get(key(EPOS2.OBJ_VELOCITY_DEMAND_VALUE, 0)).value = toRpm(velocity);
+        od.get(key(EPOS2.OBJ_VELOCITY_ACTUAL_AVG_VALUE, 0)).value = toRpm(averageVelocity);
+        od.get(key(EPOS2.OBJ_CURRENT_ACTUAL_VALUE, 0)).value = (short) Math.round(current);
+        od.get(key(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_ACTUAL_BUFFER_SIZE_SUBIDX)).value = ipSize;
+        od.get(key(EPOS2.OBJ_INTERPOLATION_BUFFER, EPOS2.OBJ_IPM_BUFFER_STATUS_SUBIDX)).value = ipStatus
+                | (ipEnabled ? InterpolatedPositionStreamer.STATUS_BUFFER_ENABLED : 0)
+                | (ipActive ? InterpolatedPositionStreamer.STATUS_IP_MODE_ACTIVE : 0);
+    }
+
+    private int statusWord() {
+        int sw;
+        switch (state) {
+            case EPOS2.ST_START:
+                return EPOS2.START;
+            case EPOS2.ST_NOT_READY_TO_SWITCH_ON:
+                sw = EPOS2.NOT_READY;
+                break;
+            case EPOS2.ST_SWITCH_ON_DISABLED:
+                sw = EPOS2.SWITCH_ON_DISABLED;
+                break;
+            case EPOS2.ST_READY_TO_SWITCH_ON:
+                sw = EPOS2.READY_TO_SWITCH_ON;
+                break;
+            case EPOS2.ST_SWITCH_ON:
+                sw = EPOS2.SWITCHED_ON;
+                break;
+            case EPOS2.ST_OPERATION_ENABLE:
+                sw = EPOS2.OPERATION_ENABLE;
+                break;
+            case EPOS2.ST_QUICK_STOP:
+                sw = EPOS2.QUICKSTOP_ACTIVE;
+                break;
+            case EPOS2.ST_QUICK_STOP_ACTIVE_ENABLE:
+                sw = EPOS2.FAULT_REACTION_ACTIVE_ENABLED;
+                break;
+            case EPOS2.ST_QUICK_STOP_ACTIVE_DISABLE:
+                sw = EPOS2.FAULT_REACTION_ACTIVE_DISABLED;
+                break;
+            default:
+                sw = EPOS2.FAULT | StatusWord.BIT_FAULT;
+                break;
+        }
+        sw |= StatusWord.BIT_REMOTE;
+        if (targetReached) {
+            sw |= StatusWord.BIT_TARGET_REACHED;
+        }
+        if (state == EPOS2.ST_OPERATION_ENABLE) {
+            switch ((byte) od.get(key(EPOS2.OBJ_OPERATION_MODES, 0)).value) {
+                case EPOS2.OPMODE_PROFILE_POSITION:
+                    sw |= setpointAck ? StatusWord.BIT_OPMODE_SPECIFIC_12 : 0;
+                    break;
+                case EPOS2.OPMODE_HOMING:
+                    sw |= homingAttained ? StatusWord.BIT_OPMODE_SPECIFIC_12 : 0;
+                    break;
+                case EPOS2.OPMODE_INTERPOLATED_PROFILE_POSITION:
+                    sw |= ipActive ? StatusWord.BIT_OPMODE_SPECIFIC_12 : 0;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (homingAttained) {
+            sw |= StatusWord.BIT_POSITION_REFERENCED;
+        }
+        return sw;
+    }
+
+    private double param(short index) {
+        return od.get(key(index, 0)).value & 0xFFFFFFFFL;
+    }
+
+    private int qcPerRevolution() {
+        return 4 * od.get(key(OBJ_ENCODER_PULSE_NUMBER, 1)).value;
+    }
+
+    private double toQcPerSecond(double rpm) {
+        return rpm * qcPerRevolution() / 60.0;
+    }
+
+    private int toRpm(double qcPerSecond) {
+        return (int) Math.round(qcPerSecond * 60.0 / qcPerRevolution());
+    }
+
+    /**
+     * Loads the power-on object dictionary. A communication reset only
+     * restores the communication profile area (0x1000-0x1FFF).
+     */
+    private void loadDefaults(boolean all) {
+        if (all) {
+            od.clear();
+            state = EPOS2.ST_START;
+            controlword = 0;
+            position = velocity = averageVelocity = current = 0;
+            targetPosition = 0;
+            targetReached = true;
+            positionMove = homingActive = homingAttained = ipActive = ipEnabled = false;
+            ipHead = ipSize = ipStatus = 0;
+        }
+        def(0x1000, 0, 4, RO, 0x00020192);
+        def(OBJ_ERROR_REGISTER, 0, 1, RO, 0);
+        def(OBJ_ERROR_HISTORY, 0, 1, RW, 0);
+        for (int i = 1; i <= ERROR_HISTORY_SIZE; i++) {
+            def(OBJ_ERROR_HISTORY, i, 4, RO, 0);
+        }
+        def(OBJ_HEARTBEAT_PRODUCER, 0, 2, RW, 0);
+        def(0x1018, 0, 1, RO, 4);
+        def(0x1018, 1, 4, RO, 0x000000FB);
+        def(0x1018, 2, 4, RO, 0x20030000);
+        def(0x1018, 3, 4, RO, 0x21210000);
+        def(0x1018, 4, 4, RO, nodeID);
+        for (int i = 0; i < PDO_COUNT; i++) {
+            boolean first = i == 0;
+            def(EPOS2.OBJ_RPDO_PARAMS + i, 0, 1, RO, 2);
+            def(EPOS2.OBJ_RPDO_PARAMS + i, 1, 4, RW,
+                    (EPOS2Transceiver.COB_RPDO1 + (i << 8) + nodeID) | (first ? 0 : 0x80000000));
+            def(EPOS2.OBJ_RPDO_PARAMS + i, 2, 1, RW, EPOS2.PDO_TRANSMISSION_ASYNC);
+            def(EPOS2.OBJ_RPDO_MAPPING + i, 0, 1, RW, first ? 1 : 0);
+            def(EPOS2.OBJ_TPDO_PARAMS + i, 0, 1, RO, 5);
+            def(EPOS2.OBJ_TPDO_PARAMS + i, 1, 4, RW,
+                    (EPOS2Transceiver.COB_TPDO1 + (i << 8) + nodeID) | (first ? 0 : 0x80000000));
+            def(EPOS2.OBJ_TPDO_PARAMS + i, 2, 1, RW, EPOS2.PDO_TRANSMISSION_ASYNC);
+            def(EPOS2.OBJ_TPDO_PARAMS + i, 3, 2, RW, 0);
+            def(EPOS2.OBJ_TPDO_PARAMS + i, 5, 2, RW, 0);
+            def(EPOS2.OBJ_TPDO_MAPPING + i, 0, 1, RW, first ? 1 : 0);
+            for (int j = 1; j <= 8; j++) {
+                def(EPOS2.OBJ_RPDO_MAPPING + i, j, 4, RW, 0);
+                def(EPOS2.OBJ_TPDO_MAPPING + i, j, 4, RW, 0);
+            }
+        }
+        od.get(key(EPOS2.OBJ_RPDO_MAPPING, 1)).value = EPOS2.pdoMapping(EPOS2.OBJ_CONTROLWORD, 16);
+        od.get(key(EPOS2.OBJ_TPDO_MAPPING, 1)).value = EPOS2.pdoMapping(EPOS2.OBJ_STATUSWORD, 16);
+        if (!all) {
+            return;
+        }
+        def(EPOS2.OBJ_VELOCITY_ACTUAL_AVG_VALUE, 0, 4, RO, 0);
+        def(OBJ_CURRENT_MODE_SETTING_VALUE, 0, 2, RW | SIGNED, 0);
+        def(OBJ_POSITION_MODE_SETTING_VALUE, 0, 4, RW, 0);
+        def(EPOS2.OBJ_VELOCITY_MODE_SETTING_VALUE, 0, 4, RW, 0);
+        def(OBJ_HOME_POSITION, 0, 4, RW, 0);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_RECORD, 0, 8, WO, 0);
+        def(EPOS2.OBJ_INTERPOLATION_BUFFER, 0, 1, RO, 3);
+        def(EPOS2.OBJ_INTERPOLATION_BUFFER, 1, 2, RW, 0);
+        def(EPOS2.OBJ_INTERPOLATION_BUFFER, 2, 2, RW, IPM_BUFFER_SIZE);
+        def(EPOS2.OBJ_INTERPOLATION_BUFFER, EPOS2.OBJ_IPM_BUFFER_STATUS_SUBIDX, 2, RO, 0);
+        def(OBJ_ENCODER_PULSE_NUMBER, 0, 1, RO, 4);
+        def(OBJ_ENCODER_PULSE_NUMBER, 1, 2, RW, 500);
+        def(EPOS2.OBJ_CONTROLWORD, 0, 2, RW, 0);
+        def(EPOS2.OBJ_STATUSWORD, 0, 2, RO, 0);
+        def(EPOS2.OBJ_OPERATION_MODES, 0, 1, RW | SIGNED, EPOS2.OPMODE_PROFILE_POSITION);
+        def(EPOS2.OBJ_OPERATION_DISPLAY_MODES, 0, 1, RO | SIGNED, EPOS2.OPMODE_PROFILE_POSITION);
+        def(EPOS2.OBJ_POSITION_ACTUAL_VALUE, 0, 4, RO, 0);
+        def(EPOS2.OBJ_VELOCITY_SENSOR_ACTUAL_VALUE, 0, 4, RO, 0);
+        def(EPOS2.OBJ_VELOCITY_DEMAND_VALUE, 0, 4, RO, 0);
+        def(EPOS2.OBJ_VELOCITY_ACTUAL_VALUE, 0, 4, RO, 0);
+        def(EPOS2.OBJ_CURRENT_ACTUAL_VALUE, 0, 2, RO | SIGNED, 0);
+        def(EPOS2.OBJ_TARGET_PROFILE_POSITION, 0, 4, RW, 0);
+        def(OBJ_HOME_OFFSET, 0, 4, RW, 0);
+        def(OBJ_MAX_PROFILE_VELOCITY, 0, 4, RW, 25000);
+        def(EPOS2.OBJ_PROFILE_VELOCITY, 0, 4, RW, 1000);
+        def(EPOS2.OBJ_PROFILE_ACCELERATION, 0, 4, RW, 10000);
+        def(EPOS2.OBJ_PROFILE_DECELERATION, 0, 4, RW, 10000);
+        def(OBJ_QUICKSTOP_DECELERATION, 0, 4, RW, 10000);
+        def(EPOS2.OBJ_MOTION_PROFILE_TYPE, 0, 2, RW | SIGNED, 0);
+        def(OBJ_HOMING_METHOD, 0, 1, RW | SIGNED, 7);
+        def(OBJ_HOMING_SPEEDS, 0, 1, RO, 2);
+        def(OBJ_HOMING_SPEEDS, 1, 4, RW, 100);
+        def(OBJ_HOMING_SPEEDS, 2, 4, RW, 10);
+        def(OBJ_HOMING_ACCELERATION, 0, 4, RW, 1000);
+        def(EPOS2.OBJ_INTERPOLATION_SUB_MODE, 0, 2, RW | SIGNED, 0);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, 0, 1, RO, 6);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_MAX_BUFFER_SIZE_SUBIDX, 4, RO, IPM_BUFFER_SIZE);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_ACTUAL_BUFFER_SIZE_SUBIDX, 4, RW, 0);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, 3, 1, RO, 0);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, 4, 2, RO, 0);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, 5, 1, RO, 8);
+        def(EPOS2.OBJ_INTERPOLATION_DATA_CONFIG, EPOS2.OBJ_IPM_BUFFER_CLEAR_SUBIDX, 1, WO, 0);
+        def(EPOS2.OBJ_CURRENT_CONTROL_PARAMS, 0, 1, RO, 2);
+        def(EPOS2.OBJ_CURRENT_CONTROL_PARAMS, EPOS2.OBJ_CURRENT_PGAIN_SUBIDX, 2, RW, 1000);
+        def(EPOS2.OBJ_CURRENT_CONTROL_PARAMS, EPOS2.OBJ_CURRENT_IGAIN_SUBIDX, 2, RW, 300);
+        def(OBJ_TARGET_VELOCITY, 0, 4, RW, 0);
+    }
+
+    private void def(int index, int sub, int size, int access, int value) {
+        od.put(key(index, sub), new Entry(size, access, value));
+    }
+
+    private static int key(int index, int sub) {
+        return ((index & 0xFFFF) << 8) | (sub & 0xFF);
+    }
+
+    private static boolean equal(byte[] a, byte[] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+
+        final int size;
+        final int access;
+        int value;
+
+        Entry(int size, int access, int value) {
+            this.size = size;
+            this.access = access;
+            this.value = value;
+        }
+
+        /**
+         * Sign-extends a value received in fewer than four bytes if the
+         * object is signed.
+         */
+        int extend(int raw) {
+            if ((access & SIGNED) == 0) {
+                return raw;
+            }
+            switch (size) {
+                case 1:
+                    return (byte) raw;
+                case 2:
+                    return (short) raw;
+                default:
+                    return raw;
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.sim;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process CAN bus hosting any number of {@link SimulatedEPOS2} nodes and
+ * host {@link VirtualCanPort}s.
+ *
+ * The bus is driven by a single thread which executes timed events: the end
+ * of a frame transmission, the delivery of a frame to the receivers and the
+ * periodic ticks of the simulated nodes. Frames waiting for the bus are
+ * arbitrated by identifier, the lowest identifier wins, and occupy the bus
+ * for the time their bits take at the configured bitrate. A delivered frame
+ * reaches every participant except its sender after the configured latency.
+ * Frames can be dropped at random with a configurable probability to
+ * exercise timeout and retry paths.
+ *
+ * Timing is approximate. The bus thread parks until the next event is
+ * due and only spins for the last {@code SPIN_THRESHOLD_NANOS}, so each
+ * event may fire a few tens of microseconds late.
+ *
+ * <pre>
+ * VirtualCanBus bus = new VirtualCanBus(VirtualCanBus.DEFAULT_BITRATE);
+ * bus.addNode((short) 1);
+ * VirtualCanPort port = bus.openPort();
+ * trans.setReader(port);
+ * trans.setWriter(port);
+ * bus.start();
+ * </pre>
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class VirtualCanBus implements Runnable {
+
+    public static final int DEFAULT_BITRATE = 1000000;
+    private static final long SPIN_THRESHOLD_NANOS = 50000L;
+    private static final VirtualCanPort[] NO_PORTS = new VirtualCanPort[0];
+    private static final SimulatedEPOS2[] NO_NODES = new SimulatedEPOS2[0];
+    private final long epoch = System.nanoTime();
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>(64, new Comparator<Event>() {
+        @Override
+        public int compare(Event a, Event b) {
+            if (a.time != b.time) {
+                return a.time < b.time ? -1 : 1;
+            }
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    });
+    private final PriorityQueue<SimFrame> pending = new PriorityQueue<SimFrame>(64, new Comparator<SimFrame>() {
+        @Override
+        public int compare(SimFrame a, SimFrame b) {
+            if (a.id != b.id) {
+                return a.id < b.id ? -1 : 1;
+            }
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    });
+    private volatile VirtualCanPort[] ports = NO_PORTS;
+    private volatile SimulatedEPOS2[] nodes = NO_NODES;
+    private int bitrate;
+    private long latencyNanos;
+    private double lossProbability;
+    private Random random = new Random();
+    private boolean transmitting;
+    private long seq;
+    private long transmitted;
+    private long lost;
+    private long busyNanos;
+    private volatile boolean running;
+    private Thread thread;
+
+    public VirtualCanBus() {
+        this(DEFAULT_BITRATE);
+    }
+
+    /**
+     * @param bitrate the bus bitrate in bit/s, or 0 for frames that occupy
+     * no bus time at all
+     */
+    public VirtualCanBus(int bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    public synchronized void setBitrate(int bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    public synchronized int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * Sets the delay between the end of a frame on the bus and its
+     * reception, standing in for controller, driver and USB latencies.
+     *
+     * @param latencyNanos the delivery latency in nanoseconds
+     */
+    public synchronized void setLatency(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    public synchronized long getLatency() {
+        return latencyNanos;
+    }
+
+    /**
+     * Sets the probability with which a frame is lost after it has occupied
+     * the bus. Lost frames are not received by any participant.
+     *
+     * @param p the loss probability between 0 and 1
+     */
+    public synchronized void setLossProbability(double p) {
+        this.lossProbability = p;
+    }
+
+    public synchronized double getLossProbability() {
+        return lossProbability;
+    }
+
+    /**
+     * Seeds the random generator used for frame loss, making lossy runs
+     * reproducible.
+     */
+    public synchronized void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates a simulated drive with the given node ID and attaches it to
+     * the bus.
+     *
+     * @param nodeID the CANopen node ID
+     * @return the new node
+     */
+    public SimulatedEPOS2 addNode(short nodeID) {
+        SimulatedEPOS2 node = new SimulatedEPOS2(nodeID);
+        addNode(node);
+        return node;
+    }
+
+    public void addNode(SimulatedEPOS2 node) {
+        synchronized (this) {
+            SimulatedEPOS2[] arr = nodes;
+            SimulatedEPOS2[] n = new SimulatedEPOS2[arr.length + 1];
+            System.arraycopy(arr, 0, n, 0, arr.length);
+            n[arr.length] = node;
+            nodes = n;
+        }
+        node.attach(this);
+        if (running) {
+            node.powerOn();
+        }
+    }
+
+    public SimulatedEPOS2[] getNodes() {
+        return nodes.clone();
+    }
+
+    /**
+     * @param nodeID the node ID to look up
+     * @return the attached node with that ID, or null
+     */
+    public SimulatedEPOS2 getNode(int nodeID) {
+        SimulatedEPOS2[] arr = nodes;
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i].getNodeID() == nodeID) {
+                return arr[i];
+            }
+        }
+        return null;
+    }
+
+    public VirtualCanPort openPort() {
+        return openPort(VirtualCanPort.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Opens a new host port on the bus.
+     *
+     * @param capacity the number of received frames the port buffers
+     * before it starts dropping them
+     * @return the new port
+     */
+    public synchronized VirtualCanPort openPort(int capacity) {
+        VirtualCanPort port = new VirtualCanPort(this, capacity);
+        VirtualCanPort[] arr = ports;
+        VirtualCanPort[] n = new VirtualCanPort[arr.length + 1];
+        System.arraycopy(arr, 0, n, 0, arr.length);
+        n[arr.length] = port;
+        ports = n;
+        return port;
+    }
+
+    synchronized void closePort(VirtualCanPort port) {
+        VirtualCanPort[] arr = ports;
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] == port) {
+                VirtualCanPort[] n = new VirtualCanPort[arr.length - 1];
+                System.arraycopy(arr, 0, n, 0, i);
+                System.arraycopy(arr, i + 1, n, i, arr.length - i - 1);
+                ports = n;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the bus thread and powers on all attached nodes.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "Virtual CAN bus");
+        thread.setDaemon(true);
+        thread.start();
+        SimulatedEPOS2[] arr = nodes;
+        for (int i = 0; i < arr.length; i++) {
+            arr[i].powerOn();
+        }
+    }
+
+    /**
+     * Stops the bus thread. Pending frames and events are discarded.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+            events.clear();
+            pending.clear();
+            transmitting = false;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Event e;
+            long delay;
+            synchronized (this) {
+                e = events.peek();
+                delay = e == null ? Long.MAX_VALUE : e.time - System.nanoTime();
+                if (delay <= 0) {
+                    events.poll();
+                }
+            }
+            if (delay > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(this, delay == Long.MAX_VALUE ? 100000000L : delay - SPIN_THRESHOLD_NANOS);
+            } else if (delay > 0) {
+                Thread.yield();
+            } else {
+                e.task.run();
+            }
+        }
+    }
+
+    /**
+     * Queues a frame for arbitration.
+     *
+     * @return false if the bus is not running
+     */
+    synchronized boolean transmit(SimFrame f) {
+        if (!running) {
+            return false;
+        }
+        f.seq = seq++;
+        pending.add(f);
+        if (!transmitting) {
+            startNext(System.nanoTime());
+        }
+        return true;
+    }
+
+    /**
+     * Runs {@code task} on the bus thread at the given {@link System#nanoTime()}.
+     */
+    synchronized void schedule(long time, Runnable task) {
+        if (!running) {
+            return;
+        }
+        Event e = new Event(time, seq++, task);
+        events.add(e);
+        if (events.peek() == e && thread != null && Thread.currentThread() != thread) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void startNext(long now) {
+        final SimFrame f = pending.poll();
+        if (f == null) {
+            transmitting = false;
+            return;
+        }
+        transmitting = true;
+        long duration = bitrate <= 0 ? 0 : SimFrame.bits(f.data.length) * 1000000000L / bitrate;
+        busyNanos += duration;
+        schedule(now + duration, new Runnable() {
+            @Override
+            public void run() {
+                endOfFrame(f);
+            }
+        });
+    }
+
+    private void endOfFrame(final SimFrame f) {
+        long now = System.nanoTime();
+        boolean drop;
+        long latency;
+        synchronized (this) {
+            drop = lossProbability > 0 && random.nextDouble() < lossProbability;
+            if (drop) {
+                lost++;
+            } else {
+                transmitted++;
+            }
+            latency = latencyNanos;
+            startNext(now);
+        }
+        if (drop) {
+            return;
+        }
+        if (latency > 0) {
+            schedule(now + latency, new Runnable() {
+                @Override
+                public void run() {
+                    deliver(f, System.nanoTime());
+                }
+            });
+        } else {
+            deliver(f, now);
+        }
+    }
+
+    private void deliver(SimFrame f, long now) {
+        f.time = now;
+        VirtualCanPort[] p = ports;
+        for (int i = 0; i < p.length; i++) {
+            if (p[i] != f.source) {
+                p[i].deliver(f);
+            }
+        }
+        SimulatedEPOS2[] n = nodes;
+        for (int i = 0; i < n.length; i++) {
+            if (n[i] != f.source) {
+                n[i].receive(f, now);
+            }
+        }
+    }
+
+    double toSeconds(long nanoTime) {
+        return (nanoTime - epoch) / 1e9;
+    }
+
+    /**
+     * @return the number of frames that went over the bus and were
+     * delivered
+     */
+    public synchronized long getFramesTransmitted() {
+        return transmitted;
+    }
+
+    /**
+     * @return the number of frames dropped by the configured loss
+     * probability
+     */
+    public synchronized long getFramesLost() {
+        return lost;
+    }
+
+    /**
+     * @return the accumulated time the bus was occupied by frames, in
+     * nanoseconds
+     */
+    public synchronized long getBusyTime() {
+        return busyNanos;
+    }
+
+    public synchronized void resetStatistics() {
+        transmitted = 0;
+        lost = 0;
+        busyNanos = 0;
+    }
+
+    private static final class Event {
+
+        final long time;
+        final long seq;
+        final Runnable task;
+
+        Event(long time, long seq, Runnable task) {
+            this.time = time;
+            this.seq = seq;
+            this.task = task;
+        }
+    }
+}
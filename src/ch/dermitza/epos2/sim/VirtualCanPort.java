@@ -0,0 +1,121 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.sim;
+
+import ch.dermitza.jcanopen.can.CanMessage;
+import ch.dermitza.jcanopen.can.CanReaderIF;
+import ch.dermitza.jcanopen.can.CanWriterIF;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host side connection to a {@link VirtualCanBus}, standing in for the
+ * reader and writer of a real CAN device. A port can be passed to the
+ * {@code setReader()} and {@code setWriter()} methods of any transceiver.
+ *
+ * Frames written through the port are arbitrated on the bus like frames of
+ * any other participant, and every frame on the bus except the port's own
+ * is queued for reading. Like the IXXAT reader, {@link #readMessage} blocks
+ * while no frame is available, but only for {@link #READ_TIMEOUT_NANOS} so
+ * that receiver loops stay responsive to shutdown.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class VirtualCanPort implements CanReaderIF, CanWriterIF {
+
+    public static final long READ_TIMEOUT_NANOS = 1000000L;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private final VirtualCanBus bus;
+    private final LinkedBlockingQueue<SimFrame> rx;
+    private volatile boolean open = true;
+    private volatile long overruns;
+
+    VirtualCanPort(VirtualCanBus bus, int capacity) {
+        this.bus = bus;
+        this.rx = new LinkedBlockingQueue<SimFrame>(capacity);
+    }
+
+    @Override
+    public boolean readMessage(CanMessage msg) {
+        SimFrame f;
+        try {
+            f = rx.poll(READ_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (f == null) {
+            return false;
+        }
+        msg.setMessage(f.id, f.data, bus.toSeconds(f.time), false, false, false, false);
+        return true;
+    }
+
+    @Override
+    public boolean writeMessage(CanMessage msg, int timeout) {
+        return writeMessageImmediate(msg);
+    }
+
+    @Override
+    public boolean writeMessageImmediate(CanMessage msg) {
+        if (!open) {
+            return false;
+        }
+        byte[] d = msg.getData();
+        byte[] copy = new byte[Math.min(d.length, 8)];
+        System.arraycopy(d, 0, copy, 0, copy.length);
+        return bus.transmit(new SimFrame(msg.getID(), copy, this));
+    }
+
+    void deliver(SimFrame f) {
+        if (open && !rx.offer(f)) {
+            overruns++;
+        }
+    }
+
+    /**
+     * @return the number of frames dropped because the receive queue was
+     * full
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return the number of received frames waiting to be read
+     */
+    public int available() {
+        return rx.size();
+    }
+
+    /**
+     * Disconnects the port from the bus. Further writes fail and no further
+     * frames are queued.
+     */
+    public void close() {
+        open = false;
+        bus.closePort(this);
+        rx.clear();
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.telemetry;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a telemetry file written by a {@link TelemetryRecorder}.
+ *
+ * The file is a fixed size ring of records behind a small header, all
+ * little-endian:
+ * <pre>
+ *  0  magic "JEPOSTLM"
+ *  8  int version
+ * 12  int record size (24)
+ * 16  long capacity in records
+ * 24  long records written since the file was created
+ * 32  long System.nanoTime() when the file was created
+ * 40  long System.currentTimeMillis() when the file was created
+ * 64  records
+ * </pre>
+ * A record holds the sample timestamp, then node, statusword and position,
+ * then velocity and demand velocity, see {@link TelemetrySample}. Record
+ * {@code n} is stored in slot {@code n % capacity}, so the file holds the
+ * most recent {@code capacity} records.
+ *
+ * The file is mapped read-only. It should be opened after the recorder has
+ * been closed; records read while it is still writing may already have
+ * been overwritten.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class TelemetryFile {
+
+    public static final long MAGIC = 0x4D4C54534F50454AL;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 24;
+    static final int OFF_VERSION = 8;
+    static final int OFF_RECORD_SIZE = 12;
+    static final int OFF_CAPACITY = 16;
+    static final int OFF_WRITTEN = 24;
+    static final int OFF_START_NANOS = 32;
+    static final int OFF_START_MILLIS = 40;
+    private final MappedByteBuffer map;
+    private final long capacity;
+    private final long written;
+    private final long startNanos;
+    private final long startMillis;
+
+    /**
+     * Maps the given file.
+     *
+     * @param path the file to read
+     * @throws IOException if the file cannot be read or is not a telemetry
+     * file
+     */
+    public TelemetryFile(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            ch.close();
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.capacity() < HEADER_SIZE || map.getLong(0) != MAGIC) {
+            throw new IOException(path + " is not a telemetry file");
+        }
+        if (map.getInt(OFF_VERSION) != VERSION || map.getInt(OFF_RECORD_SIZE) != RECORD_SIZE) {
+            throw new IOException(path + " has unsupported version " + map.getInt(OFF_VERSION));
+        }
+        capacity = map.getLong(OFF_CAPACITY);
+        written = map.getLong(OFF_WRITTEN);
+        startNanos = map.getLong(OFF_START_NANOS);
+        startMillis = map.getLong(OFF_START_MILLIS);
+        if (map.capacity() < HEADER_SIZE + capacity * RECORD_SIZE) {
+            throw new IOException(path + " is truncated");
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of records written over the life of the file,
+     * including those that have since been overwritten
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the number of records available for reading
+     */
+    public long size() {
+        return Math.min(written, capacity);
+    }
+
+    /**
+     * Converts a sample timestamp to wall clock time, using the reference
+     * pair stored when the file was created.
+     *
+     * @param nanoTime a {@link TelemetrySample#getNanoTime()} value
+     * @return the corresponding {@link System#currentTimeMillis()}
+     */
+    public long toEpochMillis(long nanoTime) {
+        return startMillis + (nanoTime - startNanos) / 1000000L;
+    }
+
+    /**
+     * Reads one record.
+     *
+     * @param i the record, 0 being the oldest available one
+     * @param sample the sample to fill in
+     * @return the given sample
+     */
+    public TelemetrySample read(long i, TelemetrySample sample) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Record " + i + " of " + size());
+        }
+        long seq = written - size() + i;
+        int off = (int) (HEADER_SIZE + (seq % capacity) * RECORD_SIZE);
+        sample.decode(seq, map.getLong(off), map.getLong(off + 8), map.getLong(off + 16));
+        return sample;
+    }
+
+    /**
+     * Replays all records of one node, or of all nodes, oldest first.
+     *
+     * @param nodeID the node to replay, or 0 for all nodes
+     * @param speed 1 to reproduce the original timing, 2 for twice as fast
+     * and so on, or 0 to replay as fast as possible
+     * @param l the listener receiving the records on the calling thread
+     * @return the number of records replayed
+     */
+    public long replay(int nodeID, double speed, TelemetryListener l) {
+        TelemetrySample s = new TelemetrySample();
+        long n = size();
+        long count = 0;
+        long first = 0;
+        long begin = System.nanoTime();
+        for (long i = 0; i < n; i++) {
+            read(i, s);
+            if (nodeID != 0 && s.getNodeID() != nodeID) {
+                continue;
+            }
+            if (speed > 0) {
+                if (count == 0) {
+                    first = s.getNanoTime();
+                }
+                long due = begin + (long) ((s.getNanoTime() - first) / speed);
+                long left;
+                while ((left = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(left);
+                }
+            }
+            l.sample(s);
+            count++;
+        }
+        return count;
+    }
+}
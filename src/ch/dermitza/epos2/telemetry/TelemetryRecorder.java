@@ -0,0 +1,270 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.telemetry;
+
+import ch.dermitza.epos2.EPOS2;
+import ch.dermitza.epos2.ProcessDataCache;
+import ch.dermitza.epos2.io.CanFrameListener;
+import ch.dermitza.epos2.io.EPOS2Transceiver;
+import ch.dermitza.epos2.util.LongRingBuffer;
+import ch.dermitza.jcanopen.can.CanMessage;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records statusword, position, velocity and demand velocity of a set of
+ * axes into a memory-mapped {@link TelemetryFile}.
+ *
+ * Samples are taken from the process data stream: every TPDO1 (statusword
+ * and position) received for an attached axis produces one sample, which
+ * is completed with the latest velocity and demand velocity from its
+ * {@link ProcessDataCache}. The axes must therefore have process data
+ * enabled, and the sample rate follows the TPDO transmission type.
+ *
+ * Sampling happens on the receiver thread and only packs the values into a
+ * lock-free ring, it neither allocates nor blocks. A background thread
+ * drains the ring into the mapped file every {@link #setFlushInterval(long)}.
+ * When the ring is full, samples are dropped and counted rather than
+ * stalling the receiver.
+ *
+ * The ring is single-producer. {@link #record(int, int, int, int, int)}
+ * must therefore only be used when no axis is attached, or from the
+ * receiver thread.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class TelemetryRecorder implements CanFrameListener, Runnable {
+
+    public static final int DEFAULT_RING_SAMPLES = 65536;
+    public static final long DEFAULT_FLUSH_NANOS = 1000000L;
+    private static final int WORDS = TelemetryFile.RECORD_SIZE / 8;
+    private final EPOS2[] axes = new EPOS2[EPOS2Transceiver.MAX_NODES];
+    private final EPOS2Transceiver trans;
+    private final LongRingBuffer ring;
+    private final long[] scratch = new long[WORDS];
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long capacity;
+    private volatile long flushNanos = DEFAULT_FLUSH_NANOS;
+    private volatile boolean running;
+    private volatile long samples;
+    private volatile long dropped;
+    private long written;
+    private Thread thread;
+
+    public TelemetryRecorder(EPOS2Transceiver trans, Path path, long fileSamples) throws IOException {
+        this(trans, path, fileSamples, DEFAULT_RING_SAMPLES);
+    }
+
+    /**
+     * Creates the telemetry file, replacing any existing one.
+     *
+     * @param trans the transceiver receiving the process data
+     * @param path the file to write
+     * @param fileSamples the number of samples the file holds before the
+     * oldest ones are overwritten
+     * @param ringSamples the number of samples the in-memory ring holds
+     * @throws IOException if the file cannot be created
+     */
+    public TelemetryRecorder(EPOS2Transceiver trans, Path path, long fileSamples, int ringSamples)
+            throws IOException {
+        if (fileSamples <= 0 || fileSamples > (Integer.MAX_VALUE - TelemetryFile.HEADER_SIZE)
+                / TelemetryFile.RECORD_SIZE) {
+            throw new IllegalArgumentException("Unsupported file size " + fileSamples);
+        }
+        this.trans = trans;
+        this.capacity = fileSamples;
+        this.ring = new LongRingBuffer(ringSamples * WORDS);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                TelemetryFile.HEADER_SIZE + fileSamples * TelemetryFile.RECORD_SIZE);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        map.putLong(0, TelemetryFile.MAGIC);
+        map.putInt(TelemetryFile.OFF_VERSION, TelemetryFile.VERSION);
+        map.putInt(TelemetryFile.OFF_RECORD_SIZE, TelemetryFile.RECORD_SIZE);
+        map.putLong(TelemetryFile.OFF_CAPACITY, fileSamples);
+        map.putLong(TelemetryFile.OFF_WRITTEN, 0);
+        map.putLong(TelemetryFile.OFF_START_NANOS, System.nanoTime());
+        map.putLong(TelemetryFile.OFF_START_MILLIS, System.currentTimeMillis());
+    }
+
+    /**
+     * Starts sampling the given axis on every TPDO1 it transmits.
+     *
+     * @param epos an axis connected through the transceiver of this recorder
+     * @throws IllegalStateException if process data is not enabled
+     */
+    public synchronized void attach(EPOS2 epos) {
+        if (epos.getProcessData() == null) {
+            throw new IllegalStateException("Node " + epos.getNodeID() + " has no process data enabled");
+        }
+        int nodeID = epos.getNodeID() & 0x7F;
+        if (axes[nodeID] == null) {
+            trans.addFrameListener(EPOS2Transceiver.COB_TPDO1 + nodeID, this);
+        }
+        axes[nodeID] = epos;
+    }
+
+    public synchronized void detach(EPOS2 epos) {
+        int nodeID = epos.getNodeID() & 0x7F;
+        if (axes[nodeID] != null) {
+            trans.removeFrameListener(EPOS2Transceiver.COB_TPDO1 + nodeID, this);
+            axes[nodeID] = null;
+        }
+    }
+
+    @Override
+    public void frameReceived(CanMessage msg, long nanoTime) {
+        byte[] d = msg.getData();
+        int nodeID = msg.getID() - EPOS2Transceiver.COB_TPDO1;
+        if (d.length < 6 || nodeID < 0 || nodeID >= EPOS2Transceiver.MAX_NODES) {
+            return;
+        }
+        EPOS2 epos = axes[nodeID];
+        ProcessDataCache cache = epos == null ? null : epos.getProcessData();
+        if (cache == null) {
+            return;
+        }
+        int sw = (d[0] & 0xFF) | ((d[1] & 0xFF) << 8);
+        int position = (d[2] & 0xFF) | ((d[3] & 0xFF) << 8) | ((d[4] & 0xFF) << 16) | ((d[5] & 0xFF) << 24);
+        record(nanoTime, nodeID, sw, position, cache.getVelocityActual(), cache.getVelocityDemand());
+    }
+
+    /**
+     * Records a sample taken by the caller, e.g. through SDO reads. See the
+     * class documentation for the threading restriction.
+     *
+     * @return false if the ring was full and the sample was dropped
+     */
+    public boolean record(int nodeID, int statusWord, int position, int velocity, int velocityDemand) {
+        return record(System.nanoTime(), nodeID, statusWord, position, velocity, velocityDemand);
+    }
+
+    private boolean record(long nanoTime, int nodeID, int statusWord, int position, int velocity,
+            int velocityDemand) {
+        TelemetrySample.encode(scratch, nanoTime, nodeID, statusWord, position, velocity, velocityDemand);
+        if (!ring.offerAll(scratch, 0, WORDS)) {
+            dropped++;
+            return false;
+        }
+        samples++;
+        return true;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "EPOS2 telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Detaches all axes, writes out the remaining samples and closes the
+     * file.
+     *
+     * @throws IOException if the file cannot be synced or closed
+     */
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            for (int i = 0; i < axes.length; i++) {
+                if (axes[i] != null) {
+                    detach(axes[i]);
+                }
+            }
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+        map.force();
+        channel.close();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            drain();
+            LockSupport.parkNanos(flushNanos);
+        }
+    }
+
+    private synchronized void drain() {
+        long n = written;
+        while (!ring.isEmpty()) {
+            int off = (int) (TelemetryFile.HEADER_SIZE + (n % capacity) * TelemetryFile.RECORD_SIZE);
+            for (int i = 0; i < WORDS; i++) {
+                map.putLong(off + (i << 3), ring.poll());
+            }
+            n++;
+        }
+        if (n != written) {
+            written = n;
+            map.putLong(TelemetryFile.OFF_WRITTEN, n);
+        }
+    }
+
+    /**
+     * Sets how often the background thread moves samples from the ring to
+     * the file. The ring must hold at least one interval worth of samples.
+     */
+    public void setFlushInterval(long nanos) {
+        this.flushNanos = nanos;
+    }
+
+    public long getFlushInterval() {
+        return flushNanos;
+    }
+
+    /**
+     * @return the number of samples accepted into the ring
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the number of samples dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+}
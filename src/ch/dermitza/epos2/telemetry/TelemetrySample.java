@@ -0,0 +1,99 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.telemetry;
+
+/**
+ * One telemetry record of one axis. Instances are reused by
+ * {@link TelemetryFile}, listeners must copy out what they need.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class TelemetrySample {
+
+    private long sequence;
+    private long nanoTime;
+    private short nodeID;
+    private int statusWord;
+    private int position;
+    private int velocity;
+    private int velocityDemand;
+
+    /**
+     * Packs a sample into the three longs stored per record.
+     */
+    static void encode(long[] dst, long nanoTime, int nodeID, int statusWord,
+            int position, int velocity, int velocityDemand) {
+        dst[0] = nanoTime;
+        dst[1] = ((long) (nodeID & 0xFF) << 56) | ((long) (statusWord & 0xFFFF) << 32)
+                | (position & 0xFFFFFFFFL);
+        dst[2] = ((long) velocity << 32) | (velocityDemand & 0xFFFFFFFFL);
+    }
+
+    void decode(long sequence, long w0, long w1, long w2) {
+        this.sequence = sequence;
+        this.nanoTime = w0;
+        this.nodeID = (short) ((w1 >>> 56) & 0xFF);
+        this.statusWord = (int) ((w1 >>> 32) & 0xFFFF);
+        this.position = (int) w1;
+        this.velocity = (int) (w2 >>> 32);
+        this.velocityDemand = (int) w2;
+    }
+
+    /**
+     * @return the position of the record in the recording, counted from
+     * the first record ever written
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the sample was taken
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    public short getNodeID() {
+        return nodeID;
+    }
+
+    public int getStatusWord() {
+        return statusWord;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getVelocity() {
+        return velocity;
+    }
+
+    public int getVelocityDemand() {
+        return velocityDemand;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d node=%d t=%d sw=0x%04X pos=%d vel=%d demand=%d",
+                sequence, nodeID, nanoTime, statusWord, position, velocity, velocityDemand);
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.util;
+
+import java.util.Arrays;
+
+/**
+ * Timing of a periodic task: how late each cycle started relative to its
+ * deadline, the spread of the actual period, and the number of deadlines
+ * that were skipped altogether. All times are in nanoseconds.
+ *
+ * Besides the summary values two histograms are kept. The jitter histogram
+ * counts the deviation of each period from the nominal one in power of two
+ * microsecond buckets: bucket 0 holds deviations below 1us, bucket
+ * {@code k} those from 2^(k-1) up to 2^k us. The missed histogram counts
+ * how often a given number of consecutive deadlines was skipped: bucket
+ * {@code k} holds runs of {@code k + 1} deadlines, the last bucket all
+ * longer runs.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class JitterStatistics {
+
+    public static final int JITTER_BUCKETS = 24;
+    public static final int MISSED_BUCKETS = 16;
+    private final long[] jitter = new long[JITTER_BUCKETS];
+    private final long[] missedRuns = new long[MISSED_BUCKETS];
+    private long cycles;
+    private long missed;
+    private long latenessTotal;
+    private long latenessMax;
+    private long intervals;
+    private long intervalMin;
+    private long intervalMax;
+    private double intervalTotal;
+    private double intervalSquares;
+
+    /**
+     * Records one executed cycle.
+     *
+     * @param lateness the delay between the deadline and the start of the
+     * cycle
+     * @param interval the time since the start of the previous cycle, or 0
+     * for the first cycle
+     * @param period the nominal period
+     */
+    public synchronized void record(long lateness, long interval, long period) {
+        cycles++;
+        latenessTotal += lateness;
+        if (lateness > latenessMax) {
+            latenessMax = lateness;
+        }
+        if (interval > 0) {
+            if (intervals == 0 || interval < intervalMin) {
+                intervalMin = interval;
+            }
+            if (interval > intervalMax) {
+                intervalMax = interval;
+            }
+            intervals++;
+            intervalTotal += interval;
+            intervalSquares += (double) interval * interval;
+            jitter[bucket(Math.abs(interval - period))]++;
+        }
+    }
+
+    /**
+     * Records deadlines that were skipped because the task fell behind.
+     */
+    public synchronized void recordMissed(long count) {
+        if (count > 0) {
+            missed += count;
+            missedRuns[(int) Math.min(count, MISSED_BUCKETS) - 1]++;
+        }
+    }
+
+    /**
+     * Maps a period deviation to its jitter histogram bucket.
+     */
+    public static int bucket(long deviation) {
+        long us = deviation / 1000;
+        int b = 64 - Long.numberOfLeadingZeros(us);
+        return Math.min(b, JITTER_BUCKETS - 1);
+    }
+
+    /**
+     * @param bucket a jitter histogram bucket
+     * @return the exclusive upper deviation bound of the bucket in
+     * nanoseconds
+     */
+    public static long bucketUpperNanos(int bucket) {
+        return (1L << bucket) * 1000;
+    }
+
+    /**
+     * @return a copy of the jitter histogram
+     */
+    public synchronized long[] getJitterHistogram() {
+        return jitter.clone();
+    }
+
+    /**
+     * @return a copy of the missed deadline histogram
+     */
+    public synchronized long[] getMissedHistogram() {
+        return missedRuns.clone();
+    }
+
+    /**
+     * Estimates a percentile of the period deviation from the jitter
+     * histogram.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile in
+     * nanoseconds, or 0 if no period has been recorded
+     */
+    public synchronized long getJitterPercentile(double percentile) {
+        long rank = (long) Math.ceil(intervals * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < JITTER_BUCKETS && intervals > 0; i++) {
+            seen += jitter[i];
+            if (seen >= rank && seen > 0) {
+                return bucketUpperNanos(i);
+            }
+        }
+        return 0;
+    }
+
+    public synchronized long getCycles() {
+        return cycles;
+    }
+
+    public synchronized long getMissed() {
+        return missed;
+    }
+
+    public synchronized long getMeanLateness() {
+        return cycles == 0 ? 0 : latenessTotal / cycles;
+    }
+
+    public synchronized long getMaxLateness() {
+        return latenessMax;
+    }
+
+    public synchronized long getMinInterval() {
+        return intervalMin;
+    }
+
+    public synchronized long getMaxInterval() {
+        return intervalMax;
+    }
+
+    public synchronized double getMeanInterval() {
+        return intervals == 0 ? 0 : intervalTotal / intervals;
+    }
+
+    /**
+     * @return the standard deviation of the period, the usual measure of
+     * jitter
+     */
+    public synchronized double getIntervalDeviation() {
+        if (intervals < 2) {
+            return 0;
+        }
+        double mean = intervalTotal / intervals;
+        return Math.sqrt(Math.max(0, intervalSquares / intervals - mean * mean));
+    }
+
+    public synchronized void reset() {
+        cycles = 0;
+        missed = 0;
+        latenessTotal = 0;
+        latenessMax = 0;
+        intervals = 0;
+        intervalMin = 0;
+        intervalMax = 0;
+        intervalTotal = 0;
+        intervalSquares = 0;
+        Arrays.fill(jitter, 0);
+        Arrays.fill(missedRuns, 0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("cycles=%d missed=%d period mean=%.1fus min=%dus max=%dus dev=%.1fus"
+                + " jitter p99<%dus lateness mean=%dus max=%dus",
+                cycles, missed, getMeanInterval() / 1000, intervalMin / 1000, intervalMax / 1000,
+                getIntervalDeviation() / 1000, getJitterPercentile(99) / 1000,
+                getMeanLateness() / 1000, latenessMax / 1000);
+    }
+}
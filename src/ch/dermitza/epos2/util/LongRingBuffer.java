@@ -0,0 +1,150 @@
+/**
+ * This file is part of JEPOS. Copyright (C) 2014 K. Dermitzakis
+ * <dermitza@gmail.com>
+ *
+ * JEPOS is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * JEPOS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with JEPOS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.dermitza.epos2.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free single-producer/single-consumer queue of primitive
+ * longs. Neither side allocates or blocks.
+ *
+ * Exactly one thread may call the {@code offer} methods and exactly one
+ * (possibly different) thread may call {@code poll()} and {@code peek()}.
+ *
+ * @author K. Dermitzakis
+ * @version 0.05
+ * @since   0.05
+ */
+public class LongRingBuffer {
+
+    private final long[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * @param capacity the capacity, rounded up to the next power of two
+     */
+    public LongRingBuffer(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        buffer = new long[cap];
+        mask = cap - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public boolean offer(long value) {
+        long t = tail.get();
+        if (t - cachedHead >= buffer.length) {
+            cachedHead = head.get();
+            if (t - cachedHead >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) t & mask] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Offers {@code len} values starting at {@code off}, publishing them in
+     * one step.
+     *
+     * @return the number of values actually queued
+     */
+    public int offer(long[] values, int off, int len) {
+        long t = tail.get();
+        long free = buffer.length - (t - cachedHead);
+        if (free < len) {
+            cachedHead = head.get();
+            free = buffer.length - (t - cachedHead);
+        }
+        int n = (int) Math.min(free, len);
+        for (int i = 0; i < n; i++) {
+            buffer[(int) (t + i) & mask] = values[off + i];
+        }
+        tail.lazySet(t + n);
+        return n;
+    }
+
+    /**
+     * Offers {@code len} values starting at {@code off} only if all of them
+     * fit, publishing them in one step. The consumer therefore never sees a
+     * partial group.
+     *
+     * @return false if the group did not fit and nothing was queued
+     */
+    public boolean offerAll(long[] values, int off, int len) {
+        long t = tail.get();
+        if (buffer.length - (t - cachedHead) < len) {
+            cachedHead = head.get();
+            if (buffer.length - (t - cachedHead) < len) {
+                return false;
+            }
+        }
+        for (int i = 0; i < len; i++) {
+            buffer[(int) (t + i) & mask] = values[off + i];
+        }
+        tail.lazySet(t + len);
+        return true;
+    }
+
+    /**
+     * @return true if a value is available to {@link #poll()}
+     */
+    public boolean isEmpty() {
+        long h = head.get();
+        if (h < cachedTail) {
+            return false;
+        }
+        cachedTail = tail.get();
+        return h >= cachedTail;
+    }
+
+    /**
+     * Removes and returns the oldest value. Callers must check
+     * {@link #isEmpty()} first.
+     *
+     * @return the oldest value
+     */
+    public long poll() {
+        long h = head.get();
+        long v = buffer[(int) h & mask];
+        head.lazySet(h + 1);
+        return v;
+    }
+
+    public long peek() {
+        return buffer[(int) head.get() & mask];
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Discards all queued values. Must only be called by the consumer.
+     */
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+}